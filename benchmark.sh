@@ -0,0 +1,6 @@
+#!/bin/bash
+# Times test/benchmark/loadstore.s under each execution engine, run from the command line
+for engine in "" pd bb jit; do
+    echo "${engine:-interpreted}:"
+    time java -jar rars.jar nc $engine test/benchmark/loadstore.s
+done
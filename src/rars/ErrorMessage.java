@@ -105,6 +105,26 @@ public class ErrorMessage {
         this.macroExpansionHistory = getExpansionHistory(sourceProgram);
     }
 
+    /**
+     * Constructor for ErrorMessage, to copy a message whose source program is not at hand.
+     *
+     * @param isWarning             set to WARNING if message is a warning not error, else set to ERROR.
+     * @param filename              Name of the source file in which this error appears.
+     * @param line                  Line number in the source file.
+     * @param position              Position within the line.
+     * @param message               String containing appropriate error message.
+     * @param macroExpansionHistory Line numbers of the macro expansion, see getMacroExpansionHistory.
+     **/
+    public ErrorMessage(boolean isWarning, String filename, int line, int position, String message,
+                        String macroExpansionHistory) {
+        this.isWarning = isWarning;
+        this.filename = filename;
+        this.line = line;
+        this.position = position;
+        this.message = message;
+        this.macroExpansionHistory = macroExpansionHistory;
+    }
+
     /**
      * Constructor for ErrorMessage, to be used for runtime exceptions.
      *
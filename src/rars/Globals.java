@@ -114,9 +114,25 @@ public class Globals {
      */
     public static final int maximumErrorMessages = getErrorLimit();
     /**
-     * Maximum number of back-step operations to buffer
+     * Maximum number of back-step operations to buffer before the oldest are thinned into checkpoints.
+     * A BackStepper reads it when it is created.
      */
-    public static final int maximumBacksteps = getBackstepLimit();
+    public static int maximumBacksteps = getBackstepLimit();
+    /**
+     * Number of times a basic block runs interpreted before it is compiled to JVM bytecode.  The API
+     * sets it from {@link rars.api.Options#jitThreshold} while it simulates.
+     */
+    public static int jitThreshold = getJitThreshold();
+    /**
+     * Number of passes through the simulation loop the simulator keeps the memory and registers lock
+     * for, unless another thread is waiting for it
+     */
+    public static final int lockQuantum = getLockQuantum();
+    /**
+     * Whether simulated memory pages are kept outside the Java heap.  Memory reads it when it is
+     * created or cleared, so it may only change while no simulation is set up.
+     */
+    public static boolean offHeapMemory = getOffHeapMemory();
     /**
      * Copyright years
      */
@@ -189,7 +205,22 @@ public class Globals {
 
     // Read backstep limit (number of operations to buffer) from properties file.
     private static int getBackstepLimit() {
-        return getIntegerProperty(configPropertiesFile, "BackstepLimit", 1000);
+        return getIntegerProperty(configPropertiesFile, "BackstepLimit", 1000000);
+    }
+
+    // Read number of interpreted runs after which a basic block is compiled, from properties file.
+    private static int getJitThreshold() {
+        return getIntegerProperty(configPropertiesFile, "JitThreshold", 100);
+    }
+
+    // Read number of simulation loop passes the simulator may hold the memory and registers lock for, from properties file.
+    private static int getLockQuantum() {
+        return getIntegerProperty(configPropertiesFile, "LockQuantum", 1000);
+    }
+
+    // Read whether simulated memory is allocated outside the Java heap, from properties file.
+    private static boolean getOffHeapMemory() {
+        return Boolean.parseBoolean(getPropertyEntry(configPropertiesFile, "OffHeapMemory"));
     }
 
     // Read ASCII default display character for non-printing characters, from properties file.
@@ -5,8 +5,10 @@ import rars.riscv.InstructionSet;
 import rars.riscv.dump.DumpFormat;
 import rars.riscv.dump.DumpFormatLoader;
 import rars.riscv.hardware.*;
+import rars.simulator.Journal;
 import rars.simulator.ProgramArgumentList;
 import rars.simulator.Simulator;
+import rars.simulator.Trace;
 import rars.util.Binary;
 import rars.util.FilenameFinder;
 import rars.util.MemoryDump;
@@ -67,8 +69,14 @@ public class Launch {
      * a  -- assemble only, do not simulate<br>
      * ad  -- both a and d<br>
      * ae<n>  -- terminate RARS with integer exit code <n> if an assemble error occurs.<br>
+     * aot  -- compile the program to JVM bytecode and save it to a jar file.  Option has 1 argument, e.g.<br>
+     * <tt>aot &lt;file&gt;</tt>.  The jar file can be given instead of the source files in later runs<br>
+     * to simulate the program without assembling it again (compiled code needs Java 15 or later).<br>
      * ascii  -- display memory or register contents interpreted as ASCII
      * b  -- brief - do not display register/memory address along with contents<br>
+     * bb  -- Basic Blocks - like pd, but only check for interrupts, breakpoints and step limit between blocks<br>
+     * ckpt  -- save a checkpoint of the simulation to a file when it stops.  Option has 1 argument, e.g.<br>
+     * <tt>ckpt &lt;file&gt;</tt>.  A later run can go on from there with the <i>restore</i> option.<br>
      * d  -- print debugging statements<br>
      * da  -- both a and d<br>
      * dec  -- display memory or register contents in decimal.<br>
@@ -78,8 +86,12 @@ public class Launch {
      * segments are <tt>.text</tt> and <tt>.data</tt>.  Current supported dump formats <br>
      * are <tt>Binary</tt>, <tt>HexText</tt>, <tt>BinaryText</tt>.<br>
      * h  -- display help.  Use by itself and with no filename</br>
+     * harts  -- simulate several harts (hardware threads) sharing the memory.  Option has 1 argument, e.g.<br>
+     * <tt>harts &lt;n&gt;</tt>.  Each hart runs a quantum of instructions in turn, see <i>hq&lt;n&gt;</i>.<br>
      * hex  -- display memory or register contents in hexadecimal (default)<br>
+     * hq<n>  -- let each hart run <n> instructions in its turn (default 100)<br>
      * ic  -- display count of basic instructions 'executed'");
+     * jit  -- like bb, and also compile frequently executed blocks to JVM bytecode (needs Java 15 or later)<br>
      * mc  -- set memory configuration.  Option has 1 argument, e.g.<br>
      * <tt>mc &lt;config$gt;</tt>, where &lt;config$gt; is <tt>Default</tt><br>
      * for the RARS default 32-bit address space, <tt>CompactDataAtZero</tt> for<br>
@@ -89,6 +101,15 @@ public class Launch {
      * nc  -- do not display copyright notice (for cleaner redirected/piped output).</br>
      * np  -- No Pseudo-instructions allowed ("ne" will work also).<br>
      * p  -- Project mode - assemble all files in the same directory as given file.<br>
+     * restore  -- start the simulation from a checkpoint saved by <i>ckpt</i>.  Option has 1 argument, e.g.<br>
+     * <tt>restore &lt;file&gt;</tt>.  The program, memory configuration and rv64 option must be the same.<br>
+     * record  -- record the inputs of the run (stdin, time, random numbers, devices) to a journal.  Option has<br>
+     * 1 argument, e.g. <tt>record &lt;file&gt;</tt>.  See <i>replay</i>.<br>
+     * replay  -- play back a journal recorded in the GUI or with <i>record</i>, to reproduce that run exactly.<br>
+     * Option has 1 argument, e.g. <tt>replay &lt;file&gt;</tt>.<br>
+     * trace  -- write a binary trace of the instructions retired, see rars.simulator.TraceReader to read it.<br>
+     * Option has 1 argument, e.g. <tt>trace &lt;file&gt;</tt>.<br>
+     * pd  -- PreDecode - execute from a predecoded copy of the text segment (faster, same results)<br>
      * se<n>  -- terminate RARS with integer exit code <n> if a simulation (run) error occurs.<br>
      * sm  -- Start execution at Main - Execution will start at program statement globally labeled main.<br>
      * smc  -- Self Modifying Code - Program can write and branch to either text or data segment<br>
@@ -126,6 +147,13 @@ public class Launch {
     private int instructionCount;
     private PrintStream out; // stream for display of command line output
     private ArrayList<String[]> dumpTriples = null; // each element holds 3 arguments for dump option
+    private ArrayList<Watchpoint> watchpoints = new ArrayList<>(); // see "watch", "rwatch" and "awatch" options
+    private String compiledFile = null; // jar file to save the compiled program to, see "aot" option
+    private String checkpointFile = null; // file to save a checkpoint to at the end, see "ckpt" option
+    private String restoreFile = null; // checkpoint file to start the simulation from, see "restore" option
+    private String recordFile = null; // journal to record the inputs to, see "record" option
+    private String replayFile = null; // journal to play back, see "replay" option
+    private String traceFile = null; // trace to write, see "trace" option
     private ArrayList<String> programArgumentList; // optional program args for program (becomes argc, argv)
     private int assembleErrorExitCode;  // RARS command exit code to return if assemble error occurs
     private int simulateErrorExitCode;// RARS command exit code to return if simulation error occurs
@@ -295,6 +323,97 @@ public class Launch {
                 }
                 continue;
             }
+            if (args[i].toLowerCase().equals("watch") || args[i].toLowerCase().equals("rwatch")
+                    || args[i].toLowerCase().equals("awatch")) {
+                Watchpoint.Kind kind = args[i].toLowerCase().equals("watch") ? Watchpoint.Kind.WRITE
+                        : args[i].toLowerCase().equals("rwatch") ? Watchpoint.Kind.READ : Watchpoint.Kind.ACCESS;
+                if (args.length <= (i + 1)) {
+                    out.println("Watch command line argument requires an address or address range.");
+                    argsOK = false;
+                    continue;
+                }
+                String range = args[++i];
+                try {
+                    String[] memoryRange = checkMemoryAddressRange(range);
+                    int low, high;
+                    if (memoryRange == null) {
+                        low = high = Binary.stringToInt(range);
+                        if (!Memory.wordAligned(low)) {
+                            throw new NumberFormatException();
+                        }
+                    } else {
+                        low = Binary.stringToInt(memoryRange[0]);
+                        high = Binary.stringToInt(memoryRange[1]);
+                    }
+                    watchpoints.add(new Watchpoint(low, high - low + Memory.WORD_LENGTH_BYTES, kind));
+                } catch (NumberFormatException nfe) {
+                    out.println("Invalid/unaligned address or invalid range: " + range);
+                    argsOK = false;
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("harts")) {
+                try {
+                    options.harts = Integer.decode(args[++i]);
+                    if (options.harts < 1 || options.harts > Simulator.MAX_HARTS) {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    out.println("Harts command line argument requires a number of harts from 1 to " + Simulator.MAX_HARTS + ".");
+                    argsOK = false;
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().indexOf("hq") == 0) {
+                try {
+                    options.hartQuantum = Integer.decode(args[i].substring(2));
+                    if (options.hartQuantum > 0) {
+                        continue;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // Let it fall thru and get handled by catch-all
+                }
+            }
+            if (args[i].toLowerCase().equals("aot")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Aot command line argument requires a file name.");
+                    argsOK = false;
+                } else {
+                    compiledFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("ckpt") || args[i].toLowerCase().equals("restore")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Ckpt and restore command line arguments require a file name.");
+                    argsOK = false;
+                } else if (args[i].toLowerCase().equals("ckpt")) {
+                    checkpointFile = args[++i];
+                } else {
+                    restoreFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("record") || args[i].toLowerCase().equals("replay")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Record and replay command line arguments require a file name.");
+                    argsOK = false;
+                } else if (args[i].toLowerCase().equals("record")) {
+                    recordFile = args[++i];
+                } else {
+                    replayFile = args[++i];
+                }
+                continue;
+            }
+            if (args[i].toLowerCase().equals("trace")) {
+                if (args.length <= (i + 1)) {
+                    out.println("Trace command line argument requires a file name.");
+                    argsOK = false;
+                } else {
+                    traceFile = args[++i];
+                }
+                continue;
+            }
             if (args[i].toLowerCase().equals("mc")) {
                 String configName = args[++i];
                 MemoryConfiguration config = MemoryConfigurations.getConfigurationByName(configName);
@@ -376,6 +495,18 @@ public class Launch {
                 options.selfModifyingCode = true;
                 continue;
             }
+            if (args[i].toLowerCase().equals("jit")) {
+                options.jit = true;
+                continue;
+            }
+            if (args[i].toLowerCase().equals("bb")) {
+                options.basicBlocks = true;
+                continue;
+            }
+            if (args[i].toLowerCase().equals("pd")) {
+                options.predecode = true;
+                continue;
+            }
             if (args[i].toLowerCase().equals("rv64")) {
                 rv64 = true;
                 continue;
@@ -470,26 +601,77 @@ public class Launch {
             filesToAssemble = FilenameFinder.getFilenameList(filenameList, FilenameFinder.MATCH_ALL_EXTENSIONS);
         }
         Program program = new Program(options);
-        try {
-            if (Globals.debug) {
-                out.println("---  TOKENIZING & ASSEMBLY BEGINS  ---");
+        if (mainFile.getName().toLowerCase().endsWith(".jar")) {
+            // Program compiled by an earlier run with the "aot" option
+            try {
+                program.loadCompiled(mainFile.getPath());
+            } catch (IOException e) {
+                Globals.exitCode = assembleErrorExitCode;
+                out.println("Error while loading compiled program: " + e.getMessage());
+                out.println("Processing terminated due to errors.");
+                return null;
             }
-            ErrorList warnings = program.assemble(filesToAssemble, mainFile.getAbsolutePath());
-            if (warnings != null && warnings.warningsOccurred()) {
-                out.println(warnings.generateWarningReport());
+        } else {
+            try {
+                if (Globals.debug) {
+                    out.println("---  TOKENIZING & ASSEMBLY BEGINS  ---");
+                }
+                ErrorList warnings = program.assemble(filesToAssemble, mainFile.getAbsolutePath());
+                if (warnings != null && warnings.warningsOccurred()) {
+                    out.println(warnings.generateWarningReport());
+                }
+            } catch (AssemblyException e) {
+                Globals.exitCode = assembleErrorExitCode;
+                out.println(e.errors().generateErrorAndWarningReport());
+                out.println("Processing terminated due to errors.");
+                return null;
+            }
+            if (compiledFile != null) {
+                try {
+                    program.saveCompiled(compiledFile);
+                } catch (IOException e) {
+                    out.println("Error while attempting to save compiled program to " + compiledFile + ": " + e.getMessage());
+                }
             }
-        } catch (AssemblyException e) {
-            Globals.exitCode = assembleErrorExitCode;
-            out.println(e.errors().generateErrorAndWarningReport());
-            out.println("Processing terminated due to errors.");
-            return null;
         }
         // Setup for program simulation even if just assembling to prepare memory dumps
         program.setup(programArgumentList,null);
+        if (restoreFile != null) {
+            try {
+                program.restoreCheckpoint(restoreFile);
+            } catch (IOException e) {
+                out.println("Error while restoring checkpoint: " + e.getMessage());
+                out.println("Processing terminated due to errors.");
+                return null;
+            }
+        }
+        for (Watchpoint watchpoint : watchpoints) {
+            program.getMemory().addWatchpoint(watchpoint);
+        }
         if (simulate) {
             if (Globals.debug) {
                 out.println("--------  SIMULATION BEGINS  -----------");
             }
+            try {
+                if (recordFile != null) {
+                    Journal.startRecording(new File(recordFile));
+                } else if (replayFile != null) {
+                    Journal.startReplay(new File(replayFile));
+                }
+            } catch (IOException e) {
+                out.println("Error while opening journal: " + e.getMessage());
+                out.println("Processing terminated due to errors.");
+                return null;
+            }
+            if (traceFile != null) {
+                try {
+                    Trace.start(new File(traceFile));
+                } catch (IOException e) {
+                    out.println("Error while opening trace: " + e.getMessage());
+                    out.println("Processing terminated due to errors.");
+                    return null;
+                }
+            }
             try {
                 while (true) {
                     Simulator.Reason done = program.simulate();
@@ -503,7 +685,11 @@ public class Launch {
                         out.println("\nProgram terminated by calling exit");
                         break;
                     }
-                    assert done == Simulator.Reason.BREAKPOINT : "Internal error: All cases other than breakpoints should be handled already";
+                    if (done == Simulator.Reason.WATCHPOINT) {
+                        out.println("\nStopped at " + program.getWatchpointHit());
+                    }
+                    assert done == Simulator.Reason.BREAKPOINT || done == Simulator.Reason.WATCHPOINT :
+                            "Internal error: All cases other than breakpoints should be handled already";
                     displayAllPostMortem(program); // print registers if we hit a breakpoint, then continue
                 }
 
@@ -512,7 +698,16 @@ public class Launch {
                 out.println(e.error().generateReport());
                 out.println("Simulation terminated due to errors.");
             }
+            Journal.stop();
+            Trace.stop();
             displayAllPostMortem(program);
+            if (checkpointFile != null) {
+                try {
+                    program.saveCheckpoint(checkpointFile);
+                } catch (IOException e) {
+                    out.println("Error while attempting to save checkpoint to " + checkpointFile + ": " + e.getMessage());
+                }
+            }
         }
         if (Globals.debug) {
             out.println("\n--------  ALL PROCESSING COMPLETE  -----------");
@@ -702,8 +897,16 @@ public class Launch {
         out.println("  Valid options (not case sensitive, separate by spaces) are:");
         out.println("      a  -- assemble only, do not simulate");
         out.println("  ae<n>  -- terminate RARS with integer exit code <n> if an assemble error occurs.");
+        out.println("    aot <file>  -- compile the program to JVM bytecode and save it to the given jar");
+        out.println("            file.  Give the jar file instead of the source files in later runs to");
+        out.println("            simulate the program without assembling it again (needs Java 15 or later");
+        out.println("            to run the compiled code, otherwise the program is simulated as usual).");
         out.println("  ascii  -- display memory or register contents interpreted as ASCII codes.");
         out.println("      b  -- brief - do not display register/memory address along with contents");
+        out.println("     bb  -- Basic Blocks - like pd, but only check for interrupts, breakpoints and step");
+        out.println("            limit between straight-line blocks of instructions");
+        out.println("   ckpt <file>  -- save a checkpoint of the simulation to the given file when it");
+        out.println("            stops, for instance at the maximum step count.  See restore.");
         out.println("      d  -- display RARS debugging statements");
         out.println("    dec  -- display memory or register contents in decimal.");
         out.println("   dump <segment> <format> <file> -- memory dump of specified memory segment");
@@ -713,8 +916,14 @@ public class Launch {
         out.println("            <segment> = " + segments+", or a range like 0x400000-0x10000000");
         out.println("            <format> = " + formats);
         out.println("      h  -- display this help.  Use by itself with no filename.");
+        out.println("  harts <n>  -- simulate <n> harts (hardware threads) sharing the memory, each with its");
+        out.println("            own registers, mhartid register and a stack 64K below the previous one.");
+        out.println("            The harts take turns, running a quantum of instructions each.");
         out.println("    hex  -- display memory or register contents in hexadecimal (default)");
+        out.println("  hq<n>  -- let each hart run <n> instructions in its turn (default 100)");
         out.println("     ic  -- display count of basic instructions 'executed'");
+        out.println("    jit  -- like bb, and also compile frequently executed blocks to JVM bytecode");
+        out.println("            (needs Java 15 or later, otherwise same as bb)");
         out.println("     mc <config>  -- set memory configuration.  Argument <config> is");
         out.println("            case-sensitive and possible values are: Default for the default");
         out.println("            32-bit address space, CompactDataAtZero for a 32KB memory with");
@@ -725,10 +934,24 @@ public class Launch {
         out.println("     nc  -- do not display copyright notice (for cleaner redirected/piped output).");
         out.println("     np  -- use of pseudo instructions and formats not permitted");
         out.println("      p  -- Project mode - assemble all files in the same directory as given file.");
+        out.println("  restore <file>  -- start the simulation from a checkpoint saved with ckpt, rather than");
+        out.println("            from the start.  Program, memory configuration and rv64 must be the same.");
+        out.println("  record <file>  -- record the inputs of the run (stdin, Time syscall, random numbers,");
+        out.println("            memory mapped devices and their interrupts) to the given journal file.");
+        out.println("  replay <file>  -- play back a journal recorded in the GUI or with record, so the run");
+        out.println("            is the same as when it was recorded.");
+        out.println("  trace <file>  -- write a binary trace of the instructions retired (address, instruction,");
+        out.println("            register written back, memory access) to the given file.  Convert it to");
+        out.println("            text with: java -cp rars.jar rars.simulator.TraceReader <file> [<text file>]");
+        out.println("     pd  -- PreDecode - execute from a predecoded copy of the text segment (faster, same results)");
         out.println("  se<n>  -- terminate RARS with integer exit code <n> if a simulation (run) error occurs.");
         out.println("     sm  -- start execution at statement with global label main, if defined");
         out.println("    smc  -- Self Modifying Code - Program can write and branch to either text or data segment");
         out.println("    rv64 -- Enables 64 bit assembly and executables (Not fully compatible with rv32)");
+        out.println("   watch <m>[-<n>]  -- stop after each instruction that writes the memory word at <m>,");
+        out.println("            or the words from <m> to <n>, and display the access and registers.");
+        out.println("            Use rwatch instead to stop on reads, or awatch to stop on both.");
+        out.println("            Addresses must be on word boundary.  Option may be repeated.");
         out.println("    <n>  -- where <n> is an integer maximum count of steps to simulate.");
         out.println("            If 0, negative or not specified, there is no maximum.");
         out.println(" x<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose ");
@@ -404,6 +404,7 @@ public class ProgramStatement implements Comparable<ProgramStatement> {
             for (int i = 0; i < this.numOperands; i++)
                 this.insertBinaryCode(this.operands[i], Instruction.operandMask[i], errors);
         }
+        this.machineStatement = this.machineStatement.replace('-', '0'); // bits of any value
         this.binaryStatement = Binary.binaryStringToInt(this.machineStatement);
     }
 
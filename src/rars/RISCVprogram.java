@@ -3,6 +3,7 @@ package rars;
 import rars.assembler.*;
 import rars.riscv.hardware.RegisterFile;
 import rars.simulator.BackStepper;
+import rars.simulator.Breakpoints;
 import rars.simulator.Simulator;
 
 import java.io.BufferedReader;
@@ -353,15 +354,29 @@ public class RISCVprogram {
         return sim.simulate(RegisterFile.getProgramCounter(), maxSteps, null);
     }
 
+    /**
+     * Simulates execution of the program (in this thread), stopping at breakpoints. Program must have
+     * already been assembled.
+     *
+     * @param maxSteps    the maximum maximum number of steps to simulate.
+     * @param breakPoints breakpoints to stop at.  Can be null.
+     * @return the reason the simulation stopped
+     * @throws SimulationException Will throw exception if errors occured while simulating.
+     */
+    public Simulator.Reason simulate(int maxSteps, Breakpoints breakPoints) throws SimulationException {
+        Simulator sim = Simulator.getInstance();
+        return sim.simulate(RegisterFile.getProgramCounter(), maxSteps, breakPoints);
+    }
+
     /**
      * Simulates execution of the program (in a new thread). Program must have already been assembled.
      * Begins simulation at current program counter address and continues until stopped,
      * paused, maximum steps exceeded, or exception occurs.
      *
      * @param maxSteps    maximum number of instruction executions.  Default -1 means no maximum.
-     * @param breakPoints int array of breakpoints (PC addresses).  Can be null.
+     * @param breakPoints breakpoints to stop at.  Can be null.
      **/
-    public void startSimulation(int maxSteps, int[] breakPoints) {
+    public void startSimulation(int maxSteps, Breakpoints breakPoints) {
         Simulator sim = Simulator.getInstance();
         sim.startSimulation(RegisterFile.getProgramCounter(), maxSteps, breakPoints);
     }
@@ -153,7 +153,25 @@ public class Settings extends Observable {
         /**
          * Flag to determine whether a program uses rv64i instead of rv32i
          */
-        RV64_ENABLED("rv64Enabled", false);;
+        RV64_ENABLED("rv64Enabled", false),
+        /**
+         * Flag to determine whether the simulator executes from a predecoded copy of the text segment
+         * instead of dispatching every instruction through its simulate method
+         */
+        PREDECODED_EXECUTION("PredecodedExecution", false),
+        /**
+         * Flag to determine whether the simulator runs whole basic blocks from the predecoded text segment
+         * and only checks for interrupts, breakpoints and the step limit between blocks
+         */
+        BASIC_BLOCK_EXECUTION("BasicBlockExecution", false),
+        /**
+         * Flag to determine whether hot basic blocks are compiled to JVM bytecode (implies basic block execution)
+         */
+        JIT_COMPILATION("JitCompilation", false),
+        /**
+         * Flag to determine whether the inputs of a run are recorded in a journal next to the source file
+         */
+        RECORD_JOURNAL("RecordJournal", false);
 
         // TODO: add option for turning off user trap handling and interrupts
         private String name;
@@ -816,7 +834,10 @@ public class Settings extends Observable {
      */
     public void setBooleanSettingNonPersistent(Bool setting, boolean value) {
         if (booleanSettingsValues.containsKey(setting)) {
-            booleanSettingsValues.put(setting, value);
+            if (value != booleanSettingsValues.put(setting, value)) {
+                setChanged();
+                notifyObservers();
+            }
         } else {
             throw new IllegalArgumentException("Invalid boolean setting ID");
         }
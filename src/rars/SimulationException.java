@@ -69,6 +69,12 @@ public class SimulationException extends Exception {
         this.cause = cause;
     }
 
+    public SimulationException(ErrorMessage message, int cause, int value) {
+        this.message = message;
+        this.cause = cause;
+        this.value = value;
+    }
+
     /**
      * Produce the list of error messages.
      *
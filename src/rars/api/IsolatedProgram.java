@@ -0,0 +1,267 @@
+package rars.api;
+
+import rars.AssemblyException;
+import rars.ErrorList;
+import rars.ErrorMessage;
+import rars.SimulationException;
+import rars.simulator.Simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A {@link Program} with a simulator of its own, so that several IsolatedPrograms can assemble and
+ * simulate at the same time on different threads of one JVM.
+ * </p>
+ *
+ * <p>
+ * The simulator keeps the memory, registers, open files and settings in static fields, which is why
+ * only one Program can be set up at a time.  An IsolatedProgram loads the classes of RARS again
+ * through a class loader of its own, so it gets its own copy of all that state, and drives a Program
+ * made from those classes.  Only strings, numbers and the exceptions below cross between the two.
+ * </p>
+ *
+ * <p>
+ * Loading the classes costs about as much as starting RARS, so rather than making an IsolatedProgram
+ * for each program to run, keep one per thread and use it for many programs in turn, as with Program.
+ * An IsolatedProgram must only be used by one thread at a time, and closed once it is no longer
+ * needed, so that the files of its class loader are closed too.
+ * </p>
+ */
+public class IsolatedProgram implements Closeable {
+
+    private final URLClassLoader loader;
+    private final Object program; // Program loaded by the class loader of this IsolatedProgram
+
+    public IsolatedProgram() {
+        this(new Options());
+    }
+
+    /**
+     * @param set the options, copied when the IsolatedProgram is made
+     * @throws IllegalStateException if the classes of RARS cannot be loaded again
+     */
+    public IsolatedProgram(Options set) {
+        // The parent skips the class path, so RARS and the libraries it comes with are loaded anew
+        loader = new URLClassLoader(classPath(), ClassLoader.getSystemClassLoader().getParent());
+        try {
+            Class<?> options = loader.loadClass(Options.class.getName());
+            Object copy = options.getConstructor().newInstance();
+            for (Field field : Options.class.getFields()) {
+                options.getField(field.getName()).set(copy, field.get(set));
+            }
+            program = loader.loadClass(Program.class.getName()).getConstructor(options).newInstance(copy);
+        } catch (ReflectiveOperationException e) {
+            try {
+                loader.close();
+            } catch (IOException ignored) {
+                // The class loader is already failing
+            }
+            throw new IllegalStateException("Could not load RARS in a class loader of its own", e);
+        }
+    }
+
+    /**
+     * Closes the class loader of this IsolatedProgram.  It must not be used afterwards, as the
+     * classes it has not loaded yet cannot be loaded any more.
+     *
+     * @throws IOException if a file the classes were loaded from cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        loader.close();
+    }
+
+    // Where the classes of RARS and of jsoftfloat come from
+    private static URL[] classPath() {
+        ArrayList<URL> urls = new ArrayList<>();
+        for (Class<?> c : new Class<?>[]{Program.class, jsoftfloat.Environment.class}) {
+            CodeSource source = c.getProtectionDomain().getCodeSource();
+            if (source == null) {
+                throw new IllegalStateException("Could not find where " + c.getName() + " is loaded from");
+            }
+            if (!urls.contains(source.getLocation())) {
+                urls.add(source.getLocation());
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    /**
+     * Assembles from a list of files
+     *
+     * @param files A list of files to assemble
+     * @param main  Which file should be considered the main file; it should be in files
+     * @return A list of warnings generated if Options.warningsAreErrors is true, this will be empty
+     * @throws AssemblyException thrown if any errors are found in the code
+     * @see Program#assemble(ArrayList, String)
+     */
+    public ErrorList assemble(ArrayList<String> files, String main) throws AssemblyException {
+        return errorList(callAssembler("assemble", files, main));
+    }
+
+    /**
+     * Assembles a single file
+     *
+     * @param file path to the file to assemble
+     * @return A list of warnings generated if Options.warningsAreErrors is true, this will be empty
+     * @throws AssemblyException thrown if any errors are found in the code
+     */
+    public ErrorList assemble(String file) throws AssemblyException {
+        return errorList(callAssembler("assemble", file));
+    }
+
+    /**
+     * Assembles a string as RISC-V source code
+     *
+     * @param source the code to assemble
+     * @return A list of warnings generated if Options.warningsAreErrors is true, this will be empty
+     * @throws AssemblyException thrown if any errors are found in the code
+     */
+    public ErrorList assembleString(String source) throws AssemblyException {
+        return errorList(callAssembler("assembleString", source));
+    }
+
+    /**
+     * Prepares the simulator for execution, see {@link Program#setup(ArrayList, String)}.
+     *
+     * @param args  Just like the args to a Java main, but an ArrayList.
+     * @param STDIN A string that can be read in the program like its stdin or null to allow IO passthrough
+     */
+    public void setup(ArrayList<String> args, String STDIN) {
+        callProgram("setup", args, STDIN);
+    }
+
+    /**
+     * Simulates a processor executing the machine code, see {@link Program#simulate()}.
+     *
+     * @return the reason why simulation was paused or terminated.
+     * @throws SimulationException thrown if there is an uncaught interrupt. The program cannot be simulated further.
+     */
+    public Simulator.Reason simulate() throws SimulationException {
+        try {
+            return Simulator.Reason.valueOf(((Enum<?>) invoke(program, "simulate")).name());
+        } catch (InvocationTargetException e) {
+            Throwable se = e.getCause();
+            if (!se.getClass().getName().equals(SimulationException.class.getName())) {
+                throw unchecked(se);
+            }
+            throw new SimulationException(errorMessage(call(se, "error")),
+                    (Integer) call(se, "cause"), (Integer) call(se, "value"));
+        }
+    }
+
+    /**
+     * @return converts the bytes sent to stdout into a string (resets to "" when setup is called)
+     */
+    public String getSTDOUT() {
+        return (String) callProgram("getSTDOUT");
+    }
+
+    /**
+     * @return converts the bytes sent to stderr into a string (resets to "" when setup is called)
+     */
+    public String getSTDERR() {
+        return (String) callProgram("getSTDERR");
+    }
+
+    /**
+     * Gets the value of a normal, floating-point or control and status register.
+     *
+     * @param name Either the common usage (t0, a0, ft0), explicit numbering (x2, x3, f0), or CSR name (ustatus)
+     * @return The value of the register as an int (floats are encoded as IEEE-754)
+     */
+    public int getRegisterValue(String name) {
+        return (Integer) callProgram("getRegisterValue", name);
+    }
+
+    /**
+     * Sets the value of a normal, floating-point or control and status register.
+     *
+     * @param name  Either the common usage (t0, a0, ft0), explicit numbering (x2, x3, f0), or CSR name (ustatus)
+     * @param value The value of the register as an int (floats are encoded as IEEE-754)
+     */
+    public void setRegisterValue(String name, int value) {
+        callProgram("setRegisterValue", name, value);
+    }
+
+    /**
+     * Returns the exit code passed to the exit syscall if it was called, otherwise returns 0
+     */
+    public int getExitCode() {
+        return (Integer) callProgram("getExitCode");
+    }
+
+    private Object callAssembler(String name, Object... args) throws AssemblyException {
+        try {
+            return invoke(program, name, args);
+        } catch (InvocationTargetException e) {
+            Throwable ae = e.getCause();
+            if (!ae.getClass().getName().equals(AssemblyException.class.getName())) {
+                throw unchecked(ae);
+            }
+            throw new AssemblyException(errorList(call(ae, "errors")));
+        }
+    }
+
+    // Copies an ErrorList of the other class loader
+    private static ErrorList errorList(Object list) {
+        ErrorList copy = new ErrorList();
+        if (list != null) {
+            for (Object message : (List<?>) call(list, "getErrorMessages")) {
+                copy.add(errorMessage(message));
+            }
+        }
+        return copy;
+    }
+
+    // Copies an ErrorMessage of the other class loader
+    private static ErrorMessage errorMessage(Object message) {
+        return new ErrorMessage((Boolean) call(message, "isWarning"), (String) call(message, "getFilename"),
+                (Integer) call(message, "getLine"), (Integer) call(message, "getPosition"),
+                (String) call(message, "getMessage"), (String) call(message, "getMacroExpansionHistory"));
+    }
+
+    private Object callProgram(String name, Object... args) {
+        return call(program, name, args);
+    }
+
+    // Calls a method that throws no checked exceptions
+    private static Object call(Object target, String name, Object... args) {
+        try {
+            return invoke(target, name, args);
+        } catch (InvocationTargetException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    private static Object invoke(Object target, String name, Object... args) throws InvocationTargetException {
+        for (Method method : target.getClass().getMethods()) {
+            // Program has no overloads with the same number of parameters
+            if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                try {
+                    return method.invoke(target, args);
+                } catch (IllegalAccessException | IllegalArgumentException e) {
+                    throw new IllegalStateException("Could not call " + name + " in the isolated program", e);
+                }
+            }
+        }
+        throw new IllegalStateException("No method " + name + " in the isolated program");
+    }
+
+    private static RuntimeException unchecked(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return t instanceof RuntimeException ? (RuntimeException) t : new IllegalStateException(t);
+    }
+}
@@ -1,16 +1,31 @@
 package rars.api;
 
+import rars.Globals;
+import rars.simulator.Simulator;
+
 public class Options {
     public boolean pseudo;            // pseudo instructions allowed in source code or not.
     public boolean warningsAreErrors; // Whether assembler warnings should be considered errors.
     public boolean startAtMain;       // Whether to start execution at statement labeled 'main'
     public boolean selfModifyingCode; // Whether to allow self-modifying code (e.g. write to text segment)
+    public boolean predecode;         // Whether to execute from a predecoded copy of the text segment
+    public boolean basicBlocks;       // Whether to execute whole basic blocks between event checks (implies predecode)
+    public boolean jit;               // Whether to compile hot basic blocks to JVM bytecode (implies basicBlocks)
+    public int jitThreshold;          // Number of times a basic block runs interpreted before it is compiled
     public int maxSteps;
+    public int harts;                 // Number of harts (hardware threads) to simulate, taking turns
+    public int hartQuantum;           // Number of instructions each hart runs in its turn
     public Options(){
         pseudo = true;
         warningsAreErrors = false;
         startAtMain = false;
         selfModifyingCode = false;
+        predecode = false;
+        basicBlocks = false;
+        jit = false;
+        jitThreshold = Globals.jitThreshold;
         maxSteps = -1;
+        harts = 1;
+        hartQuantum = Simulator.DEFAULT_HART_QUANTUM;
     }
 }
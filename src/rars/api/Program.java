@@ -1,14 +1,22 @@
 package rars.api;
 
 import rars.*;
+import rars.riscv.InstructionSet;
 import rars.riscv.hardware.*;
+import rars.simulator.Breakpoint;
+import rars.simulator.Breakpoints;
+import rars.simulator.CompiledText;
 import rars.simulator.ProgramArgumentList;
 import rars.simulator.Simulator;
 import rars.util.SystemIO;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 /**
  * <p>
@@ -18,7 +26,7 @@ import java.util.ArrayList;
  *
  * The order you are expected to run the methods is:
  * <ol>
- * <li> assemble(...)
+ * <li> assemble(...) or loadCompiled(...)
  * <li> setup(...)
  * <li> get/set for any specific setup
  * <li> simulate()
@@ -28,15 +36,16 @@ import java.util.ArrayList;
  * </ol>
  *
  * <p>
- * Importantly, only one instance of Program can be setup at a time (this may
- * change in the future). Only the most recent program to be setup is valid to
- * call simulate on. Additionally, reading registers or memory is also only valid
- * once setup has been called and before another setup is called.
+ * Several instances of Program can be setup at a time, for instance a program and
+ * the forks made from it (see fork), and simulated in turn: each keeps its own
+ * registers while another one runs.  Reading registers or memory is only valid
+ * once setup has been called.
  * </p>
  *
  * <p>
  * Also, it is not threadsafe, calling assemble in another thread could invalidate
- * a concurrent simulation.
+ * a concurrent simulation.  Use {@link IsolatedProgram} to simulate several programs
+ * at the same time.
  * </p>
  */
 public class Program {
@@ -46,17 +55,33 @@ public class Program {
     private SystemIO.Data fds;
     private ByteArrayOutputStream stdout, stderr;
     private Memory assembled, simulation;
+    private boolean sharesAssembled; // whether a fork, or the program it was forked from, has the same assembled
     private int startPC, exitCode;
+    private CompiledText compiled;
+    private final Breakpoints breakpoints = new Breakpoints();
+
+    // The program whose registers are in the register files.  The others keep theirs here.
+    private static Program active;
+    private Hart registers;
+    private int heapAddress;
+    private int[] interrupts;
+
+    // Entries of the jar files written by saveCompiled
+    private static final String COMPILED_CLASS = "rars/program.class", COMPILED_IMAGE = "rars/program.image";
 
     public Program() {
         this(new Options());
     }
 
     public Program(Options set){
+        this(set, new Memory());
+    }
+
+    private Program(Options set, Memory assembled){
         Globals.initialize(false);
         this.set = set;
         code = new RISCVprogram();
-        assembled = new Memory();
+        this.assembled = assembled;
         simulation = new Memory();
     }
 
@@ -104,6 +129,7 @@ public class Program {
     }
 
     private ErrorList assemble(ArrayList<RISCVprogram> programs) throws AssemblyException {
+        ownAssembled();
         Memory temp = Memory.swapInstance(assembled); // Assembling changes memory so we need to swap to capture that.
         ErrorList warnings = null;
         AssemblyException e = null;
@@ -117,10 +143,113 @@ public class Program {
 
         RegisterFile.initializeProgramCounter(set.startAtMain);
         startPC = RegisterFile.getProgramCounter();
+        compiled = null;
 
         return warnings;
     }
 
+    /**
+     * Compiles the assembled program to JVM bytecode and saves it, together with the initial contents
+     * of its text and data segments and its start address, to a jar file.  The file can then be
+     * loaded with loadCompiled instead of assembling the program again, for instance to run the same
+     * program against many inputs.
+     *
+     * @param file path of the jar file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void saveCompiled(String file) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            jar.putNextEntry(new JarEntry(COMPILED_CLASS));
+            jar.write(CompiledText.compile(assembled, startPC));
+            jar.closeEntry();
+            jar.putNextEntry(new JarEntry(COMPILED_IMAGE));
+            DataOutputStream image = new DataOutputStream(jar);
+            image.writeUTF(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+            image.writeBoolean(InstructionSet.rv64);
+            image.writeInt(startPC);
+            writeWords(image, Memory.textBaseAddress, Memory.textLimitAddress);
+            writeWords(image, Memory.dataSegmentBaseAddress, Memory.dataSegmentLimitAddress);
+            image.writeInt(0);
+            image.flush();
+            jar.closeEntry();
+        } catch (AddressErrorException e) {
+            throw new IOException("Cannot read address " + e.getAddress(), e);
+        }
+    }
+
+    // Writes each run of initialized words in [base, limit) as its length, address and contents
+    private void writeWords(DataOutputStream out, int base, int limit) throws IOException, AddressErrorException {
+        ArrayList<Integer> run = new ArrayList<>();
+        for (int address = base; ; address += Memory.WORD_LENGTH_BYTES) {
+            Integer word = address < limit ? assembled.getRawWordOrNull(address) : null;
+            if (word != null) {
+                run.add(word);
+            } else if (!run.isEmpty()) {
+                out.writeInt(run.size());
+                out.writeInt(address - run.size() * Memory.WORD_LENGTH_BYTES);
+                for (int w : run) {
+                    out.writeInt(w);
+                }
+                run.clear();
+            }
+            if (address >= limit) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Loads a program saved by saveCompiled, in place of assembling it.  The memory configuration
+     * and RV64 setting must be the same as when it was saved.  The compiled code needs Java 15 or
+     * later; otherwise the program is simulated as usual.  Only load files from a trusted source, the
+     * compiled code runs with the privileges of the simulator.
+     *
+     * @param file path of the jar file to read
+     * @throws IOException if the file cannot be read or was saved with different settings
+     */
+    public void loadCompiled(String file) throws IOException {
+        try (JarFile jar = new JarFile(file)) {
+            JarEntry classEntry = jar.getJarEntry(COMPILED_CLASS), imageEntry = jar.getJarEntry(COMPILED_IMAGE);
+            if (classEntry == null || imageEntry == null) {
+                throw new IOException(file + " does not hold a compiled program");
+            }
+            DataInputStream image = new DataInputStream(new BufferedInputStream(jar.getInputStream(imageEntry)));
+            String configuration = image.readUTF();
+            if (!configuration.equals(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier())) {
+                throw new IOException(file + " was compiled for memory configuration " + configuration);
+            }
+            if (image.readBoolean() != InstructionSet.rv64) {
+                throw new IOException(file + " was compiled for " + (InstructionSet.rv64 ? "RV32" : "RV64"));
+            }
+            int start = image.readInt();
+            ownAssembled();
+            assembled.clear();
+            for (int count = image.readInt(); count != 0; count = image.readInt()) {
+                int address = image.readInt();
+                for (int i = 0; i < count; i++, address += Memory.WORD_LENGTH_BYTES) {
+                    int word = image.readInt();
+                    if (Memory.inTextSegment(address)) {
+                        assembled.setStatement(address, new ProgramStatement(word, address));
+                    } else {
+                        assembled.setRawWord(address, word);
+                    }
+                }
+            }
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            InputStream in = jar.getInputStream(classEntry);
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                classFile.write(buffer, 0, n);
+            }
+            startPC = start;
+            compiled = CompiledText.load(classFile.toByteArray());
+        } catch (AddressErrorException e) {
+            throw new IOException(file + " has data at invalid address " + e.getAddress(), e);
+        }
+    }
+
     /**
      * Prepares the simulator for execution. Clears registers, loads arguments
      * into memory and initializes the String backed STDIO
@@ -129,12 +258,15 @@ public class Program {
      * @param STDIN A string that can be read in the program like its stdin or null to allow IO passthrough
      */
     public void setup(ArrayList<String> args, String STDIN){
+        activate();
         RegisterFile.resetRegisters();
         FloatingPointRegisterFile.resetRegisters();
         ControlAndStatusRegisterFile.resetRegisters();
         InterruptController.reset();
         RegisterFile.initializeProgramCounter(startPC);
+        Simulator.getInstance().setHarts(set.harts, set.hartQuantum);
         Globals.exitCode = 0;
+        Memory.heapAddress = Memory.heapBaseAddress;
 
         // Copy in assembled code and arguments
         simulation.copyFrom(assembled);
@@ -156,11 +288,12 @@ public class Program {
      *
      * @return the reason why simulation was paused or terminated.
      *         Possible values are: <ul>
-     *              <li> BREAKPOINT (caused by ebreak instruction),
+     *              <li> BREAKPOINT (caused by ebreak instruction or one of the breakpoints),
+     *              <li> WATCHPOINT (caused by an access to a watchpoint of the memory, see getWatchpointHit),
      *              <li> MAX_STEPS (caused by simulating Options.maxSteps instructions),
      *              <li> NORMAL_TERMINATION (caused by executing the exit system call)
      *              <li> CLIFF_TERMINATION (caused by the program overflowing the written code). </ul>
-     *         Only BREAKPOINT and MAX_STEPS can be simulated further.
+     *         Only BREAKPOINT, WATCHPOINT and MAX_STEPS can be simulated further.
      * @throws SimulationException thrown if there is an uncaught interrupt. The program cannot be simulated further.
      */
     public Simulator.Reason simulate() throws SimulationException {
@@ -170,24 +303,152 @@ public class Program {
         // Swap out global state for local state.
         boolean selfMod = Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED);
         Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.SELF_MODIFYING_CODE_ENABLED, set.selfModifyingCode);
+        boolean predecode = Globals.getSettings().getBooleanSetting(Settings.Bool.PREDECODED_EXECUTION);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.PREDECODED_EXECUTION, set.predecode);
+        boolean basicBlocks = Globals.getSettings().getBooleanSetting(Settings.Bool.BASIC_BLOCK_EXECUTION);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.BASIC_BLOCK_EXECUTION, set.basicBlocks);
+        boolean jit = Globals.getSettings().getBooleanSetting(Settings.Bool.JIT_COMPILATION);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.JIT_COMPILATION, set.jit);
+        int jitThreshold = Globals.jitThreshold;
+        Globals.jitThreshold = set.jitThreshold;
         SystemIO.Data tmpFiles = SystemIO.swapData(fds);
         Memory tmpMem = Memory.swapInstance(simulation);
+        Simulator.getInstance().setCompiledText(compiled);
+        activate();
 
         try {
-            ret = code.simulate(set.maxSteps);
+            ret = code.simulate(set.maxSteps, breakpoints);
         }catch(SimulationException se){
             e = se;
         }
         exitCode = Globals.exitCode;
 
         Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.SELF_MODIFYING_CODE_ENABLED, selfMod);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.PREDECODED_EXECUTION, predecode);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.BASIC_BLOCK_EXECUTION, basicBlocks);
+        Globals.getSettings().setBooleanSettingNonPersistent(Settings.Bool.JIT_COMPILATION, jit);
+        Globals.jitThreshold = jitThreshold;
         SystemIO.swapData(tmpFiles);
         Memory.swapInstance(tmpMem);
+        Simulator.getInstance().setCompiledText(null);
 
         if(e != null)throw e;
         return ret;
     }
 
+    /**
+     * Forks the simulation: makes a new Program that starts out exactly where this one is, and can
+     * then be simulated independently of it.  This makes it cheap to run a program once up to the
+     * point where its runs differ, say up to where it first reads its input, and then fork it for
+     * each input.
+     * <p>
+     * The memory of the fork shares all its pages with this program until one of the two writes
+     * them, see {@link Memory#copyFrom(Memory)}.  The fork gets a copy of the registers, the pending
+     * interrupts, the breakpoints (without their hit counts) and the output so far, and reads the
+     * given input.
+     * Files the program opened are not carried over.
+     *
+     * @param STDIN A string that the fork reads as the rest of its stdin, or null to allow IO passthrough
+     * @return the fork, ready to simulate
+     * @throws IllegalStateException if several harts are simulated
+     */
+    public Program fork(String STDIN){
+        if(set.harts > 1){
+            throw new IllegalStateException("Cannot fork a simulation of several harts");
+        }
+        activate();
+        Program fork = new Program(set, assembled);
+        sharesAssembled = fork.sharesAssembled = true;
+        fork.simulation.copyFrom(simulation);
+        fork.startPC = startPC;
+        fork.compiled = compiled;
+        fork.exitCode = exitCode;
+        fork.registers = new Hart(0);
+        fork.heapAddress = Memory.heapAddress;
+        fork.interrupts = InterruptController.getState();
+        for(Breakpoint breakpoint : breakpoints.getAll()){
+            fork.breakpoints.add(new Breakpoint(breakpoint.getAddress(), breakpoint.getCondition(),
+                    breakpoint.getIgnoreCount()));
+        }
+        fork.fds = new SystemIO.Data(true);
+        if(STDIN != null) {
+            fork.fds.streams[0] = new ByteArrayInputStream(STDIN.getBytes());
+            fork.fds.streams[1] = fork.stdout = new ByteArrayOutputStream();
+            fork.fds.streams[2] = fork.stderr = new ByteArrayOutputStream();
+            if(stdout != null) {
+                fork.stdout.write(stdout.toByteArray(), 0, stdout.size());
+                fork.stderr.write(stderr.toByteArray(), 0, stderr.size());
+            }
+        }
+        return fork;
+    }
+
+    /**
+     * Saves the state of the simulation to a file, see {@link Checkpoint}.  A later run can then
+     * restore it with restoreCheckpoint rather than simulate the program from the start again.
+     *
+     * @param file path of the checkpoint file to write
+     * @throws IOException if the file cannot be written or several harts are simulated
+     */
+    public void saveCheckpoint(String file) throws IOException {
+        activate();
+        SystemIO.Data tmpFiles = SystemIO.swapData(fds);
+        Memory tmpMem = Memory.swapInstance(simulation);
+        try {
+            Checkpoint.save(new File(file));
+        } finally {
+            SystemIO.swapData(tmpFiles);
+            Memory.swapInstance(tmpMem);
+        }
+    }
+
+    /**
+     * Restores the state of a simulation saved by saveCheckpoint, in place of the state setup
+     * left.  It is meant to be called right after setup, with the same program assembled or
+     * loaded, and the same memory configuration and RV64 setting as when it was saved.  The
+     * input and output given to setup are kept, the files the program had open are opened again.
+     *
+     * @param file path of the checkpoint file to read
+     * @throws IOException if the file cannot be read or was saved with different settings
+     */
+    public void restoreCheckpoint(String file) throws IOException {
+        activate();
+        SystemIO.Data tmpFiles = SystemIO.swapData(fds);
+        Memory tmpMem = Memory.swapInstance(simulation);
+        try {
+            Checkpoint.restore(new File(file));
+        } finally {
+            SystemIO.swapData(tmpFiles);
+            Memory.swapInstance(tmpMem);
+        }
+    }
+
+    // Gives this program an assembled image of its own before changing it, if it shares it
+    private void ownAssembled(){
+        if(sharesAssembled){
+            assembled = new Memory();
+            sharesAssembled = false;
+        }
+    }
+
+    // Puts the registers of this program in the register files, keeping those of the previous one
+    private void activate(){
+        if(active == this){
+            return;
+        }
+        if(active != null){
+            active.registers = new Hart(0);
+            active.heapAddress = Memory.heapAddress;
+            active.interrupts = InterruptController.getState();
+        }
+        if(registers != null){
+            registers.restore();
+            Memory.heapAddress = heapAddress;
+            InterruptController.setState(interrupts);
+        }
+        active = this;
+    }
+
     /**
      * @return converts the bytes sent to stdout into a string (resets to "" when setup is called)
      */
@@ -210,6 +471,7 @@ public class Program {
      * @throws NullPointerException if name is invalid; only needs to be checked if code accesses arbitrary names
      */
     public int getRegisterValue(String name){
+        activate();
         Register r = RegisterFile.getRegister(name);
         if(r == null){
             r = FloatingPointRegisterFile.getRegister(name);
@@ -229,6 +491,7 @@ public class Program {
      * @throws NullPointerException if name is invalid; only needs to be checked if code accesses arbitrary names
      */
     public void setRegisterValue(String name, int value){
+        activate();
         Register r = RegisterFile.getRegister(name);
         if(r == null){
             r = FloatingPointRegisterFile.getRegister(name);
@@ -240,6 +503,26 @@ public class Program {
         }
     }
 
+    /**
+     * Gets the breakpoints simulate stops at, which start out empty.  They are kept, hit counts
+     * included, when the program is assembled or set up again, see {@link Breakpoints#resetHitCounts()}.
+     *
+     * @return the breakpoints to add to or remove from
+     */
+    public Breakpoints getBreakpoints(){
+        return breakpoints;
+    }
+
+    /**
+     * Gets what triggered the watchpoint the last simulate stopped at.  Watchpoints are added
+     * to the memory, see {@link Memory#addWatchpoint(Watchpoint)}.
+     *
+     * @return the watchpoint access, or null if simulate did not stop at a watchpoint
+     */
+    public Watchpoint.Hit getWatchpointHit(){
+        return Simulator.getInstance().getWatchpointHit();
+    }
+
     /**
      * Returns the exit code passed to the exit syscall if it was called, otherwise returns 0
      */
@@ -59,6 +59,7 @@ public abstract class BasicInstruction extends Instruction {
      * f == First operand
 	 * s == Second operand
 	 * t == Third operand
+	 * - == a bit of any value, assembled as 0
 	 * example: "add rd,rs,rt" is R format with fields in this order: opcode, rs, rt, rd, shamt, funct.
 	 *          Its opcode is 0, shamt is 0, funct is 0x40.  Based on operand order, its mask is
 	 *          "000000ssssstttttfffff00000100000", split into
@@ -60,7 +60,7 @@ public class InstructionSet {
     public static boolean rv64 = Globals.getSettings().getBooleanSetting(Settings.Bool.RV64_ENABLED);
 
     private ArrayList<Instruction> instructionList;
-    private ArrayList<MatchMap> opcodeMatchMaps;
+    private DecodeTable decodeTable;
 
     /**
      * Creates a new InstructionSet object.
@@ -105,32 +105,28 @@ public class InstructionSet {
             inst.createExampleTokenList();
         }
 
-        HashMap<Integer, HashMap<Integer, BasicInstruction>> maskMap = new HashMap<>();
-        ArrayList<MatchMap> matchMaps = new ArrayList<>();
+        // Later instructions with the same mask and match replace earlier ones
+        HashMap<Long, BasicInstruction> encodings = new HashMap<>();
         for (Instruction inst : instructionList) {
             if (inst instanceof BasicInstruction) {
                 BasicInstruction basic = (BasicInstruction) inst;
-                Integer mask = basic.getOpcodeMask();
-                Integer match = basic.getOpcodeMatch();
-                HashMap<Integer, BasicInstruction> matchMap = maskMap.get(mask);
-                if (matchMap == null) {
-                    matchMap = new HashMap<>();
-                    maskMap.put(mask, matchMap);
-                    matchMaps.add(new MatchMap(mask, matchMap));
-                }
-                matchMap.put(match, basic);
+                encodings.put(((long) basic.getOpcodeMask() << 32) | (basic.getOpcodeMatch() & 0xFFFFFFFFL), basic);
             }
         }
-        Collections.sort(matchMaps);
-        this.opcodeMatchMaps = matchMaps;
+        ArrayList<BasicInstruction> basics = new ArrayList<>(encodings.values());
+        basics.sort(DecodeTable::compareMasks);
+        this.decodeTable = DecodeTable.build(basics, 0);
     }
 
+    /**
+     * Finds the basic instruction a binary word encodes.  If several match, the one with the most
+     * specific mask is chosen.
+     *
+     * @param binaryInstr the instruction word
+     * @return the instruction, or null if none matches
+     */
     public BasicInstruction findByBinaryCode(int binaryInstr) {
-        for (MatchMap map : this.opcodeMatchMaps) {
-            BasicInstruction ret = map.find(binaryInstr);
-            if (ret != null) return ret;
-        }
-        return null;
+        return decodeTable.find(binaryInstr);
     }
 
     private void addBasicInstructions() {
@@ -334,38 +330,84 @@ public class InstructionSet {
         RegisterFile.updateRegister(register, RegisterFile.getProgramCounter());
     }
 
-    private static class MatchMap implements Comparable<MatchMap> {
-        private int mask;
-        private int maskLength; // number of 1 bits in mask
-        private HashMap<Integer, BasicInstruction> matchMap;
-
-        public MatchMap(int mask, HashMap<Integer, BasicInstruction> matchMap) {
-            this.mask = mask;
-            this.matchMap = matchMap;
-
-            int k = 0;
-            int n = mask;
-            while (n != 0) {
-                k++;
-                n &= n - 1;
+    /**
+     * Decoding tree built from the masks and matches of the basic instructions.  Each level
+     * selects a child by one instruction field (opcode, then funct3, funct7 and rs2) as long as
+     * that still tells candidates apart.  Instructions that do not fix all bits of the field are
+     * placed under every value they accept.  The remaining candidates are checked in order, most
+     * specific mask first, so decoding takes a few array loads and never allocates.
+     */
+    private static class DecodeTable {
+        // Fields to select on, as shift and width mask
+        private static final int[] SHIFTS = {0, 12, 25, 20};
+        private static final int[] WIDTHS = {0x7F, 0x7, 0x7F, 0x1F};
+
+        private final int shift, width;
+        private final DecodeTable[] children;
+        private final int[] masks, matches;
+        private final BasicInstruction[] instructions;
+
+        private DecodeTable(int shift, int width, DecodeTable[] children, List<BasicInstruction> candidates) {
+            this.shift = shift;
+            this.width = width;
+            this.children = children;
+            masks = new int[candidates.size()];
+            matches = new int[candidates.size()];
+            instructions = candidates.toArray(new BasicInstruction[0]);
+            for (int i = 0; i < instructions.length; i++) {
+                masks[i] = instructions[i].getOpcodeMask();
+                matches[i] = instructions[i].getOpcodeMatch();
             }
-            this.maskLength = k;
         }
 
-        public boolean equals(Object o) {
-            return o instanceof MatchMap && mask == ((MatchMap) o).mask;
+        /**
+         * @param candidates instructions to tell apart, sorted by {@link #compareMasks}
+         * @param level      index of the first field that may still be selected on
+         */
+        static DecodeTable build(List<BasicInstruction> candidates, int level) {
+            for (; level < SHIFTS.length && candidates.size() > 1; level++) {
+                int shift = SHIFTS[level], width = WIDTHS[level];
+                boolean used = false;
+                for (BasicInstruction b : candidates) {
+                    used |= ((b.getOpcodeMask() >>> shift) & width) != 0;
+                }
+                if (!used) {
+                    continue;
+                }
+                DecodeTable[] children = new DecodeTable[width + 1];
+                for (int value = 0; value <= width; value++) {
+                    ArrayList<BasicInstruction> accepted = new ArrayList<>();
+                    for (BasicInstruction b : candidates) {
+                        int mask = (b.getOpcodeMask() >>> shift) & width;
+                        if ((value & mask) == ((b.getOpcodeMatch() >>> shift) & mask)) {
+                            accepted.add(b);
+                        }
+                    }
+                    children[value] = build(accepted, level + 1);
+                }
+                return new DecodeTable(shift, width, children, Collections.emptyList());
+            }
+            return new DecodeTable(0, 0, null, candidates);
         }
 
-        public int compareTo(MatchMap other) {
-            int d = other.maskLength - this.maskLength;
-            if (d == 0) d = this.mask - other.mask;
-            return d;
+        BasicInstruction find(int instr) {
+            DecodeTable table = this;
+            while (table.children != null) {
+                table = table.children[(instr >>> table.shift) & table.width];
+            }
+            for (int i = 0; i < table.masks.length; i++) {
+                if ((instr & table.masks[i]) == table.matches[i]) {
+                    return table.instructions[i];
+                }
+            }
+            return null;
         }
 
-        public BasicInstruction find(int instr) {
-            int match = instr & mask;
-            return matchMap.get(match);
+        // Most specific (most 1 bits) mask first, ties broken by mask value
+        static int compareMasks(BasicInstruction a, BasicInstruction b) {
+            int d = Integer.bitCount(b.getOpcodeMask()) - Integer.bitCount(a.getOpcodeMask());
+            if (d == 0) d = a.getOpcodeMask() - b.getOpcodeMask();
+            return d;
         }
     }
 }
-
@@ -0,0 +1,51 @@
+package rars.riscv.hardware;
+
+/**
+ * A register whose value is kept in a slot of an array shared by its register file.  The register
+ * file reads and writes the array directly while nobody observes registers (see
+ * {@link Register#anyObserved()}); this object is the view the GUI, tools and observers use.
+ */
+public class ArrayRegister extends Register {
+    private final long[] values;
+    private final int index;
+
+    /**
+     * @param name   the name to assign
+     * @param num    the number to assign
+     * @param val    the initial (and reset) value
+     * @param values the array holding the value
+     * @param index  position of the value in the array
+     */
+    public ArrayRegister(String name, int num, long val, long[] values, int index) {
+        super(name, num, val);
+        this.values = values;
+        this.index = index;
+        values[index] = val;
+    }
+
+    public synchronized long getValue() {
+        super.getValue(); // to notify observers
+        return values[index];
+    }
+
+    public synchronized long getValueNoNotify() {
+        return values[index];
+    }
+
+    public synchronized long setValue(long val) {
+        long old = values[index];
+        values[index] = val;
+        super.setValue(val); // to notify observers
+        return old;
+    }
+
+    public synchronized long setValueBackdoor(long val) {
+        long old = values[index];
+        values[index] = val;
+        return old;
+    }
+
+    public synchronized void resetValue() {
+        values[index] = getResetValue();
+    }
+}
@@ -0,0 +1,198 @@
+package rars.riscv.hardware;
+
+import rars.riscv.InstructionSet;
+import rars.simulator.Simulator;
+import rars.util.SystemIO;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the complete state of a simulation to a file and restores it, so that a long simulation
+ * can go on from where it was saved rather than start over, or many runs can start from the same
+ * state.
+ * <p>
+ * A checkpoint holds the memory, the integer, floating point and control and status registers,
+ * the program counter, the heap pointer, the pending interrupts and the files the program has open.
+ * It is sparse: only the text blocks and pages that have been allocated are saved.  The file starts
+ * with a header holding everything but the memory, padded to a multiple of 4K bytes, followed by
+ * the text blocks and pages as 4K blocks of little endian words.  Restoring maps the file rather
+ * than reading it, and copies the pages straight from the mapping into memory.
+ * <p>
+ * Only a simulation of a single hart can be saved, and a checkpoint can only be restored with the
+ * memory configuration and RV64 setting it was saved with.  The program should be assembled
+ * before restoring, so that the statements that did not change keep their source.
+ */
+public final class Checkpoint {
+    private static final long MAGIC = 0x524152534350540AL; // "RARSCPT\n"
+    private static final int VERSION = 1;
+    private static final int BLOCK_LENGTH_BYTES = 4096;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Saves the state of the simulation in the current memory.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written, or several harts are simulated
+     */
+    public static void save(File file) throws IOException {
+        if (Simulator.getInstance().getHartCount() > 1) {
+            throw new IOException("Cannot save a checkpoint of a simulation of several harts");
+        }
+        Memory memory = Memory.getInstance();
+        int[][] blocks = memory.allocatedBlocks();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeLong(MAGIC);
+        header.writeInt(VERSION);
+        header.writeUTF(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+        header.writeBoolean(InstructionSet.rv64);
+        header.writeLong(RegisterFile.getProgramCounterRegister().getValueNoNotify());
+        header.writeInt(Memory.heapAddress);
+        writeRegisters(header, RegisterFile.getRegisters());
+        writeRegisters(header, FloatingPointRegisterFile.getRegisters());
+        writeRegisters(header, ControlAndStatusRegisterFile.getRegisters());
+        for (int value : InterruptController.getState()) {
+            header.writeInt(value);
+        }
+        SystemIO.writeFiles(header);
+        for (int[] indexes : blocks) {
+            header.writeInt(indexes.length);
+            for (int index : indexes) {
+                header.writeInt(index);
+            }
+        }
+        while (bytes.size() % BLOCK_LENGTH_BYTES != 0) {
+            header.writeByte(0);
+        }
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            memory.writeBlocks(blocks, out);
+        }
+    }
+
+    /**
+     * Restores the state of the simulation saved in a file into the current memory and the
+     * registers.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be read, is not a checkpoint or was saved with
+     *                     different settings
+     */
+    public static void restore(File file) throws IOException {
+        Memory memory = Memory.getInstance();
+        // Nothing changes until the whole header and the length of the file have been checked
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            DataInputStream header = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
+            if (header.readLong() != MAGIC || header.readInt() != VERSION) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            String configuration = header.readUTF();
+            if (!configuration.equals(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier())) {
+                throw new IOException(file + " was saved with memory configuration " + configuration);
+            }
+            if (header.readBoolean() != InstructionSet.rv64) {
+                throw new IOException(file + " was saved with " + (InstructionSet.rv64 ? "RV32" : "RV64"));
+            }
+            long programCounter = header.readLong();
+            int heapAddress = header.readInt();
+            long[] integerValues = readRegisters(header, RegisterFile.getRegisters());
+            long[] floatingPointValues = readRegisters(header, FloatingPointRegisterFile.getRegisters());
+            long[] controlAndStatusValues = readRegisters(header, ControlAndStatusRegisterFile.getRegisters());
+            int[] interrupts = {header.readInt(), header.readInt(), header.readInt()};
+            SystemIO.SavedFiles files = SystemIO.readFiles(header);
+            int[][] blocks = new int[2][];
+            long length = 0;
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new int[header.readInt()];
+                for (int j = 0; j < blocks[i].length; j++) {
+                    blocks[i][j] = header.readInt();
+                }
+                length += (long) blocks[i].length * BLOCK_LENGTH_BYTES;
+            }
+            int start = (data.capacity() - header.available() + BLOCK_LENGTH_BYTES - 1) / BLOCK_LENGTH_BYTES * BLOCK_LENGTH_BYTES;
+            if (start + length != data.capacity()) {
+                throw new IOException(file + " is not a complete checkpoint");
+            }
+            SystemIO.openFiles(files);
+            data.position(start);
+            memory.readBlocks(blocks, data.slice());
+            Memory.heapAddress = heapAddress;
+            setRegisters(RegisterFile.getRegisters(), integerValues);
+            setRegisters(FloatingPointRegisterFile.getRegisters(), floatingPointValues);
+            setRegisters(ControlAndStatusRegisterFile.getRegisters(), controlAndStatusValues);
+            RegisterFile.getProgramCounterRegister().setValueBackdoor(programCounter);
+            InterruptController.setState(interrupts);
+        }
+    }
+
+    private static void writeRegisters(DataOutputStream out, Register[] registers) throws IOException {
+        out.writeInt(registers.length);
+        for (Register register : registers) {
+            out.writeLong(register.getValueNoNotify());
+        }
+    }
+
+    private static long[] readRegisters(DataInputStream in, Register[] registers) throws IOException {
+        if (in.readInt() != registers.length) {
+            throw new IOException("The checkpoint was saved with different registers");
+        }
+        long[] values = new long[registers.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    // Registers derived from others (fflags, frm and the high halves of the counters) follow
+    // along, and time goes on from where it is now, as when switching harts.
+    private static void setRegisters(Register[] registers, long[] values) {
+        for (int i = 0; i < registers.length; i++) {
+            Register register = registers[i];
+            if (register instanceof LinkedRegister
+                    || register == ControlAndStatusRegisterFile.getRegister(ControlAndStatusRegisterFile.TIME)) {
+                continue;
+            }
+            register.setValueBackdoor(values[i]);
+        }
+    }
+
+    // Reads the header straight from the mapped file
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
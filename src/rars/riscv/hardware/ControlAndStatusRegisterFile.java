@@ -1,6 +1,7 @@
 package rars.riscv.hardware;
 
 import rars.Globals;
+import rars.simulator.Journal;
 
 import java.util.Observer;
 
@@ -46,37 +47,50 @@ public class ControlAndStatusRegisterFile {
 
 
     public static final int INTERRUPT_ENABLE = 0x1;
+
+    // Numbers of the implemented CSRs, for the simulator and instructions.  The name based methods
+    // are meant for the GUI and the API, they search the registers by name.
+    public static final int USTATUS = 0x000, FFLAGS = 0x001, FRM = 0x002, FCSR = 0x003, UIE = 0x004, UTVEC = 0x005,
+            USCRATCH = 0x040, UEPC = 0x041, UCAUSE = 0x042, UTVAL = 0x043, UIP = 0x044,
+            CYCLE = 0xC00, TIME = 0xC01, INSTRET = 0xC02, CYCLEH = 0xC80, TIMEH = 0xC81, INSTRETH = 0xC82,
+            MHARTID = 0xF14;
     
     private static final RegisterBlock instance;
 
+    // Instructions retired since the last reset.  cycle and instret are derived from it when read.
+    // Only the simulator thread changes it, other threads read it while holding
+    // Globals.memoryAndRegistersLock, so it needs no synchronization of its own.
+    private static long retired;
+
     static {
         // TODO: consider making time, cycle and instret 64 bit registers which then are linked to by *h
         // Remember to update the window tooltips when adding a CSR
         Register[] tmp = {
-                new MaskedRegister("ustatus", 0x000, 0,~0x11),
+                new MaskedRegister("ustatus", USTATUS, 0,~0x11),
                 null, // fflags
                 null, // frm
-                new MaskedRegister("fcsr", 0x003, 0, ~0xFF),
-                new Register("uie", 0x004, 0),
-                new Register("utvec", 0x005, 0),
-                new Register("uscratch", 0x040, 0),
-                new Register("uepc", 0x041, 0),
-                new Register("ucause", 0x042, 0),
-                new Register("utval", 0x043, 0),
-                new Register("uip", 0x044, 0),
-                new ReadOnlyRegister("cycle", 0xC00, 0),
-                new ReadOnlyRegister("time", 0xC01, 0),
-                new ReadOnlyRegister("instret",0xC02, 0),
+                new MaskedRegister("fcsr", FCSR, 0, ~0xFF),
+                new Register("uie", UIE, 0),
+                new Register("utvec", UTVEC, 0),
+                new Register("uscratch", USCRATCH, 0),
+                new Register("uepc", UEPC, 0),
+                new Register("ucause", UCAUSE, 0),
+                new Register("utval", UTVAL, 0),
+                new InterruptPendingRegister("uip", UIP, 0),
+                new CounterRegister("cycle", CYCLE, () -> retired),
+                new CounterRegister("time", TIME, System::currentTimeMillis),
+                new CounterRegister("instret", INSTRET, () -> retired),
                 null, // cycleh
                 null, // timeh
                 null, // instreth
+                new ReadOnlyRegister("mhartid", MHARTID, 0),
         };
-        tmp[1] = new LinkedRegister("fflags", 0x001, tmp[3], 0x1F);
-        tmp[2] = new LinkedRegister("frm", 0x002, tmp[3], 0xE0);
+        tmp[1] = new LinkedRegister("fflags", FFLAGS, tmp[3], 0x1F);
+        tmp[2] = new LinkedRegister("frm", FRM, tmp[3], 0xE0);
 
-        tmp[14] = new LinkedRegister("cycleh", 0xC80,tmp[11], 0xFFFFFFFF_00000000L);
-        tmp[15] = new LinkedRegister("timeh", 0xC81, tmp[12],0xFFFFFFFF_00000000L);
-        tmp[16] = new LinkedRegister("instreth",0xC82, tmp[13],0xFFFFFFFF_00000000L);
+        tmp[14] = new LinkedRegister("cycleh", CYCLEH, tmp[11], 0xFFFFFFFF_00000000L);
+        tmp[15] = new LinkedRegister("timeh", TIMEH, tmp[12],0xFFFFFFFF_00000000L);
+        tmp[16] = new LinkedRegister("instreth", INSTRETH, tmp[13],0xFFFFFFFF_00000000L);
         instance = new RegisterBlock('_', tmp); // prefix not used
     }
 
@@ -92,7 +106,7 @@ public class ControlAndStatusRegisterFile {
             return true;
         }
         // TODO: do something to better handle the h csrs
-        if (num >= 0xC80 && num <= 0xC82) {
+        if (num >= CYCLEH && num <= INSTRETH) {
             return true;
         }
         if ((Globals.getSettings().getBackSteppingEnabled())) {
@@ -201,6 +215,23 @@ public class ControlAndStatusRegisterFile {
     public static long getValueLong(int num) {
         return instance.getValue(num);
     }
+
+    /**
+     * Returns the full value of the register for a CSR instruction.  The time counters are read
+     * through the {@link Journal}, so a run that is played back sees the times of the recording.
+     *
+     * @param num The register number.
+     * @return The value of the given register.
+     **/
+
+    public static long readRegister(int num) {
+        if (num != TIME && num != TIMEH) {
+            return instance.getValue(num);
+        }
+        instance.getValue(num); // to notify observers
+        long time = Journal.time(instance.getRegister(TIME)::getValueNoNotify);
+        return num == TIME ? time : time >>> 32;
+    }
     /**
      * Returns the value of the register
      *
@@ -233,6 +264,28 @@ public class ControlAndStatusRegisterFile {
         return instance.getRegisters();
     }
 
+    /**
+     * Get register object corresponding to given number.  If no match, return null.
+     *
+     * @param num The register number
+     * @return The register object, or null if not found.
+     **/
+
+    public static Register getRegister(int num) {
+        return instance.getRegister(num);
+    }
+
+    /**
+     * Returns the value of the register without notifying observers
+     *
+     * @param num The register number.
+     * @return The value of the given register.
+     **/
+
+    public static long getValueNoNotify(int num) {
+        return instance.getRegister(num).getValueNoNotify();
+    }
+
 
     /**
      * ControlAndStatusRegisterFile implements a wide range of register numbers that don't math the position in the underlying array
@@ -256,9 +309,35 @@ public class ControlAndStatusRegisterFile {
      **/
 
     public static void resetRegisters() {
+        retired = 0;
         instance.resetRegisters();
     }
 
+    /**
+     * Counts instructions as retired, which advances cycle and instret.
+     *
+     * @param count number of instructions completed
+     */
+    public static void retire(long count) {
+        retired += count;
+    }
+
+    /**
+     * @return number of instructions retired since the registers were reset
+     */
+    public static long getRetired() {
+        return retired;
+    }
+
+    /**
+     * Sets the number of retired instructions, used when back-stepping.
+     *
+     * @param count the number of retired instructions
+     */
+    public static void setRetired(long count) {
+        retired = count;
+    }
+
     /**
      * Each individual register is a separate object and Observable.  This handy method
      * will add the given Observer to each one.
@@ -0,0 +1,51 @@
+package rars.riscv.hardware;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A read only register whose value is derived from a running count when it is read, instead of
+ * being stored on every change.  Used for the cycle, instret and time counters, so the simulator
+ * only has to bump a primitive count per instruction.
+ * <p>
+ * Writes (through the backdoor, or a reset) move the register relative to the count; the count
+ * itself is left alone.
+ */
+public class CounterRegister extends ReadOnlyRegister {
+    private final LongSupplier count;
+    private long offset;
+
+    /**
+     * @param name  the name to assign
+     * @param num   the number to assign
+     * @param count the count this register follows
+     */
+    public CounterRegister(String name, int num, LongSupplier count) {
+        super(name, num, 0);
+        this.count = count;
+    }
+
+    public synchronized long getValue() {
+        super.getValue(); // to notify observers
+        return getValueNoNotify();
+    }
+
+    public synchronized long getValueNoNotify() {
+        return count.getAsLong() + offset;
+    }
+
+    public synchronized long setValue(long val) {
+        long old = setValueBackdoor(val);
+        super.setValue(0); //value doesn't matter just notify
+        return old;
+    }
+
+    public synchronized long setValueBackdoor(long val) {
+        long old = getValueNoNotify();
+        offset = val - count.getAsLong();
+        return old;
+    }
+
+    public synchronized void resetValue() {
+        offset = getResetValue();
+    }
+}
@@ -46,23 +46,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 // Float.intBitsToFloat() to bring it back.
 
 public class FloatingPointRegisterFile {
+    // Register values, indexed by register number.  While no register is observed the methods
+    // below access them directly instead of through the registers.
+    private static final long[] values = new long[32];
+
     private static final RegisterBlock instance = new RegisterBlock('f', new Register[]{
-            new Register("ft0", 0, 0), new Register("ft1", 1, 0),
-            new Register("ft2", 2, 0), new Register("ft3", 3, 0),
-            new Register("ft4", 4, 0), new Register("ft5", 5, 0),
-            new Register("ft6", 6, 0), new Register("ft7", 7, 0),
-            new Register("fs0", 8, 0), new Register("fs1", 9, 0),
-            new Register("fa0", 10, 0), new Register("fa1", 11, 0),
-            new Register("fa2", 12, 0), new Register("fa3", 13, 0),
-            new Register("fa4", 14, 0), new Register("fa5", 15, 0),
-            new Register("fa6", 16, 0), new Register("fa7", 17, 0),
-            new Register("fs2", 18, 0), new Register("fs3", 19, 0),
-            new Register("fs4", 20, 0), new Register("fs5", 21, 0),
-            new Register("fs6", 22, 0), new Register("fs7", 23, 0),
-            new Register("fs8", 24, 0), new Register("fs9", 25, 0),
-            new Register("fs10", 26, 0), new Register("fs11", 27, 0),
-            new Register("ft8", 28, 0), new Register("ft9", 29, 0),
-            new Register("ft10", 30, 0), new Register("ft11", 31, 0)
+            new ArrayRegister("ft0", 0, 0, values, 0), new ArrayRegister("ft1", 1, 0, values, 1),
+            new ArrayRegister("ft2", 2, 0, values, 2), new ArrayRegister("ft3", 3, 0, values, 3),
+            new ArrayRegister("ft4", 4, 0, values, 4), new ArrayRegister("ft5", 5, 0, values, 5),
+            new ArrayRegister("ft6", 6, 0, values, 6), new ArrayRegister("ft7", 7, 0, values, 7),
+            new ArrayRegister("fs0", 8, 0, values, 8), new ArrayRegister("fs1", 9, 0, values, 9),
+            new ArrayRegister("fa0", 10, 0, values, 10), new ArrayRegister("fa1", 11, 0, values, 11),
+            new ArrayRegister("fa2", 12, 0, values, 12), new ArrayRegister("fa3", 13, 0, values, 13),
+            new ArrayRegister("fa4", 14, 0, values, 14), new ArrayRegister("fa5", 15, 0, values, 15),
+            new ArrayRegister("fa6", 16, 0, values, 16), new ArrayRegister("fa7", 17, 0, values, 17),
+            new ArrayRegister("fs2", 18, 0, values, 18), new ArrayRegister("fs3", 19, 0, values, 19),
+            new ArrayRegister("fs4", 20, 0, values, 20), new ArrayRegister("fs5", 21, 0, values, 21),
+            new ArrayRegister("fs6", 22, 0, values, 22), new ArrayRegister("fs7", 23, 0, values, 23),
+            new ArrayRegister("fs8", 24, 0, values, 24), new ArrayRegister("fs9", 25, 0, values, 25),
+            new ArrayRegister("fs10", 26, 0, values, 26), new ArrayRegister("fs11", 27, 0, values, 27),
+            new ArrayRegister("ft8", 28, 0, values, 28), new ArrayRegister("ft9", 29, 0, values, 29),
+            new ArrayRegister("ft10", 30, 0, values, 30), new ArrayRegister("ft11", 31, 0, values, 31)
     });
 
     /**
@@ -97,19 +101,16 @@ public class FloatingPointRegisterFile {
      **/
 
     public static void updateRegister(int num, int val) {
-        long lval = val | 0xFFFFFFFF_00000000L; // NAN box if used as float
-        if ((Globals.getSettings().getBackSteppingEnabled())) {
-            Globals.program.getBackStepper().addFloatingPointRestore(num, instance.updateRegister(num, lval));
-        } else {
-            instance.updateRegister(num, lval);
-        }
+        updateRegisterLong(num, val | 0xFFFFFFFF_00000000L); // NAN box if used as float
     }
 
     public static void updateRegisterLong(int num, long val) {
         if ((Globals.getSettings().getBackSteppingEnabled())) {
             Globals.program.getBackStepper().addFloatingPointRestore(num, instance.updateRegister(num, val));
-        } else {
+        } else if (Register.anyObserved()) {
             instance.updateRegister(num, val);
+        } else {
+            values[num] = val;
         }
     }
     /**
@@ -121,7 +122,7 @@ public class FloatingPointRegisterFile {
      **/
 
     public static int getValue(int num) {
-        long lval = instance.getValue(num);
+        long lval = getValueLong(num);
         if((lval & 0xFFFFFFFF_00000000L) == 0xFFFFFFFF_00000000L){
             return (int)lval; // If NaN-Boxed return value
         }else{
@@ -130,7 +131,7 @@ public class FloatingPointRegisterFile {
     }
 
     public static long getValueLong(int num) {
-        return instance.getValue(num);
+        return Register.anyObserved() ? instance.getValue(num) : values[num];
     }
 
     /**
@@ -0,0 +1,92 @@
+package rars.riscv.hardware;
+
+/**
+ * The registers of one hart (hardware thread) while another one runs.
+ * <p>
+ * The register files hold the registers of the running hart only.  To switch harts, the
+ * simulator saves them into the Hart that was running and restores those of the next one, so all
+ * harts share the memory and each has its own program counter, integer, floating point and
+ * control and status registers.  Registers derived from others (fflags, frm and the high halves
+ * of the counters) follow along, and time is the same for all harts.
+ */
+public class Hart {
+    private final int id;
+    private final long[] integerValues = new long[RegisterFile.getRegisters().length];
+    private final long[] floatingPointValues = new long[FloatingPointRegisterFile.getRegisters().length];
+    private final long[] controlAndStatusValues = new long[ControlAndStatusRegisterFile.getRegisters().length];
+    private long programCounter;
+
+    /**
+     * Creates a hart that starts as a copy of the registers as they are now, except for its
+     * mhartid register.
+     *
+     * @param id the number of the hart, which its mhartid register reads
+     */
+    public Hart(int id) {
+        this.id = id;
+        save();
+        Register[] controlAndStatus = ControlAndStatusRegisterFile.getRegisters();
+        for (int i = 0; i < controlAndStatus.length; i++) {
+            if (controlAndStatus[i].getNumber() == ControlAndStatusRegisterFile.MHARTID) {
+                controlAndStatusValues[i] = id;
+            }
+        }
+    }
+
+    /**
+     * @return the number of the hart
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets an integer register of the hart while it is not running.
+     *
+     * @param number the register number
+     * @param value  the value
+     */
+    public void setRegister(int number, long value) {
+        Register[] registers = RegisterFile.getRegisters();
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i].getNumber() == number) {
+                integerValues[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Copies the registers into this hart, when it stops running.
+     */
+    public void save() {
+        copy(RegisterFile.getRegisters(), integerValues, true);
+        copy(FloatingPointRegisterFile.getRegisters(), floatingPointValues, true);
+        copy(ControlAndStatusRegisterFile.getRegisters(), controlAndStatusValues, true);
+        programCounter = RegisterFile.getProgramCounterRegister().getValueNoNotify();
+    }
+
+    /**
+     * Copies this hart into the registers, when it starts running.
+     */
+    public void restore() {
+        copy(RegisterFile.getRegisters(), integerValues, false);
+        copy(FloatingPointRegisterFile.getRegisters(), floatingPointValues, false);
+        copy(ControlAndStatusRegisterFile.getRegisters(), controlAndStatusValues, false);
+        RegisterFile.getProgramCounterRegister().setValueBackdoor(programCounter);
+    }
+
+    private static void copy(Register[] registers, long[] values, boolean save) {
+        for (int i = 0; i < registers.length; i++) {
+            Register register = registers[i];
+            if (register instanceof LinkedRegister
+                    || register == ControlAndStatusRegisterFile.getRegister(ControlAndStatusRegisterFile.TIME)) {
+                continue;
+            }
+            if (save) {
+                values[i] = register.getValueNoNotify();
+            } else {
+                register.setValueBackdoor(values[i]);
+            }
+        }
+    }
+}
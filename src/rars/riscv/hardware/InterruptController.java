@@ -2,8 +2,11 @@ package rars.riscv.hardware;
 
 import rars.SimulationException;
 import rars.riscv.Instruction;
+import rars.simulator.Journal;
 import rars.simulator.Simulator;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Manages the flow of interrupts to the processor
  * <p>
@@ -14,30 +17,48 @@ public class InterruptController {
     // Lock for synchronizing as this is a static class
     public static final Object lock = new Object();
 
+    /**
+     * Bits of the pending event word, see {@link #pending()}
+     */
+    public static final int EXTERNAL = 0x1, TIMER = 0x2, TRAP = 0x4, SOFTWARE = 0x8;
+
+    // Pending events.  Changed atomically, values below are only touched while holding lock
+    private static final AtomicInteger pending = new AtomicInteger();
+
     // Status for the interrupt state
-    private static boolean externalPending = false;
     private static int externalValue;
-    private static boolean timerPending = false;
     private static int timerValue;
 
+    // The pending interrupts already recorded in the journal, see journalPending()
+    private static int journaled;
+
     //Status for trap state
-    private static boolean trapPending = false;
     private static SimulationException trapSE;
     private static int trapPC;
 
     public static void reset() {
         synchronized (lock) {
-            externalPending = false;
-            timerPending = false;
-            trapPending = false;
+            clear(EXTERNAL | TIMER | TRAP); // SOFTWARE follows uip
+            journaled = 0;
         }
     }
 
+    /**
+     * Returns the events waiting to be handled by the simulator, as a combination of EXTERNAL, TIMER,
+     * TRAP and SOFTWARE (the software interrupt bit of uip).  This is a single volatile read, so the
+     * simulator can check for events after every instruction and only synchronize when there are any.
+     *
+     * @return the pending event bits, 0 if there is nothing to handle
+     */
+    public static int pending() {
+        return pending.get();
+    }
+
     public static boolean registerExternalInterrupt(int value) {
         synchronized (lock) {
-            if (externalPending) return false;
+            if (externalPending()) return false;
             externalValue = value;
-            externalPending = true;
+            set(EXTERNAL);
             Simulator.getInstance().interrupt();
             return true;
         }
@@ -45,9 +66,9 @@ public class InterruptController {
 
     public static boolean registerTimerInterrupt(int value) {
         synchronized (lock) {
-            if (timerPending) return false;
+            if (timerPending()) return false;
             timerValue = value;
-            timerPending = true;
+            set(TIMER);
             Simulator.getInstance().interrupt();
             return true;
         }
@@ -55,54 +76,117 @@ public class InterruptController {
 
     public static boolean registerSynchronousTrap(SimulationException se, int pc) {
         synchronized (lock) {
-            if (trapPending) return false;
+            if (trapPending()) return false;
             trapSE = se;
             trapPC = pc;
-            trapPending = true;
+            set(TRAP);
             return true;
         }
     }
 
-    public static boolean externalPending() {
-        synchronized (lock) {
-            return externalPending;
+    /**
+     * Mirrors the software interrupt bit of uip, which is kept up to date by that register.
+     *
+     * @param value whether a software interrupt is pending
+     */
+    static void setSoftwarePending(boolean value) {
+        if (value) {
+            set(SOFTWARE);
+        } else {
+            clear(SOFTWARE);
         }
     }
 
+    public static boolean externalPending() {
+        return (pending.get() & EXTERNAL) != 0;
+    }
+
     public static boolean timerPending() {
-        synchronized (lock) {
-            return timerPending;
-        }
+        return (pending.get() & TIMER) != 0;
     }
 
     public static boolean trapPending() {
-        synchronized (lock) {
-            return trapPending;
-        }
+        return (pending.get() & TRAP) != 0;
     }
 
     public static int claimExternal() {
         synchronized (lock) {
-            assert externalPending : "Cannot claim, no external interrupt pending";
-            externalPending = false;
+            assert externalPending() : "Cannot claim, no external interrupt pending";
+            clear(EXTERNAL);
+            journaled &= ~EXTERNAL;
             return externalValue;
         }
     }
 
     public static int claimTimer() {
         synchronized (lock) {
-            assert timerPending : "Cannot claim, no timer interrupt pending";
-            timerPending = false;
+            assert timerPending() : "Cannot claim, no timer interrupt pending";
+            clear(TIMER);
+            journaled &= ~TIMER;
             return timerValue;
         }
     }
 
     public static SimulationException claimTrap() {
         synchronized (lock) {
-            assert trapPending : "Cannot claim, no trap pending";
+            assert trapPending() : "Cannot claim, no trap pending";
             assert trapPC == RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH : "trapPC doesn't match current pc";
-            trapPending = false;
+            clear(TRAP);
             return trapSE;
         }
     }
+
+    /**
+     * Records the external and timer interrupts that became pending since the last call in the
+     * journal.  Called by the simulator when it looks at the pending interrupts, so they are
+     * recorded at the instruction count where it first sees them.
+     */
+    public static void journalPending() {
+        synchronized (lock) {
+            int fresh = pending.get() & (EXTERNAL | TIMER) & ~journaled;
+            if ((fresh & EXTERNAL) != 0) {
+                Journal.recordInterrupt(EXTERNAL, externalValue);
+            }
+            if ((fresh & TIMER) != 0) {
+                Journal.recordInterrupt(TIMER, timerValue);
+            }
+            journaled |= fresh;
+        }
+    }
+
+    /**
+     * Returns the pending external and timer interrupts with their values, for a {@link Checkpoint}
+     * or a simulation that makes way for another.  A pending trap is not kept: it is always taken by
+     * the step that raised it.
+     *
+     * @return the state, to pass to setState
+     */
+    public static int[] getState() {
+        synchronized (lock) {
+            return new int[]{pending.get() & (EXTERNAL | TIMER), externalValue, timerValue};
+        }
+    }
+
+    /**
+     * Replaces the pending interrupts with those of getState.
+     *
+     * @param state what getState returned
+     */
+    public static void setState(int[] state) {
+        synchronized (lock) {
+            clear(EXTERNAL | TIMER | TRAP);
+            journaled = 0;
+            externalValue = state[1];
+            timerValue = state[2];
+            set(state[0] & (EXTERNAL | TIMER));
+        }
+    }
+
+    private static void set(int bits) {
+        pending.getAndUpdate(old -> old | bits);
+    }
+
+    private static void clear(int bits) {
+        pending.getAndUpdate(old -> old & ~bits);
+    }
 }
@@ -0,0 +1,32 @@
+package rars.riscv.hardware;
+
+/**
+ * The uip register.  It tells the {@link InterruptController} whenever its software interrupt bit
+ * changes, so the simulator can find all pending events in {@link InterruptController#pending()}.
+ */
+public class InterruptPendingRegister extends Register {
+    public InterruptPendingRegister(String name, int num, int val) {
+        super(name, num, val);
+    }
+
+    public synchronized long setValue(long val) {
+        long old = super.setValue(val);
+        update();
+        return old;
+    }
+
+    public synchronized long setValueBackdoor(long val) {
+        long old = super.setValueBackdoor(val);
+        update();
+        return old;
+    }
+
+    public synchronized void resetValue() {
+        super.resetValue();
+        update();
+    }
+
+    private void update() {
+        InterruptController.setSoftwarePending((getValueNoNotify() & ControlAndStatusRegisterFile.SOFTWARE_INTERRUPT) != 0);
+    }
+}
@@ -7,10 +7,15 @@ import rars.SimulationException;
 import rars.riscv.Instruction;
 import rars.util.Binary;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 	/*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -128,66 +133,62 @@ public class Memory extends Observable {
     // key for insertion into the tree would be based on Comparable using both low 
     // and high end of address range, but retrieval from the tree has to be based
     // on target address being ANYWHERE IN THE RANGE (not an exact key match).
-
-    private Collection<MemoryObservable> observables = getNewMemoryObserversCollection();
-
-    // The data segment is allocated in blocks of 1024 ints (4096 bytes).  Each block is
-    // referenced by a "block table" entry, and the table has 1024 entries.  The capacity
-    // is thus 1024 entries * 4096 bytes = 4 MB.  Should be enough to cover most
-    // programs!!  Beyond that it would go to an "indirect" block (similar to Unix i-nodes),
-    // which is not implemented.
+    // So the observables are kept in an ObserverIndex instead: sorted by low address
+    // along with the running maximum of the high ends, which makes the ranges holding
+    // an address a binary search away.  Observers come and go rarely compared to memory
+    // accesses, so the index is immutable and simply rebuilt on every change.
+
+    private volatile ObserverIndex observables = new ObserverIndex(new MemoryObservable[0]);
+    // Bumped whenever observers are added or removed on any memory, see getObserverChangeCount()
+    private static final AtomicInteger observerChanges = new AtomicInteger();
+
+    // The data segment, the stack and memory mapped I/O all live in one flat table of 4K byte
+    // pages that covers the whole 32-bit address space: entry n holds the 1024 words starting
+    // at address n * 4096, or null if nothing has been written there yet.  Since the words
+    // are stored by their address, the stack (which grows DOWNWARD from its base address)
+    // needs no special treatment, and neither would any segment added later.
     //
     // Although this scheme is an array of arrays, it is relatively space-efficient since
-    // only the table is created initially. A 4096-byte block is not allocated until a value 
-    // is written to an address within it.  Thus most small programs will use only 8K bytes 
-    // of space (the table plus one block).  The index into both arrays is easily computed 
+    // only the table is created initially. A 4096-byte page is not allocated until a value
+    // is written to an address within it.  Thus most small programs will use only a few
+    // pages besides the table itself.  The index into both arrays is easily computed
     // from the address; access time is constant.
     //
+    // The segments still decide which addresses can be used at all.  The data segment is
+    // limited to 1024 pages (4 MB) from its base, and so is the stack below its base.
+    //
     // SPIM stores statically allocated data (following first .data directive) starting
     // at location 0x10010000.  This is the first Data Segment word beyond the reach of $gp
     // used in conjunction with signed 16 bit immediate offset.  $gp has value 0x10008000
     // and with the signed 16 bit offset can reach from 0x10008000 - 0xFFFF = 0x10000000 
     // (Data Segment base) to 0x10008000 + 0x7FFF = 0x1000FFFF (the byte preceding 0x10010000).
-    //
-    // Using my scheme, 0x10010000 falls at the beginning of the 17'th block -- table entry 16.
     // SPIM uses a heap base address of 0x10040000 which is not part of the MIPS specification.
-    // (I don't have a reference for that offhand...)  Using my scheme, 0x10040000 falls at
-    // the start of the 65'th block -- table entry 64.  That leaves (1024-64) * 4096 = 3,932,160
-    // bytes of space available without going indirect.
+    // (I don't have a reference for that offhand...)
+    //
+    // Memory mapped I/O address range is limited to 0xffff0000 to 0xfffffffc, so there are
+    // only 64K bytes (16 pages) total, and I suspect never more than one page is used since
+    // only the first few addresses are typically used.  Note that the MMIO addresses are
+    // interpreted by Java as negative numbers since it does not have unsigned types.  As
+    // long as the address is shifted unsigned to get the page number, this is of no concern.
+    //
+    // With the OffHeapMemory configuration setting, the pages are little endian direct byte
+    // buffers in a table of their own instead, so even a fully used data segment and stack
+    // are no work for the garbage collector.  Only one of the two tables is ever created.
+    // The pages are slices of a few larger direct buffers, the arenas, each twice as large
+    // as the one before up to 4 MB, so the collector only tracks one buffer for many pages.
+    // An arena is freed once no memory refers to any of its pages.
 
     private static final int BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 ints == 4K bytes
-    private static final int BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
-    private int[][] dataBlockTable;
-
-    // The stack is modeled similarly to the data segment.  It cannot share the same
-    // data structure because the stack base address is very large.  To store it in the
-    // same data structure would require implementation of indirect blocks, which has not
-    // been realized.  So the stack gets its own table of blocks using the same dimensions 
-    // and allocation scheme used for data segment.
-    //
-    // The other major difference is the stack grows DOWNWARD from its base address, not
-    // upward.  I.e., the stack base is the largest stack address. This turns the whole 
-    // scheme for translating memory address to block-offset on its head!  The simplest
-    // solution is to calculate relative address (offset from base) by subtracting the 
-    // desired address from the stack base address (rather than subtracting base address 
-    // from desired address).  Thus as the address gets smaller the offset gets larger.
-    // Everything else works the same, so it shares some private helper methods with
-    // data segment algorithms.
-
-    private int[][] stackBlockTable;
-
-    // Memory mapped I/O is simulated with a separate table using the same structure and
-    // logic as data segment.  Memory is allocated in 4K byte blocks.  But since MMIO
-    // address range is limited to 0xffff0000 to 0xfffffffc, there are only 64K bytes 
-    // total.  Thus there will be a maximum of 16 blocks, and I suspect never more than
-    // one since only the first few addresses are typically used.  The only exception
-    // may be a rogue program generating such addresses in a loop.  Note that the
-    // MMIO addresses are interpreted by Java as negative numbers since it does not 
-    // have unsigned types.  As long as the absolute address is correctly translated
-    // into a table offset, this is of no concern.
-
-    private static final int MMIO_TABLE_LENGTH = 16; // Each entry of table points to a 4K block.
-    private int[][] memoryMapBlockTable;
+    private static final int BLOCK_TABLE_LENGTH = 1024; // Pages available to data segment and stack.
+    private static final int MMIO_TABLE_LENGTH = 16; // Pages available to memory mapped I/O.
+    private static final int PAGE_SHIFT = 12; // page number is address >>> PAGE_SHIFT
+    private static final int PAGE_OFFSET_MASK = 0xFFF; // byte within the page
+    private static final int PAGE_TABLE_LENGTH = 1 << (32 - PAGE_SHIFT);
+    private int[][] pages;
+    private ByteBuffer[] directPages;
+    private ByteBuffer arena; // where the next direct page is cut from
+    private static final int PAGE_LENGTH_BYTES = BLOCK_LENGTH_WORDS * WORD_LENGTH_BYTES;
+    private static final int FIRST_ARENA_PAGES = 16, LAST_ARENA_PAGES = 1024;
 
     // I use a similar scheme for storing instructions.  MIPS text segment ranges from
     // 0x00400000 all the way to data segment (0x10000000) a range of about 250 MB!  So
@@ -199,6 +200,10 @@ public class Memory extends Observable {
     private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
     private ProgramStatement[][] textBlockTable;
 
+    // Bumped every time the contents of the text segment change, so that anything caching
+    // decoded instructions (the simulator's predecoded table) knows to throw its copy away.
+    private int textModificationCount = 0;
+
     // Set "top" address boundary to go with each "base" address.  This determines permissable
     // address range for user program.  Currently limit is 4MB, or 1024 * 1024 * 4 bytes based
     // on the table structures described above (except memory mapped IO, limited to 64KB by range).
@@ -211,6 +216,47 @@ public class Memory extends Observable {
             BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES;
     public static int memoryMapLimitAddress = memoryMapBaseAddress +
             BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES;
+
+    // What each page of the address space is under the current configuration, so an aligned
+    // load or store can tell from one lookup whether it may go straight to the page.  Only
+    // RAM pages, which lie completely within the data segment or the stack, are accessed
+    // directly.  Text pages hold statements rather than words, and device (memory mapped
+    // I/O) pages and pages that are only partly usable always go through get() and set().
+    private static final byte CHECKED = 0, RAM = 1, TEXT = 2, DEVICE = 3;
+    private static byte[] pageKinds = mapPages();
+
+    // Set while any observer is registered.
+    private volatile boolean observed = false;
+
+    // Watchpoints, and the instruction access that last triggered one until the simulator takes it
+    private volatile Watchpoint[] watchpoints = new Watchpoint[0];
+    private volatile Watchpoint.Hit watchpointHit;
+    // Set while a doubleword access is made as two word accesses, which are checked as one access
+    private boolean doubleWordAccess;
+
+    // Address reserved by the last load reserved (lr.w, lr.d), if reserved is set
+    private int reservedAddress;
+    private boolean reserved;
+
+    // One bit per page that is observed or watched, or null if there are none.  The direct
+    // accesses skip these pages so that get() and set() can notify or check the watchpoints.
+    private volatile long[] checkedPages;
+
+    // Pages and text blocks shared with another memory by copyFrom(), one bit each, or null if
+    // there are none.  They are copied before they are written, so stores to them skip the
+    // direct path.  The bits are set in both memories, so neither can change the other's copy.
+    private long[] sharedPages, sharedTextBlocks;
+    // The pages and text blocks this memory got a copy of or allocated since copyFrom(), which
+    // are all those that differ from the memory it was copied from.  Each one is listed once,
+    // since it is only copied or allocated once.
+    private int[] writtenPages = new int[16], writtenTextBlocks = new int[16];
+    private int writtenPageCount, writtenTextBlockCount;
+    // The memory last copied by copyFrom(), and its version then.  The version changes with
+    // every page or text block a memory copies or allocates, hence with every change of its
+    // contents since it was last copied, as then all of its pages are shared.
+    private Memory copiedFrom;
+    private int copiedVersion, version;
+
     // This will be a Singleton class, only one instance is ever created.  Since I know the 
     // Memory object is always needed, I'll go ahead and create it at the time of class loading.
     // (greedy rather than lazy instantiation).  The constructor is private and getInstance()
@@ -226,43 +272,55 @@ public class Memory extends Observable {
         initialize();
     }
 
+    /**
+     * Makes this memory a copy of another one, typically the pristine image of an assembled
+     * program that is about to be simulated.
+     * <p>
+     * The pages and text blocks are not copied but shared between the two memories until either
+     * one writes to them, at which point the writer gets a copy of its own.  This memory also
+     * remembers which pages it has written since, so copying the same memory again, while that
+     * memory did not change, only puts those pages back.  The text segment then stays the same
+     * unless the program modified its code, so the simulator can keep its decoded instructions.
+     *
+     * @param other the memory to copy
+     * @return false if the memories are not configured alike, in which case nothing is copied
+     */
     public boolean copyFrom(Memory other){
         if(textBlockTable.length != other.textBlockTable.length ||
-                dataBlockTable.length != other.dataBlockTable.length ||
-                stackBlockTable.length != other.stackBlockTable.length ||
-                memoryMapBlockTable.length != other.memoryMapBlockTable.length){
+                (pages == null) != (other.pages == null)){
             // The memory configurations don't match up
             return false;
         }
-
-        for(int i = 0; i < textBlockTable.length; i++){
-            if(other.textBlockTable[i] != null){
-                textBlockTable[i] = other.textBlockTable[i].clone(); // TODO: potentially make ProgramStatement clonable
-            }else{
-                textBlockTable[i] = null;
+        if(other == copiedFrom && other.version == copiedVersion){
+            // Only put back what was written since the last copy
+            for(int i = 0; i < writtenPageCount; i++){
+                sharePage(other, writtenPages[i]);
             }
-        }
-        for(int i = 0; i < dataBlockTable.length; i++){
-            if(other.dataBlockTable[i] != null){
-                dataBlockTable[i] = other.dataBlockTable[i].clone();
-            }else{
-                dataBlockTable[i] = null;
+            for(int i = 0; i < writtenTextBlockCount; i++){
+                shareTextBlock(other, writtenTextBlocks[i]);
             }
-        }
-        for(int i = 0; i < stackBlockTable.length; i++){
-            if(other.stackBlockTable[i] != null){
-                stackBlockTable[i] = other.stackBlockTable[i].clone();
-            }else{
-                stackBlockTable[i] = null;
+            if(writtenTextBlockCount > 0){
+                textModificationCount++;
             }
-        }
-        for(int i = 0; i < memoryMapBlockTable.length; i++){
-            if(other.memoryMapBlockTable[i] != null){
-                memoryMapBlockTable[i] = other.memoryMapBlockTable[i].clone();
-            }else{
-                memoryMapBlockTable[i] = null;
+        }else{
+            textModificationCount++;
+            for(int i = 0; i < textBlockTable.length; i++){
+                shareTextBlock(other, i);
+            }
+            Object[] table = pages != null ? pages : directPages;
+            System.arraycopy(pages != null ? other.pages : other.directPages, 0, table, 0, PAGE_TABLE_LENGTH);
+            sharedPages = null;
+            for(int i = 0; i < PAGE_TABLE_LENGTH; i++){
+                if(table[i] != null){
+                    sharedPages = share(sharedPages, PAGE_TABLE_LENGTH, i);
+                    other.sharedPages = share(other.sharedPages, PAGE_TABLE_LENGTH, i);
+                }
             }
         }
+        writtenPageCount = 0;
+        writtenTextBlockCount = 0;
+        copiedFrom = other;
+        copiedVersion = other.version;
         return true;
     }
 
@@ -288,6 +346,7 @@ public class Memory extends Observable {
     public void clear() {
         setConfiguration();
         initialize();
+        System.gc(); // call garbage collector on any Table memory just deallocated.
     }
 
     /**
@@ -321,15 +380,47 @@ public class Memory extends Observable {
         memoryMapLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getMemoryMapLimitAddress(),
                 memoryMapBaseAddress +
                         BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES);
+        pageKinds = mapPages();
+    }
+
+    // Classifies every page of the address space for the current configuration.  The segment
+    // checks in get() and set() look at the data segment and the stack first, so a page that
+    // lies completely within either one is plain RAM whatever else overlaps it.
+    private static byte[] mapPages() {
+        byte[] kinds = new byte[PAGE_TABLE_LENGTH];
+        for (int i = 0; i < PAGE_TABLE_LENGTH; i++) {
+            int first = i << PAGE_SHIFT;
+            int last = first + PAGE_OFFSET_MASK;
+            if (inDataSegment(first) && inDataSegment(last)
+                    || first > stackLimitAddress && last <= stackBaseAddress) {
+                kinds[i] = RAM;
+            } else if (inTextSegment(first) && inTextSegment(last)) {
+                kinds[i] = TEXT;
+            } else if (first >= memoryMapBaseAddress && last < memoryMapLimitAddress) {
+                kinds[i] = DEVICE;
+            }
+        }
+        return kinds;
     }
 
     private void initialize() {
         heapAddress = heapBaseAddress;
+        reserved = false;
+        sharedPages = null;
+        sharedTextBlocks = null;
+        writtenPageCount = 0;
+        writtenTextBlockCount = 0;
+        copiedFrom = null;
+        version++;
         textBlockTable = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-        dataBlockTable = new int[BLOCK_TABLE_LENGTH][]; // array of null int[] references
-        stackBlockTable = new int[BLOCK_TABLE_LENGTH][];
-        memoryMapBlockTable = new int[MMIO_TABLE_LENGTH][];
-        System.gc(); // call garbage collector on any Table memory just deallocated.
+        textModificationCount++;
+        if (Globals.offHeapMemory) {
+            pages = null;
+            directPages = new ByteBuffer[PAGE_TABLE_LENGTH]; // array of null references
+        } else {
+            pages = new int[PAGE_TABLE_LENGTH][]; // array of null int[] references
+            directPages = null;
+        }
     }
 
     // TODO: add some heap managment so programs can malloc and free
@@ -377,16 +468,9 @@ public class Memory extends Observable {
     public int set(int address, int value, int length) throws AddressErrorException {
         int oldValue = 0;
         if (Globals.debug) System.out.println("memory[" + address + "] set to " + value + "(" + length + " bytes)");
-        int relativeByteAddress;
-        if (inDataSegment(address)) {
-            // in data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(dataBlockTable, relativeByteAddress, length, value);
-        } else if (address > stackLimitAddress && address <= stackBaseAddress) {
-            // in stack.  Handle similarly to data segment write, except relative byte
-            // address calculated "backward" because stack addresses grow down from base.
-            relativeByteAddress = stackBaseAddress - address;
-            oldValue = storeBytesInTable(stackBlockTable, relativeByteAddress, length, value);
+        if (inDataSegment(address) || address > stackLimitAddress && address <= stackBaseAddress) {
+            // in data segment or stack.  Will write one byte at a time, w/o regard to boundaries.
+            oldValue = storeBytes(address, length, value);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with call to setStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -418,14 +502,17 @@ public class Memory extends Observable {
             }
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            oldValue = storeBytesInTable(memoryMapBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytes(address, length, value);
         } else {
             // falls outside addressing range
             throw new AddressErrorException("address out of range ",
                     SimulationException.STORE_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.WRITE, address, length, value);
+        if (watchpoints.length > 0) {
+            checkWatchpoints(AccessNotice.WRITE, address, length, oldValue,
+                    length == WORD_LENGTH_BYTES ? value : value & ((1 << (8 * length)) - 1));
+        }
         return oldValue;
     }
 
@@ -442,17 +529,11 @@ public class Memory extends Observable {
      * @throws AddressErrorException If address is not on word boundary.
      **/
     public int setRawWord(int address, int value) throws AddressErrorException {
-        int relative, oldValue = 0;
+        int oldValue = 0;
         checkStoreWordAligned(address);
-        if (inDataSegment(address)) {
-            // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(dataBlockTable, relative, value);
-        } else if (address > stackLimitAddress && address <= stackBaseAddress) {
-            // in stack.  Handle similarly to data segment write, except relative
-            // address calculated "backward" because stack addresses grow down from base.
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(stackBlockTable, relative, value);
+        if (inDataSegment(address) || address > stackLimitAddress && address <= stackBaseAddress) {
+            // in data segment or stack
+            oldValue = storeWord(address, value);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with call to setStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -469,14 +550,16 @@ public class Memory extends Observable {
             }
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2; // convert byte address to word
-            oldValue = storeWordInTable(memoryMapBlockTable, relative, value);
+            oldValue = storeWord(address, value);
         } else {
             // falls outside addressing range
             throw new AddressErrorException("store address out of range ",
                     SimulationException.STORE_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
+        if (watchpoints.length > 0) {
+            checkWatchpoints(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, oldValue, value);
+        }
         if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addMemoryRestoreRawWord(address, oldValue);
         }
@@ -496,9 +579,22 @@ public class Memory extends Observable {
      **/
     public int setWord(int address, int value) throws AddressErrorException {
         checkStoreWordAligned(address);
+        int oldValue;
+        int[] page = writableRamPage(address);
+        ByteBuffer buffer;
+        if (page != null) {
+            int offset = (address & PAGE_OFFSET_MASK) >> 2;
+            oldValue = page[offset];
+            page[offset] = value;
+        } else if ((buffer = writableDirectRamPage(address)) != null) {
+            oldValue = buffer.getInt(address & PAGE_OFFSET_MASK);
+            buffer.putInt(address & PAGE_OFFSET_MASK, value);
+        } else {
+            oldValue = set(address, value, WORD_LENGTH_BYTES);
+        }
         return (Globals.getSettings().getBackSteppingEnabled())
-                ? Globals.program.getBackStepper().addMemoryRestoreWord(address, set(address, value, WORD_LENGTH_BYTES))
-                : set(address, value, WORD_LENGTH_BYTES);
+                ? Globals.program.getBackStepper().addMemoryRestoreWord(address, oldValue)
+                : oldValue;
     }
 
 
@@ -518,9 +614,20 @@ public class Memory extends Observable {
             throw new AddressErrorException("store address not aligned on halfword boundary ",
                     SimulationException.STORE_ADDRESS_MISALIGNED, address);
         }
+        int oldValue;
+        int[] page = writableRamPage(address);
+        ByteBuffer buffer;
+        if (page != null) {
+            oldValue = storeInPage(page, address, 0xFFFF, value);
+        } else if ((buffer = writableDirectRamPage(address)) != null) {
+            oldValue = buffer.getShort(address & PAGE_OFFSET_MASK) & 0xFFFF;
+            buffer.putShort(address & PAGE_OFFSET_MASK, (short) value);
+        } else {
+            oldValue = set(address, value, 2);
+        }
         return (Globals.getSettings().getBackSteppingEnabled())
-                ? Globals.program.getBackStepper().addMemoryRestoreHalf(address, set(address, value, 2))
-                : set(address, value, 2);
+                ? Globals.program.getBackStepper().addMemoryRestoreHalf(address, oldValue)
+                : oldValue;
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////
@@ -534,9 +641,20 @@ public class Memory extends Observable {
      **/
 
     public int setByte(int address, int value) throws AddressErrorException {
+        int oldValue;
+        int[] page = writableRamPage(address);
+        ByteBuffer buffer;
+        if (page != null) {
+            oldValue = storeInPage(page, address, 0xFF, value);
+        } else if ((buffer = writableDirectRamPage(address)) != null) {
+            oldValue = buffer.get(address & PAGE_OFFSET_MASK) & 0xFF;
+            buffer.put(address & PAGE_OFFSET_MASK, (byte) value);
+        } else {
+            oldValue = set(address, value, 1);
+        }
         return (Globals.getSettings().getBackSteppingEnabled())
-                ? Globals.program.getBackStepper().addMemoryRestoreByte(address, set(address, value, 1))
-                : set(address, value, 1);
+                ? Globals.program.getBackStepper().addMemoryRestoreByte(address, oldValue)
+                : oldValue;
     }
 
 
@@ -551,9 +669,17 @@ public class Memory extends Observable {
      **/
     public long setDoubleWord(int address, long value) throws AddressErrorException {
         int oldHighOrder, oldLowOrder;
-        oldHighOrder = set(address + 4, (int) (value >> 32), 4);
-        oldLowOrder = set(address, (int) value, 4);
+        doubleWordAccess = true;
+        try {
+            oldHighOrder = set(address + 4, (int) (value >> 32), 4);
+            oldLowOrder = set(address, (int) value, 4);
+        } finally {
+            doubleWordAccess = false;
+        }
         long old = ((long)oldHighOrder << 32) | (oldLowOrder & 0xFFFFFFFFL);
+        if (watchpoints.length > 0) {
+            checkWatchpoints(AccessNotice.WRITE, address, 8, old, value);
+        }
         return (Globals.getSettings().getBackSteppingEnabled())
                 ? Globals.program.getBackStepper().addMemoryRestoreDoubleWord(address, old)
                 : old;
@@ -598,6 +724,17 @@ public class Memory extends Observable {
         }
         if (Globals.debug) System.out.println("memory[" + address + "] set to " + statement.getBinaryStatement());
         storeProgramStatement(address, statement, textBaseAddress, textBlockTable);
+        textModificationCount++;
+    }
+
+    /**
+     * Returns a counter that changes whenever the contents of the text segment change, either
+     * by storing a statement or by replacing the whole segment.
+     *
+     * @return current text segment modification count
+     */
+    public int getTextModificationCount() {
+        return textModificationCount;
     }
 
 
@@ -622,19 +759,12 @@ public class Memory extends Observable {
     // Does the real work, but includes option to NOT notify observers.
     private int get(int address, int length, boolean notify) throws AddressErrorException {
         int value = 0;
-        int relativeByteAddress;
-        if (inDataSegment(address)) {
-            // in data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(dataBlockTable, relativeByteAddress, length);
-        } else if (address > stackLimitAddress && address <= stackBaseAddress) {
-            // in stack. Similar to data, except relative address computed "backward"
-            relativeByteAddress = stackBaseAddress - address;
-            value = fetchBytesFromTable(stackBlockTable, relativeByteAddress, length);
+        if (inDataSegment(address) || address > stackLimitAddress && address <= stackBaseAddress) {
+            // in data segment or stack.  Will read one byte at a time, w/o regard to boundaries.
+            value = fetchBytes(address, length);
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            value = fetchBytesFromTable(memoryMapBlockTable, relativeByteAddress, length);
+            value = fetchBytes(address, length);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -659,7 +789,12 @@ public class Memory extends Observable {
             throw new AddressErrorException("address out of range ",
                     SimulationException.LOAD_ACCESS_FAULT, address);
         }
-        if (notify) notifyAnyObservers(AccessNotice.READ, address, length, value);
+        if (notify) {
+            notifyAnyObservers(AccessNotice.READ, address, length, value);
+            if (watchpoints.length > 0) {
+                checkWatchpoints(AccessNotice.READ, address, length, value, value);
+            }
+        }
         return value;
     }
 
@@ -683,20 +818,13 @@ public class Memory extends Observable {
     // I decided to keep the duplicate logic.
     public int getRawWord(int address) throws AddressErrorException {
         int value = 0;
-        int relative;
         checkLoadWordAligned(address);
-        if (inDataSegment(address)) {
-            // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(dataBlockTable, relative);
-        } else if (address > stackLimitAddress && address <= stackBaseAddress) {
-            // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordFromTable(stackBlockTable, relative);
+        if (inDataSegment(address) || address > stackLimitAddress && address <= stackBaseAddress) {
+            // in data segment or stack
+            value = fetchWord(address);
         } else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
             // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2;
-            value = fetchWordFromTable(memoryMapBlockTable, relative);
+            value = fetchWord(address);
         } else if (inTextSegment(address)) {
             // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement
             // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
@@ -714,6 +842,9 @@ public class Memory extends Observable {
                     SimulationException.LOAD_ACCESS_FAULT, address);
         }
         notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES, value);
+        if (watchpoints.length > 0) {
+            checkWatchpoints(AccessNotice.READ, address, WORD_LENGTH_BYTES, value, value);
+        }
         return value;
     }
 
@@ -741,16 +872,10 @@ public class Memory extends Observable {
     // See note above, with getRawWord(), concerning duplicated logic.
     public Integer getRawWordOrNull(int address) throws AddressErrorException {
         Integer value = null;
-        int relative;
         checkLoadWordAligned(address);
-        if (inDataSegment(address)) {
-            // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(dataBlockTable, relative);
-        } else if (address > stackLimitAddress && address <= stackBaseAddress) {
-            // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(stackBlockTable, relative);
+        if (inDataSegment(address) || address > stackLimitAddress && address <= stackBaseAddress) {
+            // in data segment or stack
+            value = fetchWordOrNull(address);
         } else if (inTextSegment(address)) {
             try {
                 value = (getStatementNoNotify(address) == null) ? null : getStatementNoNotify(address).getBinaryStatement();
@@ -798,9 +923,18 @@ public class Memory extends Observable {
     public long getDoubleWord(int address) throws AddressErrorException {
         checkLoadWordAligned(address);
         int oldHighOrder, oldLowOrder;
-        oldHighOrder = get(address + 4,4);
-        oldLowOrder = get(address,  4);
-        return ((long)oldHighOrder << 32) | (oldLowOrder & 0xFFFFFFFFL);
+        doubleWordAccess = true;
+        try {
+            oldHighOrder = get(address + 4, 4);
+            oldLowOrder = get(address, 4);
+        } finally {
+            doubleWordAccess = false;
+        }
+        long value = ((long)oldHighOrder << 32) | (oldLowOrder & 0xFFFFFFFFL);
+        if (watchpoints.length > 0) {
+            checkWatchpoints(AccessNotice.READ, address, 8, value, value);
+        }
+        return value;
     }
     ///////////////////////////////////////////////////////////////////////////////////////
 
@@ -815,6 +949,14 @@ public class Memory extends Observable {
      **/
     public int getWord(int address) throws AddressErrorException {
         checkLoadWordAligned(address);
+        int[] page = ramPage(address);
+        if (page != null) {
+            return page[(address & PAGE_OFFSET_MASK) >> 2];
+        }
+        ByteBuffer buffer = directRamPage(address);
+        if (buffer != null) {
+            return buffer.getInt(address & PAGE_OFFSET_MASK);
+        }
         return get(address, WORD_LENGTH_BYTES, true);
     }
 
@@ -849,6 +991,14 @@ public class Memory extends Observable {
             throw new AddressErrorException("Load address not aligned on halfword boundary ",
                     SimulationException.LOAD_ADDRESS_MISALIGNED, address);
         }
+        int[] page = ramPage(address);
+        if (page != null) {
+            return fetchFromPage(page, address, 0xFFFF);
+        }
+        ByteBuffer buffer = directRamPage(address);
+        if (buffer != null) {
+            return buffer.getShort(address & PAGE_OFFSET_MASK) & 0xFFFF;
+        }
         return get(address, 2);
     }
 
@@ -862,6 +1012,14 @@ public class Memory extends Observable {
      * @return Value stored at that address.  Only low order 8 bits used.
      **/
     public int getByte(int address) throws AddressErrorException {
+        int[] page = ramPage(address);
+        if (page != null) {
+            return fetchFromPage(page, address, 0xFF);
+        }
+        ByteBuffer buffer = directRamPage(address);
+        if (buffer != null) {
+            return buffer.get(address & PAGE_OFFSET_MASK) & 0xFF;
+        }
         return get(address, 1);
     }
 
@@ -1049,14 +1207,29 @@ public class Memory extends Observable {
             throw new AddressErrorException("end address of range < start address of range ",
                     SimulationException.LOAD_ACCESS_FAULT, startAddr);
         }
-        observables.add(new MemoryObservable(obs, startAddr, endAddr));
+        synchronized (this) {
+            MemoryObservable[] old = observables.observables;
+            MemoryObservable[] added = Arrays.copyOf(old, old.length + 1);
+            added[old.length] = new MemoryObservable(obs, startAddr, endAddr);
+            setObservables(added);
+        }
     }
 
     /**
      * Return number of observers
      */
     public int countObservers() {
-        return observables.size();
+        return observables.observables.length;
+    }
+
+    /**
+     * Counter that changes whenever a memory observer is added or removed, on any memory
+     * instance.  Lets the simulator notice new observers without polling the collections.
+     *
+     * @return the current count
+     */
+    public static int getObserverChangeCount() {
+        return observerChanges.get();
     }
 
     /**
@@ -1064,18 +1237,176 @@ public class Memory extends Observable {
      *
      * @param obs Observer to be removed
      */
-    public void deleteObserver(Observer obs) {
-        for (MemoryObservable o : observables) {
+    public synchronized void deleteObserver(Observer obs) {
+        ArrayList<MemoryObservable> remaining = new ArrayList<>();
+        for (MemoryObservable o : observables.observables) {
             o.deleteObserver(obs);
+            if (o.countObservers() > 0) {
+                remaining.add(o);
+            }
         }
+        setObservables(remaining.toArray(new MemoryObservable[0]));
     }
 
     /**
      * Remove all memory observers
      */
-    public void deleteObservers() {
+    public synchronized void deleteObservers() {
         // just drop the collection
-        observables = getNewMemoryObserversCollection();
+        setObservables(new MemoryObservable[0]);
+    }
+
+    // Installs a new index over the given observables and lets everyone know.
+    private void setObservables(MemoryObservable[] list) {
+        observables = new ObserverIndex(list);
+        observed = list.length > 0;
+        updateCheckedPages();
+    }
+
+    // Recomputes the pages the direct accesses must leave to get() and set().  Called with the lock held.
+    private void updateCheckedPages() {
+        long[] checked = null;
+        if (observed) {
+            checked = observables.observedPages.clone();
+        }
+        for (Watchpoint watchpoint : watchpoints) {
+            if (checked == null) {
+                checked = new long[PAGE_TABLE_LENGTH >>> 6];
+            }
+            for (int page = watchpoint.getFirstAddress() >>> PAGE_SHIFT; page <= watchpoint.getLastAddress() >>> PAGE_SHIFT; page++) {
+                checked[page >>> 6] |= 1L << page;
+            }
+        }
+        checkedPages = checked;
+        observerChanges.incrementAndGet();
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    //  RESERVATIONS for the load reserved and store conditional instructions.  There is
+    //  one reservation, held by the hart that is running: the simulator drops it whenever
+    //  it switches harts, so a store conditional never succeeds after another hart ran.
+    //  To let LR/SC loops make progress, the simulator puts off switching harts for a
+    //  few instructions while there is a reservation.
+
+    /**
+     * Reserves an address, replacing any earlier reservation.
+     *
+     * @param address the address loaded by a load reserved
+     */
+    public void reserve(int address) {
+        reservedAddress = address;
+        reserved = true;
+    }
+
+    /**
+     * Ends the reservation, and tells whether it was for the given address.
+     *
+     * @param address the address a store conditional stores to
+     * @return whether the store may be done
+     */
+    public boolean takeReservation(int address) {
+        boolean held = reserved && reservedAddress == address;
+        reserved = false;
+        return held;
+    }
+
+    /**
+     * @return whether an address is reserved
+     */
+    public boolean hasReservation() {
+        return reserved;
+    }
+
+    /**
+     * Ends the reservation, if there is one.
+     */
+    public void clearReservation() {
+        reserved = false;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    //  WATCHPOINTS.  Unlike observers they are checked only for accesses made by
+    //  instructions (not the NoNotify ones used by the GUI and debugger), and the
+    //  simulator stops after the instruction that triggered one.
+
+    /**
+     * Adds a watchpoint.  The simulator stops with reason WATCHPOINT after an instruction
+     * accesses its range, see {@link #takeWatchpointHit()}.
+     *
+     * @param watchpoint the watchpoint
+     */
+    public synchronized void addWatchpoint(Watchpoint watchpoint) {
+        Watchpoint[] old = watchpoints;
+        Watchpoint[] added = Arrays.copyOf(old, old.length + 1);
+        added[old.length] = watchpoint;
+        watchpoints = added;
+        updateCheckedPages();
+    }
+
+    /**
+     * Removes a watchpoint.
+     *
+     * @param watchpoint the watchpoint
+     */
+    public synchronized void removeWatchpoint(Watchpoint watchpoint) {
+        ArrayList<Watchpoint> remaining = new ArrayList<>(Arrays.asList(watchpoints));
+        if (remaining.remove(watchpoint)) {
+            watchpoints = remaining.toArray(new Watchpoint[0]);
+            updateCheckedPages();
+        }
+    }
+
+    /**
+     * Removes all watchpoints.
+     */
+    public synchronized void removeWatchpoints() {
+        watchpoints = new Watchpoint[0];
+        watchpointHit = null;
+        updateCheckedPages();
+    }
+
+    /**
+     * @return the watchpoints
+     */
+    public Watchpoint[] getWatchpoints() {
+        return watchpoints.clone();
+    }
+
+    /**
+     * @return whether there are any watchpoints
+     */
+    public boolean hasWatchpoints() {
+        return watchpoints.length > 0;
+    }
+
+    /**
+     * Returns the first watchpoint access since the last call and forgets it.  The simulator
+     * calls this after every instruction while there are watchpoints.
+     *
+     * @return the access, or null if no watchpoint was triggered
+     */
+    public Watchpoint.Hit takeWatchpointHit() {
+        Watchpoint.Hit hit = watchpointHit;
+        if (hit != null) {
+            watchpointHit = null;
+        }
+        return hit;
+    }
+
+    // Records the access if it triggers a watchpoint, unless an earlier access of the same instruction already did.
+    // The halves of a doubleword access are left to the caller, which checks the whole access.
+    private void checkWatchpoints(int type, int address, int length, long oldValue, long newValue) {
+        if (watchpointHit != null || doubleWordAccess) {
+            return;
+        }
+        for (Watchpoint watchpoint : watchpoints) {
+            if (watchpoint.matches(type, address, length)) {
+                // The program counter has already moved past the instruction making the access
+                watchpointHit = new Watchpoint.Hit(watchpoint, RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH,
+                        type, address, length, oldValue, newValue);
+                return;
+            }
+        }
     }
 
     /**
@@ -1101,10 +1432,6 @@ public class Memory extends Observable {
     }
 
 
-    private Collection<MemoryObservable> getNewMemoryObserversCollection() {
-        return new Vector<>();  // Vectors are thread-safe
-    }
-
     /////////////////////////////////////////////////////////////////////////
     // Private class whose objects will represent an observable-observer pair
     // for a given memory address or range.
@@ -1118,7 +1445,12 @@ public class Memory extends Observable {
         }
 
         public boolean match(int address) {
-            return (address >= lowAddress && address <= highAddress - 1 + WORD_LENGTH_BYTES);
+            return (address >= lowAddress && address <= lastAddress());
+        }
+
+        // The last byte of the range, which is the last byte of the word at highAddress.
+        public int lastAddress() {
+            return highAddress - 1 + WORD_LENGTH_BYTES;
         }
 
         public void notifyObserver(MemoryAccessNotice notice) {
@@ -1126,19 +1458,69 @@ public class Memory extends Observable {
             this.notifyObservers(notice);
         }
 
-        // Useful to have for future refactoring, if it actually becomes worthwhile to sort
-        // these or put 'em in a tree (rather than sequential search through list).
+        // Orders the ranges for the ObserverIndex, by low address then high address.
         public int compareTo(MemoryObservable mo) {
             if (this.lowAddress < mo.lowAddress || this.lowAddress == mo.lowAddress && this.highAddress < mo.highAddress) {
                 return -1;
             }
             if (this.lowAddress > mo.lowAddress || this.lowAddress == mo.lowAddress && this.highAddress > mo.highAddress) {
-                return -1;
+                return 1;
             }
             return 0;  // they have to be equal at this point.
         }
     }
 
+    /////////////////////////////////////////////////////////////////////////
+    // Immutable interval index over the observables.  They are sorted by low address
+    // (ranges never cross 0x80000000, so signed order is fine), and maxLast[i] holds the
+    // highest last byte of observables 0..i.  Since maxLast never decreases, the first
+    // observable that could hold an address is found by binary search, and the scan stops
+    // at the first one starting above it.  One bit per page records whether any range
+    // touches the page at all, so accesses elsewhere skip the search entirely.
+    private static final class ObserverIndex {
+        private final MemoryObservable[] observables;
+        private final int[] maxLast;
+        private final long[] observedPages;
+
+        ObserverIndex(MemoryObservable[] list) {
+            observables = list.clone();
+            Arrays.sort(observables);
+            maxLast = new int[observables.length];
+            observedPages = new long[PAGE_TABLE_LENGTH >>> 6];
+            for (int i = 0; i < observables.length; i++) {
+                int last = observables[i].lastAddress();
+                maxLast[i] = (i == 0) ? last : Math.max(maxLast[i - 1], last);
+                for (int page = observables[i].lowAddress >>> PAGE_SHIFT; page <= last >>> PAGE_SHIFT; page++) {
+                    observedPages[page >>> 6] |= 1L << page;
+                }
+            }
+        }
+
+        boolean observesPage(int page) {
+            return (observedPages[page >>> 6] & (1L << page)) != 0;
+        }
+
+        void notify(int type, int address, int length, int value) {
+            int low = 0, high = observables.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (maxLast[middle] < address) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            MemoryAccessNotice notice = null;
+            for (int i = low; i < observables.length && observables[i].lowAddress <= address; i++) {
+                if (observables[i].match(address)) {
+                    // One notice serves all the observers of this access.
+                    if (notice == null) notice = new MemoryAccessNotice(type, address, length, value);
+                    observables[i].notifyObserver(notice);
+                }
+            }
+        }
+    }
+
 
     /*********************************  THE HELPERS  *************************************/
 
@@ -1150,41 +1532,258 @@ public class Memory extends Observable {
     // The "|| Globals.getGui()==null" is a hack added 19 July 2012 DPS.  IF simulation
     // is from command mode, Globals.program is null but still want ability to observe.
     private void notifyAnyObservers(int type, int address, int length, int value) {
-        if ((Globals.program != null || Globals.getGui() == null) && this.observables.size() > 0) {
-            for (MemoryObservable mo : observables) {
-                if (mo.match(address)) {
-                    mo.notifyObserver(new MemoryAccessNotice(type, address, length, value));
+        if (observed) {
+            ObserverIndex index = observables;
+            if (index.observesPage(address >>> PAGE_SHIFT) && (Globals.program != null || Globals.getGui() == null)) {
+                index.notify(type, address, length, value);
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    //
+    // Returns the page holding the given address if an access to it can skip the segment
+    // checks: the page is RAM, has already been allocated, and no observer or watchpoint
+    // covers any part of it.  Otherwise returns null and the access has to go through get()
+    // or set().
+    //
+    private int[] ramPage(int address) {
+        int page = address >>> PAGE_SHIFT;
+        return pages == null || pageKinds[page] != RAM || isChecked(page) ? null : pages[page];
+    }
+
+    // Same as above, for pages kept outside the Java heap.
+    private ByteBuffer directRamPage(int address) {
+        int page = address >>> PAGE_SHIFT;
+        return directPages == null || pageKinds[page] != RAM || isChecked(page) ? null : directPages[page];
+    }
+
+    // Same as the two above, for stores, which must not go directly to a page that is shared
+    private int[] writableRamPage(int address) {
+        return sharedPages != null && isSet(sharedPages, address >>> PAGE_SHIFT) ? null : ramPage(address);
+    }
+
+    private ByteBuffer writableDirectRamPage(int address) {
+        return sharedPages != null && isSet(sharedPages, address >>> PAGE_SHIFT) ? null : directRamPage(address);
+    }
+
+    private boolean isChecked(int page) {
+        long[] checked = checkedPages;
+        return checked != null && isSet(checked, page);
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    //
+    // Sharing pages and text blocks with another memory, see copyFrom().
+    //
+
+    // Makes a page of this memory the same as that of the other memory, sharing it if there is one
+    private void sharePage(Memory other, int index) {
+        Object page = pages != null ? other.pages[index] : other.directPages[index];
+        if (pages != null) {
+            pages[index] = (int[]) page;
+        } else {
+            directPages[index] = (ByteBuffer) page;
+        }
+        if (page != null) {
+            sharedPages = share(sharedPages, PAGE_TABLE_LENGTH, index);
+            other.sharedPages = share(other.sharedPages, PAGE_TABLE_LENGTH, index);
+        } else if (sharedPages != null) {
+            sharedPages[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    private void shareTextBlock(Memory other, int index) {
+        textBlockTable[index] = other.textBlockTable[index];
+        if (textBlockTable[index] != null) {
+            sharedTextBlocks = share(sharedTextBlocks, TEXT_BLOCK_TABLE_LENGTH, index);
+            other.sharedTextBlocks = share(other.sharedTextBlocks, TEXT_BLOCK_TABLE_LENGTH, index);
+        } else if (sharedTextBlocks != null) {
+            sharedTextBlocks[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    private static long[] share(long[] bits, int length, int index) {
+        if (bits == null) {
+            bits = new long[(length + 63) >>> 6];
+        }
+        bits[index >>> 6] |= 1L << index;
+        return bits;
+    }
+
+    // Returns the page to store into, allocating it or copying it if it is shared
+    private int[] pageForStore(int index) {
+        int[] page = pages[index];
+        if (page == null || sharedPages != null && isSet(sharedPages, index)) {
+            page = pages[index] = page == null ? new int[BLOCK_LENGTH_WORDS] : page.clone();
+            pageWritten(index);
+        }
+        return page;
+    }
+
+    // Same as above, for pages kept outside the Java heap.
+    private ByteBuffer directPageForStore(int index) {
+        ByteBuffer page = directPages[index];
+        if (page == null || sharedPages != null && isSet(sharedPages, index)) {
+            ByteBuffer copy = newDirectPage();
+            if (page != null) {
+                copy.put(page.duplicate()).clear();
+            }
+            page = directPages[index] = copy;
+            pageWritten(index);
+        }
+        return page;
+    }
+
+    private void pageWritten(int index) {
+        if (sharedPages != null) {
+            sharedPages[index >>> 6] &= ~(1L << index);
+        }
+        if (writtenPageCount == writtenPages.length) {
+            writtenPages = Arrays.copyOf(writtenPages, writtenPageCount * 2);
+        }
+        writtenPages[writtenPageCount++] = index;
+        version++;
+    }
+
+    // Cuts a zeroed page from the arena, allocating a new arena when it is used up
+    private ByteBuffer newDirectPage() {
+        if (arena == null || !arena.hasRemaining()) {
+            int arenaPages = arena == null ? FIRST_ARENA_PAGES
+                    : Math.min(arena.capacity() / PAGE_LENGTH_BYTES * 2, LAST_ARENA_PAGES);
+            arena = ByteBuffer.allocateDirect(arenaPages * PAGE_LENGTH_BYTES);
+        }
+        arena.limit(arena.position() + PAGE_LENGTH_BYTES);
+        ByteBuffer page = arena.slice().order(ByteOrder.LITTLE_ENDIAN);
+        arena.position(arena.limit()).limit(arena.capacity());
+        return page;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    //
+    // Checkpoints, see Checkpoint.  Text blocks and pages are written as 4K blocks of little
+    // endian words, a text block holding the binary statements with 0 where there is none.
+    //
+
+    // The indexes of the allocated text blocks and of the allocated pages
+    int[][] allocatedBlocks() {
+        int[] textBlocks = new int[TEXT_BLOCK_TABLE_LENGTH], pageIndexes = new int[PAGE_TABLE_LENGTH];
+        int textBlockCount = 0, pageCount = 0;
+        for (int i = 0; i < TEXT_BLOCK_TABLE_LENGTH; i++) {
+            if (textBlockTable[i] != null) {
+                textBlocks[textBlockCount++] = i;
+            }
+        }
+        for (int i = 0; i < PAGE_TABLE_LENGTH; i++) {
+            if (pages != null ? pages[i] != null : directPages[i] != null) {
+                pageIndexes[pageCount++] = i;
+            }
+        }
+        return new int[][]{Arrays.copyOf(textBlocks, textBlockCount), Arrays.copyOf(pageIndexes, pageCount)};
+    }
+
+    // Writes the given text blocks and pages, in that order
+    void writeBlocks(int[][] blocks, WritableByteChannel out) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_LENGTH_WORDS * WORD_LENGTH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int index : blocks[0]) {
+            block.clear();
+            for (ProgramStatement statement : textBlockTable[index]) {
+                block.putInt(statement == null ? 0 : statement.getBinaryStatement());
+            }
+            writeBlock(block, out);
+        }
+        for (int index : blocks[1]) {
+            block.clear();
+            if (pages != null) {
+                block.asIntBuffer().put(pages[index]);
+            } else {
+                block.put(directPages[index].duplicate());
+            }
+            writeBlock(block, out);
+        }
+    }
+
+    private static void writeBlock(ByteBuffer block, WritableByteChannel out) throws IOException {
+        block.rewind();
+        while (block.hasRemaining()) {
+            out.write(block);
+        }
+    }
+
+    // Replaces the contents of this memory with the text blocks and pages written by writeBlocks(),
+    // which follow each other in data.  Statements that are the same as before are kept, so they
+    // keep their source.  The pages are copied, so data may be a read-only mapping of a file.
+    void readBlocks(int[][] blocks, ByteBuffer data) {
+        ProgramStatement[][] oldTextBlocks = textBlockTable;
+        initialize();
+        data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = BLOCK_LENGTH_WORDS * WORD_LENGTH_BYTES;
+        for (int index : blocks[0]) {
+            ProgramStatement[] oldBlock = oldTextBlocks[index];
+            ProgramStatement[] block = textBlockTable[index] = new ProgramStatement[TEXT_BLOCK_LENGTH_WORDS];
+            for (int i = 0; i < TEXT_BLOCK_LENGTH_WORDS; i++) {
+                int word = data.getInt();
+                if (oldBlock != null && oldBlock[i] != null && oldBlock[i].getBinaryStatement() == word) {
+                    block[i] = oldBlock[i];
+                } else if (word != 0) {
+                    block[i] = new ProgramStatement(word, textBaseAddress + ((index * TEXT_BLOCK_LENGTH_WORDS + i) << 2));
                 }
             }
         }
+        for (int index : blocks[1]) {
+            if (pages != null) {
+                data.asIntBuffer().get(pages[index] = new int[BLOCK_LENGTH_WORDS]);
+            } else {
+                ByteBuffer page = data.duplicate();
+                page.limit(page.position() + length);
+                (directPages[index] = newDirectPage()).put(page).clear();
+            }
+            data.position(data.position() + length);
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////
     //
-    // Helper method to store 1, 2 or 4 byte value in table that represents
-    // memory. Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.
+    // Helpers for aligned halfword and byte accesses within one page, selected by mask
+    // (0xFFFF or 0xFF).  Little endian, like the rest of memory.  The store returns the
+    // replaced value, the fetch the value in the low order bits.
+    //
+    private static int storeInPage(int[] page, int address, int mask, int value) {
+        int offset = (address & PAGE_OFFSET_MASK) >> 2;
+        int shift = (address & 3) << 3;
+        int word = page[offset];
+        page[offset] = (word & ~(mask << shift)) | ((value & mask) << shift);
+        return (word >>> shift) & mask;
+    }
+
+    private static int fetchFromPage(int[] page, int address, int mask) {
+        return (page[(address & PAGE_OFFSET_MASK) >> 2] >>> ((address & 3) << 3)) & mask;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    //
+    // Helper method to store 1, 2 or 4 byte value in the pages that represent memory.
+    // Used for data segment, stack and memory mapped I/O alike.
     // Modified 29 Dec 2005 to return old value of replaced bytes.
     //
     private static final boolean STORE = true;
     private static final boolean FETCH = false;
 
-    private int storeBytesInTable(int[][] blockTable,
-                                  int relativeByteAddress, int length, int value) {
-        return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, value, STORE);
+    private int storeBytes(int address, int length, int value) {
+        return storeOrFetchBytes(address, length, value, STORE);
     }
 
     ////////////////////////////////////////////////////////////////////////////////
     //
-    // Helper method to fetch 1, 2 or 4 byte value from table that represents
-    // memory.  Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.
+    // Helper method to fetch 1, 2 or 4 byte value from the pages that represent memory.
     //
 
-    private int fetchBytesFromTable(int[][] blockTable, int relativeByteAddress, int length) {
-        return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, 0, FETCH);
+    private int fetchBytes(int address, int length) {
+        return storeOrFetchBytes(address, length, 0, FETCH);
     }
 
     ////////////////////////////////////////////////////////////////////////////////
@@ -1195,100 +1794,93 @@ public class Memory extends Observable {
     // client using STORE or FETCH in last arg.
     // Modified 29 Dec 2005 to return old value of replaced bytes, for STORE.
     //
-    private synchronized int storeOrFetchBytesInTable(int[][] blockTable,
-                                                      int relativeByteAddress, int length, int value, boolean op) {
-        int relativeWordAddress, block, offset, bytePositionInMemory, bytePositionInValue;
+    private int storeOrFetchBytes(int address, int length, int value, boolean op) {
+        int offset, bytePositionInMemory, bytePositionInValue;
         int oldValue = 0; // for STORE, return old values of replaced bytes
-        int loopStopper = 3 - length;
-        // IF added DPS 22-Dec-2008. NOTE: has NOT been tested with Big-Endian.
-        // Fix provided by Saul Spatz; comments that follow are his.
-        // If address in stack segment is 4k + m, with 0 < m < 4, then the
-        // relativeByteAddress we want is stackBaseAddress - 4k + m, but the
-        // address actually passed in is stackBaseAddress - (4k + m), so we
-        // need to add 2m.  Because of the change in sign, we get the
-        // expression 4-delta below in place of m.
-        if (blockTable == stackBlockTable) {
-            int delta = relativeByteAddress % 4;
-            if (delta != 0) {
-                relativeByteAddress += (4 - delta) << 1;
-            }
-        }
-        for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
-            bytePositionInMemory = relativeByteAddress % 4;
-            relativeWordAddress = relativeByteAddress >> 2;
-            block = relativeWordAddress / BLOCK_LENGTH_WORDS;  // Block number
-            offset = relativeWordAddress % BLOCK_LENGTH_WORDS; // Word within that block
-            if (blockTable[block] == null) {
+        if (directPages != null) {
+            // Pages outside the heap are addressed by byte, lowest byte of the value first.
+            for (int shift = 0; shift < length << 3; shift += 8) {
+                ByteBuffer page = directPages[address >>> PAGE_SHIFT];
                 if (op == STORE)
-                    blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-                else
+                    page = directPageForStore(address >>> PAGE_SHIFT);
+                else if (page == null)
                     return 0;
+                offset = address & PAGE_OFFSET_MASK;
+                if (op == STORE) {
+                    oldValue |= (page.get(offset) & 0xFF) << shift;
+                    page.put(offset, (byte) (value >> shift));
+                } else {// op == FETCH
+                    value |= (page.get(offset) & 0xFF) << shift;
+                }
+                address++;
             }
+            return (op == STORE) ? oldValue : value;
+        }
+        int loopStopper = 3 - length;
+        for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
+            int[] page = pages[address >>> PAGE_SHIFT];
+            if (op == STORE)
+                page = pageForStore(address >>> PAGE_SHIFT);
+            else if (page == null)
+                return 0;
+            bytePositionInMemory = address & 3;
+            offset = (address & PAGE_OFFSET_MASK) >> 2; // Word within that page
             if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
             if (op == STORE) {
-                oldValue = replaceByte(blockTable[block][offset], bytePositionInMemory,
+                oldValue = replaceByte(page[offset], bytePositionInMemory,
                         oldValue, bytePositionInValue);
-                blockTable[block][offset] = replaceByte(value, bytePositionInValue,
-                        blockTable[block][offset], bytePositionInMemory);
+                page[offset] = replaceByte(value, bytePositionInValue,
+                        page[offset], bytePositionInMemory);
             } else {// op == FETCH
-                value = replaceByte(blockTable[block][offset], bytePositionInMemory,
+                value = replaceByte(page[offset], bytePositionInMemory,
                         value, bytePositionInValue);
             }
-            relativeByteAddress++;
+            address++;
         }
         return (op == STORE) ? oldValue : value;
     }
 
     ////////////////////////////////////////////////////////////////////////////////
     //
-    // Helper method to store 4 byte value in table that represents memory.
-    // Originally used just for data segment, but now also used for stack.
-    // Both use different tables but same storage method and same table size
-    // and block size.  Assumes address is word aligned, no endian processing.
+    // Helper method to store 4 byte value in the pages that represent memory.
+    // Assumes address is word aligned, no endian processing.
     // Modified 29 Dec 2005 to return overwritten value.
 
-    private synchronized int storeWordInTable(int[][] blockTable, int relative, int value) {
-        int block, offset, oldValue;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // First time writing to this block, so allocate the space.
-            blockTable[block] = new int[BLOCK_LENGTH_WORDS];
+    private int storeWord(int address, int value) {
+        if (directPages != null) {
+            ByteBuffer page = directPageForStore(address >>> PAGE_SHIFT);
+            int oldValue = page.getInt(address & PAGE_OFFSET_MASK);
+            page.putInt(address & PAGE_OFFSET_MASK, value);
+            return oldValue;
         }
-        oldValue = blockTable[block][offset];
-        blockTable[block][offset] = value;
+        // Allocated the first time this page is written, and copied the first time if shared
+        int[] page = pageForStore(address >>> PAGE_SHIFT);
+        int offset = (address & PAGE_OFFSET_MASK) >> 2;
+        int oldValue = page[offset];
+        page[offset] = value;
         return oldValue;
     }
 
     // Same as above, but doesn't set, just gets
-    private synchronized int fetchWordFromTable(int[][] blockTable, int relative) {
-        int value = 0;
-        int block, offset;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // first reference to an address in this block.  Assume initialized to 0.
-            value = 0;
-        } else {
-            value = blockTable[block][offset];
+    private int fetchWord(int address) {
+        if (directPages != null) {
+            ByteBuffer page = directPages[address >>> PAGE_SHIFT];
+            return page == null ? 0 : page.getInt(address & PAGE_OFFSET_MASK);
         }
-        return value;
+        int[] page = pages[address >>> PAGE_SHIFT];
+        // first reference to an address in this page.  Assume initialized to 0.
+        return page == null ? 0 : page[(address & PAGE_OFFSET_MASK) >> 2];
     }
 
     // Same as above, but if it hasn't been allocated returns null.
     // Developed by Greg Gibeling of UC Berkeley, fall 2007.
-    private synchronized Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
-        int value = 0;
-        int block, offset;
-        block = relative / BLOCK_LENGTH_WORDS;
-        offset = relative % BLOCK_LENGTH_WORDS;
-        if (blockTable[block] == null) {
-            // first reference to an address in this block.  Assume initialized to 0.
-            return null;
-        } else {
-            value = blockTable[block][offset];
+    private Integer fetchWordOrNull(int address) {
+        if (directPages != null) {
+            ByteBuffer page = directPages[address >>> PAGE_SHIFT];
+            return page == null ? null : page.getInt(address & PAGE_OFFSET_MASK);
         }
-        return value;
+        int[] page = pages[address >>> PAGE_SHIFT];
+        return page == null ? null : page[(address & PAGE_OFFSET_MASK) >> 2];
     }
 
     ////////////////////////////////////////////////////////////////////////////////////
@@ -1314,9 +1906,17 @@ public class Memory extends Observable {
         int block = relative / BLOCK_LENGTH_WORDS;
         int offset = relative % BLOCK_LENGTH_WORDS;
         if (block < TEXT_BLOCK_TABLE_LENGTH) {
-            if (blockTable[block] == null) {
-                // No instructions are stored in this block, so allocate the block.
-                blockTable[block] = new ProgramStatement[BLOCK_LENGTH_WORDS];
+            if (blockTable[block] == null || sharedTextBlocks != null && isSet(sharedTextBlocks, block)) {
+                // No instructions are stored in this block, so allocate the block, or it is shared, so copy it.
+                blockTable[block] = blockTable[block] == null ? new ProgramStatement[BLOCK_LENGTH_WORDS] : blockTable[block].clone();
+                if (sharedTextBlocks != null) {
+                    sharedTextBlocks[block >>> 6] &= ~(1L << block);
+                }
+                if (writtenTextBlockCount == writtenTextBlocks.length) {
+                    writtenTextBlocks = Arrays.copyOf(writtenTextBlocks, writtenTextBlockCount * 2);
+                }
+                writtenTextBlocks[writtenTextBlockCount++] = block;
+                version++;
             }
             blockTable[block][offset] = statement;
         }
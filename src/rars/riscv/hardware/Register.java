@@ -1,6 +1,8 @@
 package rars.riscv.hardware;
 
 import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
@@ -47,6 +49,10 @@ public class Register extends Observable {
     // (RegisterFile, ControlAndStatusRegisterFile, FloatingPointRegisterFile) methods.
     private volatile long value;
 
+    // Total number of observers over all registers, so code that skips notifications
+    // (compiled blocks in the simulator) can cheaply tell whether anybody is watching.
+    private static final AtomicInteger observers = new AtomicInteger();
+
     /**
      * Creates a new register with specified name, number, and value.
      *
@@ -165,6 +171,35 @@ public class Register extends Observable {
         resetValue = reset;
     }
 
+    @Override
+    public synchronized void addObserver(Observer o) {
+        int before = countObservers();
+        super.addObserver(o);
+        observers.addAndGet(countObservers() - before);
+    }
+
+    @Override
+    public synchronized void deleteObserver(Observer o) {
+        int before = countObservers();
+        super.deleteObserver(o);
+        observers.addAndGet(countObservers() - before);
+    }
+
+    @Override
+    public synchronized void deleteObservers() {
+        observers.addAndGet(-countObservers());
+        super.deleteObservers();
+    }
+
+    /**
+     * Tells whether any register at all currently has an observer.
+     *
+     * @return true if at least one observer is registered with some register
+     */
+    public static boolean anyObserved() {
+        return observers.get() != 0;
+    }
+
     //
     // Method to notify any observers of register operation that has just occurred.
     //
@@ -2,6 +2,7 @@ package rars.riscv.hardware;
 
 import rars.util.Binary;
 
+import java.util.HashMap;
 import java.util.Observer;
 
 /*
@@ -44,10 +45,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 public class RegisterBlock {
     private final Register[] regFile;
     private final char prefix;
+    // Lookup tables built once, so finding a register does not search regFile
+    private final Register[] byNumber;
+    private final HashMap<String, Register> byName = new HashMap<>();
 
     protected RegisterBlock(char prefix, Register[] registers) {
         this.prefix = prefix;
         this.regFile = registers;
+        int max = 0;
+        for (Register r : registers) {
+            max = Math.max(max, r.getNumber());
+        }
+        byNumber = new Register[max + 1];
+        for (Register r : registers) {
+            if (r.getNumber() >= 0 && byNumber[r.getNumber()] == null) {
+                byNumber[r.getNumber()] = r;
+            }
+            byName.putIfAbsent(r.getName(), r);
+        }
     }
 
     /**
@@ -108,12 +123,7 @@ public class RegisterBlock {
      * @return the register for num or null if none exists
      */
     public Register getRegister(int num) {
-        for (Register r : regFile) {
-            if (r.getNumber() == num) {
-                return r;
-            }
-        }
-        return null;
+        return num >= 0 && num < byNumber.length ? byNumber[num] : null;
     }
 
     /**
@@ -126,10 +136,9 @@ public class RegisterBlock {
         if(name.length() < 2) return null;
 
         // Handle a direct name
-        for (Register r : regFile) {
-            if (r.getName().equals(name)) {
-                return r;
-            }
+        Register named = byName.get(name);
+        if (named != null) {
+            return named;
         }
         // Handle prefix case
         if (name.charAt(0) == prefix) {
@@ -46,27 +46,32 @@ public class RegisterFile {
 
     public static final int GLOBAL_POINTER_REGISTER = 3;
     public static final int STACK_POINTER_REGISTER = 2;
+    // Register values, indexed by register number, with the program counter at PC.  While no
+    // register is observed the methods below access them directly instead of through the registers.
+    private static final int PC = 32;
+    private static final long[] values = new long[PC + 1];
+
     private static final RegisterBlock instance = new RegisterBlock('x', new Register[]{
-            new Register("zero", 0, 0), new Register("ra", 1, 0),
-            new Register("sp", STACK_POINTER_REGISTER, Memory.stackPointer),
-            new Register("gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer),
-            new Register("tp", 4, 0), new Register("t0", 5, 0),
-            new Register("t1", 6, 0), new Register("t2", 7, 0),
-            new Register("s0", 8, 0), new Register("s1", 9, 0),
-            new Register("a0", 10, 0), new Register("a1", 11, 0),
-            new Register("a2", 12, 0), new Register("a3", 13, 0),
-            new Register("a4", 14, 0), new Register("a5", 15, 0),
-            new Register("a6", 16, 0), new Register("a7", 17, 0),
-            new Register("s2", 18, 0), new Register("s3", 19, 0),
-            new Register("s4", 20, 0), new Register("s5", 21, 0),
-            new Register("s6", 22, 0), new Register("s7", 23, 0),
-            new Register("s8", 24, 0), new Register("s9", 25, 0),
-            new Register("s10", 26, 0), new Register("s11", 27, 0),
-            new Register("t3", 28, 0), new Register("t4", 29, 0),
-            new Register("t5", 30, 0), new Register("t6", 31, 0)
+            new ArrayRegister("zero", 0, 0, values, 0), new ArrayRegister("ra", 1, 0, values, 1),
+            new ArrayRegister("sp", STACK_POINTER_REGISTER, Memory.stackPointer, values, STACK_POINTER_REGISTER),
+            new ArrayRegister("gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer, values, GLOBAL_POINTER_REGISTER),
+            new ArrayRegister("tp", 4, 0, values, 4), new ArrayRegister("t0", 5, 0, values, 5),
+            new ArrayRegister("t1", 6, 0, values, 6), new ArrayRegister("t2", 7, 0, values, 7),
+            new ArrayRegister("s0", 8, 0, values, 8), new ArrayRegister("s1", 9, 0, values, 9),
+            new ArrayRegister("a0", 10, 0, values, 10), new ArrayRegister("a1", 11, 0, values, 11),
+            new ArrayRegister("a2", 12, 0, values, 12), new ArrayRegister("a3", 13, 0, values, 13),
+            new ArrayRegister("a4", 14, 0, values, 14), new ArrayRegister("a5", 15, 0, values, 15),
+            new ArrayRegister("a6", 16, 0, values, 16), new ArrayRegister("a7", 17, 0, values, 17),
+            new ArrayRegister("s2", 18, 0, values, 18), new ArrayRegister("s3", 19, 0, values, 19),
+            new ArrayRegister("s4", 20, 0, values, 20), new ArrayRegister("s5", 21, 0, values, 21),
+            new ArrayRegister("s6", 22, 0, values, 22), new ArrayRegister("s7", 23, 0, values, 23),
+            new ArrayRegister("s8", 24, 0, values, 24), new ArrayRegister("s9", 25, 0, values, 25),
+            new ArrayRegister("s10", 26, 0, values, 26), new ArrayRegister("s11", 27, 0, values, 27),
+            new ArrayRegister("t3", 28, 0, values, 28), new ArrayRegister("t4", 29, 0, values, 29),
+            new ArrayRegister("t5", 30, 0, values, 30), new ArrayRegister("t6", 31, 0, values, 31)
     });
 
-    private static Register programCounter = new Register("pc", -1, Memory.textBaseAddress);
+    private static Register programCounter = new ArrayRegister("pc", -1, Memory.textBaseAddress, values, PC);
 
     /**
      * This method updates the register value who's number is num.  Also handles the lo and hi registers
@@ -81,8 +86,10 @@ public class RegisterFile {
         } else {
             if ((Globals.getSettings().getBackSteppingEnabled())) {
                 Globals.program.getBackStepper().addRegisterFileRestore(num, instance.updateRegister(num, val));
-            } else {
+            } else if (Register.anyObserved()) {
                 instance.updateRegister(num, val);
+            } else {
+                values[num] = val;
             }
         }
     }
@@ -106,7 +113,7 @@ public class RegisterFile {
      **/
 
     public static int getValue(int num) {
-        return (int) instance.getValue(num);
+        return (int) getValueLong(num);
 
     }
 
@@ -118,7 +125,7 @@ public class RegisterFile {
      **/
 
     public static long getValueLong(int num) {
-        return instance.getValue(num);
+        return Register.anyObserved() ? instance.getValue(num) : values[num];
 
     }
 
@@ -197,8 +204,12 @@ public class RegisterFile {
      **/
 
     public static int setProgramCounter(int value) {
-        int old = (int)programCounter.getValue();
-        programCounter.setValue(value);
+        int old = getProgramCounter();
+        if (Register.anyObserved()) {
+            programCounter.setValue(value);
+        } else {
+            values[PC] = value;
+        }
         if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addPCRestore(old);
         }
@@ -212,7 +223,7 @@ public class RegisterFile {
      **/
 
     public static int getProgramCounter() {
-        return (int)programCounter.getValue();
+        return Register.anyObserved() ? (int)programCounter.getValue() : (int)values[PC];
     }
 
     /**
@@ -253,7 +264,11 @@ public class RegisterFile {
      **/
 
     public static void incrementPC() {
-        programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+        if (Register.anyObserved()) {
+            programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+        } else {
+            values[PC] += Instruction.INSTRUCTION_LENGTH;
+        }
     }
 
     /**
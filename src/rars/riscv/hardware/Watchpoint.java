@@ -0,0 +1,147 @@
+package rars.riscv.hardware;
+
+import rars.util.Binary;
+
+/**
+ * A watchpoint on a range of memory, which stops the simulation after an instruction reads or
+ * writes it.  Watchpoints are set on a {@link Memory} with {@link Memory#addWatchpoint(Watchpoint)}.
+ * <p>
+ * Memory keeps a flag for each page holding part of a watched range, so only the accesses to those
+ * pages leave the direct path to look for a matching watchpoint; accesses anywhere else cost the
+ * same as without watchpoints.
+ */
+public class Watchpoint {
+    /**
+     * Which accesses a watchpoint stops on.
+     */
+    public enum Kind {
+        READ, WRITE, ACCESS
+    }
+
+    private final int firstAddress, lastAddress;
+    private final Kind kind;
+
+    /**
+     * @param address first byte of the range
+     * @param length  number of bytes in the range
+     * @param kind    which accesses to stop on
+     * @throws IllegalArgumentException if the range is empty or wraps around the address space
+     */
+    public Watchpoint(int address, int length, Kind kind) {
+        if (length <= 0 || Integer.toUnsignedLong(address) + length > 0x100000000L) {
+            throw new IllegalArgumentException("invalid watchpoint range " + Binary.intToHexString(address) + " + " + length);
+        }
+        this.firstAddress = address;
+        this.lastAddress = address + length - 1;
+        this.kind = kind;
+    }
+
+    /**
+     * @return first byte of the range
+     */
+    public int getFirstAddress() {
+        return firstAddress;
+    }
+
+    /**
+     * @return last byte of the range
+     */
+    public int getLastAddress() {
+        return lastAddress;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // Whether an access of the given type (AccessNotice.READ or WRITE) to length bytes at address triggers this
+    boolean matches(int type, int address, int length) {
+        if (kind != Kind.ACCESS && (type == AccessNotice.WRITE) != (kind == Kind.WRITE)) {
+            return false;
+        }
+        long first = Integer.toUnsignedLong(address);
+        return first <= Integer.toUnsignedLong(lastAddress) && first + length > Integer.toUnsignedLong(firstAddress);
+    }
+
+    @Override
+    public String toString() {
+        return kind.toString().toLowerCase() + " watchpoint on " + Binary.intToHexString(firstAddress)
+                + (lastAddress == firstAddress ? "" : "-" + Binary.intToHexString(lastAddress));
+    }
+
+    /**
+     * What triggered a watchpoint: the instruction, the access and the values before and after it.
+     *
+     * @see Memory#takeWatchpointHit()
+     */
+    public static final class Hit {
+        private final Watchpoint watchpoint;
+        private final int pc, type, address, length;
+        private final long oldValue, newValue;
+
+        Hit(Watchpoint watchpoint, int pc, int type, int address, int length, long oldValue, long newValue) {
+            this.watchpoint = watchpoint;
+            this.pc = pc;
+            this.type = type;
+            this.address = address;
+            this.length = length;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public Watchpoint getWatchpoint() {
+            return watchpoint;
+        }
+
+        /**
+         * @return address of the instruction that made the access
+         */
+        public int getPC() {
+            return pc;
+        }
+
+        /**
+         * @return AccessNotice.READ or AccessNotice.WRITE
+         */
+        public int getAccessType() {
+            return type;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return value in memory before the access, the same as the new value for a read.  Only
+         * a doubleword access uses the upper 32 bits.
+         */
+        public long getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * @return value in memory after the access
+         */
+        public long getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            String access = (type == AccessNotice.WRITE ? "write of " : "read of ") + length
+                    + (length == 1 ? " byte at " : " bytes at ") + Binary.intToHexString(address);
+            String values = type == AccessNotice.WRITE
+                    ? "old value " + toHexString(oldValue) + ", new value " + toHexString(newValue)
+                    : "value " + toHexString(newValue);
+            return watchpoint + ": " + access + " by instruction at " + Binary.intToHexString(pc) + ", " + values;
+        }
+
+        private String toHexString(long value) {
+            return length == 8 ? Binary.longToHexString(value) : Binary.intToHexString((int) value);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOADDD extends AtomicMemoryOperation {
+    public AMOADDD() {
+        super("amoadd.d t0, t1, (t2)", "Atomic add: set t0 to the doubleword at the address in t2 and store the sum of it and t1 there", "00000", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory + register;
+    }
+}
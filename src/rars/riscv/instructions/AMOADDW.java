@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOADDW extends AtomicMemoryOperation {
+    public AMOADDW() {
+        super("amoadd.w t0, t1, (t2)", "Atomic add: set t0 to the word at the address in t2 and store the sum of it and t1 there", "00000", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory + register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOANDD extends AtomicMemoryOperation {
+    public AMOANDD() {
+        super("amoand.d t0, t1, (t2)", "Atomic and: set t0 to the doubleword at the address in t2 and store the bitwise and of it and t1 there", "01100", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory & register;
+    }
+}
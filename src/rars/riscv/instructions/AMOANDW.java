@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOANDW extends AtomicMemoryOperation {
+    public AMOANDW() {
+        super("amoand.w t0, t1, (t2)", "Atomic and: set t0 to the word at the address in t2 and store the bitwise and of it and t1 there", "01100", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory & register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXD extends AtomicMemoryOperation {
+    public AMOMAXD() {
+        super("amomax.d t0, t1, (t2)", "Atomic maximum: set t0 to the doubleword at the address in t2 and store the larger of it and t1 there (signed)", "10100", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return Math.max(memory, register);
+    }
+}
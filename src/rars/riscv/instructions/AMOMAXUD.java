@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXUD extends AtomicMemoryOperation {
+    public AMOMAXUD() {
+        super("amomaxu.d t0, t1, (t2)", "Atomic maximum unsigned: set t0 to the doubleword at the address in t2 and store the larger of it and t1 there (unsigned)", "11100", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return Long.compareUnsigned(memory, register) >= 0 ? memory : register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXUW extends AtomicMemoryOperation {
+    public AMOMAXUW() {
+        super("amomaxu.w t0, t1, (t2)", "Atomic maximum unsigned: set t0 to the word at the address in t2 and store the larger of it and t1 there (unsigned)", "11100", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return Long.compareUnsigned(memory, register) >= 0 ? memory : register;
+    }
+}
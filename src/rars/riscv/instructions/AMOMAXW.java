@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMAXW extends AtomicMemoryOperation {
+    public AMOMAXW() {
+        super("amomax.w t0, t1, (t2)", "Atomic maximum: set t0 to the word at the address in t2 and store the larger of it and t1 there (signed)", "10100", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return Math.max(memory, register);
+    }
+}
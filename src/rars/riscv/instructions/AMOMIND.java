@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMIND extends AtomicMemoryOperation {
+    public AMOMIND() {
+        super("amomin.d t0, t1, (t2)", "Atomic minimum: set t0 to the doubleword at the address in t2 and store the smaller of it and t1 there (signed)", "10000", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return Math.min(memory, register);
+    }
+}
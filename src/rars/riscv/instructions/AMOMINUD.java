@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMINUD extends AtomicMemoryOperation {
+    public AMOMINUD() {
+        super("amominu.d t0, t1, (t2)", "Atomic minimum unsigned: set t0 to the doubleword at the address in t2 and store the smaller of it and t1 there (unsigned)", "11000", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return Long.compareUnsigned(memory, register) <= 0 ? memory : register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMINUW extends AtomicMemoryOperation {
+    public AMOMINUW() {
+        super("amominu.w t0, t1, (t2)", "Atomic minimum unsigned: set t0 to the word at the address in t2 and store the smaller of it and t1 there (unsigned)", "11000", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return Long.compareUnsigned(memory, register) <= 0 ? memory : register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOMINW extends AtomicMemoryOperation {
+    public AMOMINW() {
+        super("amomin.w t0, t1, (t2)", "Atomic minimum: set t0 to the word at the address in t2 and store the smaller of it and t1 there (signed)", "10000", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return Math.min(memory, register);
+    }
+}
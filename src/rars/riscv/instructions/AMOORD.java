@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOORD extends AtomicMemoryOperation {
+    public AMOORD() {
+        super("amoor.d t0, t1, (t2)", "Atomic or: set t0 to the doubleword at the address in t2 and store the bitwise or of it and t1 there", "01000", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory | register;
+    }
+}
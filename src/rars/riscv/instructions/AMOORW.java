@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOORW extends AtomicMemoryOperation {
+    public AMOORW() {
+        super("amoor.w t0, t1, (t2)", "Atomic or: set t0 to the word at the address in t2 and store the bitwise or of it and t1 there", "01000", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory | register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOSWAPD extends AtomicMemoryOperation {
+    public AMOSWAPD() {
+        super("amoswap.d t0, t1, (t2)", "Atomic swap: set t0 to the doubleword at the address in t2 and store t1 there", "00001", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return register;
+    }
+}
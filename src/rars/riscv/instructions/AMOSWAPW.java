@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOSWAPW extends AtomicMemoryOperation {
+    public AMOSWAPW() {
+        super("amoswap.w t0, t1, (t2)", "Atomic swap: set t0 to the word at the address in t2 and store t1 there", "00001", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return register;
+    }
+}
@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOXORD extends AtomicMemoryOperation {
+    public AMOXORD() {
+        super("amoxor.d t0, t1, (t2)", "Atomic xor: set t0 to the doubleword at the address in t2 and store the bitwise exclusive or of it and t1 there", "00100", true);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory ^ register;
+    }
+}
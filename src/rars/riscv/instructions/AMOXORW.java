@@ -0,0 +1,11 @@
+package rars.riscv.instructions;
+
+public class AMOXORW extends AtomicMemoryOperation {
+    public AMOXORW() {
+        super("amoxor.w t0, t1, (t2)", "Atomic xor: set t0 to the word at the address in t2 and store the bitwise exclusive or of it and t1 there", "00100", false);
+    }
+
+    protected long compute(long memory, long register) {
+        return memory ^ register;
+    }
+}
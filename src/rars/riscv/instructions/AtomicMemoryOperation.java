@@ -0,0 +1,72 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.RegisterFile;
+
+/**
+ * Base class for the atomic memory operations of the A extension (amoswap, amoadd, ...), which
+ * load a value from memory, store the result of an operation on it and a register, and set
+ * the destination register to the value loaded.  The simulator holds the memory and registers
+ * lock while it runs an instruction, so the read and the write are one atomic step for every
+ * other hart and thread.  The aq and rl bits may have any value and are not used: accesses are
+ * never reordered.
+ */
+public abstract class AtomicMemoryOperation extends BasicInstruction {
+    private final boolean doubleword;
+
+    /**
+     * @param usage       example usage, like "amoadd.w t0, t1, (t2)"
+     * @param description description of the instruction
+     * @param funct5      the operation
+     * @param doubleword  whether the instruction works on doublewords (.d, RV64 only) rather than words (.w)
+     */
+    public AtomicMemoryOperation(String usage, String description, String funct5, boolean doubleword) {
+        super(usage, description, BasicInstructionFormat.R_FORMAT,
+                funct5 + " -- sssss ttttt " + (doubleword ? "011" : "010") + " fffff 0101111");
+        if (doubleword && !InstructionSet.rv64) {
+            throw new NullPointerException("rv64");
+        }
+        this.doubleword = doubleword;
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[2]);
+        long value = RegisterFile.getValueLong(operands[1]);
+        try {
+            checkAligned(address, doubleword, SimulationException.STORE_ADDRESS_MISALIGNED);
+            long old;
+            if (doubleword) {
+                old = Globals.memory.getDoubleWord(address);
+                Globals.memory.setDoubleWord(address, compute(old, value));
+            } else {
+                old = Globals.memory.getWord(address);
+                Globals.memory.setWord(address, (int) compute(old, (int) value));
+            }
+            RegisterFile.updateRegister(operands[0], old);
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+
+    /**
+     * @param memory   the value loaded from memory, sign extended for words
+     * @param register the value of the source register, sign extended from its low word for words
+     * @return the value to store
+     */
+    protected abstract long compute(long memory, long register);
+
+    // Atomic accesses must be naturally aligned; misaligned ones raise the given cause, a load
+    // fault for load reserved and a store/AMO fault for the others
+    static void checkAligned(int address, boolean doubleword, int cause) throws AddressErrorException {
+        if ((address & (doubleword ? 7 : 3)) != 0) {
+            throw new AddressErrorException("atomic memory operation address not aligned ", cause, address);
+        }
+    }
+}
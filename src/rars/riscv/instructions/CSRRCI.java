@@ -42,7 +42,7 @@ public class CSRRCI extends BasicInstruction {
     public void simulate(ProgramStatement statement) throws SimulationException {
         int[] operands = statement.getOperands();
         try {
-            long csr = ControlAndStatusRegisterFile.getValueLong(operands[1]);
+            long csr = ControlAndStatusRegisterFile.readRegister(operands[1]);
             if (operands[2] != 0) {
                 if(ControlAndStatusRegisterFile.clearRegister(operands[1], operands[2])){
                     throw new SimulationException(statement, "Attempt to write to read-only CSR", SimulationException.ILLEGAL_INSTRUCTION);
@@ -38,6 +38,6 @@ public class FENCE extends BasicInstruction {
     }
 
     public void simulate(ProgramStatement statement) {
-        // Do nothing, currently there are no other threads so local consitency is enough
+        // Do nothing, harts run one at a time and never reorder their accesses
     }
 }
\ No newline at end of file
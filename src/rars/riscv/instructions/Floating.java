@@ -67,12 +67,12 @@ public abstract class Floating extends BasicInstruction {
                 (e.flags.contains(Flags.overflow)?4:0)+
                 (e.flags.contains(Flags.divByZero)?8:0)+
                 (e.flags.contains(Flags.invalid)?16:0);
-        if(fflags != 0) ControlAndStatusRegisterFile.orRegister("fflags",fflags);
+        if(fflags != 0) ControlAndStatusRegisterFile.orRegister(ControlAndStatusRegisterFile.FFLAGS, fflags);
     }
 
     public static RoundingMode getRoundingMode(int RM, ProgramStatement statement) throws SimulationException {
         int rm = RM;
-        int frm = ControlAndStatusRegisterFile.getValue("frm");
+        int frm = ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.FRM);
         if (rm == 7) rm = frm;
         switch (rm){
             case 0: // RNE
@@ -0,0 +1,7 @@
+package rars.riscv.instructions;
+
+public class LRD extends LoadReserved {
+    public LRD() {
+        super("lr.d t0, (t1)", "Load reserved: set t0 to the doubleword at the address in t1 and reserve that address", true);
+    }
+}
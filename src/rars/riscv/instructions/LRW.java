@@ -0,0 +1,7 @@
+package rars.riscv.instructions;
+
+public class LRW extends LoadReserved {
+    public LRW() {
+        super("lr.w t0, (t1)", "Load reserved: set t0 to the word at the address in t1 and reserve that address", false);
+    }
+}
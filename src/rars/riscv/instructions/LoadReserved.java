@@ -0,0 +1,42 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.RegisterFile;
+
+/**
+ * Base class for lr.w and lr.d, which load a value and reserve its address for a following
+ * store conditional.
+ *
+ * @see StoreConditional
+ */
+public abstract class LoadReserved extends BasicInstruction {
+    private final boolean doubleword;
+
+    public LoadReserved(String usage, String description, boolean doubleword) {
+        super(usage, description, BasicInstructionFormat.R_FORMAT,
+                "00010 -- 00000 sssss " + (doubleword ? "011" : "010") + " fffff 0101111");
+        if (doubleword && !InstructionSet.rv64) {
+            throw new NullPointerException("rv64");
+        }
+        this.doubleword = doubleword;
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[1]);
+        try {
+            AtomicMemoryOperation.checkAligned(address, doubleword, SimulationException.LOAD_ADDRESS_MISALIGNED);
+            long value = doubleword ? Globals.memory.getDoubleWord(address) : Globals.memory.getWord(address);
+            Globals.memory.reserve(address);
+            RegisterFile.updateRegister(operands[0], value);
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+}
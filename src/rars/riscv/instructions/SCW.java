@@ -0,0 +1,7 @@
+package rars.riscv.instructions;
+
+public class SCW extends StoreConditional {
+    public SCW() {
+        super("sc.w t0, t1, (t2)", "Store conditional: store t1 as the word at the address in t2 if it is still reserved, and set t0 to 0 if it was stored or 1 if not", false);
+    }
+}
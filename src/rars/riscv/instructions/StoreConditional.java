@@ -0,0 +1,50 @@
+package rars.riscv.instructions;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.BasicInstructionFormat;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.RegisterFile;
+
+/**
+ * Base class for sc.w and sc.d, which store a value only if the address is still reserved by
+ * the last load reserved, and set the destination register to 0 if they did and 1 otherwise.
+ * Either way the reservation is gone afterwards.
+ *
+ * @see LoadReserved
+ */
+public abstract class StoreConditional extends BasicInstruction {
+    private final boolean doubleword;
+
+    public StoreConditional(String usage, String description, boolean doubleword) {
+        super(usage, description, BasicInstructionFormat.R_FORMAT,
+                "00011 -- sssss ttttt " + (doubleword ? "011" : "010") + " fffff 0101111");
+        if (doubleword && !InstructionSet.rv64) {
+            throw new NullPointerException("rv64");
+        }
+        this.doubleword = doubleword;
+    }
+
+    public void simulate(ProgramStatement statement) throws SimulationException {
+        int[] operands = statement.getOperands();
+        int address = RegisterFile.getValue(operands[2]);
+        long value = RegisterFile.getValueLong(operands[1]);
+        try {
+            AtomicMemoryOperation.checkAligned(address, doubleword, SimulationException.STORE_ADDRESS_MISALIGNED);
+            boolean reserved = Globals.memory.takeReservation(address);
+            if (reserved) {
+                if (doubleword) {
+                    Globals.memory.setDoubleWord(address, value);
+                } else {
+                    Globals.memory.setWord(address, (int) value);
+                }
+            }
+            RegisterFile.updateRegister(operands[0], reserved ? 0 : 1);
+        } catch (AddressErrorException e) {
+            throw new SimulationException(statement, e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package rars.riscv.syscalls;
 
 import rars.riscv.hardware.RegisterFile;
+import rars.simulator.Journal;
 
 import java.util.HashMap;
 import java.util.Random;
@@ -57,9 +58,27 @@ public class RandomStreams {
         int index = RegisterFile.getValue(reg);
         Random stream = randomStreams.get(index);
         if (stream == null) {
-            stream = new Random(); // create a non-seeded stream
+            stream = new Stream(); // create a non-seeded stream
             RandomStreams.randomStreams.put(index, stream);
         }
         return stream;
     }
+
+    /**
+     * A stream whose random bits the journal records or plays back, see {@link Journal}.  All the
+     * methods of Random draw their bits through next().
+     */
+    static class Stream extends Random {
+        Stream() {
+        }
+
+        Stream(long seed) {
+            super(seed);
+        }
+
+        @Override
+        protected int next(int bits) {
+            return Journal.random(() -> super.next(bits));
+        }
+    }
 }
\ No newline at end of file
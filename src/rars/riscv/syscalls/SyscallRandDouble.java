@@ -53,7 +53,7 @@ public class SyscallRandDouble extends AbstractSyscall {
         Integer index = RegisterFile.getValue("a0");
         Random stream = RandomStreams.randomStreams.get(index);
         if (stream == null) {
-            stream = new Random(); // create a non-seeded stream
+            stream = new RandomStreams.Stream(); // create a non-seeded stream
             RandomStreams.randomStreams.put(index, stream);
         }
         FloatingPointRegisterFile.updateRegisterLong(10, Double.doubleToRawLongBits(stream.nextDouble()));
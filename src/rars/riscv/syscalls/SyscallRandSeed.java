@@ -44,7 +44,7 @@ public class SyscallRandSeed extends AbstractSyscall {
         Integer index = RegisterFile.getValue("a0");
         Random stream = RandomStreams.randomStreams.get(index);
         if (stream == null) {
-            RandomStreams.randomStreams.put(index, new Random(RegisterFile.getValue("a1")));
+            RandomStreams.randomStreams.put(index, new RandomStreams.Stream(RegisterFile.getValue("a1")));
         } else {
             stream.setSeed(RegisterFile.getValue("a1"));
         }
@@ -3,6 +3,7 @@ package rars.riscv.syscalls;
 import rars.ProgramStatement;
 import rars.riscv.AbstractSyscall;
 import rars.riscv.hardware.RegisterFile;
+import rars.simulator.Journal;
 import rars.util.Binary;
 
 /*
@@ -39,7 +40,7 @@ public class SyscallTime extends AbstractSyscall {
     }
 
     public void simulate(ProgramStatement statement) {
-        long value = new java.util.Date().getTime();
+        long value = Journal.time(() -> new java.util.Date().getTime());
         RegisterFile.updateRegister("a0", Binary.lowOrderLongToInt(value));
         RegisterFile.updateRegister("a1", Binary.highOrderLongToInt(value));
     }
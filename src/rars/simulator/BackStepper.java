@@ -1,12 +1,14 @@
 package rars.simulator;
 
 import rars.Globals;
-import rars.ProgramStatement;
 import rars.riscv.hardware.ControlAndStatusRegisterFile;
 import rars.riscv.hardware.FloatingPointRegisterFile;
 import rars.riscv.hardware.RegisterFile;
 import rars.riscv.Instruction;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
 
@@ -37,6 +39,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 /**
  * Used to "step backward" through execution, undoing each instruction.
+ * <p>
+ * The undo actions are kept in a log of primitive arrays that grows as needed, up to
+ * Globals.maximumBacksteps actions.  Beyond that, the oldest half of the log is thinned into a
+ * checkpoint: a single undo action per memory location or register, the one restoring the value
+ * it had when the checkpoint starts, which can only be undone as a whole.  Adjacent checkpoints
+ * are merged so that each one covers at least as many instructions as the ones after it, so older
+ * history is coarser, there are few checkpoints, and they take no more memory than the locations
+ * the program writes.  Steps can so be undone all the way back to the start of a long run, one
+ * at a time within the log and a checkpoint at a time before it; {@link #goTo(long)} tells how
+ * many instructions to run forward again to reach a given one.
+ * <p>
+ * The simulator adds actions while it holds {@link Globals#memoryAndRegistersLock}, and steps are
+ * only undone while it is paused, so none of this is synchronized.
  *
  * @author Pete Sanderson
  * @version February 2006
@@ -57,20 +72,31 @@ public class BackStepper {
         DO_NOTHING
     }
 
+    private static final Action[] ACTIONS = Action.values();
+
     // Flag to mark BackStep object as prepresenting specific situation: user manipulates
     // memory/register value via GUI after assembling program but before running it.
     private static final int NOT_PC_VALUE = -1;
 
 
     private boolean engaged;
-    private final BackstepStack backSteps;
-
-    // One can argue using java.util.Stack, given its clumsy implementation.
-    // A homegrown linked implementation will be more streamlined, but
-    // I anticipate that backstepping will only be used during timed
-    // (currently max 30 instructions/second) or stepped execution, where
-    // performance is not an issue.  Its Vector implementation may result
-    // in quicker garbage collection than a pure linked list implementation.
+    private final int limit;
+
+    // The log, one entry per undo action, oldest first.  The entries of an instruction all have
+    // the same program counter value (NOT_PC_VALUE if there is no statement there) and the
+    // number of instructions retired when it ran.
+    private byte[] actions = new byte[0];
+    private int[] pcs = new int[0];
+    private int[] params1 = new int[0];
+    private long[] params2 = new long[0];
+    private long[] counts = new long[0];
+    private int size;
+    // Last program counter value looked up, and whether there is a statement there
+    private int lastPc = NOT_PC_VALUE;
+    private boolean lastPcValid;
+
+    // The thinned history before the log, oldest first
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
 
     /**
      * Create a fresh BackStepper.  It is enabled, which means all
@@ -79,7 +105,7 @@ public class BackStepper {
      */
     public BackStepper() {
         engaged = true;
-        backSteps = new BackstepStack(Globals.maximumBacksteps);
+        limit = Math.max(Globals.maximumBacksteps, 2);
     }
 
     /**
@@ -106,7 +132,27 @@ public class BackStepper {
      * @return true if there are no steps to be undone, false otherwise.
      */
     public boolean empty() {
-        return backSteps.empty();
+        return size == 0 && checkpoints.isEmpty();
+    }
+
+    /**
+     * Forget all the steps recorded so far, for instance when the state of the simulation was
+     * replaced by a checkpoint.
+     */
+    public void clear() {
+        size = 0;
+        checkpoints.clear();
+        lastPc = NOT_PC_VALUE;
+    }
+
+    /**
+     * Returns the earliest point that steps can be undone to.
+     *
+     * @return the number of instructions retired then
+     */
+    public long earliest() {
+        return !checkpoints.isEmpty() ? checkpoints.get(0).first
+                : size > 0 ? counts[0] : ControlAndStatusRegisterFile.getRetired();
     }
 
     /**
@@ -119,63 +165,177 @@ public class BackStepper {
     // all store their result in register pairs which results in two store operations.
     // Both must be undone transparently, so we need to detect that multiple steps happen
     // together and carry out all of them here.
-    // Use a do-while loop based on the backstep's program statement reference.
+    // The entries of a step are those at the top of the log with the same program counter value.
     public void backStep() {
-        if (engaged && !backSteps.empty()) {
-            ProgramStatement statement = backSteps.peek().ps;
-            engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
-            do {
-                BackStep step = backSteps.pop();
-            /*
-                System.out.println("backstep POP: action "+step.action+" pc "+rars.util.Binary.intToHexString(step.pc)+
-            	                   " source "+((step.ps==null)? "none":step.ps.getSource())+
-            							 " parm1 "+step.param1+" parm2 "+step.param2);
-            */
-                if (step.pc != NOT_PC_VALUE) {
-                    RegisterFile.setProgramCounter(step.pc);
-                }
-                try {
-                    switch (step.action) {
-                        case MEMORY_RESTORE_RAW_WORD:
-                            Globals.memory.setRawWord(step.param1, (int)step.param2);
-                            break;
-                        case MEMORY_RESTORE_DOUBLE_WORD:
-                            Globals.memory.setDoubleWord(step.param1, step.param2);
-                            break;
-                        case MEMORY_RESTORE_WORD:
-                            Globals.memory.setWord(step.param1, (int)step.param2);
-                            break;
-                        case MEMORY_RESTORE_HALF:
-                            Globals.memory.setHalf(step.param1, (int)step.param2);
-                            break;
-                        case MEMORY_RESTORE_BYTE:
-                            Globals.memory.setByte(step.param1, (int)step.param2);
-                            break;
-                        case REGISTER_RESTORE:
-                            RegisterFile.updateRegister(step.param1, step.param2);
-                            break;
-                        case FLOATING_POINT_REGISTER_RESTORE:
-                            FloatingPointRegisterFile.updateRegisterLong(step.param1,step.param2);
-                            break;
-                        case CONTROL_AND_STATUS_REGISTER_RESTORE:
-                            ControlAndStatusRegisterFile.updateRegister(step.param1,step.param2);
-                            break;
-                        case CONTROL_AND_STATUS_REGISTER_BACKDOOR:
-                            ControlAndStatusRegisterFile.updateRegisterBackdoor(step.param1,step.param2);
-                            break;
-                        case PC_RESTORE:
-                            RegisterFile.setProgramCounter(step.param1);
-                            break;
-                        case DO_NOTHING:
-                            break;
-                    }
-                } catch (Exception e) {
-                    // if the original action did not cause an exception this will not either.
-                    System.out.println("Internal RARS error: address exception while back-stepping.");
-                    System.exit(0);
-                }
-            } while (!backSteps.empty() && statement == backSteps.peek().ps);
-            engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
+        backStep(1);
+    }
+
+    /**
+     * Undoes the latest execution steps, as many back steps would.  Before the log, a checkpoint
+     * counts as one step.
+     *
+     * @param steps the number of steps to undo
+     * @return the number of steps undone, fewer if the history ran out
+     */
+    public int backStep(int steps) {
+        if (!engaged) {
+            return 0;
+        }
+        int undone = 0;
+        int to = size;
+        while (undone < steps && to > 0) {
+            to = stepStart(to);
+            undone++;
+        }
+        undoEntries(to);
+        while (undone < steps && !checkpoints.isEmpty()) {
+            undoCheckpoint();
+            undone++;
+        }
+        return undone;
+    }
+
+    /**
+     * Undoes execution steps until one at a breakpoint is undone, so that the program is back
+     * where it last stopped at a breakpoint, or would have.  Breakpoint conditions and ignore
+     * counts are not taken into account.  When the breakpoint was reached within a checkpoint,
+     * this stops at the start of the checkpoint, so going on from there stops at the first time
+     * it was reached within the checkpoint.
+     *
+     * @param breakpoints the breakpoints
+     * @return true if a breakpoint was found, false if the start of the history was reached
+     */
+    public boolean backStepToBreakpoint(Breakpoints breakpoints) {
+        if (!engaged) {
+            return false;
+        }
+        int to = size;
+        while (to > 0) {
+            to = stepStart(to);
+            if (pcs[to] != NOT_PC_VALUE && breakpoints.contains(pcs[to])) {
+                undoEntries(to);
+                return true;
+            }
+        }
+        undoEntries(0);
+        while (!checkpoints.isEmpty()) {
+            if (undoCheckpoint().reaches(breakpoints)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Undoes execution steps back to when a number of instructions had been retired, or to the
+     * closest point before that if it falls within a checkpoint.  The caller then runs the
+     * program forward for the difference.
+     *
+     * @param retired the number of instructions retired to go back to
+     * @return the number of instructions retired at the point reached
+     */
+    public long goTo(long retired) {
+        if (!engaged) {
+            return ControlAndStatusRegisterFile.getRetired();
+        }
+        int to = size;
+        while (to > 0 && counts[to - 1] >= retired) {
+            to--;
+        }
+        undoEntries(to);
+        while (size == 0 && !checkpoints.isEmpty() && ControlAndStatusRegisterFile.getRetired() > retired) {
+            undoCheckpoint();
+        }
+        return ControlAndStatusRegisterFile.getRetired();
+    }
+
+    // Returns the index of the first entry of the step ending just before index end
+    private int stepStart(int end) {
+        int pc = pcs[end - 1];
+        int start = end - 1;
+        while (start > 0 && pcs[start - 1] == pc) {
+            start--;
+        }
+        return start;
+    }
+
+    // Undoes the entries of the log from the top down to index to, which becomes the top
+    private void undoEntries(int to) {
+        if (to == size) {
+            return;
+        }
+        engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
+        int pc = NOT_PC_VALUE;
+        for (int i = size - 1; i >= to; i--) {
+            undo(ACTIONS[actions[i]], params1[i], params2[i]);
+            if (pcs[i] != NOT_PC_VALUE) {
+                pc = pcs[i];
+            }
+        }
+        size = to;
+        finish(pc, counts[to]);
+    }
+
+    // Undoes the latest checkpoint, once the log is empty
+    private Checkpoint undoCheckpoint() {
+        Checkpoint checkpoint = checkpoints.remove(checkpoints.size() - 1);
+        engaged = false;
+        for (int i = checkpoint.actions.length - 1; i >= 0; i--) {
+            undo(ACTIONS[checkpoint.actions[i]], checkpoint.params1[i], checkpoint.params2[i]);
+        }
+        finish(checkpoint.pc, checkpoint.first);
+        return checkpoint;
+    }
+
+    private void finish(int pc, long retired) {
+        if (pc != NOT_PC_VALUE) {
+            RegisterFile.setProgramCounter(pc);
+        }
+        // cycle and instret follow the retired count, which is back where it was before the step
+        ControlAndStatusRegisterFile.setRetired(retired);
+        engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
+    }
+
+    private void undo(Action action, int param1, long param2) {
+        try {
+            switch (action) {
+                case MEMORY_RESTORE_RAW_WORD:
+                    Globals.memory.setRawWord(param1, (int) param2);
+                    break;
+                case MEMORY_RESTORE_DOUBLE_WORD:
+                    Globals.memory.setDoubleWord(param1, param2);
+                    break;
+                case MEMORY_RESTORE_WORD:
+                    Globals.memory.setWord(param1, (int) param2);
+                    break;
+                case MEMORY_RESTORE_HALF:
+                    Globals.memory.setHalf(param1, (int) param2);
+                    break;
+                case MEMORY_RESTORE_BYTE:
+                    Globals.memory.setByte(param1, (int) param2);
+                    break;
+                case REGISTER_RESTORE:
+                    RegisterFile.updateRegister(param1, param2);
+                    break;
+                case FLOATING_POINT_REGISTER_RESTORE:
+                    FloatingPointRegisterFile.updateRegisterLong(param1, param2);
+                    break;
+                case CONTROL_AND_STATUS_REGISTER_RESTORE:
+                    ControlAndStatusRegisterFile.updateRegister(param1, param2);
+                    break;
+                case CONTROL_AND_STATUS_REGISTER_BACKDOOR:
+                    ControlAndStatusRegisterFile.updateRegisterBackdoor(param1, param2);
+                    break;
+                case PC_RESTORE:
+                    RegisterFile.setProgramCounter(param1);
+                    break;
+                case DO_NOTHING:
+                    break;
+            }
+        } catch (Exception e) {
+            // if the original action did not cause an exception this will not either.
+            System.out.println("Internal RARS error: address exception while back-stepping.");
+            System.exit(0);
         }
     }
   
@@ -198,7 +358,7 @@ public class BackStepper {
      * @return the argument value
      */
     public int addMemoryRestoreRawWord(int address, int value) {
-        backSteps.push(Action.MEMORY_RESTORE_RAW_WORD, pc(), address, value);
+        push(Action.MEMORY_RESTORE_RAW_WORD, pc(), address, value);
         return value;
     }
 
@@ -211,12 +371,12 @@ public class BackStepper {
      * @return the argument value
      */
     public int addMemoryRestoreWord(int address, int value) {
-        backSteps.push(Action.MEMORY_RESTORE_WORD, pc(), address, value);
+        push(Action.MEMORY_RESTORE_WORD, pc(), address, value);
         return value;
     }
 
     public long addMemoryRestoreDoubleWord(int address, long value) {
-        backSteps.push(Action.MEMORY_RESTORE_DOUBLE_WORD, pc(), address, value);
+        push(Action.MEMORY_RESTORE_DOUBLE_WORD, pc(), address, value);
         return value;
     }
 
@@ -229,7 +389,7 @@ public class BackStepper {
      * @return the argument value
      */
     public int addMemoryRestoreHalf(int address, int value) {
-        backSteps.push(Action.MEMORY_RESTORE_HALF, pc(), address, value);
+        push(Action.MEMORY_RESTORE_HALF, pc(), address, value);
         return value;
     }
 
@@ -242,7 +402,7 @@ public class BackStepper {
      * @return the argument value
      */
     public int addMemoryRestoreByte(int address, int value) {
-        backSteps.push(Action.MEMORY_RESTORE_BYTE, pc(), address, value);
+        push(Action.MEMORY_RESTORE_BYTE, pc(), address, value);
         return value;
     }
 
@@ -255,7 +415,7 @@ public class BackStepper {
      * @return the argument value
      */
     public long addRegisterFileRestore(int register, long value) {
-        backSteps.push(Action.REGISTER_RESTORE, pc(), register, value);
+        push(Action.REGISTER_RESTORE, pc(), register, value);
         return value;
     }
 
@@ -271,7 +431,7 @@ public class BackStepper {
         value -= Instruction.INSTRUCTION_LENGTH;
         // Use "value" insead of "pc()" for second arg because RegisterFile.getProgramCounter()
         // returns branch target address at this point.
-        backSteps.push(Action.PC_RESTORE, value, value);
+        push(Action.PC_RESTORE, value, value, 0);
         return value;
     }
 
@@ -284,7 +444,7 @@ public class BackStepper {
      * @return the argument value
      */
     public long addControlAndStatusRestore(int register, long value) {
-        backSteps.push(Action.CONTROL_AND_STATUS_REGISTER_RESTORE, pc(), register, value);
+        push(Action.CONTROL_AND_STATUS_REGISTER_RESTORE, pc(), register, value);
         return value;
     }
 
@@ -299,7 +459,7 @@ public class BackStepper {
      * @return the argument value
      */
     public long addControlAndStatusBackdoor(int register, long value) {
-        backSteps.push(Action.CONTROL_AND_STATUS_REGISTER_BACKDOOR, pc(), register, value);
+        push(Action.CONTROL_AND_STATUS_REGISTER_BACKDOOR, pc(), register, value);
         return value;
     }
 
@@ -312,7 +472,7 @@ public class BackStepper {
      * @return the argument value
      */
     public long addFloatingPointRestore(int register, long value) {
-        backSteps.push(Action.FLOATING_POINT_REGISTER_RESTORE, pc(), register, value);
+        push(Action.FLOATING_POINT_REGISTER_RESTORE, pc(), register, value);
         return value;
     }
 
@@ -323,130 +483,206 @@ public class BackStepper {
      * stack has the same PC counter, the do-nothing action will not be added.
      */
     public void addDoNothing(int pc) {
-        if (backSteps.empty() || backSteps.peek().pc != pc) {
-            backSteps.push(Action.DO_NOTHING, pc);
+        if (size == 0 || pcs[size - 1] != pc) {
+            push(Action.DO_NOTHING, pc, 0, 0);
         }
     }
 
-
-    // Represents a "back step" (undo action) on the stack.
-    private class BackStep {
-        private Action action;  // what do do MEMORY_RESTORE_WORD, etc
-        private int pc;      // program counter value when original step occurred
-        private ProgramStatement ps;   // statement whose action is being "undone" here
-        private int param1;  // first parameter required by that action
-        private long param2;  // optional second parameter required by that action
-
-        // it is critical that BackStep object get its values by calling this method
-        // rather than assigning to individual members, because of the technique used
-        // to set its ps member (and possibly pc).
-        private void assign(Action act, int programCounter, int parm1, long parm2) {
-            action = act;
-            pc = programCounter;
+    // Adds an entry to the log, thinning it when it is full
+    private void push(Action action, int pc, int param1, long param2) {
+        if (pc != lastPc) {
+            lastPc = pc;
             try {
-                // Client does not have direct access to program statement, and rather than making all
-                // of them go through the methods below to obtain it, we will do it here.
                 // Want the program statement but do not want observers notified.
-                ps = Globals.memory.getStatementNoNotify(programCounter);
+                Globals.memory.getStatementNoNotify(pc);
+                lastPcValid = true;
             } catch (Exception e) {
                 // The only situation causing this so far: user modifies memory or register
                 // contents through direct manipulation on the GUI, after assembling the program but
                 // before starting to run it (or after backstepping all the way to the start).
                 // The action will not be associated with any instruction, but will be carried out
-                // when popped.
-                ps = null;
-                pc = NOT_PC_VALUE; // Backstep method above will see this as flag to not set PC
+                // when undone.
+                lastPcValid = false;
             }
-            param1 = parm1;
-            param2 = parm2;
-         /*				
-            System.out.println("backstep PUSH: action "+action+" pc "+rars.util.Binary.intToHexString(pc)+
-         		                   " source "+((ps==null)? "none":ps.getSource())+
-         								 " parm1 "+param1+" parm2 "+param2);
-         */
+        }
+        if (size == counts.length) {
+            int capacity = Math.min(Math.max(1024, size * 2), limit);
+            actions = Arrays.copyOf(actions, capacity);
+            pcs = Arrays.copyOf(pcs, capacity);
+            params1 = Arrays.copyOf(params1, capacity);
+            params2 = Arrays.copyOf(params2, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        actions[size] = (byte) action.ordinal();
+        pcs[size] = lastPcValid ? pc : NOT_PC_VALUE;
+        params1[size] = param1;
+        params2[size] = param2;
+        counts[size] = ControlAndStatusRegisterFile.getRetired();
+        if (++size == limit) {
+            thin();
         }
     }
 
-    // *****************************************************************************
-    // special purpose stack class for backstepping.  You've heard of circular queues
-    // implemented with an array, right?  This is a circular stack!  When full, the
-    // newly-pushed item overwrites the oldest item, with circular top!  All operations
-    // are constant time.  It's synchronized too, to be safe (is used by both the
-    // simulation thread and the GUI thread for the back-step button).
-    // Upon construction, it is filled with newly-created empty BackStep objects which
-    // will exist for the life of the stack.  Push does not create a BackStep object
-    // but instead overwrites the contents of the existing one.  Thus during RISCV
-    // program (simulated) execution, BackStep objects are never created or junked
-    // regardless of how many steps are executed.  This will speed things up a bit
-    // and make life easier for the garbage collector.
-
-    private class BackstepStack {
-        private final int capacity;
-        private int size;
-        private int top;
-        private final BackStep[] stack;
-
-        // Stack is created upon successful assembly or reset.  The one-time overhead of
-        // creating all the BackStep objects will not be noticed by the user, and enhances
-        // runtime performance by not having to create or recycle them during
-        // program execution.
-        private BackstepStack(int capacity) {
-            this.capacity = capacity;
-            this.size = 0;
-            this.top = -1;
-            this.stack = new BackStep[capacity];
-            for (int i = 0; i < capacity; i++) {
-                this.stack[i] = new BackStep();
+    // Moves the oldest half of the log, up to the start of an instruction, to a new checkpoint
+    private void thin() {
+        int cut = size / 2;
+        while (cut < size && counts[cut] == counts[cut - 1]) {
+            cut++;
+        }
+        if (cut == size) {
+            cut = size / 2;
+            while (cut > 0 && counts[cut] == counts[cut - 1]) {
+                cut--;
             }
+            if (cut == 0) {
+                cut = size;
+            }
+        }
+        long last = cut < size ? counts[cut] : ControlAndStatusRegisterFile.getRetired();
+        Checkpoint checkpoint = new Checkpoint(counts[0], last, 0, cut);
+        size -= cut;
+        System.arraycopy(actions, cut, actions, 0, size);
+        System.arraycopy(pcs, cut, pcs, 0, size);
+        System.arraycopy(params1, cut, params1, 0, size);
+        System.arraycopy(params2, cut, params2, 0, size);
+        System.arraycopy(counts, cut, counts, 0, size);
+        checkpoints.add(checkpoint);
+        // Keep the instructions covered decreasing from the oldest checkpoint to the latest
+        int n;
+        while ((n = checkpoints.size()) > 1 && checkpoints.get(n - 2).length() <= checkpoints.get(n - 1).length()) {
+            Checkpoint latest = checkpoints.remove(n - 1);
+            checkpoints.set(n - 2, new Checkpoint(checkpoints.get(n - 2), latest));
         }
+    }
 
-        private synchronized boolean empty() {
-            return size == 0;
+    // The undo actions of a span of instructions, reduced to the first one for each memory
+    // location or register, which restores the value it had before the span.  Undoing these in
+    // reverse order undoes the whole span.
+    private class Checkpoint {
+        private final long first, last; // retired count at the start and at the end
+        private final int pc;  // program counter value at the start
+        private byte[] actions = new byte[16];
+        private int[] params1 = new int[16];
+        private long[] params2 = new long[16];
+        private int length;
+        private int[] pcs; // sorted program counter values of the instructions in the span
+
+        // From the entries of the log from start to end
+        private Checkpoint(long first, long last, int start, int end) {
+            this.first = first;
+            this.last = last;
+            int firstPc = NOT_PC_VALUE;
+            LongSet seen = new LongSet();
+            LongSet instructions = new LongSet();
+            for (int i = start; i < end; i++) {
+                add(BackStepper.this.actions[i], BackStepper.this.params1[i], BackStepper.this.params2[i], seen);
+                if (BackStepper.this.pcs[i] != NOT_PC_VALUE) {
+                    instructions.add(BackStepper.this.pcs[i] & 0xFFFFFFFFL | 1L << 32);
+                    if (firstPc == NOT_PC_VALUE) {
+                        firstPc = BackStepper.this.pcs[i];
+                    }
+                }
+            }
+            pc = firstPc;
+            pcs = instructions.toSortedInts();
+            trim();
         }
 
-        private synchronized void push(Action act, int programCounter, int parm1, long parm2) {
-            if (size == 0) {
-                top = 0;
-                size++;
-            } else if (size < capacity) {
-                top = (top + 1) % capacity;
-                size++;
-            } else { // size == capacity.  The top moves up one, replacing oldest entry (goodbye!)
-                top = (top + 1) % capacity;
+        // Merges two consecutive checkpoints
+        private Checkpoint(Checkpoint older, Checkpoint newer) {
+            first = older.first;
+            last = newer.last;
+            pc = older.pc != NOT_PC_VALUE ? older.pc : newer.pc;
+            LongSet seen = new LongSet();
+            LongSet instructions = new LongSet();
+            for (Checkpoint checkpoint : new Checkpoint[]{older, newer}) {
+                for (int i = 0; i < checkpoint.length; i++) {
+                    add(checkpoint.actions[i], checkpoint.params1[i], checkpoint.params2[i], seen);
+                }
+                for (int address : checkpoint.pcs) {
+                    instructions.add(address & 0xFFFFFFFFL | 1L << 32);
+                }
             }
-            // We'll re-use existing objects rather than create/discard each time.
-            // Must use assign() method rather than series of assignment statements!
-            stack[top].assign(act, programCounter, parm1, parm2);
+            pcs = instructions.toSortedInts();
+            trim();
         }
 
-        private synchronized void push(Action act, int programCounter, int parm1) {
-            push(act, programCounter, parm1, 0);
+        private void add(byte action, int param1, long param2, LongSet seen) {
+            if (action == Action.DO_NOTHING.ordinal() || action == Action.PC_RESTORE.ordinal()
+                    || !seen.add(((long) (action + 1) << 32) | (param1 & 0xFFFFFFFFL))) {
+                return;
+            }
+            if (length == actions.length) {
+                actions = Arrays.copyOf(actions, length * 2);
+                params1 = Arrays.copyOf(params1, length * 2);
+                params2 = Arrays.copyOf(params2, length * 2);
+            }
+            actions[length] = action;
+            params1[length] = param1;
+            params2[length] = param2;
+            length++;
         }
 
-        private synchronized void push(Action act, int programCounter) {
-            push(act, programCounter, 0, 0);
+        private void trim() {
+            actions = Arrays.copyOf(actions, length);
+            params1 = Arrays.copyOf(params1, length);
+            params2 = Arrays.copyOf(params2, length);
         }
 
-        // NO PROTECTION.  This class is used only within this file so there is no excuse
-        // for trying to pop from empty stack.
-        private synchronized BackStep pop() {
-            BackStep bs;
-            bs = stack[top];
-            if (size == 1) {
-                top = -1;
-            } else {
-                top = (top + capacity - 1) % capacity;
+        private long length() {
+            return last - first;
+        }
+
+        private boolean reaches(Breakpoints breakpoints) {
+            for (int address : pcs) {
+                if (breakpoints.contains(address)) {
+                    return true;
+                }
             }
-            size--;
-            return bs;
+            return false;
         }
+    }
 
-        // NO PROTECTION.  This class is used only within this file so there is no excuse
-        // for trying to peek from empty stack.
-        private synchronized BackStep peek() {
-            return stack[top];
+    // Set of non zero longs, without boxing them
+    private static class LongSet {
+        private long[] keys = new long[64];
+        private int count;
+
+        // Returns false if the key was already there
+        private boolean add(long key) {
+            if (count * 2 >= keys.length) {
+                long[] old = keys;
+                keys = new long[old.length * 2];
+                count = 0;
+                for (long k : old) {
+                    if (k != 0) {
+                        add(k);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            count++;
+            return true;
         }
 
+        private int[] toSortedInts() {
+            int[] values = new int[count];
+            int n = 0;
+            for (long k : keys) {
+                if (k != 0) {
+                    values[n++] = (int) k;
+                }
+            }
+            Arrays.sort(values);
+            return values;
+        }
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,505 @@
+package rars.simulator;
+
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.Memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+
+import static rars.simulator.ClassFile.*;
+import static rars.simulator.DecodedText.*;
+
+/**
+ * Translates hot basic blocks of the predecoded text segment into JVM bytecode, so that HotSpot
+ * compiles the guest code itself instead of the interpreter switch.
+ * <p>
+ * A block becomes a hidden class implementing {@link CompiledBlock}.  Guest registers live in a
+ * <tt>long[]</tt> for the duration of the block; the caller copies them in and out.  Every
+ * instruction that can fault first stores its position in the block, so a trap can be made
+ * precise afterwards.  Anything more involved than a single JVM instruction is delegated to the
+ * small static methods at the end of this class, which HotSpot inlines.
+ * <p>
+ * The same translation compiles whole text segments ahead of time, see {@link CompiledText}.
+ * <p>
+ * Hidden classes need Java 15 or later.  They are looked up reflectively, so on older JVMs
+ * {@link #compile} and {@link #define} just return null and blocks keep being interpreted.
+ */
+class BlockCompiler {
+    private static final String SELF = "rars/simulator/BlockCompiler";
+    private static final String MEMORY = "rars/riscv/hardware/Memory";
+    private static final String TEXT = "rars/simulator/GeneratedText";
+    private static final String BLOCK = "([JL" + MEMORY + ";)I";
+
+    private static final Method defineHiddenClass;
+    private static final Object noOptions;
+
+    static {
+        Method define = null;
+        Object options = null;
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(option, 0);
+            define = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+        } catch (ReflectiveOperationException e) {
+            // Hidden classes are not available, define() will always fail
+        }
+        defineHiddenClass = define;
+        noOptions = options;
+    }
+
+    /**
+     * A compiled block together with the registers it uses.
+     */
+    static final class Translation {
+        final CompiledBlock code;
+        final int reads, writes; // bit masks of register numbers
+
+        private Translation(CompiledBlock code, int reads, int writes) {
+            this.code = code;
+            this.reads = reads;
+            this.writes = writes;
+        }
+    }
+
+    /**
+     * Thrown by the store helpers after a store into the text segment, which makes the rest of the
+     * compiled block (and possibly the block itself) stale.  The store has been done at that point.
+     */
+    static final class TextModified extends RuntimeException {
+        private TextModified() {
+            super("text segment modified", null, false, false);
+        }
+    }
+
+    static final TextModified TEXT_MODIFIED = new TextModified();
+
+    /**
+     * Compiles length decoded instructions starting at table index start.
+     *
+     * @return the compiled block, or null if it could not be compiled
+     */
+    static Translation compile(int[] op, int[] rd, int[] rs1, int[] rs2, int[] imm, int start, int pc, int length) {
+        if (defineHiddenClass == null) {
+            return null;
+        }
+        ClassFile cf = new ClassFile("rars/simulator/GeneratedBlock", "java/lang/Object", "rars/simulator/CompiledBlock");
+        cf.addDefaultConstructor("java/lang/Object");
+        ClassFile.Code code = new ClassFile.Code(cf);
+        if (!emit(code, op, rd, rs1, rs2, imm, start, pc, length)) {
+            return null;
+        }
+        cf.addMethod(ACC_PUBLIC, "run", BLOCK, code, 8, 4);
+        Object block = define(cf.toByteArray());
+        if (block == null) {
+            return null;
+        }
+        return new Translation((CompiledBlock) block, reads(op, rs1, rs2, start, length), writes(op, rd, start, length));
+    }
+
+    /**
+     * Wraps the block that text compiled ahead of time for pc, which must be one of the blocks it contains.
+     */
+    static Translation bind(CompiledText text, int pc, int[] op, int[] rd, int[] rs1, int[] rs2, int start, int length) {
+        CompiledBlock block = (registers, memory) -> text.run(pc, registers, memory);
+        return new Translation(block, reads(op, rs1, rs2, start, length), writes(op, rd, start, length));
+    }
+
+    /**
+     * Generates a subclass of {@link CompiledText} holding the given blocks, one method each, and a
+     * dispatcher that selects the method by program counter.
+     *
+     * @param starts addresses of the first instruction of each block, in increasing order
+     * @param length number of instructions of each block
+     * @return the class file
+     */
+    static byte[] compileText(int[] op, int[] rd, int[] rs1, int[] rs2, int[] imm, int textBase, int[] starts, int[] length) {
+        ClassFile cf = new ClassFile(TEXT, "rars/simulator/CompiledText");
+        cf.addDefaultConstructor("rars/simulator/CompiledText");
+        ClassFile.Code contains = new ClassFile.Code(cf);
+        contains.op(ILOAD_1);
+        int containsSwitch = contains.lookupSwitch(starts);
+        contains.pushInt(0);
+        contains.op(IRETURN);
+        for (int k = 0; k < starts.length; k++) {
+            contains.caseTarget(containsSwitch, k);
+        }
+        contains.pushInt(1);
+        contains.op(IRETURN);
+        cf.addMethod(0, "contains", "(I)Z", contains, 1, 2);
+
+        ClassFile.Code run = new ClassFile.Code(cf);
+        run.op(ILOAD_1);
+        int runSwitch = run.lookupSwitch(starts);
+        run.pushInt(-1);
+        run.op(IRETURN);
+        for (int k = 0; k < starts.length; k++) {
+            ClassFile.Code code = new ClassFile.Code(cf);
+            if (!emit(code, op, rd, rs1, rs2, imm, (starts[k] - textBase) >> 2, starts[k], length[k])) {
+                throw new IllegalArgumentException("block at " + starts[k] + " cannot be compiled");
+            }
+            cf.addMethod(ACC_PUBLIC, "b" + k, BLOCK, code, 8, 4);
+            run.caseTarget(runSwitch, k);
+            run.op(ALOAD_0);
+            run.op(ALOAD_2);
+            run.local(ALOAD, 3);
+            run.invoke(INVOKEVIRTUAL, TEXT, "b" + k, BLOCK);
+            run.op(IRETURN);
+        }
+        cf.addMethod(0, "run", "(I[JL" + MEMORY + ";)I", run, 3, 4);
+        return cf.toByteArray();
+    }
+
+    /**
+     * Defines a class generated by this class as a hidden class next to it and instantiates it.
+     *
+     * @return the new instance, or null if that is not possible on this JVM or the class is invalid
+     */
+    static Object define(byte[] classFile) {
+        if (defineHiddenClass == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHiddenClass.invoke(MethodHandles.lookup(), classFile, true, noOptions);
+            return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    // Registers read by the block before any write could have changed them (x0 excluded)
+    private static int reads(int[] op, int[] rs1, int[] rs2, int start, int length) {
+        int reads = 0;
+        for (int k = start; k < start + length; k++) {
+            int o = op[k];
+            if (o <= REMU || (o >= SB && o <= SW) || (o >= BEQ && o <= BGEU)) {
+                reads |= (1 << rs1[k]) | (1 << rs2[k]);
+            } else if (o <= LHU || o == JALR) {
+                reads |= 1 << rs1[k];
+            }
+        }
+        return reads & ~1;
+    }
+
+    // Registers written by the block (x0 excluded)
+    private static int writes(int[] op, int[] rd, int start, int length) {
+        int writes = 0;
+        for (int k = start; k < start + length; k++) {
+            int o = op[k];
+            if ((o < SB || o > SW) && (o < BEQ || o > BGEU)) {
+                writes |= 1 << rd[k];
+            }
+        }
+        return writes & ~1;
+    }
+
+    /**
+     * Emits the body of a <tt>run(long[], Memory)</tt> method for the block: local 1 holds the
+     * registers, local 2 the memory and local 3 is scratch.
+     *
+     * @return false if the block contains an instruction that cannot be compiled
+     */
+    private static boolean emit(ClassFile.Code code, int[] op, int[] rd, int[] rs1, int[] rs2, int[] imm, int start, int pc, int length) {
+        boolean ended = false;
+        for (int j = 0; j < length && !ended; j++) {
+            int k = start + j, address = pc + 4 * j;
+            int d = rd[k], s1 = rs1[k], s2 = rs2[k], i = imm[k];
+            switch (op[k]) {
+                case ADD:    binary(code, d, s1, s2, IADD); break;
+                case SUB:    binary(code, d, s1, s2, ISUB); break;
+                case SLL:    binary(code, d, s1, s2, ISHL); break;
+                case SLT:    binary(code, d, s1, s2, "slt"); break;
+                case SLTU:   binary(code, d, s1, s2, "sltu"); break;
+                case XOR:    binary(code, d, s1, s2, IXOR); break;
+                case SRL:    binary(code, d, s1, s2, IUSHR); break;
+                case SRA:    binary(code, d, s1, s2, ISHR); break;
+                case OR:     binary(code, d, s1, s2, IOR); break;
+                case AND:    binary(code, d, s1, s2, IAND); break;
+                case MUL:    binary(code, d, s1, s2, IMUL); break;
+                case MULH:   binary(code, d, s1, s2, "mulh"); break;
+                case MULHSU: binary(code, d, s1, s2, "mulhsu"); break;
+                case MULHU:  binary(code, d, s1, s2, "mulhu"); break;
+                case DIV:    binary(code, d, s1, s2, "div"); break;
+                case DIVU:   binary(code, d, s1, s2, "divu"); break;
+                case REM:    binary(code, d, s1, s2, "rem"); break;
+                case REMU:   binary(code, d, s1, s2, "remu"); break;
+                case ADDI:   immediate(code, d, s1, i, IADD); break;
+                case SLTI:   immediate(code, d, s1, i, "slt"); break;
+                case SLTIU:  immediate(code, d, s1, i, "sltu"); break;
+                case XORI:   immediate(code, d, s1, i, IXOR); break;
+                case ORI:    immediate(code, d, s1, i, IOR); break;
+                case ANDI:   immediate(code, d, s1, i, IAND); break;
+                case SLLI:   immediate(code, d, s1, i, ISHL); break;
+                case SRLI:   immediate(code, d, s1, i, IUSHR); break;
+                case SRAI:   immediate(code, d, s1, i, ISHR); break;
+                case LB:     load(code, j, d, s1, i, "lb"); break;
+                case LH:     load(code, j, d, s1, i, "lh"); break;
+                case LW:     load(code, j, d, s1, i, "lw"); break;
+                case LBU:    load(code, j, d, s1, i, "lbu"); break;
+                case LHU:    load(code, j, d, s1, i, "lhu"); break;
+                case SB:     store(code, j, s1, s2, i, "sb"); break;
+                case SH:     store(code, j, s1, s2, i, "sh"); break;
+                case SW:     store(code, j, s1, s2, i, "sw"); break;
+                case LUI:
+                    beginWrite(code, d);
+                    code.pushInt(i);
+                    endWrite(code, d);
+                    break;
+                case AUIPC:
+                    beginWrite(code, d);
+                    code.pushInt(address + i);
+                    endWrite(code, d);
+                    break;
+                case BEQ:    branch(code, address, s1, s2, i, "beq"); ended = true; break;
+                case BNE:    branch(code, address, s1, s2, i, "bne"); ended = true; break;
+                case BLT:    branch(code, address, s1, s2, i, "blt"); ended = true; break;
+                case BGE:    branch(code, address, s1, s2, i, "bge"); ended = true; break;
+                case BLTU:   branch(code, address, s1, s2, i, "bltu"); ended = true; break;
+                case BGEU:   branch(code, address, s1, s2, i, "bgeu"); ended = true; break;
+                case JAL:
+                    beginWrite(code, d);
+                    code.pushInt(address + 4);
+                    endWrite(code, d);
+                    code.pushInt(address + i);
+                    code.op(IRETURN);
+                    ended = true;
+                    break;
+                case JALR:
+                    // The target has to be computed before rd is written, rd may be rs1
+                    readInt(code, s1);
+                    code.pushInt(i);
+                    code.op(IADD);
+                    code.pushInt(0xFFFFFFFE);
+                    code.op(IAND);
+                    code.local(ISTORE, 3);
+                    beginWrite(code, d);
+                    code.pushInt(address + 4);
+                    endWrite(code, d);
+                    code.local(ILOAD, 3);
+                    code.op(IRETURN);
+                    ended = true;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        if (!ended) {
+            code.pushInt(pc + 4 * length);
+            code.op(IRETURN);
+        }
+        return true;
+    }
+
+    private static void readInt(ClassFile.Code code, int register) {
+        if (register == 0) {
+            code.pushInt(0);
+        } else {
+            code.op(ALOAD_1);
+            code.pushInt(register);
+            code.op(LALOAD);
+            code.op(L2I);
+        }
+    }
+
+    private static void readLong(ClassFile.Code code, int register) {
+        if (register == 0) {
+            code.op(LCONST_0);
+        } else {
+            code.op(ALOAD_1);
+            code.pushInt(register);
+            code.op(LALOAD);
+        }
+    }
+
+    // A register write is "aload_1, index, <int value>, i2l, lastore"; writes to x0 just drop the value
+    private static void beginWrite(ClassFile.Code code, int register) {
+        if (register != 0) {
+            code.op(ALOAD_1);
+            code.pushInt(register);
+        }
+    }
+
+    private static void endWrite(ClassFile.Code code, int register) {
+        if (register != 0) {
+            code.op(I2L);
+            code.op(LASTORE);
+        } else {
+            code.op(POP);
+        }
+    }
+
+    private static void progress(ClassFile.Code code, int position) {
+        code.op(ALOAD_1);
+        code.pushInt(CompiledBlock.PROGRESS);
+        code.pushInt(position);
+        code.op(I2L);
+        code.op(LASTORE);
+    }
+
+    private static void helper(ClassFile.Code code, String name, String descriptor) {
+        code.invoke(INVOKESTATIC, SELF, name, descriptor);
+    }
+
+    private static void binary(ClassFile.Code code, int d, int s1, int s2, int opcode) {
+        beginWrite(code, d);
+        readInt(code, s1);
+        readInt(code, s2);
+        code.op(opcode);
+        endWrite(code, d);
+    }
+
+    private static void binary(ClassFile.Code code, int d, int s1, int s2, String name) {
+        beginWrite(code, d);
+        readInt(code, s1);
+        readInt(code, s2);
+        helper(code, name, "(II)I");
+        endWrite(code, d);
+    }
+
+    private static void immediate(ClassFile.Code code, int d, int s1, int i, int opcode) {
+        beginWrite(code, d);
+        readInt(code, s1);
+        code.pushInt(i);
+        code.op(opcode);
+        endWrite(code, d);
+    }
+
+    private static void immediate(ClassFile.Code code, int d, int s1, int i, String name) {
+        beginWrite(code, d);
+        readInt(code, s1);
+        code.pushInt(i);
+        helper(code, name, "(II)I");
+        endWrite(code, d);
+    }
+
+    private static void load(ClassFile.Code code, int position, int d, int s1, int i, String name) {
+        progress(code, position);
+        beginWrite(code, d);
+        code.op(ALOAD_2);
+        readInt(code, s1);
+        code.pushInt(i);
+        code.op(IADD);
+        helper(code, name, "(L" + MEMORY + ";I)I");
+        endWrite(code, d);
+    }
+
+    private static void store(ClassFile.Code code, int position, int s1, int s2, int i, String name) {
+        progress(code, position);
+        code.op(ALOAD_2);
+        readInt(code, s1);
+        code.pushInt(i);
+        code.op(IADD);
+        readLong(code, s2);
+        code.op(L2I);
+        helper(code, name, "(L" + MEMORY + ";II)V");
+    }
+
+    private static void branch(ClassFile.Code code, int address, int s1, int s2, int i, String name) {
+        readLong(code, s1);
+        readLong(code, s2);
+        code.pushInt(address + i);
+        code.pushInt(address + 4);
+        helper(code, name, "(JJII)I");
+        code.op(IRETURN);
+    }
+
+    /*  Runtime support called from generated code.  Semantics follow the rv32 paths of the
+     *  corresponding classes in rars.riscv.instructions.
+     */
+
+    static int slt(int a, int b) {
+        return a < b ? 1 : 0;
+    }
+
+    static int sltu(int a, int b) {
+        return Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+    }
+
+    static int mulh(int a, int b) {
+        return (int) (((long) a * (long) b) >> 32);
+    }
+
+    static int mulhsu(int a, int b) {
+        return (int) (((long) a * (b & 0xFFFFFFFFL)) >> 32);
+    }
+
+    static int mulhu(int a, int b) {
+        return (int) (((a & 0xFFFFFFFFL) * (b & 0xFFFFFFFFL)) >> 32);
+    }
+
+    static int div(int a, int b) {
+        return b == 0 ? -1 : a / b;
+    }
+
+    static int divu(int a, int b) {
+        return b == 0 ? -1 : Integer.divideUnsigned(a, b);
+    }
+
+    static int rem(int a, int b) {
+        return b == 0 ? a : a % b;
+    }
+
+    static int remu(int a, int b) {
+        return b == 0 ? a : Integer.remainderUnsigned(a, b);
+    }
+
+    static int lb(Memory memory, int address) throws AddressErrorException {
+        return (memory.getByte(address) << 24) >> 24;
+    }
+
+    static int lh(Memory memory, int address) throws AddressErrorException {
+        return (memory.getHalf(address) << 16) >> 16;
+    }
+
+    static int lw(Memory memory, int address) throws AddressErrorException {
+        return memory.getWord(address);
+    }
+
+    static int lbu(Memory memory, int address) throws AddressErrorException {
+        return memory.getByte(address) & 0x000000FF;
+    }
+
+    static int lhu(Memory memory, int address) throws AddressErrorException {
+        return memory.getHalf(address) & 0x0000FFFF;
+    }
+
+    static void sb(Memory memory, int address, int value) throws AddressErrorException {
+        memory.setByte(address, value & 0x000000FF);
+        if (Memory.inTextSegment(address)) throw TEXT_MODIFIED;
+    }
+
+    static void sh(Memory memory, int address, int value) throws AddressErrorException {
+        memory.setHalf(address, value & 0x0000FFFF);
+        if (Memory.inTextSegment(address)) throw TEXT_MODIFIED;
+    }
+
+    static void sw(Memory memory, int address, int value) throws AddressErrorException {
+        memory.setWord(address, value);
+        if (Memory.inTextSegment(address)) throw TEXT_MODIFIED;
+    }
+
+    static int beq(long a, long b, int taken, int next) {
+        return a == b ? taken : next;
+    }
+
+    static int bne(long a, long b, int taken, int next) {
+        return a != b ? taken : next;
+    }
+
+    static int blt(long a, long b, int taken, int next) {
+        return a < b ? taken : next;
+    }
+
+    static int bge(long a, long b, int taken, int next) {
+        return a >= b ? taken : next;
+    }
+
+    static int bltu(long a, long b, int taken, int next) {
+        return Long.compareUnsigned(a, b) < 0 ? taken : next;
+    }
+
+    static int bgeu(long a, long b, int taken, int next) {
+        return Long.compareUnsigned(a, b) >= 0 ? taken : next;
+    }
+}
@@ -0,0 +1,112 @@
+package rars.simulator;
+
+import rars.util.Binary;
+
+/**
+ * A breakpoint on an instruction address, which may stop the program only when a condition holds
+ * and only after it has been reached a number of times.
+ * <p>
+ * The hit count is the number of times the program reached the address with the condition
+ * holding.  The program stops there once the hit count is above the ignore count, so a breakpoint
+ * with an ignore count of 2 lets the first two hits go by and stops at the third and every one
+ * after it.
+ *
+ * @see Breakpoints
+ * @see BreakpointCondition
+ */
+public class Breakpoint {
+    private final int address;
+    private final String condition;
+    private final BreakpointCondition compiled;
+    private int ignoreCount;
+    private int hitCount;
+
+    /**
+     * Creates a breakpoint that stops every time the address is reached.
+     *
+     * @param address the instruction address
+     */
+    public Breakpoint(int address) {
+        this(address, null, 0);
+    }
+
+    /**
+     * @param address     the instruction address
+     * @param condition   the condition under which to stop, such as "t0 == 10 &amp;&amp; mem[sp] &lt; 0",
+     *                    or null or blank to always stop
+     * @param ignoreCount the number of hits to let go by before stopping
+     * @throws IllegalArgumentException if the condition is not valid
+     */
+    public Breakpoint(int address, String condition, int ignoreCount) {
+        this.address = address;
+        this.condition = (condition == null || condition.trim().isEmpty()) ? null : condition.trim();
+        this.compiled = this.condition == null ? null : BreakpointCondition.compile(this.condition);
+        this.ignoreCount = Math.max(0, ignoreCount);
+    }
+
+    /**
+     * @return the instruction address
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the condition, or null if there is none
+     */
+    public String getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return the number of hits let go by before stopping
+     */
+    public int getIgnoreCount() {
+        return ignoreCount;
+    }
+
+    /**
+     * @param ignoreCount the number of hits to let go by before stopping
+     */
+    public void setIgnoreCount(int ignoreCount) {
+        this.ignoreCount = Math.max(0, ignoreCount);
+    }
+
+    /**
+     * @return the number of times the address was reached with the condition holding
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Starts counting hits over again, as when the program is reset.
+     */
+    public void resetHitCount() {
+        hitCount = 0;
+    }
+
+    /**
+     * Called by the simulator when the program reaches the address.
+     *
+     * @return whether the program should stop
+     */
+    boolean reached() {
+        if (compiled != null && !compiled.holds()) {
+            return false;
+        }
+        return ++hitCount > ignoreCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(Binary.intToHexString(address));
+        if (condition != null) {
+            s.append(" if ").append(condition);
+        }
+        if (ignoreCount > 0) {
+            s.append(", ignoring ").append(ignoreCount);
+        }
+        return s.append(", hit ").append(hitCount).append(hitCount == 1 ? " time" : " times").toString();
+    }
+}
@@ -0,0 +1,272 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.FloatingPointRegisterFile;
+import rars.riscv.hardware.Register;
+import rars.riscv.hardware.RegisterFile;
+
+/**
+ * The condition of a {@link Breakpoint}, compiled from its text into a tree of small objects that
+ * evaluate it directly against the registers and memory.
+ * <p>
+ * Conditions are C-like expressions over 64 bit signed integers, made of
+ * <ul>
+ * <li>decimal and hexadecimal (0x...) constants,
+ * <li>register names (t0, x5, fa0, f10, ...), control and status register names and pc.
+ * Floating point registers give their raw bits,
+ * <li>mem[address], the word at the address, sign extended,
+ * <li>the operators ! ~ - (unary), * / %, + -, &lt;&lt; &gt;&gt;, &lt; &lt;= &gt; &gt;=, == !=,
+ * &amp;, ^, |, &amp;&amp; and || with their C precedence, and parentheses.
+ * </ul>
+ * Comparisons and logical operators give 1 or 0, and the condition holds when its value is not 0.
+ * A condition that cannot be evaluated, because it reads an invalid address or divides by zero,
+ * holds as well, so the program stops where the problem is.
+ */
+final class BreakpointCondition {
+    private interface Expression {
+        long evaluate() throws AddressErrorException;
+    }
+
+    // Binary operators by precedence level, lowest first
+    private static final String[][] OPERATORS = {
+            {"||"}, {"&&"}, {"|"}, {"^"}, {"&"}, {"==", "!="}, {"<", "<=", ">", ">="},
+            {"<<", ">>"}, {"+", "-"}, {"*", "/", "%"}
+    };
+    private static final String[] TWO_CHARACTER_OPERATORS = {"||", "&&", "==", "!=", "<=", ">=", "<<", ">>"};
+
+    private final String text;
+    private int position;
+    private final Expression expression;
+
+    private BreakpointCondition(String text) {
+        this.text = text;
+        expression = parseBinary(0);
+        skipSpaces();
+        if (position < text.length()) {
+            throw error("unexpected \"" + text.charAt(position) + "\"");
+        }
+    }
+
+    /**
+     * Compiles a condition.
+     *
+     * @param text the condition
+     * @return the compiled condition
+     * @throws IllegalArgumentException if the condition is not valid
+     */
+    static BreakpointCondition compile(String text) {
+        return new BreakpointCondition(text);
+    }
+
+    /**
+     * @return whether the condition holds for the current registers and memory
+     */
+    boolean holds() {
+        try {
+            return expression.evaluate() != 0;
+        } catch (AddressErrorException | ArithmeticException e) {
+            return true;
+        }
+    }
+
+    private Expression parseBinary(int level) {
+        if (level == OPERATORS.length) {
+            return parseUnary();
+        }
+        Expression left = parseBinary(level + 1);
+        while (true) {
+            skipSpaces();
+            String operator = peekOperator();
+            if (operator == null || !contains(OPERATORS[level], operator)) {
+                return left;
+            }
+            position += operator.length();
+            left = combine(operator, left, parseBinary(level + 1));
+        }
+    }
+
+    private static Expression combine(String operator, Expression l, Expression r) {
+        switch (operator) {
+            case "||":
+                return () -> (l.evaluate() != 0 || r.evaluate() != 0) ? 1 : 0;
+            case "&&":
+                return () -> (l.evaluate() != 0 && r.evaluate() != 0) ? 1 : 0;
+            case "|":
+                return () -> l.evaluate() | r.evaluate();
+            case "^":
+                return () -> l.evaluate() ^ r.evaluate();
+            case "&":
+                return () -> l.evaluate() & r.evaluate();
+            case "==":
+                return () -> (l.evaluate() == r.evaluate()) ? 1 : 0;
+            case "!=":
+                return () -> (l.evaluate() != r.evaluate()) ? 1 : 0;
+            case "<":
+                return () -> (l.evaluate() < r.evaluate()) ? 1 : 0;
+            case "<=":
+                return () -> (l.evaluate() <= r.evaluate()) ? 1 : 0;
+            case ">":
+                return () -> (l.evaluate() > r.evaluate()) ? 1 : 0;
+            case ">=":
+                return () -> (l.evaluate() >= r.evaluate()) ? 1 : 0;
+            case "<<":
+                return () -> l.evaluate() << r.evaluate();
+            case ">>":
+                return () -> l.evaluate() >> r.evaluate();
+            case "+":
+                return () -> l.evaluate() + r.evaluate();
+            case "-":
+                return () -> l.evaluate() - r.evaluate();
+            case "*":
+                return () -> l.evaluate() * r.evaluate();
+            case "/":
+                return () -> l.evaluate() / r.evaluate();
+            default: // "%"
+                return () -> l.evaluate() % r.evaluate();
+        }
+    }
+
+    private Expression parseUnary() {
+        skipSpaces();
+        if (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '!' && !text.startsWith("!=", position)) {
+                position++;
+                Expression operand = parseUnary();
+                return () -> (operand.evaluate() == 0) ? 1 : 0;
+            } else if (c == '~') {
+                position++;
+                Expression operand = parseUnary();
+                return () -> ~operand.evaluate();
+            } else if (c == '-') {
+                position++;
+                Expression operand = parseUnary();
+                return () -> -operand.evaluate();
+            }
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+        skipSpaces();
+        if (position >= text.length()) {
+            throw error("operand missing");
+        }
+        char c = text.charAt(position);
+        if (c == '(') {
+            position++;
+            Expression inner = parseBinary(0);
+            expect(')');
+            return inner;
+        }
+        if (Character.isDigit(c)) {
+            long value = parseNumber();
+            return () -> value;
+        }
+        if (Character.isLetter(c) || c == '_') {
+            int start = position;
+            while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+                position++;
+            }
+            String name = text.substring(start, position);
+            skipSpaces();
+            if (name.equals("mem") && position < text.length() && text.charAt(position) == '[') {
+                position++;
+                Expression address = parseBinary(0);
+                expect(']');
+                return () -> Globals.memory.getWordNoNotify((int) address.evaluate());
+            }
+            return register(name, start);
+        }
+        throw error("unexpected \"" + c + "\"");
+    }
+
+    private Expression register(String name, int start) {
+        if (name.equals("pc")) {
+            return () -> RegisterFile.getProgramCounter();
+        }
+        Register register = RegisterFile.getRegister(name);
+        if (register == null) {
+            register = FloatingPointRegisterFile.getRegister(name);
+        }
+        if (register == null) {
+            for (Register csr : ControlAndStatusRegisterFile.getRegisters()) {
+                if (csr.getName().equals(name)) {
+                    register = csr;
+                    break;
+                }
+            }
+        }
+        if (register == null) {
+            position = start;
+            throw error("unknown register \"" + name + "\"");
+        }
+        Register found = register;
+        return found::getValueNoNotify;
+    }
+
+    private long parseNumber() {
+        int start = position;
+        boolean hex = text.startsWith("0x", position) || text.startsWith("0X", position);
+        if (hex) {
+            position += 2;
+        }
+        while (position < text.length() && Character.isLetterOrDigit(text.charAt(position))) {
+            position++;
+        }
+        String digits = text.substring(hex ? start + 2 : start, position);
+        try {
+            if (!hex) {
+                return Long.parseLong(digits);
+            }
+            long value = Long.parseUnsignedLong(digits, 16);
+            // As in the assembler, 32 bit hexadecimal constants are signed words in RV32
+            return (!InstructionSet.rv64 && (value >>> 32) == 0) ? (int) value : value;
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("invalid number \"" + text.substring(start, start + digits.length() + (hex ? 2 : 0)) + "\"");
+        }
+    }
+
+    private String peekOperator() {
+        for (String operator : TWO_CHARACTER_OPERATORS) {
+            if (text.startsWith(operator, position)) {
+                return operator;
+            }
+        }
+        if (position < text.length() && "|^&<>+-*/%".indexOf(text.charAt(position)) >= 0) {
+            return text.substring(position, position + 1);
+        }
+        return null;
+    }
+
+    private static boolean contains(String[] operators, String operator) {
+        for (String o : operators) {
+            if (o.equals(operator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        skipSpaces();
+        if (position >= text.length() || text.charAt(position) != c) {
+            throw error("\"" + c + "\" expected");
+        }
+        position++;
+    }
+
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + (position + 1) + " of condition \"" + text + "\"");
+    }
+}
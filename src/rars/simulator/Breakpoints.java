@@ -0,0 +1,162 @@
+package rars.simulator;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * The breakpoints of a simulation, by instruction address.
+ * <p>
+ * The simulator asks after every instruction whether there is a breakpoint at the program counter,
+ * so besides the breakpoints themselves this keeps one bit per instruction address, in pages
+ * allocated only where there are breakpoints.  Nearly every instruction is answered by testing
+ * that bit, and only the instructions that have a breakpoint go on to its condition and counts.
+ */
+public class Breakpoints {
+    // One bit for each word address; 1024 bits (a 4K page) per page, 1024 pages per directory entry
+    private static final int DIRECTORY_SHIFT = 22;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_INDEX_MASK = 0x3FF;
+    private static final int WORDS_PER_PAGE = 1024 / Long.SIZE;
+
+    private final long[][][] bits = new long[1 << (32 - DIRECTORY_SHIFT)][][];
+    private final HashMap<Integer, Breakpoint> breakpoints = new HashMap<>();
+    private int[] sorted = new int[0]; // addresses in increasing order, for finding the next breakpoint
+
+    public Breakpoints() {
+    }
+
+    /**
+     * Creates plain breakpoints at the given addresses.
+     *
+     * @param addresses instruction addresses, may be null
+     */
+    public Breakpoints(int[] addresses) {
+        if (addresses != null) {
+            for (int address : addresses) {
+                add(new Breakpoint(address));
+            }
+        }
+    }
+
+    /**
+     * Adds a breakpoint, replacing any other at the same address.
+     *
+     * @param breakpoint the breakpoint to add
+     */
+    public void add(Breakpoint breakpoint) {
+        int address = breakpoint.getAddress();
+        if (breakpoints.put(address, breakpoint) == null) {
+            long[][] directory = bits[address >>> DIRECTORY_SHIFT];
+            if (directory == null) {
+                directory = bits[address >>> DIRECTORY_SHIFT] = new long[PAGE_INDEX_MASK + 1][];
+            }
+            long[] page = directory[(address >>> PAGE_SHIFT) & PAGE_INDEX_MASK];
+            if (page == null) {
+                page = directory[(address >>> PAGE_SHIFT) & PAGE_INDEX_MASK] = new long[WORDS_PER_PAGE];
+            }
+            page[bitIndex(address) >>> 6] |= 1L << bitIndex(address);
+            sortAddresses();
+        }
+    }
+
+    /**
+     * Removes the breakpoint at an address, if there is one.
+     *
+     * @param address the instruction address
+     * @return the removed breakpoint, or null
+     */
+    public Breakpoint remove(int address) {
+        Breakpoint removed = breakpoints.remove(address);
+        if (removed != null) {
+            bits[address >>> DIRECTORY_SHIFT][(address >>> PAGE_SHIFT) & PAGE_INDEX_MASK][bitIndex(address) >>> 6]
+                    &= ~(1L << bitIndex(address));
+            sortAddresses();
+        }
+        return removed;
+    }
+
+    /**
+     * @param address the instruction address
+     * @return the breakpoint at the address, or null
+     */
+    public Breakpoint get(int address) {
+        return breakpoints.get(address);
+    }
+
+    /**
+     * @return all the breakpoints
+     */
+    public Collection<Breakpoint> getAll() {
+        return breakpoints.values();
+    }
+
+    public boolean isEmpty() {
+        return breakpoints.isEmpty();
+    }
+
+    /**
+     * Starts counting the hits of every breakpoint over again, as when the program is reset.
+     */
+    public void resetHitCounts() {
+        for (Breakpoint breakpoint : breakpoints.values()) {
+            breakpoint.resetHitCount();
+        }
+    }
+
+    public void clear() {
+        breakpoints.clear();
+        Arrays.fill(bits, null);
+        sorted = new int[0];
+    }
+
+    /**
+     * @param address the instruction address
+     * @return whether there is a breakpoint at the address
+     */
+    public boolean contains(int address) {
+        long[][] directory = bits[address >>> DIRECTORY_SHIFT];
+        if (directory == null) {
+            return false;
+        }
+        long[] page = directory[(address >>> PAGE_SHIFT) & PAGE_INDEX_MASK];
+        return page != null && (page[bitIndex(address) >>> 6] & (1L << bitIndex(address))) != 0;
+    }
+
+    /**
+     * Called by the simulator when the program reaches an address.  Counts the hit if there is a
+     * breakpoint there and its condition holds.
+     *
+     * @param pc the address reached
+     * @return whether the program should stop
+     */
+    boolean stopsAt(int pc) {
+        return contains(pc) && breakpoints.get(pc).reached();
+    }
+
+    /**
+     * @param pc an instruction address
+     * @return the lowest breakpoint address above pc, or Long.MAX_VALUE if there is none
+     */
+    long nextAfter(int pc) {
+        int next = Arrays.binarySearch(sorted, pc + 1);
+        if (next < 0) {
+            next = -next - 1;
+        }
+        return next < sorted.length ? sorted[next] : Long.MAX_VALUE;
+    }
+
+    private void sortAddresses() {
+        sorted = new int[breakpoints.size()];
+        int i = 0;
+        for (int address : breakpoints.keySet()) {
+            sorted[i++] = address;
+        }
+        Arrays.sort(sorted);
+    }
+
+    // Bit for a word address within its page
+    private static int bitIndex(int address) {
+        return (address >>> 2) & PAGE_INDEX_MASK;
+    }
+}
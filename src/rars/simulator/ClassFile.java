@@ -0,0 +1,337 @@
+package rars.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Minimal writer for JVM class files, just enough to generate the classes that hold compiled
+ * RISC-V code.  Classes are written as version 49 (Java 5) so that methods do not need
+ * StackMapTable frames; the JVM verifies them by type inference instead.
+ * <p>
+ * Only the constant pool entries and instructions used by the code generators are supported.
+ */
+class ClassFile {
+    // JVM opcodes used by the code generators
+    static final int ICONST_0 = 0x03, LCONST_0 = 0x09, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+            ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, ILOAD_1 = 0x1b, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c,
+            IALOAD = 0x2e, LALOAD = 0x2f, AALOAD = 0x32, LASTORE = 0x50, POP = 0x57, DUP = 0x59,
+            IADD = 0x60, ISUB = 0x64, IMUL = 0x68, ISHL = 0x78, ISHR = 0x7a, IUSHR = 0x7c,
+            IAND = 0x7e, IOR = 0x80, IXOR = 0x82, I2L = 0x85, L2I = 0x88,
+            IFEQ = 0x99, IFNE = 0x9a, IF_ICMPNE = 0xa0, GOTO = 0xa7, LOOKUPSWITCH = 0xab,
+            IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1,
+            GETSTATIC = 0xb2, PUTSTATIC = 0xb3, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+            NEW = 0xbb, ATHROW = 0xbf;
+
+    static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final HashMap<String, Integer> poolEntries = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass, superClass;
+    private final int[] interfaces;
+    private final ArrayList<byte[]> fields = new ArrayList<>();
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param name       internal name of the class, e.g. <tt>rars/simulator/Foo</tt>
+     * @param superName  internal name of the super class
+     * @param interfaces internal names of the implemented interfaces
+     */
+    ClassFile(String name, String superName, String... interfaces) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        this.interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            this.interfaces[i] = classRef(interfaces[i]);
+        }
+    }
+
+    int utf8(String value) {
+        Integer index = poolEntries.get("U" + value);
+        if (index != null) return index;
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return newEntry("U" + value, 1);
+    }
+
+    int classRef(String name) {
+        return reference("C" + name, 7, utf8(name), -1);
+    }
+
+    int integer(int value) {
+        Integer index = poolEntries.get("I" + value);
+        if (index != null) return index;
+        try {
+            pool.writeByte(3);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return newEntry("I" + value, 1);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return reference("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return reference("F" + owner + "." + name + ":" + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int reference(String key, int tag, int first, int second) {
+        Integer index = poolEntries.get(key);
+        if (index != null) return index;
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0) pool.writeShort(second);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return newEntry(key, 1);
+    }
+
+    private int newEntry(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        poolEntries.put(key, index);
+        return index;
+    }
+
+    /**
+     * Adds a field without attributes.
+     */
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Adds a method whose body is the given code.
+     */
+    void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        byte[] body = code.toByteArray();
+        if (body.length > 65535) {
+            throw new IllegalStateException("method too large");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1); // one attribute: Code
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0); // no exception table
+            out.writeShort(0); // no attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * Adds the public no-argument constructor that just calls the super class constructor.
+     */
+    void addDefaultConstructor(String superName) {
+        Code code = new Code(this);
+        code.op(ALOAD_0);
+        code.invoke(INVOKESPECIAL, superName, "<init>", "()V");
+        code.op(RETURN);
+        addMethod(ACC_PUBLIC, "<init>", "()V", code, 1, 1);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  // minor version
+            out.writeShort(49); // major version: Java 5, no stack map frames required
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) out.writeShort(i);
+            out.writeShort(fields.size());
+            for (byte[] f : fields) out.write(f);
+            out.writeShort(methods.size());
+            for (byte[] m : methods) out.write(m);
+            out.writeShort(0); // no class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Bytecode of one method body.
+     */
+    static class Code {
+        private final ClassFile owner;
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        Code(ClassFile owner) {
+            this.owner = owner;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value & 0xFFFF);
+        }
+
+        int position() {
+            return length;
+        }
+
+        /**
+         * Pushes an int constant using the shortest suitable instruction.
+         */
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                int index = owner.integer(value);
+                if (index < 256) {
+                    op(LDC);
+                    u1(index);
+                } else {
+                    op(LDC_W);
+                    u2(index);
+                }
+            }
+        }
+
+        void invoke(int opcode, String className, String name, String descriptor) {
+            op(opcode);
+            u2(owner.methodRef(className, name, descriptor));
+        }
+
+        void field(int opcode, String className, String name, String descriptor) {
+            op(opcode);
+            u2(owner.fieldRef(className, name, descriptor));
+        }
+
+        void type(int opcode, String className) {
+            op(opcode);
+            u2(owner.classRef(className));
+        }
+
+        void local(int opcode, int index) {
+            op(opcode);
+            u1(index);
+        }
+
+        /**
+         * Emits a branch instruction with a placeholder offset, to be filled in by {@link #target(int)}.
+         *
+         * @return position of the branch instruction
+         */
+        int branch(int opcode) {
+            int at = position();
+            op(opcode);
+            u2(0);
+            return at;
+        }
+
+        /**
+         * Makes the branch emitted at the given position jump to the current position.
+         */
+        void target(int branch) {
+            int offset = length - branch;
+            bytes[branch + 1] = (byte) (offset >> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+
+        /**
+         * Emits a lookupswitch on the int on top of the stack.  Its default is the next instruction;
+         * the cases are filled in by {@link #caseTarget(int, int)}.
+         *
+         * @param keys case values in increasing order
+         * @return position of the lookupswitch instruction
+         */
+        int lookupSwitch(int[] keys) {
+            int at = position();
+            op(LOOKUPSWITCH);
+            while (length % 4 != 0) {
+                u1(0);
+            }
+            int defaultOffset = length - at + 8 + 8 * keys.length;
+            u4(defaultOffset);
+            u4(keys.length);
+            for (int key : keys) {
+                u4(key);
+                u4(defaultOffset);
+            }
+            return at;
+        }
+
+        /**
+         * Makes case number index of the lookupswitch emitted at the given position jump to the current position.
+         */
+        void caseTarget(int lookupSwitch, int index) {
+            int offset = length - lookupSwitch;
+            int at = ((lookupSwitch + 4) & ~3) + 12 + 8 * index;
+            bytes[at] = (byte) (offset >> 24);
+            bytes[at + 1] = (byte) (offset >> 16);
+            bytes[at + 2] = (byte) (offset >> 8);
+            bytes[at + 3] = (byte) offset;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
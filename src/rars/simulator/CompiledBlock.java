@@ -0,0 +1,26 @@
+package rars.simulator;
+
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.Memory;
+
+/**
+ * A basic block translated to JVM bytecode by {@link BlockCompiler}.
+ */
+interface CompiledBlock {
+    /**
+     * Index in the register array where the block records which of its instructions is
+     * executing whenever it reaches one that may fault.
+     */
+    int PROGRESS = 32;
+
+    /**
+     * Runs the whole block.
+     *
+     * @param registers values of x0 to x31 on entry, updated in place, followed by the progress slot
+     * @param memory    memory to load from and store to
+     * @return address of the next instruction to execute
+     * @throws AddressErrorException if a load or store faults; registers then hold the state
+     *                               before the instruction recorded in the progress slot
+     */
+    int run(long[] registers, Memory memory) throws AddressErrorException;
+}
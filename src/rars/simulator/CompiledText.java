@@ -0,0 +1,64 @@
+package rars.simulator;
+
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.Memory;
+
+/**
+ * The text segment of an assembled program compiled ahead of time to JVM bytecode.
+ * <p>
+ * {@link #compile(Memory, int)} translates every basic block that can be found statically (the
+ * entry point, branch and jump targets and the instructions following branches, jumps and
+ * instructions the compiler does not handle) into one method of a generated subclass, together
+ * with a dispatcher that selects the method by program counter.  The class file can be saved
+ * and later turned back into an instance with {@link #load(byte[])}, so a program can be run
+ * many times without assembling it again.
+ * <p>
+ * Once installed with {@link Simulator#setCompiledText(CompiledText)}, the simulator runs these
+ * blocks instead of interpreting them whenever it would otherwise run the same block
+ * interpreted in basic block mode.  Everything else, including targets of indirect jumps that
+ * were not found statically, is simulated as usual.  Control returns to the simulator after every
+ * block, so interrupts, breakpoints and the step limit work as in the interpreter.
+ *
+ * @see Simulator#setCompiledText(CompiledText)
+ */
+public abstract class CompiledText {
+    CompiledText() {
+    }
+
+    /**
+     * @return whether a compiled block starts at pc
+     */
+    abstract boolean contains(int pc);
+
+    /**
+     * Runs the compiled block starting at pc, following the conventions of {@link CompiledBlock#run(long[], Memory)}.
+     *
+     * @return address of the next instruction to execute, -1 if no block starts at pc
+     */
+    abstract int run(int pc, long[] registers, Memory memory) throws AddressErrorException;
+
+    /**
+     * Compiles the text segment of the given memory.  The current memory configuration must be
+     * the one the program was assembled with.
+     *
+     * @param memory memory holding the assembled program
+     * @param entry  address execution starts at
+     * @return the generated class file
+     */
+    public static byte[] compile(Memory memory, int entry) {
+        return new DecodedText().compileText(memory, entry);
+    }
+
+    /**
+     * Loads a class file produced by {@link #compile(Memory, int)}.  The class runs with the
+     * privileges of the simulator, so only load class files from a trusted source.
+     *
+     * @param classFile the class file
+     * @return the compiled text, or null if it cannot be loaded on this JVM (hidden classes
+     * need Java 15 or later) or is not valid
+     */
+    public static CompiledText load(byte[] classFile) {
+        Object text = BlockCompiler.define(classFile);
+        return text instanceof CompiledText ? (CompiledText) text : null;
+    }
+}
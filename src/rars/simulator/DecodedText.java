@@ -0,0 +1,616 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.SimulationException;
+import rars.riscv.BasicInstruction;
+import rars.riscv.Instruction;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.Memory;
+import rars.riscv.hardware.Register;
+import rars.riscv.hardware.RegisterFile;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cache of the text segment decoded into flat primitive arrays, together with a switch-based
+ * interpreter that executes from it.
+ * <p>
+ * Each word of the text segment is decoded at most once into a micro-op id plus its rd, rs1, rs2
+ * and (already sign-extended) immediate, stored in parallel arrays indexed by
+ * {@code (pc - Memory.textBaseAddress) >> 2}.  Executing a decoded instruction is then a single
+ * switch with no virtual call and no operand array.  The common RV32IM integer instructions are
+ * handled here; everything else (ecall, CSRs, floating point, ...) is reported back to the caller
+ * so it can be simulated through {@link BasicInstruction#simulate(ProgramStatement)}, which
+ * remains the reference implementation.
+ * <p>
+ * All register and memory accesses still go through {@link RegisterFile} and {@link Memory},
+ * so back-stepping and register observers behave exactly as in the reference path.  The table
+ * is discarded whenever the text segment of the current memory changes (assembly, self-modifying
+ * code, {@link Memory#copyFrom(Memory)}) and it is bypassed while memory observers are attached,
+ * because they expect a fetch notice for every instruction.
+ */
+class DecodedText {
+    // Micro-op ids.  They are grouped by operand layout, see decode().  BlockCompiler uses them too.
+    static final int UNDECODED = 0, FALLBACK = 1,
+            ADD = 2, SUB = 3, SLL = 4, SLT = 5, SLTU = 6, XOR = 7, SRL = 8, SRA = 9, OR = 10, AND = 11,
+            MUL = 12, MULH = 13, MULHSU = 14, MULHU = 15, DIV = 16, DIVU = 17, REM = 18, REMU = 19,
+            ADDI = 20, SLTI = 21, SLTIU = 22, XORI = 23, ORI = 24, ANDI = 25,
+            SLLI = 26, SRLI = 27, SRAI = 28,
+            LB = 29, LH = 30, LW = 31, LBU = 32, LHU = 33,
+            SB = 34, SH = 35, SW = 36, LUI = 37, AUIPC = 38,
+            BEQ = 39, BNE = 40, BLT = 41, BGE = 42, BLTU = 43, BGEU = 44,
+            JAL = 45, JALR = 46;
+
+    // Upper bound on the number of instructions in one basic block, so that a very long straight-line
+    // stretch still returns to the simulator loop (interrupts, stop requests) now and then.
+    private static final int MAX_BLOCK_LENGTH = 256;
+
+    // Upper bound on the number of blocks compiled ahead of time, which keeps the generated dispatcher
+    // within the size limit of a JVM method.  Blocks beyond it are simulated as usual.
+    private static final int MAX_COMPILED_BLOCKS = 2048;
+
+    private static final HashMap<Class<?>, Integer> ids = new HashMap<>();
+
+    static {
+        Class<?>[] classes = {
+                rars.riscv.instructions.ADD.class, rars.riscv.instructions.SUB.class,
+                rars.riscv.instructions.SLL.class, rars.riscv.instructions.SLT.class,
+                rars.riscv.instructions.SLTU.class, rars.riscv.instructions.XOR.class,
+                rars.riscv.instructions.SRL.class, rars.riscv.instructions.SRA.class,
+                rars.riscv.instructions.OR.class, rars.riscv.instructions.AND.class,
+                rars.riscv.instructions.MUL.class, rars.riscv.instructions.MULH.class,
+                rars.riscv.instructions.MULHSU.class, rars.riscv.instructions.MULHU.class,
+                rars.riscv.instructions.DIV.class, rars.riscv.instructions.DIVU.class,
+                rars.riscv.instructions.REM.class, rars.riscv.instructions.REMU.class,
+                rars.riscv.instructions.ADDI.class, rars.riscv.instructions.SLTI.class,
+                rars.riscv.instructions.SLTIU.class, rars.riscv.instructions.XORI.class,
+                rars.riscv.instructions.ORI.class, rars.riscv.instructions.ANDI.class,
+                rars.riscv.instructions.SLLI.class, rars.riscv.instructions.SRLI.class,
+                rars.riscv.instructions.SRAI.class,
+                rars.riscv.instructions.LB.class, rars.riscv.instructions.LH.class,
+                rars.riscv.instructions.LW.class, rars.riscv.instructions.LBU.class,
+                rars.riscv.instructions.LHU.class,
+                rars.riscv.instructions.SB.class, rars.riscv.instructions.SH.class,
+                rars.riscv.instructions.SW.class,
+                rars.riscv.instructions.LUI.class, rars.riscv.instructions.AUIPC.class,
+                rars.riscv.instructions.BEQ.class, rars.riscv.instructions.BNE.class,
+                rars.riscv.instructions.BLT.class, rars.riscv.instructions.BGE.class,
+                rars.riscv.instructions.BLTU.class, rars.riscv.instructions.BGEU.class,
+                rars.riscv.instructions.JAL.class, rars.riscv.instructions.JALR.class
+        };
+        for (int i = 0; i < classes.length; i++) {
+            ids.put(classes[i], ADD + i);
+        }
+    }
+
+    private Memory memory;
+    private int textBase;
+    private int modifications;
+    private int[] op = new int[0], rd = op, rs1 = op, rs2 = op, imm = op;
+    private int[] blockLength = op; // per start index, 0 until the block starting there is discovered
+    private int[] blockRuns = op;   // per start index, times the block ran interpreted while compiling was on
+    private BlockCompiler.Translation[] compiled = new BlockCompiler.Translation[0];
+    private CompiledText precompiled;
+    private final long[] registers = new long[CompiledBlock.PROGRESS + 1];
+    private int blockProgress;
+
+    /**
+     * Executes the instruction at pc if it is one the table can handle.  The program counter
+     * must already have been incremented past it, as for {@link BasicInstruction#simulate(ProgramStatement)}.
+     *
+     * @param pc address of the instruction to execute
+     * @return true if the instruction was executed, false if the caller has to fetch and simulate it
+     * @throws SimulationException if a load or store faults
+     */
+    boolean execute(int pc) throws SimulationException {
+        int index = lookup(pc);
+        return index >= 0 && step(index, pc, memory);
+    }
+
+    /**
+     * Executes up to limit instructions of the basic block starting at pc.  A block is a straight-line
+     * run of instructions the table can handle, ending after the first branch or jump or just before
+     * the first instruction it cannot handle (ecall, ebreak, CSR access, ...).  Blocks are discovered
+     * on first use and cached per start address.
+     * <p>
+     * As with {@link #execute(int)} the program counter must already point past the first instruction.
+     * It is only brought up to date before the last instruction, so this must not be used while
+     * back-stepping or anything else needs to see every intermediate program counter.  If an
+     * instruction faults, the program counter is left just past the faulting instruction as it would
+     * be after single stepping, and {@link #getBlockProgress()} tells how many completed before it.
+     *
+     * <p>
+     * With compile set, blocks that have run {@link Globals#jitThreshold} times are translated to JVM
+     * bytecode by {@link BlockCompiler} and from then on run compiled whenever the whole block fits
+     * within limit and no register is observed (compiled code does not send read notices).
+     * Otherwise, and for blocks that cannot be compiled, the block is interpreted as usual.
+     *
+     * @param pc      address of the first instruction of the block
+     * @param limit   maximum number of instructions to execute, at least 1
+     * @param compile whether hot blocks should be compiled
+     * @return number of instructions executed, 0 if the caller has to fetch and simulate the one at pc
+     * @throws SimulationException if a load or store faults
+     */
+    int executeBlock(int pc, int limit, boolean compile) throws SimulationException {
+        int index = lookup(pc);
+        if (index < 0) {
+            return 0;
+        }
+        if (blockLength[index] == 0) {
+            blockLength[index] = discover(index, pc);
+        }
+        if ((compile || precompiled != null) && blockLength[index] <= limit && !Register.anyObserved()) {
+            BlockCompiler.Translation translation = compiled[index];
+            if (translation == null && blockRuns[index] >= 0) {
+                if (blockRuns[index] == 0 && precompiled != null && precompiled.contains(pc)) {
+                    translation = compiled[index] = BlockCompiler.bind(precompiled, pc, op, rd, rs1, rs2, index, blockLength[index]);
+                } else if (!compile) {
+                    blockRuns[index] = -1; // not compiled ahead of time, don't look again
+                } else if (++blockRuns[index] >= Globals.jitThreshold) {
+                    translation = compiled[index] = BlockCompiler.compile(op, rd, rs1, rs2, imm, index, pc, blockLength[index]);
+                    if (translation == null) {
+                        blockRuns[index] = -1; // don't try again
+                    }
+                }
+            }
+            if (translation != null) {
+                return runCompiled(translation, pc, blockLength[index]);
+            }
+        }
+        int length = Math.min(blockLength[index], limit);
+        int j = 0, address = pc;
+        try {
+            for (; j < length; j++, address += Instruction.INSTRUCTION_LENGTH) {
+                if (j == length - 1 && j > 0) {
+                    // Only the last instruction can be a branch or jump, which needs the real program counter
+                    RegisterFile.getProgramCounterRegister().setValue(address + Instruction.INSTRUCTION_LENGTH);
+                }
+                if (!step(index + j, address, memory)) {
+                    break;
+                }
+                if (op[index + j] >= SB && op[index + j] <= SW && memory.getTextModificationCount() != modifications) {
+                    // Self-modifying store: the rest of this block may no longer be what was decoded
+                    j++;
+                    break;
+                }
+            }
+        } catch (SimulationException e) {
+            blockProgress = j;
+            RegisterFile.getProgramCounterRegister().setValue(address + Instruction.INSTRUCTION_LENGTH);
+            throw e;
+        }
+        if (j < length && j > 0) {
+            RegisterFile.getProgramCounterRegister().setValue(pc + j * Instruction.INSTRUCTION_LENGTH);
+        }
+        return j;
+    }
+
+    private int runCompiled(BlockCompiler.Translation translation, int pc, int length) throws SimulationException {
+        long[] r = registers;
+        for (int used = translation.reads | translation.writes; used != 0; used &= used - 1) {
+            int k = Integer.numberOfTrailingZeros(used);
+            r[k] = RegisterFile.getValueLong(k);
+        }
+        int next;
+        try {
+            next = translation.code.run(r, memory);
+        } catch (AddressErrorException e) {
+            commit(r, translation.writes);
+            blockProgress = (int) r[CompiledBlock.PROGRESS];
+            int address = pc + blockProgress * Instruction.INSTRUCTION_LENGTH;
+            RegisterFile.getProgramCounterRegister().setValue(address + Instruction.INSTRUCTION_LENGTH);
+            throw fault(address, e);
+        } catch (BlockCompiler.TextModified m) {
+            // Deoptimize: the table is rebuilt on the next lookup and execution continues interpreted
+            commit(r, translation.writes);
+            int completed = (int) r[CompiledBlock.PROGRESS] + 1;
+            RegisterFile.getProgramCounterRegister().setValue(pc + completed * Instruction.INSTRUCTION_LENGTH);
+            return completed;
+        }
+        commit(r, translation.writes);
+        RegisterFile.getProgramCounterRegister().setValue(next);
+        return length;
+    }
+
+    private static void commit(long[] r, int writes) {
+        for (; writes != 0; writes &= writes - 1) {
+            int k = Integer.numberOfTrailingZeros(writes);
+            RegisterFile.updateRegister(k, r[k]);
+        }
+    }
+
+    private SimulationException fault(int pc, AddressErrorException e) {
+        ProgramStatement statement;
+        try {
+            statement = memory.getStatementNoNotify(pc);
+        } catch (AddressErrorException aee) {
+            statement = null;
+        }
+        return new SimulationException(statement, e);
+    }
+
+    /**
+     * Sets the text compiled ahead of time whose blocks {@link #executeBlock(int, int, boolean)}
+     * runs, or null for none.  It must have been compiled from the text segment being executed.
+     */
+    void setCompiledText(CompiledText text) {
+        if (text != precompiled) {
+            precompiled = text;
+            Arrays.fill(blockRuns, 0);
+            Arrays.fill(compiled, null);
+        }
+    }
+
+    /**
+     * Compiles the text segment of memory ahead of time, see {@link CompiledText}.
+     *
+     * @param entry address execution starts at
+     * @return the class file
+     */
+    byte[] compileText(Memory memory, int entry) {
+        Memory previous = Memory.swapInstance(memory);
+        try {
+            TreeMap<Integer, Integer> blocks = new TreeMap<>();
+            ArrayDeque<Integer> pending = new ArrayDeque<>();
+            pending.add(entry);
+            pending.add(Memory.textBaseAddress);
+            while (!pending.isEmpty()) {
+                int pc = pending.remove();
+                if (blocks.containsKey(pc) || (pc & 3) != 0 || !Memory.inTextSegment(pc)) {
+                    continue;
+                }
+                int index = lookup(pc);
+                if (index < 0) {
+                    // Simulated as usual; a block may start right after it
+                    if (memory.getStatementNoNotify(pc) != null) {
+                        pending.add(pc + Instruction.INSTRUCTION_LENGTH);
+                    }
+                    blocks.put(pc, 0);
+                    continue;
+                }
+                if (blockLength[index] == 0) {
+                    blockLength[index] = discover(index, pc);
+                }
+                int length = blockLength[index], last = index + length - 1;
+                blocks.put(pc, length);
+                pending.add(pc + length * Instruction.INSTRUCTION_LENGTH);
+                if ((op[last] >= BEQ && op[last] <= BGEU) || op[last] == JAL) {
+                    pending.add(pc + (length - 1) * Instruction.INSTRUCTION_LENGTH + imm[last]);
+                }
+            }
+            blocks.values().removeIf(length -> length == 0);
+            int count = Math.min(blocks.size(), MAX_COMPILED_BLOCKS);
+            int[] starts = new int[count], lengths = new int[count];
+            int k = 0;
+            for (Map.Entry<Integer, Integer> block : blocks.entrySet()) {
+                if (k == count) {
+                    break;
+                }
+                starts[k] = block.getKey();
+                lengths[k++] = block.getValue();
+            }
+            return BlockCompiler.compileText(op, rd, rs1, rs2, imm, textBase, starts, lengths);
+        } catch (AddressErrorException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Memory.swapInstance(previous);
+        }
+    }
+
+    /**
+     * @return number of instructions of the last block that completed before one of them faulted
+     */
+    int getBlockProgress() {
+        return blockProgress;
+    }
+
+    /**
+     * Finds the table index for pc, decoding the instruction there if needed.
+     *
+     * @return the index, or -1 if the table cannot be used for pc right now
+     */
+    private int lookup(int pc) {
+        Memory current = Globals.memory;
+        if (InstructionSet.rv64 || current.countObservers() != 0
+                || (pc & 3) != 0 || !Memory.inTextSegment(pc)) {
+            return -1;
+        }
+        if (current != memory || current.getTextModificationCount() != modifications
+                || Memory.textBaseAddress != textBase) {
+            reset(current);
+        }
+        int index = (pc - textBase) >> 2;
+        if (index >= op.length) {
+            grow(index);
+        }
+        if (op[index] == UNDECODED) {
+            decode(index, pc);
+        }
+        return op[index] == FALLBACK ? -1 : index;
+    }
+
+    /**
+     * Measures the basic block starting at index.
+     */
+    private int discover(int index, int pc) {
+        int length = 0;
+        while (length < MAX_BLOCK_LENGTH) {
+            int i = index + length, address = pc + length * Instruction.INSTRUCTION_LENGTH;
+            if (!Memory.inTextSegment(address)) {
+                break;
+            }
+            if (i >= op.length) {
+                grow(i);
+            }
+            if (op[i] == UNDECODED) {
+                decode(i, address);
+            }
+            if (op[i] == FALLBACK) {
+                break;
+            }
+            length++;
+            if (op[i] >= BEQ) { // branches and jumps end the block
+                break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Executes the decoded instruction at index.
+     */
+    private boolean step(int index, int pc, Memory current) throws SimulationException {
+        int d = rd[index], i = imm[index];
+        try {
+            switch (op[index]) {
+                case ADD:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) + RegisterFile.getValue(rs2[index]));
+                    return true;
+                case SUB:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) - RegisterFile.getValue(rs2[index]));
+                    return true;
+                case SLL:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) << (RegisterFile.getValue(rs2[index]) & 0x1F));
+                    return true;
+                case SLT:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) < RegisterFile.getValue(rs2[index]) ? 1 : 0);
+                    return true;
+                case SLTU:
+                    RegisterFile.updateRegister(d, Integer.compareUnsigned(RegisterFile.getValue(rs1[index]), RegisterFile.getValue(rs2[index])) < 0 ? 1 : 0);
+                    return true;
+                case XOR:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) ^ RegisterFile.getValue(rs2[index]));
+                    return true;
+                case SRL:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) >>> (RegisterFile.getValue(rs2[index]) & 0x1F));
+                    return true;
+                case SRA:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) >> (RegisterFile.getValue(rs2[index]) & 0x1F));
+                    return true;
+                case OR:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) | RegisterFile.getValue(rs2[index]));
+                    return true;
+                case AND:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) & RegisterFile.getValue(rs2[index]));
+                    return true;
+                case MUL:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) * RegisterFile.getValue(rs2[index]));
+                    return true;
+                case MULH:
+                    RegisterFile.updateRegister(d, (int) (((long) RegisterFile.getValue(rs1[index]) * (long) RegisterFile.getValue(rs2[index])) >> 32));
+                    return true;
+                case MULHSU:
+                    RegisterFile.updateRegister(d, (int) (((long) RegisterFile.getValue(rs1[index]) * (RegisterFile.getValue(rs2[index]) & 0xFFFFFFFFL)) >> 32));
+                    return true;
+                case MULHU:
+                    RegisterFile.updateRegister(d, (int) (((RegisterFile.getValue(rs1[index]) & 0xFFFFFFFFL) * (RegisterFile.getValue(rs2[index]) & 0xFFFFFFFFL)) >> 32));
+                    return true;
+                case DIV: {
+                    int a = RegisterFile.getValue(rs1[index]), b = RegisterFile.getValue(rs2[index]);
+                    RegisterFile.updateRegister(d, b == 0 ? -1 : a / b);
+                    return true;
+                }
+                case DIVU: {
+                    int a = RegisterFile.getValue(rs1[index]), b = RegisterFile.getValue(rs2[index]);
+                    RegisterFile.updateRegister(d, b == 0 ? -1 : Integer.divideUnsigned(a, b));
+                    return true;
+                }
+                case REM: {
+                    int a = RegisterFile.getValue(rs1[index]), b = RegisterFile.getValue(rs2[index]);
+                    RegisterFile.updateRegister(d, b == 0 ? a : a % b);
+                    return true;
+                }
+                case REMU: {
+                    int a = RegisterFile.getValue(rs1[index]), b = RegisterFile.getValue(rs2[index]);
+                    RegisterFile.updateRegister(d, b == 0 ? a : Integer.remainderUnsigned(a, b));
+                    return true;
+                }
+                case ADDI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) + i);
+                    return true;
+                case SLTI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) < i ? 1 : 0);
+                    return true;
+                case SLTIU:
+                    RegisterFile.updateRegister(d, Integer.compareUnsigned(RegisterFile.getValue(rs1[index]), i) < 0 ? 1 : 0);
+                    return true;
+                case XORI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) ^ i);
+                    return true;
+                case ORI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) | i);
+                    return true;
+                case ANDI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) & i);
+                    return true;
+                case SLLI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) << i);
+                    return true;
+                case SRLI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) >>> i);
+                    return true;
+                case SRAI:
+                    RegisterFile.updateRegister(d, RegisterFile.getValue(rs1[index]) >> i);
+                    return true;
+                case LB:
+                    RegisterFile.updateRegister(d, (current.getByte(RegisterFile.getValue(rs1[index]) + i) << 24) >> 24);
+                    return true;
+                case LH:
+                    RegisterFile.updateRegister(d, (current.getHalf(RegisterFile.getValue(rs1[index]) + i) << 16) >> 16);
+                    return true;
+                case LW:
+                    RegisterFile.updateRegister(d, current.getWord(RegisterFile.getValue(rs1[index]) + i));
+                    return true;
+                case LBU:
+                    RegisterFile.updateRegister(d, current.getByte(RegisterFile.getValue(rs1[index]) + i) & 0x000000FF);
+                    return true;
+                case LHU:
+                    RegisterFile.updateRegister(d, current.getHalf(RegisterFile.getValue(rs1[index]) + i) & 0x0000FFFF);
+                    return true;
+                case SB:
+                    current.setByte(RegisterFile.getValue(rs1[index]) + i, (int) RegisterFile.getValueLong(rs2[index]) & 0x000000FF);
+                    return true;
+                case SH:
+                    current.setHalf(RegisterFile.getValue(rs1[index]) + i, (int) RegisterFile.getValueLong(rs2[index]) & 0x0000FFFF);
+                    return true;
+                case SW:
+                    current.setWord(RegisterFile.getValue(rs1[index]) + i, (int) RegisterFile.getValueLong(rs2[index]));
+                    return true;
+                case BEQ:
+                    if (RegisterFile.getValueLong(rs1[index]) == RegisterFile.getValueLong(rs2[index])) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case BNE:
+                    if (RegisterFile.getValueLong(rs1[index]) != RegisterFile.getValueLong(rs2[index])) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case BLT:
+                    if (RegisterFile.getValueLong(rs1[index]) < RegisterFile.getValueLong(rs2[index])) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case BGE:
+                    if (RegisterFile.getValueLong(rs1[index]) >= RegisterFile.getValueLong(rs2[index])) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case BLTU:
+                    if (Long.compareUnsigned(RegisterFile.getValueLong(rs1[index]), RegisterFile.getValueLong(rs2[index])) < 0) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case BGEU:
+                    if (Long.compareUnsigned(RegisterFile.getValueLong(rs1[index]), RegisterFile.getValueLong(rs2[index])) >= 0) {
+                        RegisterFile.setProgramCounter(pc + i);
+                    }
+                    return true;
+                case JAL:
+                    RegisterFile.updateRegister(d, pc + Instruction.INSTRUCTION_LENGTH);
+                    RegisterFile.setProgramCounter(pc + i);
+                    return true;
+                case JALR: {
+                    int target = RegisterFile.getValue(rs1[index]);
+                    RegisterFile.updateRegister(d, pc + Instruction.INSTRUCTION_LENGTH);
+                    RegisterFile.setProgramCounter((target + i) & 0xFFFFFFFE);
+                    return true;
+                }
+                case LUI:
+                    RegisterFile.updateRegister(d, i);
+                    return true;
+                case AUIPC:
+                    RegisterFile.updateRegister(d, pc + i);
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (AddressErrorException e) {
+            throw fault(pc, e);
+        }
+    }
+
+    /**
+     * Forgets every decoded instruction and binds the table to the given memory.
+     */
+    private void reset(Memory current) {
+        Arrays.fill(op, UNDECODED);
+        Arrays.fill(blockLength, 0);
+        Arrays.fill(blockRuns, 0);
+        Arrays.fill(compiled, null);
+        memory = current;
+        modifications = current.getTextModificationCount();
+        textBase = Memory.textBaseAddress;
+    }
+
+    private void grow(int index) {
+        int length = Math.max(index + 1, Math.max(1024, op.length * 2));
+        op = Arrays.copyOf(op, length);
+        rd = Arrays.copyOf(rd, length);
+        rs1 = Arrays.copyOf(rs1, length);
+        rs2 = Arrays.copyOf(rs2, length);
+        imm = Arrays.copyOf(imm, length);
+        blockLength = Arrays.copyOf(blockLength, length);
+        blockRuns = Arrays.copyOf(blockRuns, length);
+        compiled = Arrays.copyOf(compiled, length);
+    }
+
+    private void decode(int index, int pc) {
+        ProgramStatement statement;
+        try {
+            statement = memory.getStatementNoNotify(pc);
+        } catch (AddressErrorException e) {
+            statement = null;
+        }
+        Integer id = (statement == null || statement.getInstruction() == null) ? null
+                : ids.get(statement.getInstruction().getClass());
+        if (id == null) {
+            op[index] = FALLBACK;
+            return;
+        }
+        int[] operands = statement.getOperands();
+        int o0 = operands[0], o1 = operands[1], o2 = operands[2];
+        if (id <= REMU) {             // op rd, rs1, rs2
+            rd[index] = o0;
+            rs1[index] = o1;
+            rs2[index] = o2;
+        } else if (id <= ANDI) {      // op rd, rs1, imm12
+            rd[index] = o0;
+            rs1[index] = o1;
+            imm[index] = (o2 << 20) >> 20;
+        } else if (id <= SRAI) {      // op rd, rs1, shamt
+            rd[index] = o0;
+            rs1[index] = o1;
+            imm[index] = o2;
+        } else if (id <= LHU) {       // op rd, imm12(rs1)
+            rd[index] = o0;
+            rs1[index] = o2;
+            imm[index] = (o1 << 20) >> 20;
+        } else if (id <= SW) {        // op rs2, imm12(rs1)
+            rs2[index] = o0;
+            rs1[index] = o2;
+            imm[index] = (o1 << 20) >> 20;
+        } else if (id <= AUIPC) {     // op rd, imm20
+            rd[index] = o0;
+            imm[index] = o1 << 12;
+        } else if (id <= BGEU) {      // op rs1, rs2, offset
+            rs1[index] = o0;
+            rs2[index] = o1;
+            imm[index] = o2;
+        } else if (id == JAL) {
+            rd[index] = o0;
+            imm[index] = o1;
+        } else {                      // jalr
+            rd[index] = o0;
+            rs1[index] = o1;
+            imm[index] = (o2 << 20) >> 20;
+        }
+        op[index] = id;
+    }
+}
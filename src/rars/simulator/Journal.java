@@ -0,0 +1,409 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.InterruptController;
+import rars.riscv.hardware.Memory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Records the inputs that can make two runs of the same program differ, and plays them back so
+ * that a run can be reproduced exactly, without a GUI or tools and at full speed.
+ * <p>
+ * The inputs are of two kinds.  Those the program asks for are taken in order: lines and bytes
+ * read from stdin, the Time syscall, the time CSRs read by instructions and the random number
+ * generators of the Rand syscalls.  Those that come from devices are tied to the number of
+ * instructions retired when the simulator took notice of them: writes of the memory mapped I/O
+ * tools (keyboard and display, digital lab sim, timer) and the external and timer interrupts they
+ * raise.  The simulator applies the latter when
+ * it gets to that count, see {@link #nextEventCount()}.  The words of memory mapped I/O are also
+ * recorded as they are when recording starts, as the tools set them up before the program runs.
+ * <p>
+ * The journal is a stream of records, each a tag followed by its values as variable length
+ * integers.  Instruction counts and device addresses are stored as differences from the previous
+ * record of their kind, so most device records take a few bytes.  The GUI reads the time CSR
+ * without going through the journal, as its reads are not in the program's order.
+ */
+public final class Journal {
+    private static final long MAGIC = 0x524152534A4E4C0AL; // "RARSJNL\n"
+    // Inputs taken in order
+    private static final int LINE = 1, NO_LINE = 2, INPUT = 3, TIME = 4, RANDOM = 5;
+    // Device inputs, at an instruction count
+    private static final int WRITE = 6, INTERRUPT = 7;
+    private static final int END = 0;
+
+    private static DataOutputStream out;
+    private static DataInputStream in;
+    // The tag of the next record played back, and the instruction count for device records
+    private static int next;
+    private static volatile long nextEventCount = Long.MAX_VALUE;
+    // Last instruction count and device address, recorded or played back
+    private static long lastCount;
+    private static int lastAddress;
+
+    private Journal() {
+    }
+
+    /**
+     * Starts recording to a file, replacing any recording or playback in progress.
+     *
+     * @param file the journal to write
+     * @throws IOException if the file cannot be written
+     */
+    public static synchronized void startRecording(File file) throws IOException {
+        stop();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeLong(MAGIC);
+        lastCount = ControlAndStatusRegisterFile.getRetired();
+        lastAddress = 0;
+        Globals.memoryAndRegistersLock.lock();
+        try {
+            for (int address = Memory.memoryMapBaseAddress; address < Memory.memoryMapLimitAddress;
+                 address += Memory.WORD_LENGTH_BYTES) {
+                int value = Globals.memory.getRawWord(address);
+                if (value != 0) {
+                    recordDeviceWrite(address, Memory.WORD_LENGTH_BYTES, value);
+                }
+            }
+        } catch (AddressErrorException e) {
+            // Not in this memory configuration, so there is nothing to record
+        } finally {
+            Globals.memoryAndRegistersLock.unlock();
+        }
+    }
+
+    /**
+     * Starts playing back a journal, replacing any recording or playback in progress.  The program
+     * is expected to be set up as it was when the journal was recorded.
+     *
+     * @param file the journal to read
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static synchronized void startReplay(File file) throws IOException {
+        stop();
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (stream.readLong() != MAGIC) {
+            stream.close();
+            throw new IOException(file + " is not a journal");
+        }
+        in = stream;
+        lastCount = ControlAndStatusRegisterFile.getRetired();
+        lastAddress = 0;
+        advance();
+    }
+
+    /**
+     * Ends the recording or playback in progress, if any.
+     */
+    public static synchronized void stop() {
+        try {
+            if (out != null) {
+                out.writeByte(END);
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Nothing more to write or read
+        }
+        out = null;
+        in = null;
+        nextEventCount = Long.MAX_VALUE;
+    }
+
+    public static boolean isRecording() {
+        return out != null;
+    }
+
+    public static boolean isReplaying() {
+        return in != null;
+    }
+
+    /**
+     * Returns the instruction count at which the next device input is played back, see
+     * {@link ControlAndStatusRegisterFile#getRetired()}.  The simulator calls {@link #replayEvents()}
+     * once it gets there, and must not run past it within a basic block.
+     *
+     * @return the instruction count, or Long.MAX_VALUE if there is nothing to play back
+     */
+    public static long nextEventCount() {
+        return nextEventCount;
+    }
+
+    /**
+     * Plays back the device inputs recorded up to the current instruction count.
+     */
+    public static synchronized void replayEvents() {
+        long retired = ControlAndStatusRegisterFile.getRetired();
+        try {
+            while (in != null && next >= WRITE && nextEventCount <= retired) {
+                lastCount = nextEventCount;
+                if (next == WRITE) {
+                    int address = lastAddress += readSigned();
+                    int length = in.readByte();
+                    int value = (int) readSigned();
+                    try {
+                        // The way the tools write, without checking watchpoints or keeping a back-step
+                        if (length == Memory.WORD_LENGTH_BYTES) {
+                            Globals.memory.setRawWord(address, value);
+                        } else {
+                            Globals.memory.setByte(address, value);
+                        }
+                    } catch (AddressErrorException e) {
+                        // Was written to the same memory when recorded
+                    }
+                } else {
+                    int kind = in.readByte();
+                    int value = (int) readSigned();
+                    if (kind == InterruptController.EXTERNAL) {
+                        InterruptController.registerExternalInterrupt(value);
+                    } else {
+                        InterruptController.registerTimerInterrupt(value);
+                    }
+                }
+                advance();
+            }
+        } catch (IOException e) {
+            diverged("cannot be read: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records a write of a device to memory mapped I/O.  Called by the tools while they hold
+     * {@link Globals#memoryAndRegistersLock}, so the simulator is between two instructions.
+     *
+     * @param address the address written
+     * @param length  the number of bytes written
+     * @param value   the value written
+     */
+    public static synchronized void recordDeviceWrite(int address, int length, int value) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writeCount(WRITE);
+            writeSigned(address - lastAddress);
+            lastAddress = address;
+            out.writeByte(length);
+            writeSigned(value);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records an interrupt raised by a device, when the simulator first sees it pending.
+     *
+     * @param kind  InterruptController.EXTERNAL or TIMER
+     * @param value the value given with the interrupt
+     */
+    public static synchronized void recordInterrupt(int kind, int value) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writeCount(INTERRUPT);
+            out.writeByte(kind);
+            writeSigned(value);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Reads a line of input, which is recorded or played back.
+     *
+     * @param live reads the line when not playing back, returning null at the end of the input
+     * @return the line
+     */
+    public static String line(Supplier<String> live) {
+        synchronized (Journal.class) {
+            if (replaying(LINE)) {
+                try {
+                    String line = next == NO_LINE ? null : new String(readBytes(), StandardCharsets.UTF_8);
+                    advance();
+                    return line;
+                } catch (IOException e) {
+                    diverged("cannot be read: " + e.getMessage());
+                }
+            }
+        }
+        String line = live.get();
+        synchronized (Journal.class) {
+            if (out != null) {
+                try {
+                    if (line == null) {
+                        out.writeByte(NO_LINE);
+                    } else {
+                        out.writeByte(LINE);
+                        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                        writeSigned(bytes.length);
+                        out.write(bytes);
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Reads bytes of input, which are recorded or played back.
+     *
+     * @param buffer where the bytes go
+     * @param live   reads them into buffer when not playing back, returning how many it read
+     * @return the number of bytes read, or what live returned for an error
+     */
+    public static int input(byte[] buffer, IntSupplier live) {
+        synchronized (Journal.class) {
+            if (replaying(INPUT)) {
+                try {
+                    int count = (int) readSigned();
+                    if (count > 0) {
+                        in.readFully(buffer, 0, count);
+                    }
+                    advance();
+                    return count;
+                } catch (IOException e) {
+                    diverged("cannot be read: " + e.getMessage());
+                }
+            }
+        }
+        int count = live.getAsInt();
+        synchronized (Journal.class) {
+            if (out != null) {
+                try {
+                    out.writeByte(INPUT);
+                    writeSigned(count);
+                    if (count > 0) {
+                        out.write(buffer, 0, count);
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the time, which is recorded or played back.
+     *
+     * @param live reads the time when not playing back
+     * @return the time
+     */
+    public static synchronized long time(LongSupplier live) {
+        return value(TIME, live);
+    }
+
+    /**
+     * Draws random bits, which are recorded or played back.
+     *
+     * @param live draws them when not playing back
+     * @return the random bits
+     */
+    public static synchronized int random(IntSupplier live) {
+        return (int) value(RANDOM, live::getAsInt);
+    }
+
+    private static long value(int tag, LongSupplier live) {
+        if (replaying(tag)) {
+            try {
+                long value = readSigned();
+                advance();
+                return value;
+            } catch (IOException e) {
+                diverged("cannot be read: " + e.getMessage());
+            }
+        }
+        long value = live.getAsLong();
+        if (out != null) {
+            try {
+                out.writeByte(tag);
+                writeSigned(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        return value;
+    }
+
+    // Whether the next record played back has the given tag (LINE also stands for NO_LINE).  If
+    // it is something else, the run no longer follows the journal, so playing back stops.
+    private static boolean replaying(int tag) {
+        if (in == null) {
+            return false;
+        }
+        if (next == tag || tag == LINE && next == NO_LINE) {
+            return true;
+        }
+        diverged(next == END ? "has ended" : "does not match the run");
+        return false;
+    }
+
+    // Reads the tag of the next record, and the instruction count of a device record
+    private static void advance() {
+        try {
+            next = in.read();
+            if (next == -1) {
+                next = END;
+            }
+            nextEventCount = next >= WRITE ? lastCount + readSigned() : Long.MAX_VALUE;
+        } catch (IOException e) {
+            diverged("cannot be read: " + e.getMessage());
+        }
+    }
+
+    private static void diverged(String reason) {
+        System.err.println("The journal " + reason + ", going on without it");
+        stop();
+    }
+
+    private static void failed(IOException e) {
+        System.err.println("Cannot write the journal: " + e.getMessage());
+        stop();
+    }
+
+    private static void writeCount(int tag) throws IOException {
+        long retired = ControlAndStatusRegisterFile.getRetired();
+        out.writeByte(tag);
+        writeSigned(retired - lastCount);
+        lastCount = retired;
+    }
+
+    private static byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[(int) readSigned()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // Variable length integers, 7 bits a byte, with the sign in the lowest bit (zigzag encoding)
+    private static void writeSigned(long value) throws IOException {
+        long bits = (value << 1) ^ (value >> 63);
+        while ((bits & ~0x7FL) != 0) {
+            out.writeByte((int) (bits & 0x7F) | 0x80);
+            bits >>>= 7;
+        }
+        out.writeByte((int) bits);
+    }
+
+    private static long readSigned() throws IOException {
+        long bits = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            bits |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+}
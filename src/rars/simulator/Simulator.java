@@ -10,8 +10,9 @@ import rars.venus.run.RunSpeedPanel;
 
 import javax.swing.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.locks.ReentrantLock;
 
 	/*
 Copyright (c) 2003-2010,  Pete Sanderson and Kenneth Vollmar
@@ -52,12 +53,37 @@ public class Simulator extends Observable {
     private SimThread simulatorThread;
     private static Simulator simulator = null;  // Singleton object
     private static Runnable interactiveGUIUpdater = null;
+    private final DecodedText decodedText = new DecodedText(); // kept between runs so stepping does not re-decode
+    private CompiledText compiledText;
+    private volatile Watchpoint.Hit watchpointHit;
+
+    /**
+     * Largest number of harts that can be simulated, each with its own stack
+     */
+    public static final int MAX_HARTS = 64;
+    /**
+     * Number of instructions a hart runs before the next one gets its turn, unless set otherwise
+     */
+    public static final int DEFAULT_HART_QUANTUM = 100;
+    // Space below the initial stack pointer given to the stack of each hart after the first
+    private static final int HART_STACK_SIZE = 0x10000;
+    // Instructions a hart may run past its quantum to reach the store conditional of a reservation,
+    // the longest LR/SC loop the specification guarantees to make progress
+    private static final int RESERVATION_GRACE = 16;
+
+    // Harts simulated in turn, see setHarts().  The register files hold the registers of the
+    // running hart; harts is created when a simulation with several harts starts and kept while
+    // it is paused.
+    private int hartCount = 1, hartQuantum = DEFAULT_HART_QUANTUM;
+    private Hart[] harts;
+    private int currentHart, hartSteps;
 
     /**
      * various reasons for simulate to end...
      */
     public enum Reason {
         BREAKPOINT,
+        WATCHPOINT,        // see getWatchpointHit()
         EXCEPTION,
         MAX_STEPS,         // includes step mode (where maxSteps is 1)
         NORMAL_TERMINATION,
@@ -94,12 +120,12 @@ public class Simulator extends Observable {
      *
      * @param pc          address of first instruction to simulate; this goes into program counter
      * @param maxSteps    maximum number of steps to perform before returning false (0 or less means no max)
-     * @param breakPoints array of breakpoint program counter values, use null if none
+     * @param breakPoints breakpoints to stop at, use null if none
      * @return true if execution completed, false otherwise
      * @throws SimulationException Throws exception if run-time exception occurs.
      **/
 
-    public Reason simulate(int pc, int maxSteps, int[] breakPoints) throws SimulationException {
+    public Reason simulate(int pc, int maxSteps, Breakpoints breakPoints) throws SimulationException {
         simulatorThread = new SimThread(pc, maxSteps, breakPoints);
         simulatorThread.run(); // Just call run, this is a blocking method
         SimulationException pe = simulatorThread.pe;
@@ -113,15 +139,72 @@ public class Simulator extends Observable {
         return out;
     }
 
+    /**
+     * Sets the number of harts (hardware threads) the next program simulates.  They share the memory
+     * and start at the same address with a copy of the registers, except that the mhartid register
+     * holds the number of the hart and each hart after the first has its stack pointer 64K below
+     * that of the previous one.  The harts take turns, each running a quantum of instructions before
+     * the next one runs, so the simulation is the same every time.
+     *
+     * @param count   number of harts, 1 for the usual single hart
+     * @param quantum number of instructions each hart runs in its turn
+     * @throws IllegalArgumentException if count is not between 1 and MAX_HARTS or quantum is not positive
+     */
+    public void setHarts(int count, int quantum) {
+        if (count < 1 || count > MAX_HARTS || quantum < 1) {
+            throw new IllegalArgumentException("invalid number of harts " + count + " or quantum " + quantum);
+        }
+        hartCount = count;
+        hartQuantum = quantum;
+        harts = null;
+    }
+
+    /**
+     * @return the number of harts the program simulates, see setHarts()
+     */
+    public int getHartCount() {
+        return hartCount;
+    }
+
+    /**
+     * @return the number of the hart whose registers are in the register files, 0 unless several
+     * harts are simulated
+     */
+    public int getCurrentHart() {
+        return harts == null ? 0 : currentHart;
+    }
+
+    /**
+     * Returns what triggered the watchpoint the last simulation stopped at, if it stopped with
+     * reason WATCHPOINT.
+     *
+     * @return the watchpoint access, or null
+     */
+    public Watchpoint.Hit getWatchpointHit() {
+        return watchpointHit;
+    }
+
+    /**
+     * Sets the text segment compiled ahead of time for the program that will be simulated, or null if
+     * there is none.  Its blocks are run in basic block mode, which it turns on, unless self-modifying
+     * code is enabled.
+     *
+     * @param text compiled text segment of the program in memory
+     * @see CompiledText
+     */
+    public void setCompiledText(CompiledText text) {
+        compiledText = text;
+    }
+
     /**
      * Start simulated execution of given source program (in a new thread).  It must have already been assembled.
      *
      * @param pc          address of first instruction to simulate; this goes into program counter
      * @param maxSteps    maximum number of steps to perform before returning false (0 or less means no max)
-     * @param breakPoints array of breakpoint program counter values, use null if none
+     * @param breakPoints breakpoints to stop at, use null if none
      **/
 
-    public void startSimulation(int pc, int maxSteps, int[] breakPoints) {
+    public void startSimulation(int pc, int maxSteps, Breakpoints breakPoints) {
         simulatorThread = new SimThread(pc, maxSteps, breakPoints);
         new Thread(simulatorThread, "RISCV").start();
     }
@@ -197,20 +280,30 @@ public class Simulator extends Observable {
 
     class SimThread implements Runnable {
         private int pc, maxSteps;
-        private int[] breakPoints;
+        private Breakpoints breakPoints;
         private boolean done;
         private SimulationException pe;
         private volatile boolean stop = false;
         private Reason constructReturnReason;
+        private int steps;
+        private boolean ebreak, waiting;
+        // Resolved once per run instead of per instruction
+        private Register uip, uie, ustatus;
+        private boolean jit, blocks, watching, tracing;
+        private DecodedText decoded;
+        private volatile boolean settingsChanged;
+        // Whether this thread holds the memory and registers lock, and for how many more passes
+        private boolean locked;
+        private int quantum;
 
         /**
          * SimThread constructor.  Receives all the information it needs to simulate execution.
          *
          * @param pc          address in text segment of first instruction to simulate
          * @param maxSteps    maximum number of instruction steps to simulate.  Default of -1 means no maximum
-         * @param breakPoints array of breakpoints (instruction addresses) specified by user
+         * @param breakPoints breakpoints specified by user
          */
-        SimThread(int pc, int maxSteps, int[] breakPoints) {
+        SimThread(int pc, int maxSteps, Breakpoints breakPoints) {
             this.pc = pc;
             this.maxSteps = maxSteps;
             this.breakPoints = breakPoints;
@@ -241,7 +334,10 @@ public class Simulator extends Observable {
             this.done = done;
             this.constructReturnReason = reason;
             SystemIO.flush(true);
-            if (done) SystemIO.resetFiles(); // close any files opened in the process of simulating
+            if (done) {
+                SystemIO.resetFiles(); // close any files opened in the process of simulating
+                Journal.stop();
+            }
             Simulator.getInstance().notifyObserversOfExecution(new SimulatorNotice(SimulatorNotice.SIMULATOR_STOP,
                     maxSteps, (Globals.getGui() != null || Globals.runSpeedPanelExists)?RunSpeedPanel.getInstance().getRunSpeed():RunSpeedPanel.UNLIMITED_SPEED,
                     pc, reason, pe, done));
@@ -256,18 +352,18 @@ public class Simulator extends Observable {
             assert se.cause() >= 0 : "Interrupts cannot be handled by the trap handler";
 
             // set the relevant CSRs
-            ControlAndStatusRegisterFile.updateRegister("ucause", se.cause());
-            ControlAndStatusRegisterFile.updateRegister("uepc", pc);
-            ControlAndStatusRegisterFile.updateRegister("utval", se.value());
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UCAUSE, se.cause());
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UEPC, pc);
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UTVAL, se.value());
 
             // Get the interrupt handler if it exists
-            int utvec = ControlAndStatusRegisterFile.getValue("utvec");
+            int utvec = ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.UTVEC);
 
             // Mode can be ignored because we are only handling traps
             int base = utvec & 0xFFFFFFFC;
 
             ProgramStatement exceptionHandler = null;
-            if ((ControlAndStatusRegisterFile.getValue("ustatus") & 0x1) != 0) { // test user-interrupt enable (UIE)
+            if ((ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.USTATUS) & 0x1) != 0) { // test user-interrupt enable (UIE)
                 try {
                     exceptionHandler = Globals.memory.getStatement(base);
                 } catch (AddressErrorException aee) {
@@ -276,8 +372,8 @@ public class Simulator extends Observable {
             }
 
             if (exceptionHandler != null) {
-                ControlAndStatusRegisterFile.orRegister("ustatus", 0x10); // Set UPIE
-                ControlAndStatusRegisterFile.clearRegister("ustatus", 0x1); // Clear UIE
+                ControlAndStatusRegisterFile.orRegister(ControlAndStatusRegisterFile.USTATUS, 0x10); // Set UPIE
+                ControlAndStatusRegisterFile.clearRegister(ControlAndStatusRegisterFile.USTATUS, 0x1); // Clear UIE
                 RegisterFile.setProgramCounter(base);
                 return true;
             } else {
@@ -294,15 +390,15 @@ public class Simulator extends Observable {
             int code = cause & 0x7FFFFFFF;
 
             // Don't handle cases where that interrupt isn't enabled
-            assert ((ControlAndStatusRegisterFile.getValue("ustatus") & 0x1) != 0 && (ControlAndStatusRegisterFile.getValue("uie") & (1 << code)) != 0) : "The interrupt handler must be enabled";
+            assert ((ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.USTATUS) & 0x1) != 0 && (ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.UIE) & (1 << code)) != 0) : "The interrupt handler must be enabled";
 
             // set the relevant CSRs
-            ControlAndStatusRegisterFile.updateRegister("ucause", cause);
-            ControlAndStatusRegisterFile.updateRegister("uepc", pc);
-            ControlAndStatusRegisterFile.updateRegister("utval", value);
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UCAUSE, cause);
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UEPC, pc);
+            ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UTVAL, value);
 
             // Get the interrupt handler if it exists
-            int utvec = ControlAndStatusRegisterFile.getValue("utvec");
+            int utvec = ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.UTVEC);
 
             // Handle vectored mode
             int base = utvec & 0xFFFFFFFC, mode = utvec & 0x3;
@@ -317,8 +413,8 @@ public class Simulator extends Observable {
                 // handled below
             }
             if (exceptionHandler != null) {
-                ControlAndStatusRegisterFile.orRegister("ustatus", 0x10); // Set UPIE
-                ControlAndStatusRegisterFile.clearRegister("ustatus", ControlAndStatusRegisterFile.INTERRUPT_ENABLE);
+                ControlAndStatusRegisterFile.orRegister(ControlAndStatusRegisterFile.USTATUS, 0x10); // Set UPIE
+                ControlAndStatusRegisterFile.clearRegister(ControlAndStatusRegisterFile.USTATUS, ControlAndStatusRegisterFile.INTERRUPT_ENABLE);
                 RegisterFile.setProgramCounter(base);
                 return true;
             } else {
@@ -329,6 +425,437 @@ public class Simulator extends Observable {
             }
         }
 
+        // True if the run speed slider asks for a pause after every instruction
+        private boolean throttled() {
+            return (Globals.getGui() != null || Globals.runSpeedPanelExists) &&
+                    RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED;
+        }
+
+        /**
+         * Largest number of instructions a basic block starting at pc may execute without
+         * overshooting the step limit or running past a breakpoint.
+         */
+        private int blockLimit(int pc, int steps) {
+            long limit = maxSteps > 0 ? maxSteps - steps + 1 : Integer.MAX_VALUE;
+            if (harts != null) {
+                limit = Math.min(limit, Math.max(1, hartQuantum - hartSteps));
+            }
+            long event = Journal.nextEventCount();
+            if (event != Long.MAX_VALUE) {
+                limit = Math.min(limit, event - ControlAndStatusRegisterFile.getRetired());
+            }
+            if (breakPoints != null) {
+                long next = breakPoints.nextAfter(pc);
+                if (next != Long.MAX_VALUE) {
+                    limit = Math.min(limit, (next - pc) / Instruction.INSTRUCTION_LENGTH);
+                }
+            }
+            return (int) Math.max(1, limit);
+        }
+
+        // Creates the harts when a simulation with several of them starts
+        private void startHarts() {
+            if (hartCount == 1 || harts != null) {
+                return;
+            }
+            long stackPointer = RegisterFile.getValueLong(RegisterFile.STACK_POINTER_REGISTER);
+            harts = new Hart[hartCount];
+            for (int i = 0; i < hartCount; i++) {
+                harts[i] = new Hart(i);
+                harts[i].setRegister(RegisterFile.STACK_POINTER_REGISTER, stackPointer - (long) i * HART_STACK_SIZE);
+            }
+            currentHart = 0;
+            hartSteps = 0;
+            harts[0].restore();
+        }
+
+        // Counts the instructions of the running hart and passes the turn once it used up its quantum
+        private void nextHart(int retired) {
+            hartSteps += retired;
+            if (hartSteps >= hartQuantum && !(Globals.memory.hasReservation()
+                    && hartSteps < hartQuantum + RESERVATION_GRACE)) {
+                harts[currentHart].save();
+                currentHart = (currentHart + 1) % harts.length;
+                harts[currentHart].restore();
+                Globals.memory.clearReservation(); // a store conditional must fail after another hart ran
+                hartSteps = 0;
+            }
+        }
+
+        // Takes the watchpoint access made by the last instruction, if any
+        private boolean stopsAtWatchpoint() {
+            Watchpoint.Hit hit = Globals.memory.takeWatchpointHit();
+            if (hit == null) {
+                return false;
+            }
+            watchpointHit = hit;
+            return true;
+        }
+
+        // Reads the settings the loops depend on
+        private void resolveSettings() {
+            jit = Globals.getSettings().getBooleanSetting(Settings.Bool.JIT_COMPILATION);
+            CompiledText precompiled = Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED) ? null : compiledText;
+            watching = Globals.memory.hasWatchpoints();
+            tracing = Trace.isTracing();
+            // A watchpoint stops the program right after the instruction that triggered it, and a
+            // trace records instructions one by one, so no blocks then
+            blocks = !watching && !tracing && (jit || precompiled != null || Globals.getSettings().getBooleanSetting(Settings.Bool.BASIC_BLOCK_EXECUTION));
+            decoded = (blocks || Globals.getSettings().getBooleanSetting(Settings.Bool.PREDECODED_EXECUTION)) ? decodedText : null;
+            decodedText.setCompiledText(precompiled);
+        }
+
+        // True if nothing but the program itself watches the simulation, see runHeadless()
+        private boolean headless() {
+            return Globals.getGui() == null && !Globals.runSpeedPanelExists
+                    && !Globals.getSettings().getBackSteppingEnabled()
+                    && !Register.anyObserved() && Globals.memory.countObservers() == 0;
+        }
+
+        /**
+         * Simulation loop for when there is no GUI or run speed panel, no back-stepping and no register
+         * or memory observer, as for command line and API runs.  It makes the same steps as run()
+         * without the per-instruction checks for those, which are only redone when a setting changes
+         * or an observer is added.
+         *
+         * @return true if the simulation ended, false if the general loop has to take over
+         */
+        private boolean runHeadless() {
+            Observer settingsObserver = (o, arg) -> settingsChanged = true;
+            Globals.getSettings().addObserver(settingsObserver);
+            try {
+                int observerChanges = Memory.getObserverChangeCount();
+                while (!stop) {
+                    if (settingsChanged || Register.anyObserved() || Memory.getObserverChangeCount() != observerChanges) {
+                        settingsChanged = false;
+                        if (!headless()) {
+                            return false;
+                        }
+                        resolveSettings();
+                        observerChanges = Memory.getObserverChangeCount();
+                    }
+                    if (step(blocks && maxSteps != 1, false)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                Globals.getSettings().deleteObserver(settingsObserver);
+            }
+        }
+
+        /**
+         * One pass through the simulation loop, shared by run() and runHeadless(): services
+         * interrupts, runs the instruction at the program counter, or a basic block if inBlock, and
+         * stops at watchpoints and breakpoints.
+         *
+         * @param inBlock  whether a whole basic block may run, see {@link #execute}
+         * @param backstep whether back-stepping is enabled
+         * @return true if the simulation stopped
+         */
+        private boolean step(boolean inBlock, boolean backstep) {
+            // Perform the RISCV instruction while holding the memory and registers lock.  If
+            // external threads agree to access memory and registers only while holding the
+            // same lock, then full (albeit heavy-handed) protection of memory and registers
+            // is assured.  Not as critical for reading from those resources.
+            safepoint();
+
+            // Handle pending interupts and traps first
+            if (!serviceInterrupts()) {
+                return true;
+            }
+
+            // always handle interrupts and traps before quiting
+            // Check number of instructions executed.  Return if at limit (-1 is no limit).
+            if (maxSteps > 0) {
+                steps++;
+                if (steps > maxSteps) {
+                    stopExecution(false, Reason.MAX_STEPS);
+                    return true;
+                }
+            }
+
+            pc = RegisterFile.getProgramCounter();
+            RegisterFile.incrementPC();
+            if (tracing) {
+                Trace.before(pc);
+            }
+            int retired = execute(inBlock, backstep);
+            if (retired < 0) {
+                return true;
+            } else if (retired == 0) {
+                return false;
+            }
+
+            ControlAndStatusRegisterFile.retire(retired);
+            if (tracing) {
+                Trace.after();
+            }
+
+            //     Return if the instruction triggered a watchpoint.
+            if (watching && stopsAtWatchpoint()) {
+                releaseLock();
+                stopExecution(false, Reason.WATCHPOINT);
+                return true;
+            }
+
+            // Let the next hart run if this one used up its quantum.  Not after ebreak, so
+            // the program stops with the registers of the hart that ran it.
+            if (harts != null && !ebreak) {
+                nextHart(retired);
+            }
+
+            //     Return if we've reached a breakpoint.
+            if (ebreak || (breakPoints != null) &&
+                    breakPoints.stopsAt(RegisterFile.getProgramCounter())) {
+                releaseLock();
+                stopExecution(false, Reason.BREAKPOINT);
+                return true;
+            }
+
+            // Wait if WFI ran
+            if (waiting) {
+                releaseLock();
+                waitForInterrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Makes sure this thread holds the memory and registers lock for the next pass through the
+         * simulation loop.  Taking the lock for every instruction costs more than simulating many
+         * of them, so it is kept for up to {@link Globals#lockQuantum} passes.  Other threads that
+         * block on the lock meanwhile get it at the next pass, as they would without the quantum.
+         */
+        private void safepoint() {
+            ReentrantLock lock = Globals.memoryAndRegistersLock;
+            if (locked) {
+                if (--quantum > 0 && !lock.hasQueuedThreads()) {
+                    return;
+                }
+                lock.unlock();
+                // The lock is not fair, so wait until a queued thread had its turn
+                while (lock.hasQueuedThreads() && !lock.isLocked()) {
+                    Thread.yield();
+                }
+            }
+            lock.lock();
+            locked = true;
+            quantum = Globals.lockQuantum;
+        }
+
+        // Releases the lock taken by safepoint(), before this thread waits or stops
+        private void releaseLock() {
+            if (locked) {
+                locked = false;
+                Globals.memoryAndRegistersLock.unlock();
+            }
+        }
+
+        /**
+         * Services the highest priority pending interrupt, or else a pending trap.
+         *
+         * @return false if that ended the simulation
+         */
+        private boolean serviceInterrupts() {
+            if (ControlAndStatusRegisterFile.getRetired() >= Journal.nextEventCount()) {
+                Journal.replayEvents(); // device inputs played back at this instruction count
+            }
+            if (InterruptController.pending() == 0) {
+                return true; // the common case: no interrupt or trap, uip stays as it is
+            }
+            if (Journal.isRecording()) {
+                InterruptController.journalPending();
+            }
+            long uip = this.uip.getValueNoNotify(), uie = this.uie.getValueNoNotify();
+            boolean IE = (ustatus.getValueNoNotify() & ControlAndStatusRegisterFile.INTERRUPT_ENABLE) != 0;
+            // make sure no interrupts sneak in while we are processing them
+            pc = RegisterFile.getProgramCounter();
+            synchronized (InterruptController.lock) {
+                boolean pendingExternal = InterruptController.externalPending(),
+                        pendingTimer = InterruptController.timerPending(),
+                        pendingTrap = InterruptController.trapPending();
+                // This is the explicit (in the spec) order that interrupts should be serviced
+                if (IE && pendingExternal && (uie & ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT) != 0) {
+                    if (handleInterrupt(InterruptController.claimExternal(), SimulationException.EXTERNAL_INTERRUPT, pc)) {
+                        pendingExternal = false;
+                        uip &= ~0x100;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (IE && (uip & 0x1) != 0 && (uie & ControlAndStatusRegisterFile.SOFTWARE_INTERRUPT) != 0) {
+                    if (handleInterrupt(0, SimulationException.SOFTWARE_INTERRUPT, pc)) {
+                        uip &= ~0x1;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (IE && pendingTimer && (uie & ControlAndStatusRegisterFile.TIMER_INTERRUPT) != 0) {
+                    if (handleInterrupt(InterruptController.claimTimer(), SimulationException.TIMER_INTERRUPT, pc)) {
+                        pendingTimer = false;
+                        uip &= ~0x10;
+                    } else {
+                        return false; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
+                    }
+                } else if (pendingTrap) { // if we have a pending trap and aren't handling an interrupt it must be handled
+                    if (!handleTrap(InterruptController.claimTrap(), pc - Instruction.INSTRUCTION_LENGTH)) { // account for that the PC has already been incremented
+                        return false;
+                    }
+                }
+                uip |= (pendingExternal ? ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT : 0) | (pendingTimer ? ControlAndStatusRegisterFile.TIMER_INTERRUPT : 0);
+            }
+            if (uip != this.uip.getValueNoNotify()) {
+                ControlAndStatusRegisterFile.updateRegister(this.uip.getNumber(), uip);
+            }
+            return true;
+        }
+
+        /**
+         * Executes the instruction at pc, or the basic block starting there if inBlock.  The program
+         * counter has already been incremented past it.  Sets ebreak or waiting if the instruction
+         * asks for it.
+         *
+         * @param inBlock  whether a whole basic block may run, see {@link DecodedText#executeBlock}
+         * @param backstep whether back-stepping is enabled
+         * @return number of instructions completed, 0 if a trap was registered instead, or -1 if the
+         * simulation ended
+         */
+        private int execute(boolean inBlock, boolean backstep) {
+            int retired = 1;
+            // Try the predecoded table first.  Whatever it cannot execute is fetched and
+            // simulated through its BasicInstruction below, the reference path.
+            boolean executed = false;
+            if (decoded != null) {
+                try {
+                    if (inBlock) {
+                        int count = decoded.executeBlock(pc, blockLimit(pc, steps), jit);
+                        executed = count > 0;
+                        if (executed) {
+                            retired = count;
+                            if (maxSteps > 0) {
+                                steps += count - 1;
+                            }
+                        }
+                    } else {
+                        executed = decoded.execute(pc);
+                    }
+                } catch (SimulationException se) {
+                    if (inBlock) {
+                        // Account for the block's instructions before the faulting one
+                        int completed = decoded.getBlockProgress();
+                        if (maxSteps > 0) {
+                            steps += completed;
+                        }
+                        if (completed > 0) {
+                            ControlAndStatusRegisterFile.retire(completed);
+                        }
+                        pc = RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH;
+                    }
+                    return trap(se);
+                }
+            }
+            if (executed) {
+                if (backstep) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+                return retired;
+            }
+
+            // Get instuction
+            ProgramStatement statement;
+            try {
+                statement = Globals.memory.getStatement(pc);
+            } catch (AddressErrorException e) {
+                SimulationException tmp;
+                if (e.getType() == SimulationException.LOAD_ACCESS_FAULT) {
+                    tmp = new SimulationException("Instruction load access error", SimulationException.INSTRUCTION_ACCESS_FAULT);
+                } else {
+                    tmp = new SimulationException("Instruction load alignment error", SimulationException.INSTRUCTION_ADDR_MISALIGNED);
+                }
+                if (!InterruptController.registerSynchronousTrap(tmp, pc)) {
+                    this.pe = tmp;
+                    ControlAndStatusRegisterFile.updateRegister(ControlAndStatusRegisterFile.UEPC, pc);
+                    stopExecution(true, Reason.EXCEPTION);
+                    return -1;
+                } else {
+                    return 0;
+                }
+            }
+            if (statement == null) {
+                stopExecution(true, Reason.CLIFF_TERMINATION);
+                return -1;
+            }
+
+            try {
+                BasicInstruction instruction = (BasicInstruction) statement.getInstruction();
+                if (instruction == null) {
+                    // TODO: Proper error handling here
+                    throw new SimulationException(statement,
+                            "undefined instruction (" + Binary.intToHexString(statement.getBinaryStatement()) + ")",
+                            SimulationException.ILLEGAL_INSTRUCTION);
+                }
+                // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
+                instruction.simulate(statement);
+
+                // IF statement added 7/26/06 (explanation above)
+                if (backstep) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+            } catch (BreakpointException b) {
+                // EBREAK needs backstepping support too.
+                if (backstep) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+                ebreak = true;
+            } catch (WaitException w) {
+                if (backstep) {
+                    Globals.program.getBackStepper().addDoNothing(pc);
+                }
+                waiting = true;
+            } catch (ExitingException e) {
+                if (e.error() == null) {
+                    this.constructReturnReason = Reason.NORMAL_TERMINATION;
+                } else {
+                    this.constructReturnReason = Reason.EXCEPTION;
+                    this.pe = e;
+                }
+                // TODO: remove access to constructReturnReason
+                stopExecution(true, constructReturnReason);
+                return -1;
+            } catch (SimulationException se) {
+                return trap(se);
+            }
+            return retired;
+        }
+
+        // Registers se as a trap at pc.  Returns 0, or -1 if another trap is pending and the simulation ended.
+        private int trap(SimulationException se) {
+            if (watching) {
+                // The instruction did not retire, so an access it made before trapping does not stop the program
+                Globals.memory.takeWatchpointHit();
+            }
+            if (InterruptController.registerSynchronousTrap(se, pc)) {
+                return 0;
+            }
+            this.pe = se;
+            stopExecution(true, Reason.EXCEPTION);
+            return -1;
+        }
+
+        // Blocks after WFI until an interrupt is pending.  When playing back a journal, the
+        // interrupt comes from the journal at the next pass instead.
+        private void waitForInterrupt() {
+            if (!(InterruptController.externalPending() || InterruptController.timerPending() || Journal.isReplaying())) {
+                synchronized (this) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        // Don't bother catching an interruption
+                    }
+                }
+            }
+            waiting = false;
+        }
+
         /**
          * Implements Runnable
          */
@@ -341,10 +868,8 @@ public class Simulator extends Observable {
             Thread.currentThread().setPriority(Thread.NORM_PRIORITY - 1);
             Thread.yield();  // let the main thread run a bit to finish updating the GUI
 
-            if (breakPoints == null || breakPoints.length == 0) {
+            if (breakPoints != null && breakPoints.isEmpty()) {
                 breakPoints = null;
-            } else {
-                Arrays.sort(breakPoints);  // must be pre-sorted for binary search
             }
 
             startExecution();
@@ -380,193 +905,51 @@ public class Simulator extends Observable {
             // *********************************************************************
 
             RegisterFile.initializeProgramCounter(pc);
-            ProgramStatement statement = null;
-            int steps = 0;
-            boolean ebreak = false, waiting = false;
-
-            // Volatile variable initialized false but can be set true by the main thread.
-            // Used to stop or pause a running program.  See stopSimulation() above.
-            while (!stop) {
-                SystemIO.flush(false);
-                // Perform the RISCV instruction in synchronized block.  If external threads agree
-                // to access memory and registers only through synchronized blocks on same
-                // lock variable, then full (albeit heavy-handed) protection of memory and
-                // registers is assured.  Not as critical for reading from those resources.
-                Globals.memoryAndRegistersLock.lock();
-                try {
-                    // Handle pending interupts and traps first
-                    long uip = ControlAndStatusRegisterFile.getValueNoNotify("uip"), uie = ControlAndStatusRegisterFile.getValueNoNotify("uie");
-                    boolean IE = (ControlAndStatusRegisterFile.getValueNoNotify("ustatus") & ControlAndStatusRegisterFile.INTERRUPT_ENABLE) != 0;
-                    // make sure no interrupts sneak in while we are processing them
-                    pc = RegisterFile.getProgramCounter();
-                    synchronized (InterruptController.lock) {
-                        boolean pendingExternal = InterruptController.externalPending(),
-                                pendingTimer = InterruptController.timerPending(),
-                                pendingTrap = InterruptController.trapPending();
-                        // This is the explicit (in the spec) order that interrupts should be serviced
-                        if (IE && pendingExternal && (uie & ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT) != 0) {
-                            if (handleInterrupt(InterruptController.claimExternal(), SimulationException.EXTERNAL_INTERRUPT, pc)) {
-                                pendingExternal = false;
-                                uip &= ~0x100;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (IE && (uip & 0x1) != 0 && (uie & ControlAndStatusRegisterFile.SOFTWARE_INTERRUPT) != 0) {
-                            if (handleInterrupt(0, SimulationException.SOFTWARE_INTERRUPT, pc)) {
-                                uip &= ~0x1;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (IE && pendingTimer && (uie & ControlAndStatusRegisterFile.TIMER_INTERRUPT) != 0) {
-                            if (handleInterrupt(InterruptController.claimTimer(), SimulationException.TIMER_INTERRUPT, pc)) {
-                                pendingTimer = false;
-                                uip &= ~0x10;
-                            } else {
-                                return; // if the interrupt can't be handled, but the interrupt enable bit is high, thats an error
-                            }
-                        } else if (pendingTrap) { // if we have a pending trap and aren't handling an interrupt it must be handled
-                            if (handleTrap(InterruptController.claimTrap(), pc - Instruction.INSTRUCTION_LENGTH)) { // account for that the PC has already been incremented
-                            } else {
-                                return;
-                            }
-                        }
-                        uip |= (pendingExternal ? ControlAndStatusRegisterFile.EXTERNAL_INTERRUPT : 0) | (pendingTimer ? ControlAndStatusRegisterFile.TIMER_INTERRUPT : 0);
-                    }
-                    if (uip != ControlAndStatusRegisterFile.getValueNoNotify("uip")) {
-                        ControlAndStatusRegisterFile.updateRegister("uip", uip);
-                    }
+            watchpointHit = null;
+            Globals.memory.takeWatchpointHit(); // made before this run, by the GUI or a tool
+            startHarts();
+            uip = ControlAndStatusRegisterFile.getRegister(ControlAndStatusRegisterFile.UIP);
+            uie = ControlAndStatusRegisterFile.getRegister(ControlAndStatusRegisterFile.UIE);
+            ustatus = ControlAndStatusRegisterFile.getRegister(ControlAndStatusRegisterFile.USTATUS);
+            resolveSettings();
 
-                    // always handle interrupts and traps before quiting
-                    // Check number of instructions executed.  Return if at limit (-1 is no limit).
-                    if (maxSteps > 0) {
-                        steps++;
-                        if (steps > maxSteps) {
-                            stopExecution(false, Reason.MAX_STEPS);
-                            return;
-                        }
-                    }
+            try {
+                if (headless() && runHeadless()) {
+                    return;
+                }
 
-                    pc = RegisterFile.getProgramCounter();
-                    RegisterFile.incrementPC();
-                    // Get instuction
-                    try {
-                        statement = Globals.memory.getStatement(pc);
-                    } catch (AddressErrorException e) {
-                        SimulationException tmp;
-                        if (e.getType() == SimulationException.LOAD_ACCESS_FAULT) {
-                            tmp = new SimulationException("Instruction load access error", SimulationException.INSTRUCTION_ACCESS_FAULT);
-                        } else {
-                            tmp = new SimulationException("Instruction load alignment error", SimulationException.INSTRUCTION_ADDR_MISALIGNED);
-                        }
-                        if (!InterruptController.registerSynchronousTrap(tmp, pc)) {
-                            this.pe = tmp;
-                            ControlAndStatusRegisterFile.updateRegister("uepc", pc);
-                            stopExecution(true, Reason.EXCEPTION);
-                            return;
-                        } else {
-                            continue;
-                        }
-                    }
-                    if (statement == null) {
-                        stopExecution(true, Reason.CLIFF_TERMINATION);
+                // Volatile variable initialized false but can be set true by the main thread.
+                // Used to stop or pause a running program.  See stopSimulation() above.
+                while (!stop) {
+                    SystemIO.flush(false);
+                    boolean backstep = Globals.getSettings().getBackSteppingEnabled();
+                    // In basic block mode a whole block runs here and the checks around this
+                    // (interrupts, step limit, breakpoints, run speed) are only done between blocks.
+                    if (step(blocks && maxSteps != 1 && !throttled() && !backstep, backstep)) {
                         return;
                     }
 
-                    try {
-                        BasicInstruction instruction = (BasicInstruction) statement.getInstruction();
-                        if (instruction == null) {
-                            // TODO: Proper error handling here
-                            throw new SimulationException(statement,
-                                    "undefined instruction (" + Binary.intToHexString(statement.getBinaryStatement()) + ")",
-                                    SimulationException.ILLEGAL_INSTRUCTION);
-                        }
-                        // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
-                        instruction.simulate(statement);
-
-                        // IF statement added 7/26/06 (explanation above)
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
-                        }
-                    } catch (BreakpointException b) {
-                        // EBREAK needs backstepping support too.
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
-                        }
-                        ebreak = true;
-                    } catch (WaitException w) {
-                        if (Globals.getSettings().getBackSteppingEnabled()) {
-                            Globals.program.getBackStepper().addDoNothing(pc);
-                        }
-                        waiting = true;
-                    } catch (ExitingException e) {
-                        if (e.error() == null) {
-                            this.constructReturnReason = Reason.NORMAL_TERMINATION;
-                        } else {
-                            this.constructReturnReason = Reason.EXCEPTION;
-                            this.pe = e;
-                        }
-                        // TODO: remove access to constructReturnReason
-                        stopExecution(true, constructReturnReason);
-                        return;
-                    } catch (SimulationException se) {
-                        if (InterruptController.registerSynchronousTrap(se, pc)) {
-                            continue;
-                        } else {
-                            this.pe = se;
-                            stopExecution(true, Reason.EXCEPTION);
-                            return;
-                        }
+                    // schedule GUI update only if: there is in fact a GUI! AND
+                    //                              using Run,  not Step (maxSteps != 1) AND
+                    //                              running slowly enough for GUI to keep up
+                    if (interactiveGUIUpdater != null && maxSteps != 1 &&
+                            RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
+                        SwingUtilities.invokeLater(interactiveGUIUpdater);
                     }
-                } finally {
-                    Globals.memoryAndRegistersLock.unlock();
-                }
-
-                // Update cycle(h) and instret(h)
-                long cycle = ControlAndStatusRegisterFile.getValueNoNotify("cycle"),
-                         instret = ControlAndStatusRegisterFile.getValueNoNotify("instret"),
-                         time = System.currentTimeMillis();;
-                ControlAndStatusRegisterFile.updateRegisterBackdoor("cycle",cycle+1);
-                ControlAndStatusRegisterFile.updateRegisterBackdoor("instret",instret+1);
-                ControlAndStatusRegisterFile.updateRegisterBackdoor("time",time);
-
-                //     Return if we've reached a breakpoint.
-                if (ebreak || (breakPoints != null) &&
-                        (Arrays.binarySearch(breakPoints, RegisterFile.getProgramCounter()) >= 0)) {
-                    stopExecution(false, Reason.BREAKPOINT);
-                    return;
-                }
-
-                // Wait if WFI ran
-                if (waiting) {
-                    if (!(InterruptController.externalPending() || InterruptController.timerPending())) {
-                        synchronized (this) {
+                    if (Globals.getGui() != null || Globals.runSpeedPanelExists) { // OR added by DPS 24 July 2008 to enable speed control by stand-alone tool
+                        if (maxSteps != 1 &&
+                                RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
+                            releaseLock();
                             try {
-                                wait();
-                            } catch (InterruptedException ie) {
-                                // Don't bother catching an interruption
+                                // TODO: potentially use this.wait so it can be interrupted
+                                Thread.sleep((int) (1000 / RunSpeedPanel.getInstance().getRunSpeed())); // make sure it's never zero!
+                            } catch (InterruptedException e) {
                             }
                         }
                     }
-                    waiting = false;
-                }
-
-                // schedule GUI update only if: there is in fact a GUI! AND
-                //                              using Run,  not Step (maxSteps != 1) AND
-                //                              running slowly enough for GUI to keep up
-                if (interactiveGUIUpdater != null && maxSteps != 1 &&
-                        RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
-                    SwingUtilities.invokeLater(interactiveGUIUpdater);
-                }
-                if (Globals.getGui() != null || Globals.runSpeedPanelExists) { // OR added by DPS 24 July 2008 to enable speed control by stand-alone tool
-                    if (maxSteps != 1 &&
-                            RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
-                        try {
-                            // TODO: potentially use this.wait so it can be interrupted
-                            Thread.sleep((int) (1000 / RunSpeedPanel.getInstance().getRunSpeed())); // make sure it's never zero!
-                        } catch (InterruptedException e) {
-                        }
-                    }
                 }
+            } finally {
+                releaseLock();
             }
             stopExecution(false, constructReturnReason);
         }
@@ -0,0 +1,346 @@
+package rars.simulator;
+
+import rars.Globals;
+import rars.ProgramStatement;
+import rars.riscv.InstructionSet;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.FloatingPointRegisterFile;
+import rars.riscv.hardware.RegisterFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a binary trace of the instructions a program retires, for offline analysis of long runs
+ * such as cache studies.  The simulator calls {@link #before(int)} and {@link #after()} around
+ * each instruction while a trace is open; basic blocks are not run then, as their instructions
+ * have to be seen one at a time.  Use {@link TraceReader} to read a trace or convert it to text.
+ * <p>
+ * Each record holds the program counter, the instruction, the value written back to its
+ * destination register if it has one, and the address, size and value of its memory access if it
+ * has one.  Records are encoded as a flags byte followed by variable length integers:
+ * <ul>
+ * <li>the program counter is left out when it follows the previous one, and is otherwise the
+ * difference from it;</li>
+ * <li>the instruction is left out when it is the one last seen at that address, according to a
+ * small cache kept alike by the writer and the reader;</li>
+ * <li>the destination register is in the instruction, and its value is the difference from the
+ * last value traced for that register;</li>
+ * <li>the size of a memory access is in the instruction, and its address is the difference from
+ * the last address.  Stores and atomic operations that store have the value stored, the value
+ * of a load is that of its destination register.  A store conditional that fails has no memory
+ * access.</li>
+ * </ul>
+ * Records go to a small buffer that is copied into successive memory mapped windows of the file,
+ * so the operating system writes them out in the background.  The trace ends with the file or at
+ * a zero byte, as every record has the high bit of its flags set.
+ * <p>
+ * System calls, interrupts and traps only show through the instructions they lead to, and the
+ * harts of a multi-hart simulation are not told apart.
+ */
+public final class Trace {
+    static final long MAGIC = 0x52415253545243L << 8 | '\n'; // "RARSTRC\n"
+    static final int VERSION = 1;
+    // Flags of a record
+    static final int RECORD = 0x80, PC_JUMP = 0x01, NEW_INSTRUCTION = 0x02, RD_INTEGER = 0x04, RD_FLOAT = 0x08,
+            MEMORY = 0x10, MEMORY_VALUE = 0x20;
+    // Instructions remembered by address, to leave them out of records
+    static final int CACHE_LENGTH = 4096;
+    // Longest record: flags, program counter, instruction, register value, address and value
+    static final int MAX_RECORD_LENGTH = 1 + 5 + 4 + 10 + 5 + 10;
+    static final int WINDOW_LENGTH = 64 << 20;
+
+    private static FileChannel channel;
+    private static MappedByteBuffer window;
+    private static long windowStart;
+    private static final byte[] buffer = new byte[1 << 16];
+    private static int position;
+
+    // What the reader keeps too, to decode the differences
+    private static int lastPc, lastAddress;
+    private static final long[] lastValues = new long[64];
+    private static final int[] cachedPcs = new int[CACHE_LENGTH], cachedInstructions = new int[CACHE_LENGTH];
+
+    // The instruction between before() and after()
+    private static int pc, instruction, address;
+    private static long storeValue;
+
+    private Trace() {
+    }
+
+    /**
+     * Starts tracing to a file, replacing any trace in progress.  The simulator only picks it up
+     * when a simulation starts.
+     *
+     * @param file the trace to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void start(File file) throws IOException {
+        stop();
+        FileChannel opened = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            window = opened.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_LENGTH);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        channel = opened;
+        windowStart = 0;
+        window.putLong(MAGIC);
+        window.putInt(VERSION);
+        window.put((byte) (InstructionSet.rv64 ? 1 : 0));
+        position = 0;
+        lastPc = lastAddress = 0;
+        Arrays.fill(lastValues, 0);
+        Arrays.fill(cachedPcs, 0);
+        Arrays.fill(cachedInstructions, 0);
+    }
+
+    /**
+     * Ends the trace in progress, if any.
+     */
+    public static void stop() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            window.force();
+        } catch (IOException e) {
+            System.err.println("Cannot write the trace: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    // Cuts the file to the records in it and closes it, also after writing them failed
+    private static void close() {
+        try {
+            try {
+                channel.truncate(windowStart + window.position());
+            } catch (IOException e) {
+                // Some systems cannot shorten a mapped file; the zero bytes after the records end it
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close the trace: " + e.getMessage());
+        } finally {
+            channel = null;
+            window = null;
+        }
+    }
+
+    public static boolean isTracing() {
+        return channel != null;
+    }
+
+    /**
+     * Takes note of the instruction about to run, and of the address and value of its store.  The
+     * value stored by an atomic operation is only known once it has run.
+     *
+     * @param pc the address of the instruction
+     */
+    public static void before(int pc) {
+        Trace.pc = pc;
+        try {
+            ProgramStatement statement = Globals.memory.getStatementNoNotify(pc);
+            instruction = statement == null ? 0 : statement.getBinaryStatement();
+        } catch (AddressErrorException e) {
+            instruction = 0; // it traps, so there is no record
+        }
+        int opcode = instruction & 0x7F;
+        if (!accessesMemory(opcode)) {
+            return;
+        }
+        long base = RegisterFile.getValueLong((instruction >>> 15) & 0x1F);
+        int rs2 = (instruction >>> 20) & 0x1F;
+        switch (opcode) {
+            case 0x03: // loads
+            case 0x07:
+                address = (int) (base + (instruction >> 20));
+                break;
+            case 0x23: // stores
+            case 0x27:
+                address = (int) (base + ((instruction >> 25) << 5 | (instruction >>> 7) & 0x1F));
+                storeValue = opcode == 0x23 ? RegisterFile.getValueLong(rs2) : FloatingPointRegisterFile.getValueLong(rs2);
+                break;
+            default: // atomic operations
+                address = (int) base;
+                return;
+        }
+        storeValue &= sizeMask(memorySize(instruction));
+    }
+
+    /**
+     * Records the instruction noted by {@link #before(int)}, once it has retired.
+     */
+    public static void after() {
+        if (channel == null) {
+            return;
+        }
+        int flags = RECORD;
+        if (pc != lastPc + 4) {
+            flags |= PC_JUMP;
+        }
+        int slot = (pc >>> 2) & (CACHE_LENGTH - 1);
+        if (cachedPcs[slot] != pc || cachedInstructions[slot] != instruction) {
+            flags |= NEW_INSTRUCTION;
+            cachedPcs[slot] = pc;
+            cachedInstructions[slot] = instruction;
+        }
+        int destination = destination(instruction);
+        flags |= destination;
+        int opcode = instruction & 0x7F;
+        if (opcode == 0x2F) {
+            int funct5 = instruction >>> 27;
+            if (funct5 == 0x02) { // lr
+                flags |= MEMORY;
+            } else if (funct5 != 0x03 || RegisterFile.getValue((instruction >>> 7) & 0x1F) == 0) {
+                // All others store, sc if it succeeded; an sc to x0 is taken as succeeding
+                flags |= MEMORY | MEMORY_VALUE;
+                storeValue = readStored(memorySize(instruction));
+            }
+        } else if (accessesMemory(opcode)) {
+            flags |= MEMORY;
+            if (opcode == 0x23 || opcode == 0x27) {
+                flags |= MEMORY_VALUE;
+            }
+        }
+        byte[] b = buffer;
+        int p = position;
+        b[p++] = (byte) flags;
+        if ((flags & PC_JUMP) != 0) {
+            p = writeSigned(b, p, pc - lastPc);
+        }
+        lastPc = pc;
+        if ((flags & NEW_INSTRUCTION) != 0) {
+            b[p++] = (byte) instruction;
+            b[p++] = (byte) (instruction >>> 8);
+            b[p++] = (byte) (instruction >>> 16);
+            b[p++] = (byte) (instruction >>> 24);
+        }
+        if (destination != 0) {
+            int rd = (instruction >>> 7) & 0x1F;
+            long value;
+            if (destination == RD_INTEGER) {
+                value = RegisterFile.getValueLong(rd);
+            } else {
+                value = FloatingPointRegisterFile.getValueLong(rd);
+                rd += 32;
+            }
+            p = writeSigned(b, p, value - lastValues[rd]);
+            lastValues[rd] = value;
+        }
+        if ((flags & MEMORY) != 0) {
+            p = writeSigned(b, p, address - lastAddress);
+            lastAddress = address;
+            if ((flags & MEMORY_VALUE) != 0) {
+                p = writeUnsigned(b, p, storeValue);
+            }
+        }
+        position = p;
+        if (p > b.length - MAX_RECORD_LENGTH) {
+            try {
+                flush();
+            } catch (IOException e) {
+                System.err.println("Cannot write the trace: " + e.getMessage());
+                close();
+            }
+        }
+    }
+
+    // Copies the buffer to the file, mapping the next window when one is full
+    private static void flush() throws IOException {
+        int offset = 0;
+        while (offset < position) {
+            if (!window.hasRemaining()) {
+                long start = windowStart + window.position();
+                window = channel.map(FileChannel.MapMode.READ_WRITE, start, WINDOW_LENGTH);
+                windowStart = start; // only once mapped, so close() still finds the end of the records
+            }
+            int length = Math.min(position - offset, window.remaining());
+            window.put(buffer, offset, length);
+            offset += length;
+        }
+        position = 0;
+    }
+
+    static boolean accessesMemory(int opcode) {
+        return opcode == 0x03 || opcode == 0x07 || opcode == 0x23 || opcode == 0x27 || opcode == 0x2F;
+    }
+
+    // The word or doubleword an atomic operation just stored
+    private static long readStored(int size) {
+        try {
+            long value = Globals.memory.getWordNoNotify(address) & 0xFFFFFFFFL;
+            return size == 8 ? (long) Globals.memory.getWordNoNotify(address + 4) << 32 | value : value;
+        } catch (AddressErrorException e) {
+            return 0; // it was just written, so this does not happen
+        }
+    }
+
+    static int memorySize(int instruction) {
+        return 1 << ((instruction >>> 12) & 0x3);
+    }
+
+    static long sizeMask(int size) {
+        return size == 8 ? -1L : (1L << (size * 8)) - 1;
+    }
+
+    // RD_INTEGER or RD_FLOAT for the register the instruction writes back to, or 0 if it does not
+    // write to one, or only to x0.
+    static int destination(int instruction) {
+        switch (instruction & 0x7F) {
+            case 0x37: // lui
+            case 0x17: // auipc
+            case 0x6F: // jal
+            case 0x67: // jalr
+            case 0x03: // loads
+            case 0x13: // operations with an immediate
+            case 0x33: // operations
+            case 0x1B: // 64 bit operations on words
+            case 0x3B:
+            case 0x2F: // atomic operations
+                break;
+            case 0x73: // control and status registers, but not ecall and the like
+                if ((instruction & 0x7000) == 0) {
+                    return 0;
+                }
+                break;
+            case 0x07: // floating point loads
+            case 0x43: // fused multiply add
+            case 0x47:
+            case 0x4B:
+            case 0x4F:
+                return RD_FLOAT;
+            case 0x53: // floating point operations, but comparisons and moves or conversions to integers
+                int funct5 = instruction >>> 27;
+                if (funct5 != 0x14 && funct5 != 0x18 && funct5 != 0x1C) {
+                    return RD_FLOAT;
+                }
+                break;
+            default:
+                return 0;
+        }
+        return (instruction & 0xF80) == 0 ? 0 : RD_INTEGER;
+    }
+
+    // Variable length integers, 7 bits a byte, with the sign in the lowest bit for signed ones
+    private static int writeSigned(byte[] b, int p, long value) {
+        return writeUnsigned(b, p, (value << 1) ^ (value >> 63));
+    }
+
+    private static int writeUnsigned(byte[] b, int p, long value) {
+        while ((value & ~0x7FL) != 0) {
+            b[p++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        b[p++] = (byte) value;
+        return p;
+    }
+}
@@ -0,0 +1,232 @@
+package rars.simulator;
+
+import rars.util.Binary;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace written by {@link Trace}, one record at a time:
+ * <pre>
+ * try (TraceReader trace = new TraceReader(file)) {
+ *     while (trace.next()) {
+ *         if (trace.hasMemoryAccess()) {
+ *             cache.access(trace.getMemoryAddress(), trace.isStore());
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Run as a program, it converts a trace to text, one line per instruction:
+ * <tt>java -cp rars.jar rars.simulator.TraceReader &lt;trace&gt; [&lt;text file&gt;]</tt>
+ */
+public class TraceReader implements Closeable {
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private final boolean rv64;
+
+    private int lastPc, lastAddress;
+    private final long[] lastValues = new long[64];
+    private final int[] cachedPcs = new int[Trace.CACHE_LENGTH], cachedInstructions = new int[Trace.CACHE_LENGTH];
+
+    private int pc, instruction, destination, rd, address;
+    private long value, memoryValue;
+    private boolean memory, store;
+
+    /**
+     * @param file the trace to read
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public TraceReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+        if (size < 13 || window.getLong() != Trace.MAGIC || window.getInt() != Trace.VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a trace");
+        }
+        rv64 = window.get() != 0;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(Trace.WINDOW_LENGTH, size - start));
+    }
+
+    /**
+     * @return whether the program was simulated with 64 bit registers
+     */
+    public boolean isRV64() {
+        return rv64;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of the trace
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (window.remaining() < Trace.MAX_RECORD_LENGTH && windowStart + window.limit() < size) {
+            map(windowStart + window.position());
+        }
+        if (!window.hasRemaining()) {
+            return false;
+        }
+        int flags = window.get() & 0xFF;
+        if ((flags & Trace.RECORD) == 0) {
+            return false;
+        }
+        pc = (flags & Trace.PC_JUMP) != 0 ? lastPc + (int) readSigned() : lastPc + 4;
+        lastPc = pc;
+        int slot = (pc >>> 2) & (Trace.CACHE_LENGTH - 1);
+        if ((flags & Trace.NEW_INSTRUCTION) != 0) {
+            instruction = window.get() & 0xFF | (window.get() & 0xFF) << 8 | (window.get() & 0xFF) << 16 | window.get() << 24;
+            cachedPcs[slot] = pc;
+            cachedInstructions[slot] = instruction;
+        } else {
+            instruction = cachedInstructions[slot];
+        }
+        destination = flags & (Trace.RD_INTEGER | Trace.RD_FLOAT);
+        rd = -1;
+        if (destination != 0) {
+            rd = (instruction >>> 7) & 0x1F;
+            int index = destination == Trace.RD_FLOAT ? rd + 32 : rd;
+            value = lastValues[index] += readSigned();
+        }
+        memory = (flags & Trace.MEMORY) != 0;
+        store = (flags & Trace.MEMORY_VALUE) != 0;
+        if (memory) {
+            address = lastAddress += (int) readSigned();
+            if (store) {
+                memoryValue = readUnsigned();
+            } else {
+                memoryValue = rd >= 0 ? value & Trace.sizeMask(getMemorySize()) : 0;
+            }
+        }
+        return true;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * @return the binary instruction
+     */
+    public int getInstruction() {
+        return instruction;
+    }
+
+    /**
+     * @return the number of the register written back to, or -1 if there is none
+     */
+    public int getRd() {
+        return rd;
+    }
+
+    /**
+     * @return whether the register written back to is a floating point register
+     */
+    public boolean isFloatRd() {
+        return destination == Trace.RD_FLOAT;
+    }
+
+    /**
+     * @return the value written back to the register, see getRd()
+     */
+    public long getRdValue() {
+        return value;
+    }
+
+    public boolean hasMemoryAccess() {
+        return memory;
+    }
+
+    /**
+     * @return whether the memory access is a store (or an atomic operation that stored)
+     */
+    public boolean isStore() {
+        return store;
+    }
+
+    public int getMemoryAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of bytes accessed
+     */
+    public int getMemorySize() {
+        return Trace.memorySize(instruction);
+    }
+
+    /**
+     * @return the value stored, or loaded (0 for a load to x0)
+     */
+    public long getMemoryValue() {
+        return memoryValue;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private long readSigned() {
+        long bits = readUnsigned();
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    private long readUnsigned() {
+        long bits = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = window.get();
+            bits |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return bits;
+            }
+        }
+    }
+
+    /**
+     * Converts a trace to text, with a line per instruction: its address, the binary instruction,
+     * the register written back to and its value, and "load" or "store" followed by the address,
+     * size and value of the memory access.
+     *
+     * @param args the trace, and the text file to write (standard output if there is none)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReader <trace> [<text file>]");
+            System.exit(1);
+        }
+        try (TraceReader trace = new TraceReader(new File(args[0]));
+             Writer out = new BufferedWriter(args.length > 1 ? new FileWriter(args[1])
+                     : new OutputStreamWriter(System.out), 1 << 16)) {
+            StringBuilder line = new StringBuilder();
+            while (trace.next()) {
+                line.setLength(0);
+                line.append(Binary.intToHexString(trace.getPc())).append(' ')
+                        .append(Binary.intToHexString(trace.getInstruction()));
+                if (trace.getRd() >= 0) {
+                    line.append(trace.isFloatRd() ? " f" : " x").append(trace.getRd()).append(' ')
+                            .append(trace.isRV64() || trace.isFloatRd() ? Binary.longToHexString(trace.getRdValue())
+                                    : Binary.intToHexString((int) trace.getRdValue()));
+                }
+                if (trace.hasMemoryAccess()) {
+                    line.append(trace.isStore() ? " store " : " load ")
+                            .append(Binary.intToHexString(trace.getMemoryAddress())).append(' ')
+                            .append(trace.getMemorySize()).append(' ')
+                            .append(trace.getMemorySize() == 8 ? Binary.longToHexString(trace.getMemoryValue())
+                                    : Binary.intToHexString((int) trace.getMemoryValue()));
+                }
+                out.write(line.append('\n').toString());
+            }
+        }
+    }
+}
@@ -84,6 +84,8 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
     // For Tool, is set true when "Connect" clicked, false when "Disconnect" clicked.
     // For app, is set true when "Assemble and Run" clicked, false when program terminates.
     private volatile boolean observing = false;
+    // Set if notices are processed on a thread of the tool's own, see deliverNoticesAsynchronously()
+    private NoticeQueue noticeQueue = null;
 
     // Several structures required for stand-alone use only (not Tool use)
     private File mostRecentlyOpenedFile = null;
@@ -285,6 +287,7 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
         resetButton.addActionListener(
                 new ActionListener() {
                     public void actionPerformed(ActionEvent e) {
+                        discardNotices();
                         reset();
                     }
                 });
@@ -412,6 +415,7 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
         resetButton.addActionListener(
                 new ActionListener() {
                     public void actionPerformed(ActionEvent e) {
+                        discardNotices();
                         reset();
                     }
                 });
@@ -477,11 +481,43 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
      */
     public void update(Observable resource, Object accessNotice) {
         if (((AccessNotice) accessNotice).accessIsFromRISCV()) {
+            if (noticeQueue != null) {
+                noticeQueue.offer(resource, (AccessNotice) accessNotice);
+                return;
+            }
             processRISCVUpdate(resource, (AccessNotice) accessNotice);
             updateDisplay();
         }
     }
 
+    /**
+     * Have processRISCVUpdate() called on a thread of the tool's own instead of the thread
+     * running the program, so that a tool that takes its time does not slow the program down.
+     * Notices are then processed in batches of whatever has arrived meanwhile, and updateDisplay()
+     * is called once after each batch instead of after every notice.  Call this from the
+     * constructor or initializePreGUI().
+     * <p>
+     * With block set, the program waits whenever the tool falls too far behind, so
+     * processRISCVUpdate() must not wait for anything the program thread holds, such as
+     * the memory and registers lock.
+     *
+     * @param coalesce whether to leave out a memory write when a later write of the same length
+     *                 to the same address is in the same batch; for tools that only need final values
+     * @param block    whether the program waits for the tool to catch up when too many notices are
+     *                 waiting, rather than dropping them (see getDroppedNotices())
+     */
+    protected void deliverNoticesAsynchronously(boolean coalesce, boolean block) {
+        noticeQueue = new NoticeQueue(getName(), this::processRISCVUpdate, this::updateDisplay, coalesce, block);
+    }
+
+    /**
+     * @return number of notices dropped so far because the tool fell too far behind, when
+     * delivering them asynchronously without blocking
+     */
+    protected long getDroppedNotices() {
+        return (noticeQueue == null) ? 0 : noticeQueue.getDropped();
+    }
+
     /**
      * Override this method to process a received notice from an Observable (memory or register)
      * It will only be called if the notice was generated as the result of RISCV instruction execution.
@@ -615,12 +651,22 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
     ////////////////////  PRIVATE HELPER METHODS    //////////////////////////////////
     //////////////////////////////////////////////////////////////////////////////////
 
+    // Drops the notices not yet delivered asynchronously, so they do not show after a reset
+    private void discardNotices() {
+        if (noticeQueue != null) {
+            noticeQueue.discard();
+        }
+    }
+
     // Closing duties for Tool only.
     private void performToolClosingDuties() {
         performSpecialClosingDuties();
         if (connectButton.isConnected()) {
             connectButton.disconnect();
         }
+        if (noticeQueue != null) {
+            noticeQueue.stop();
+        }
         dialog.setVisible(false);
         dialog.dispose();
     }
@@ -669,6 +715,7 @@ public abstract class AbstractToolAndApplication extends JFrame implements Tool,
             } finally {
                 Globals.memoryAndRegistersLock.unlock();
             }
+            discardNotices();
             observing = false;
             setText(connectText);
         }
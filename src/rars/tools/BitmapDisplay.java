@@ -184,6 +184,8 @@ public class BitmapDisplay extends AbstractToolAndApplication {
      * Overrides inherited method that does nothing.
      */
     protected void initializePreGUI() {
+        // Only the last value written to a pixel shows, so later writes can replace earlier ones.
+        deliverNoticesAsynchronously(true, true);
         initializeDisplayBaseChoices();
         // NOTE: Can't call "createNewGrid()" here because it uses settings from
         //       several combo boxes that have not been created yet.  But a default grid
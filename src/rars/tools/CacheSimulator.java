@@ -440,6 +440,8 @@ public class CacheSimulator extends AbstractToolAndApplication {
      * Also creates initial default cache object. Overrides inherited method that does nothing.
      */
     protected void initializePreGUI() {
+        // Every access counts, so nothing is coalesced or dropped; the animation just runs behind.
+        deliverNoticesAsynchronously(false, true);
         cacheBlockSizeChoicesInt = new int[cacheBlockSizeChoices.length];
         for (int i = 0; i < cacheBlockSizeChoices.length; i++) {
             try {
@@ -2,6 +2,7 @@ package rars.tools;
 
 import rars.Globals;
 import rars.riscv.hardware.*;
+import rars.simulator.Journal;
 import rars.util.Binary;
 
 import javax.swing.*;
@@ -111,6 +112,7 @@ public class DigitalLabSim extends AbstractToolAndApplication {
             try {
                 try {
                     Globals.memory.setByte(dataAddr, dataValue);
+                    Journal.recordDeviceWrite(dataAddr, 1, dataValue);
                 } catch (AddressErrorException aee) {
                     System.out.println("Tool author specified incorrect MMIO address!" + aee);
                     System.exit(0);
@@ -2,6 +2,7 @@ package rars.tools;
 
 import rars.Globals;
 import rars.riscv.hardware.*;
+import rars.simulator.Journal;
 import rars.util.Binary;
 import rars.venus.util.AbstractFontSettingDialog;
 
@@ -681,7 +682,11 @@ public class KeyboardAndDisplaySimulator extends AbstractToolAndApplication {
             try {
                 try {
                     Globals.memory.setRawWord(controlAddr, controlValue);
-                    if (!controlOnly) Globals.memory.setRawWord(dataAddr, dataValue);
+                    Journal.recordDeviceWrite(controlAddr, Memory.WORD_LENGTH_BYTES, controlValue);
+                    if (!controlOnly) {
+                        Globals.memory.setRawWord(dataAddr, dataValue);
+                        Journal.recordDeviceWrite(dataAddr, Memory.WORD_LENGTH_BYTES, dataValue);
+                    }
                 } catch (AddressErrorException aee) {
                     System.out.println("Tool author specified incorrect MMIO address!" + aee);
                     System.exit(0);
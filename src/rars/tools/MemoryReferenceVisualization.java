@@ -210,6 +210,8 @@ public class MemoryReferenceVisualization extends AbstractToolAndApplication {
      * Overrides inherited method that does nothing.
      */
     protected void initializePreGUI() {
+        // Every reference counts, so nothing is coalesced or dropped.
+        deliverNoticesAsynchronously(false, true);
         initializeDisplayBaseChoices();
         counterColorScale = new CounterColorScale(defaultCounterColors);
         // NOTE: Can't call "createNewGrid()" here because it uses settings from
@@ -0,0 +1,227 @@
+package rars.tools;
+
+import rars.riscv.hardware.AccessNotice;
+import rars.riscv.hardware.MemoryAccessNotice;
+
+import java.util.Observable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Carries the notices a tool receives from the simulator thread over to a thread of the tool's
+ * own, so that a slow tool does not slow down the simulation to its own pace.
+ * <p>
+ * The simulator thread is the only one adding notices and the tool's thread the only one
+ * taking them, so the queue is a ring buffer with one index for each side and no locks.  The
+ * tool's thread takes whatever is waiting as one batch, passes the notices to the tool (see
+ * {@link AbstractToolAndApplication#processRISCVUpdate(Observable, AccessNotice)}) and lets it
+ * know once at the end (see {@link AbstractToolAndApplication#updateDisplay()}).  When the tool's
+ * thread falls a whole buffer behind, the simulator either waits for it or drops the notice and
+ * counts it, as chosen by the tool.
+ *
+ * @see AbstractToolAndApplication#deliverNoticesAsynchronously(boolean, boolean)
+ */
+public final class NoticeQueue implements Runnable {
+    /**
+     * Number of notices the buffer holds
+     */
+    public static final int CAPACITY = 1 << 14; // must be a power of 2
+
+    private final String name;
+    private final BiConsumer<Observable, AccessNotice> process;
+    private final Runnable batchDone;
+    private final boolean coalesce;
+    private final boolean block;
+
+    private final Observable[] resources = new Observable[CAPACITY];
+    private final AccessNotice[] notices = new AccessNotice[CAPACITY];
+    private final AtomicLong head = new AtomicLong(); // next notice to take, moved by the tool's thread
+    private final AtomicLong tail = new AtomicLong(); // next free slot, moved by the simulator thread
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long discardBefore; // notices before this index are not delivered, see discard()
+
+    // Last write of each (address, length) in the current batch, used for coalescing: an open
+    // addressing table of keys and notice indexes plus one.  Entries with an index before the
+    // batch are free, so the table never has to be cleared.
+    private final long[] writeKeys, writeIndexes;
+
+    private volatile Thread consumer;
+    private volatile boolean sleeping;
+
+    /**
+     * @param name      the name of the tool, for its thread
+     * @param process   called on the tool's thread with each notice
+     * @param batchDone called on the tool's thread after each batch of notices
+     * @param coalesce  whether to skip a write when the same batch holds a later write of the same
+     *                  length to the same address
+     * @param block     whether to wait for room when the buffer is full, rather than dropping the notice
+     */
+    public NoticeQueue(String name, BiConsumer<Observable, AccessNotice> process, Runnable batchDone,
+                       boolean coalesce, boolean block) {
+        this.name = name;
+        this.process = process;
+        this.batchDone = batchDone;
+        this.coalesce = coalesce;
+        this.block = block;
+        writeKeys = coalesce ? new long[CAPACITY * 2] : null;
+        writeIndexes = coalesce ? new long[CAPACITY * 2] : null;
+    }
+
+    /**
+     * Adds a notice.  Must only be called from the simulator thread.
+     */
+    public void offer(Observable resource, AccessNotice notice) {
+        if (consumer == null) {
+            start();
+        }
+        long t = tail.get();
+        while (t - head.get() >= CAPACITY) {
+            if (!block) {
+                dropped.incrementAndGet();
+                return;
+            }
+            wakeConsumer();
+            Thread.yield();
+        }
+        int index = (int) t & (CAPACITY - 1);
+        resources[index] = resource;
+        notices[index] = notice;
+        tail.set(t + 1);
+        if (sleeping) {
+            wakeConsumer();
+        }
+    }
+
+    /**
+     * @return number of notices dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Drops the notices waiting to be delivered, for when the tool is reset or disconnected.
+     * Notices added afterwards are delivered as usual.
+     */
+    public void discard() {
+        discardBefore = tail.get();
+    }
+
+    /**
+     * Drops the notices waiting to be delivered and lets the tool's thread finish.  Another one is
+     * started by the next notice.
+     */
+    public synchronized void stop() {
+        discard();
+        Thread t = consumer;
+        consumer = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private synchronized void start() {
+        if (consumer == null) {
+            Thread t = new Thread(this, name + " notices");
+            t.setDaemon(true);
+            consumer = t;
+            t.start();
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread t = consumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    public void run() {
+        try {
+            while (consumer == Thread.currentThread()) {
+                long d = discardBefore; // read before the tail, so it is not past it
+                long h = head.get();
+                long t = tail.get();
+                if (h < d) {
+                    for (; h < d; h++) {
+                        notices[(int) h & (CAPACITY - 1)] = null;
+                        resources[(int) h & (CAPACITY - 1)] = null;
+                    }
+                    head.set(h);
+                }
+                if (h == t) {
+                    sleeping = true;
+                    if (tail.get() == h && consumer == Thread.currentThread()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                if (coalesce) {
+                    for (long i = h; i < t; i++) {
+                        AccessNotice notice = notices[(int) i & (CAPACITY - 1)];
+                        if (isWrite(notice)) {
+                            putLastWrite(key((MemoryAccessNotice) notice), i, h);
+                        }
+                    }
+                }
+                for (long i = h; i < t; i++) {
+                    int index = (int) i & (CAPACITY - 1);
+                    AccessNotice notice = notices[index];
+                    Observable resource = resources[index];
+                    notices[index] = null;
+                    resources[index] = null;
+                    head.set(i + 1);
+                    if (i < discardBefore) {
+                        continue; // discarded while this batch was delivered
+                    }
+                    if (coalesce && isWrite(notice) && getLastWrite(key((MemoryAccessNotice) notice), h) != i) {
+                        continue; // overwritten later in this batch
+                    }
+                    process.accept(resource, notice);
+                }
+                batchDone.run();
+            }
+        } finally {
+            synchronized (this) {
+                if (consumer == Thread.currentThread()) {
+                    consumer = null; // failed, the next notice starts over
+                }
+            }
+        }
+    }
+
+    private static boolean isWrite(AccessNotice notice) {
+        return notice instanceof MemoryAccessNotice && notice.getAccessType() == AccessNotice.WRITE;
+    }
+
+    // Never 0, as the length is not
+    private static long key(MemoryAccessNotice notice) {
+        return ((long) notice.getLength() << 32) | (notice.getAddress() & 0xFFFFFFFFL);
+    }
+
+    // Sets the last write of key to index, in the batch starting at index batch
+    private void putLastWrite(long key, long index, long batch) {
+        int mask = writeKeys.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (writeIndexes[i] > batch && writeKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        writeKeys[i] = key;
+        writeIndexes[i] = index + 1;
+    }
+
+    // The last write of key in the batch starting at index batch, or -1 if there is none
+    private long getLastWrite(long key, long batch) {
+        int mask = writeKeys.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (writeIndexes[i] > batch) {
+            if (writeKeys[i] == key) {
+                return writeIndexes[i] - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+}
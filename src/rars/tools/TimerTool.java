@@ -32,6 +32,7 @@ import rars.riscv.hardware.Memory;
 import rars.riscv.hardware.InterruptController;
 import rars.riscv.hardware.ControlAndStatusRegisterFile;
 import rars.riscv.hardware.AddressErrorException;
+import rars.simulator.Journal;
 
 import java.util.Observable;
 import java.util.Observer;
@@ -262,8 +263,8 @@ public class TimerTool extends AbstractToolAndApplication {
 
         // Checks the control bits to see if user-level timer inturrupts are enabled
         private boolean bitsEnabled() {
-            boolean utip = (ControlAndStatusRegisterFile.getValue("uie") & 0x10) == 0x10;
-            boolean uie = (ControlAndStatusRegisterFile.getValue("ustatus") & 0x1) == 0x1;
+            boolean utip = (ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.UIE) & 0x10) == 0x10;
+            boolean uie = (ControlAndStatusRegisterFile.getValue(ControlAndStatusRegisterFile.USTATUS) & 0x1) == 0x1;
 
             return (utip && uie);
         }
@@ -281,6 +282,7 @@ public class TimerTool extends AbstractToolAndApplication {
         try {
             try {
                 Globals.memory.setRawWord(dataAddr, dataValue);
+                Journal.recordDeviceWrite(dataAddr, Memory.WORD_LENGTH_BYTES, dataValue);
             } catch (AddressErrorException aee) {
                 System.out.println("Tool author specified incorrect MMIO address!" + aee);
                 System.exit(0);
@@ -2,6 +2,7 @@ package rars.util;
 
 import rars.Globals;
 import rars.Settings;
+import rars.simulator.Journal;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
@@ -94,11 +95,21 @@ public class SystemIO {
         return Integer.parseInt(input.trim());
     }
 
+    // Reads a line of input, which the journal records or plays back, see Journal
     private static String readStringInternal(String init, String prompt, int maxlength) {
+        return Journal.line(() -> readStringLive(init, prompt, maxlength));
+    }
+
+    private static String readStringLive(String init, String prompt, int maxlength) {
         String input = init;
         if (Globals.getGui() == null) {
             try {
-                input = getInputReader().readLine();
+                Closeable stdin = FileIOData.getStreamInUse(STDIN);
+                if (stdin == System.in || !(stdin instanceof InputStream)) {
+                    input = getInputReader().readLine();
+                } else {
+                    input = readLine((InputStream) stdin);
+                }
             } catch (IOException e) {
             }
         } else {
@@ -142,7 +153,17 @@ public class SystemIO {
      */
     public static void printString(String string) {
         if (Globals.getGui() == null) {
-            System.out.print(string);
+            // Like the write syscall, print to the stdout of the program, which the API may capture
+            Closeable stdout = FileIOData.getStreamInUse(STDOUT);
+            if (stdout == System.out || !(stdout instanceof OutputStream)) {
+                System.out.print(string);
+            } else {
+                try {
+                    ((OutputStream) stdout).write(string.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    // Dropped, as System.out does
+                }
+            }
         } else {
             print2Gui(string);
         }
@@ -263,6 +284,14 @@ public class SystemIO {
      * @return number of bytes read, 0 on EOF, or -1 on error
      */
     public static int readFromFile(int fd, byte[] myBuffer, int lengthRequested) {
+        if (fd == STDIN) {
+            // Input, which the journal records or plays back, see Journal
+            return Journal.input(myBuffer, () -> readFromFileLive(fd, myBuffer, lengthRequested));
+        }
+        return readFromFileLive(fd, myBuffer, lengthRequested);
+    }
+
+    private static int readFromFileLive(int fd, byte[] myBuffer, int lengthRequested) {
         int retValue = -1;
         /////////////// DPS 8-Jan-2013  //////////////////////////////////////////////////
         /// Read from STDIN file descriptor while using IDE - get input from Messages pane.
@@ -434,6 +463,22 @@ public class SystemIO {
     // These are all equivalent in the eyes of the program because they are
     // transparent to it.  Lazy instantiation.  DPS.  28 Feb 2008
 
+    // Reads a line from a stdin given through the API.  It goes a byte at a time, so as not to take
+    // anything after the line away from the read syscall.
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
     private static BufferedReader getInputReader() {
         if (inputReader == null) {
             inputReader = new BufferedReader(new InputStreamReader(System.in));
@@ -469,6 +514,104 @@ public class SystemIO {
     }
 
 
+    /**
+     * Writes the files the program has open, other than stdin, stdout and stderr, as their
+     * descriptor, name, flags and position.  Used to save a checkpoint of the simulation.
+     *
+     * @param out where to write them
+     * @throws IOException if out cannot be written or the position of a file cannot be read
+     */
+    public static void writeFiles(DataOutput out) throws IOException {
+        for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++) {
+            Closeable stream = FileIOData.streams[fd];
+            if (FileIOData.fileNames[fd] == null || stream == null) {
+                continue;
+            }
+            out.writeInt(fd);
+            out.writeUTF(FileIOData.fileNames[fd]);
+            out.writeInt(FileIOData.fileFlags[fd]);
+            out.writeLong(stream instanceof FileInputStream ? ((FileInputStream) stream).getChannel().position()
+                    : ((FileOutputStream) stream).getChannel().position());
+        }
+        out.writeInt(-1);
+    }
+
+    /**
+     * Reads the files written by writeFiles(), to open them again with openFiles().  Nothing is
+     * opened or closed yet, so the rest of a checkpoint can be checked before it changes anything.
+     *
+     * @param in where to read them
+     * @return the files
+     * @throws IOException if in cannot be read or holds an invalid file descriptor
+     */
+    public static SavedFiles readFiles(DataInput in) throws IOException {
+        SavedFiles files = new SavedFiles();
+        for (int fd = in.readInt(); fd != -1; fd = in.readInt()) {
+            if (fd <= STDERR || fd >= SYSCALL_MAXFILES) {
+                throw new IOException("invalid file descriptor " + fd);
+            }
+            files.names[fd] = in.readUTF();
+            files.flags[fd] = in.readInt();
+            files.positions[fd] = in.readLong();
+        }
+        return files;
+    }
+
+    /**
+     * Closes the files the program has open, other than stdin, stdout and stderr, and opens those
+     * read by readFiles() again at the same position.  Files opened for writing are not
+     * truncated, so they keep what was written before the checkpoint.  If one cannot be opened,
+     * the files the program has open are left as they are.
+     *
+     * @param files the files to open
+     * @throws IOException if a file cannot be opened again
+     */
+    public static void openFiles(SavedFiles files) throws IOException {
+        Closeable[] streams = new Closeable[SYSCALL_MAXFILES];
+        try {
+            for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++) {
+                if (files.names[fd] == null) {
+                    continue;
+                }
+                if (files.flags[fd] == O_RDONLY) {
+                    FileInputStream stream = new FileInputStream(files.names[fd]);
+                    streams[fd] = stream;
+                    stream.getChannel().position(files.positions[fd]);
+                } else {
+                    streams[fd] = new FileOutputStream(files.names[fd], true);
+                }
+            }
+        } catch (IOException e) {
+            for (Closeable stream : streams) {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ioe) {
+                        // not concerned with this exception
+                    }
+                }
+            }
+            throw e;
+        }
+        for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++) {
+            FileIOData.close(fd);
+            if (streams[fd] != null) {
+                FileIOData.streams[fd] = streams[fd];
+                FileIOData.fileNames[fd] = files.names[fd];
+                FileIOData.fileFlags[fd] = files.flags[fd];
+            }
+        }
+    }
+
+    /**
+     * The files a program had open, see readFiles().
+     */
+    public static final class SavedFiles {
+        private final String[] names = new String[SYSCALL_MAXFILES];
+        private final int[] flags = new int[SYSCALL_MAXFILES];
+        private final long[] positions = new long[SYSCALL_MAXFILES];
+    }
+
     public static Data swapData(Data in){
         Data temp = new Data(false);
         temp.fileNames = FileIOData.fileNames;
@@ -0,0 +1,66 @@
+package rars.venus;
+
+import rars.Globals;
+import rars.riscv.hardware.Checkpoint;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Action for the File -> Save Checkpoint and File -> Restore Checkpoint menu items, see
+ * {@link Checkpoint}.  A checkpoint can be restored once the program is assembled, and the
+ * simulation then goes on from there.
+ */
+public class FileCheckpointAction extends GuiAction {
+    private final VenusUI mainUI;
+    private final boolean restore;
+
+    public FileCheckpointAction(String name, Icon icon, String descrip,
+                                Integer mnemonic, KeyStroke accel, VenusUI gui, boolean restore) {
+        super(name, icon, descrip, mnemonic, accel);
+        mainUI = gui;
+        this.restore = restore;
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        JFileChooser dialog = new JFileChooser(mainUI.getEditor().getCurrentSaveDirectory());
+        dialog.setDialogTitle(getValue(Action.NAME).toString());
+        int decision = restore ? dialog.showOpenDialog(mainUI) : dialog.showSaveDialog(mainUI);
+        if (decision != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = dialog.getSelectedFile();
+        try {
+            if (restore) {
+                Checkpoint.restore(file);
+            } else {
+                Checkpoint.save(file);
+            }
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(mainUI, "Cannot " + (restore ? "restore" : "save") + " checkpoint: "
+                    + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (restore) {
+            // The steps recorded so far cannot be undone from the restored state
+            Globals.program.getBackStepper().clear();
+            ExecutePane executePane = mainUI.getMainPane().getExecutePane();
+            executePane.getRegistersWindow().clearHighlighting();
+            executePane.getRegistersWindow().updateRegisters();
+            executePane.getFloatingPointWindow().clearHighlighting();
+            executePane.getFloatingPointWindow().updateRegisters();
+            executePane.getControlAndStatusWindow().clearHighlighting();
+            executePane.getControlAndStatusWindow().updateRegisters();
+            executePane.getDataSegmentWindow().updateValues();
+            executePane.getTextSegmentWindow().setCodeHighlighting(true);
+            executePane.getTextSegmentWindow().highlightStepAtPC();
+            FileStatus.set(FileStatus.RUNNABLE);
+            mainUI.setReset(false);
+            mainUI.setStarted(true);
+        }
+        mainUI.getMessagesPane().postMessage((restore ? "Restored checkpoint from " : "Saved checkpoint to ")
+                + file.getPath() + "\n");
+    }
+}
@@ -4,6 +4,8 @@ import rars.Globals;
 import rars.ProgramStatement;
 import rars.Settings;
 import rars.riscv.hardware.*;
+import rars.simulator.Breakpoint;
+import rars.simulator.Breakpoints;
 import rars.simulator.Simulator;
 import rars.simulator.SimulatorNotice;
 
@@ -11,6 +13,7 @@ import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.table.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.*;
@@ -71,6 +74,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
     private Font tableCellFont = new Font("Monospaced", Font.PLAIN, 12);
     private boolean codeHighlighting;
     private boolean breakpointsEnabled;  // Added 31 Dec 2009
+    private Breakpoints breakpoints = new Breakpoints(); // by text address, kept for conditions and hit counts
     private int highlightAddress;
     private TableModelListener tableModelListener;
 
@@ -112,6 +116,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         int addressBase = Globals.getGui().getMainPane().getExecutePane().getAddressDisplayBase();
         codeHighlighting = true;
         breakpointsEnabled = true;
+        breakpoints.clear();
         ArrayList<ProgramStatement> sourceStatementList = Globals.program.getMachineList();
         data = new Object[sourceStatementList.size()][columnNames.length];
         intAddresses = new int[data.length];
@@ -161,6 +166,7 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
 
         // prevents cells in row from being highlighted when user clicks on breakpoint checkbox
         table.setRowSelectionAllowed(false);
+        table.addMouseListener(new BreakpointPopupListener());
 
         table.getColumnModel().getColumn(BREAK_COLUMN).setMinWidth(40);
         table.getColumnModel().getColumn(ADDRESS_COLUMN).setMinWidth(80);
@@ -435,25 +441,68 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
     }
 
     /**
-     * Returns array of current breakpoints, each represented by a MIPS program counter address.
-     * These are stored in the BREAK_COLUMN of the table model.
+     * Returns the current breakpoints, from the checked rows of the BREAK_COLUMN of the table model,
+     * with any condition and ignore count set for them.  A breakpoint keeps its hit count from one
+     * run to the next until the program is reset or assembled again.
      *
-     * @return int array of breakpoints, sorted by PC address, or null if there are none.
+     * @return the breakpoints, or null if there are none.
      */
-    public int[] getSortedBreakPointsArray() {
-        int breakpointCount = getBreakpointCount();
-        if (breakpointCount == 0 || !breakpointsEnabled) { // added second condition 31-dec-09 DPS
+    public Breakpoints getBreakpoints() {
+        if (getBreakpointCount() == 0 || !breakpointsEnabled) {
             return null;
         }
-        int[] breakpoints = new int[breakpointCount];
-        breakpointCount = 0;
+        Breakpoints set = new Breakpoints();
         for (int i = 0; i < data.length; i++) {
             if ((Boolean) data[i][BREAK_COLUMN]) {
-                breakpoints[breakpointCount++] = intAddresses[i];
+                Breakpoint breakpoint = breakpoints.get(intAddresses[i]);
+                if (breakpoint == null) {
+                    breakpoints.add(breakpoint = new Breakpoint(intAddresses[i]));
+                }
+                set.add(breakpoint);
             }
         }
-        Arrays.sort(breakpoints);
-        return breakpoints;
+        return set;
+    }
+
+    /**
+     * Starts counting breakpoint hits over again.  Called when the program is reset.
+     */
+    public void resetBreakpointHitCounts() {
+        breakpoints.resetHitCounts();
+    }
+
+    /*
+     * Asks for the condition and ignore count of the breakpoint at a row, and sets the breakpoint.
+     */
+    private void editBreakpoint(int row) {
+        int address = intAddresses[row];
+        Breakpoint old = breakpoints.get(address);
+        String condition = (String) JOptionPane.showInputDialog(this,
+                "Stop at " + data[row][ADDRESS_COLUMN] + " only if (for example \"t0 == 10 && mem[sp] < 0\"),\n"
+                        + "or leave blank to always stop:",
+                "Breakpoint condition", JOptionPane.QUESTION_MESSAGE, null, null,
+                old == null || old.getCondition() == null ? "" : old.getCondition());
+        if (condition == null) {
+            return;
+        }
+        String ignore = JOptionPane.showInputDialog(this, "Number of hits to ignore before stopping:",
+                old == null ? 0 : old.getIgnoreCount());
+        if (ignore == null) {
+            return;
+        }
+        try {
+            breakpoints.add(new Breakpoint(address, condition, Integer.parseInt(ignore.trim())));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Invalid number of hits: " + ignore, "Breakpoint condition", JOptionPane.ERROR_MESSAGE);
+            return;
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Breakpoint condition", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!(Boolean) data[row][BREAK_COLUMN]) {
+            // must use this method to assure display updated and listener notified
+            tableModel.setValueAt(true, row, BREAK_COLUMN);
+        }
     }
 
     /**
@@ -950,6 +999,20 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
             super(m);
         }
 
+        // Shows the condition and hit count of a breakpoint over its check box
+        public String getToolTipText(MouseEvent e) {
+            int row = rowAtPoint(e.getPoint());
+            int column = columnAtPoint(e.getPoint());
+            if (row >= 0 && column >= 0 && convertColumnIndexToModel(column) == BREAK_COLUMN) {
+                Breakpoint breakpoint = breakpoints.get(intAddresses[row]);
+                if (breakpoint != null && (Boolean) data[row][BREAK_COLUMN]) {
+                    return breakpoint.toString();
+                }
+                return "Right-click to set a breakpoint condition";
+            }
+            return super.getToolTipText(e);
+        }
+
         private String[] columnToolTips = {
                /* break */   "If checked, will set an execution breakpoint. Click header to disable/enable breakpoints",
                /* address */ "Text segment address of binary instruction code",
@@ -1041,6 +1104,35 @@ public class TextSegmentWindow extends JInternalFrame implements Observer {
         }
     }
 
+    /*
+     *  Right-clicking the breakpoint column offers to set a condition and ignore count.
+     */
+    private class BreakpointPopupListener extends MouseAdapter {
+        public void mousePressed(MouseEvent e) {
+            showPopup(e);
+        }
+
+        public void mouseReleased(MouseEvent e) {
+            showPopup(e);
+        }
+
+        private void showPopup(MouseEvent e) {
+            if (!e.isPopupTrigger()) {
+                return;
+            }
+            int row = table.rowAtPoint(e.getPoint());
+            int column = table.columnAtPoint(e.getPoint());
+            if (row < 0 || column < 0 || table.convertColumnIndexToModel(column) != BREAK_COLUMN) {
+                return;
+            }
+            JPopupMenu popup = new JPopupMenu();
+            JMenuItem edit = new JMenuItem("Breakpoint condition...");
+            edit.addActionListener(event -> editBreakpoint(row));
+            popup.add(edit);
+            popup.show(e.getComponent(), e.getX(), e.getY());
+        }
+    }
+
     /*
      *  Will capture movement of text columns.  This info goes into persistent store.
      */
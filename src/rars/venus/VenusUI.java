@@ -79,12 +79,13 @@ public class VenusUI extends JFrame {
 
     // components of the menubar
     private JMenu file, run, window, help, edit, settings;
-    private JMenuItem fileNew, fileOpen, fileClose, fileCloseAll, fileSave, fileSaveAs, fileSaveAll, fileDumpMemory, fileExit;
+    private JMenuItem fileNew, fileOpen, fileClose, fileCloseAll, fileSave, fileSaveAs, fileSaveAll, fileDumpMemory,
+            fileSaveCheckpoint, fileRestoreCheckpoint, fileExit;
     private JMenuItem editUndo, editRedo, editCut, editCopy, editPaste, editFindReplace, editSelectAll;
-    private JMenuItem runGo, runStep, runBackstep, runReset, runAssemble, runStop, runPause, runClearBreakpoints, runToggleBreakpoints;
+    private JMenuItem runGo, runStep, runBackstep, runReverseContinue, runGoToInstruction, runReset, runAssemble, runStop, runPause, runClearBreakpoints, runToggleBreakpoints;
     private JCheckBoxMenuItem settingsLabel, settingsPopupInput, settingsValueDisplayBase, settingsAddressDisplayBase,
             settingsExtended, settingsAssembleOnOpen, settingsAssembleAll, settingsAssembleOpen, settingsWarningsAreErrors,
-            settingsStartAtMain, settingsProgramArguments, settingsSelfModifyingCode,settingsRV64;
+            settingsStartAtMain, settingsProgramArguments, settingsSelfModifyingCode,settingsRV64, settingsRecordJournal;
     private JMenuItem settingsExceptionHandler, settingsEditor, settingsHighlighting, settingsMemoryConfiguration;
     private JMenuItem helpHelp, helpAbout;
 
@@ -99,17 +100,18 @@ public class VenusUI extends JFrame {
     // technique because it relates the button and menu item so closely
 
     private Action fileNewAction, fileOpenAction, fileCloseAction, fileCloseAllAction, fileSaveAction;
-    private Action fileSaveAsAction, fileSaveAllAction, fileDumpMemoryAction, fileExitAction;
+    private Action fileSaveAsAction, fileSaveAllAction, fileDumpMemoryAction, fileSaveCheckpointAction,
+            fileRestoreCheckpointAction, fileExitAction;
     private Action editUndoAction;
     private Action editRedoAction;
     private Action editCutAction, editCopyAction, editPasteAction, editFindReplaceAction, editSelectAllAction;
-    private Action runAssembleAction, runGoAction, runStepAction, runBackstepAction, runResetAction,
+    private Action runAssembleAction, runGoAction, runStepAction, runBackstepAction, runReverseContinueAction, runGoToInstructionAction, runResetAction,
             runStopAction, runPauseAction, runClearBreakpointsAction, runToggleBreakpointsAction;
     private Action settingsLabelAction, settingsPopupInputAction, settingsValueDisplayBaseAction, settingsAddressDisplayBaseAction,
             settingsExtendedAction, settingsAssembleOnOpenAction, settingsAssembleOpenAction, settingsAssembleAllAction,
             settingsWarningsAreErrorsAction, settingsStartAtMainAction, settingsProgramArgumentsAction,
             settingsExceptionHandlerAction, settingsEditorAction,
-            settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction,settingsRV64Action;
+            settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction,settingsRV64Action, settingsRecordJournalAction;
     private Action helpHelpAction, helpAboutAction;
 
 
@@ -291,6 +293,10 @@ public class VenusUI extends JFrame {
             fileDumpMemoryAction = new FileDumpMemoryAction("Dump Memory ...", loadIcon("Dump22.png"),
                     "Dump machine code or data in an available format", KeyEvent.VK_D, makeShortcut(KeyEvent.VK_D),
                     mainUI);
+            fileSaveCheckpointAction = new FileCheckpointAction("Save Checkpoint ...", null,
+                    "Save the state of the simulation to a file", KeyEvent.VK_K, null, mainUI, false);
+            fileRestoreCheckpointAction = new FileCheckpointAction("Restore Checkpoint ...", null,
+                    "Go on with the simulation from a saved state", KeyEvent.VK_R, null, mainUI, true);
             fileExitAction = new GuiAction("Exit", null, "Exit Rars", KeyEvent.VK_X, null) {
                 public void actionPerformed(ActionEvent e) {
                     if (editor.closeAll()) {
@@ -365,6 +371,11 @@ public class VenusUI extends JFrame {
                     "Run one step at a time", KeyEvent.VK_T, KeyStroke.getKeyStroke(KeyEvent.VK_F7, 0), mainUI);
             runBackstepAction = new RunBackstepAction("Backstep", loadIcon("StepBack22.png"),
                     "Undo the last step", KeyEvent.VK_B, KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0), mainUI);
+            runReverseContinueAction = new RunReverseContinueAction("Reverse Continue", null,
+                    "Undo steps back to the last breakpoint reached", KeyEvent.VK_V,
+                    KeyStroke.getKeyStroke(KeyEvent.VK_F8, InputEvent.SHIFT_DOWN_MASK), mainUI);
+            runGoToInstructionAction = new RunGoToInstructionAction("Go to Instruction...", null,
+                    "Undo or run steps to get to an instruction count", KeyEvent.VK_I, null, mainUI);
             runPauseAction = new GuiAction("Pause", loadIcon("Pause22.png"),
                     "Pause the currently running program", KeyEvent.VK_P, KeyStroke.getKeyStroke(KeyEvent.VK_F9, 0)) {
                 public void actionPerformed(ActionEvent e) {
@@ -449,6 +460,9 @@ public class VenusUI extends JFrame {
             settingsSelfModifyingCodeAction = new SettingsAction("Self-modifying code",
                     "If set, the program can write and branch to both text and data segments.",
                     Settings.Bool.SELF_MODIFYING_CODE_ENABLED);
+            settingsRecordJournalAction = new SettingsAction("Record inputs",
+                    "If set, the inputs of a run are recorded in a journal (source file name + .journal) that can be replayed from the command line.",
+                    Settings.Bool.RECORD_JOURNAL);
 
             // TODO: review this
             settingsRV64Action = new SettingsAction("64 bit",
@@ -527,6 +541,10 @@ public class VenusUI extends JFrame {
         fileSaveAll.setIcon(loadIcon("MyBlank16.gif"));
         fileDumpMemory = new JMenuItem(fileDumpMemoryAction);
         fileDumpMemory.setIcon(loadIcon("Dump16.png"));
+        fileSaveCheckpoint = new JMenuItem(fileSaveCheckpointAction);
+        fileSaveCheckpoint.setIcon(loadIcon("MyBlank16.gif"));
+        fileRestoreCheckpoint = new JMenuItem(fileRestoreCheckpointAction);
+        fileRestoreCheckpoint.setIcon(loadIcon("MyBlank16.gif"));
         fileExit = new JMenuItem(fileExitAction);
         fileExit.setIcon(loadIcon("MyBlank16.gif"));
         file.add(fileNew);
@@ -540,6 +558,8 @@ public class VenusUI extends JFrame {
         if (DumpFormatLoader.getDumpFormats().size() > 0) {
             file.add(fileDumpMemory);
         }
+        file.add(fileSaveCheckpoint);
+        file.add(fileRestoreCheckpoint);
         file.addSeparator();
         file.add(fileExit);
 
@@ -575,6 +595,10 @@ public class VenusUI extends JFrame {
         runStep.setIcon(loadIcon("StepForward16.png"));//"MyStepForward16.gif"));
         runBackstep = new JMenuItem(runBackstepAction);
         runBackstep.setIcon(loadIcon("StepBack16.png"));//"MyStepBack16.gif"));
+        runReverseContinue = new JMenuItem(runReverseContinueAction);
+        runReverseContinue.setIcon(loadIcon("MyBlank16.gif"));
+        runGoToInstruction = new JMenuItem(runGoToInstructionAction);
+        runGoToInstruction.setIcon(loadIcon("MyBlank16.gif"));
         runReset = new JMenuItem(runResetAction);
         runReset.setIcon(loadIcon("Reset16.png"));//"MyReset16.gif"));
         runStop = new JMenuItem(runStopAction);
@@ -590,6 +614,8 @@ public class VenusUI extends JFrame {
         run.add(runGo);
         run.add(runStep);
         run.add(runBackstep);
+        run.add(runReverseContinue);
+        run.add(runGoToInstruction);
         run.add(runPause);
         run.add(runStop);
         run.add(runReset);
@@ -613,6 +639,8 @@ public class VenusUI extends JFrame {
         settingsExtended.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.EXTENDED_ASSEMBLER_ENABLED));
         settingsSelfModifyingCode = new JCheckBoxMenuItem(settingsSelfModifyingCodeAction);
         settingsSelfModifyingCode.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.SELF_MODIFYING_CODE_ENABLED));
+        settingsRecordJournal = new JCheckBoxMenuItem(settingsRecordJournalAction);
+        settingsRecordJournal.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.RECORD_JOURNAL));
         settingsRV64 = new JCheckBoxMenuItem(settingsRV64Action);
         settingsRV64.setSelected(Globals.getSettings().getBooleanSetting(Settings.Bool.RV64_ENABLED));
         settingsAssembleOnOpen = new JCheckBoxMenuItem(settingsAssembleOnOpenAction);
@@ -647,6 +675,7 @@ public class VenusUI extends JFrame {
         settings.add(settingsExtended);
         settings.add(settingsSelfModifyingCode);
         settings.add(settingsRV64);
+        settings.add(settingsRecordJournal);
         settings.addSeparator();
         settings.add(settingsEditor);
         settings.add(settingsHighlighting);
@@ -811,6 +840,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(false);
         fileSaveAllAction.setEnabled(false);
         fileDumpMemoryAction.setEnabled(false);
+        fileSaveCheckpointAction.setEnabled(false);
+        fileRestoreCheckpointAction.setEnabled(false);
         fileExitAction.setEnabled(true);
         editUndoAction.setEnabled(false);
         editRedoAction.setEnabled(false);
@@ -824,6 +855,8 @@ public class VenusUI extends JFrame {
         runGoAction.setEnabled(false);
         runStepAction.setEnabled(false);
         runBackstepAction.setEnabled(false);
+        runReverseContinueAction.setEnabled(false);
+        runGoToInstructionAction.setEnabled(false);
         runResetAction.setEnabled(false);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -847,6 +880,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(true);
         fileSaveAllAction.setEnabled(true);
         fileDumpMemoryAction.setEnabled(false);
+        fileSaveCheckpointAction.setEnabled(false);
+        fileRestoreCheckpointAction.setEnabled(false);
         fileExitAction.setEnabled(true);
         editCutAction.setEnabled(true);
         editCopyAction.setEnabled(true);
@@ -861,6 +896,8 @@ public class VenusUI extends JFrame {
             runGoAction.setEnabled(false);
             runStepAction.setEnabled(false);
             runBackstepAction.setEnabled(false);
+            runReverseContinueAction.setEnabled(false);
+            runGoToInstructionAction.setEnabled(false);
             runResetAction.setEnabled(false);
             runStopAction.setEnabled(false);
             runPauseAction.setEnabled(false);
@@ -883,6 +920,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(true);
         fileSaveAllAction.setEnabled(true);
         fileDumpMemoryAction.setEnabled(false);
+        fileSaveCheckpointAction.setEnabled(false);
+        fileRestoreCheckpointAction.setEnabled(false);
         fileExitAction.setEnabled(true);
         editCutAction.setEnabled(true);
         editCopyAction.setEnabled(true);
@@ -894,6 +933,8 @@ public class VenusUI extends JFrame {
         runGoAction.setEnabled(false);
         runStepAction.setEnabled(false);
         runBackstepAction.setEnabled(false);
+        runReverseContinueAction.setEnabled(false);
+        runGoToInstructionAction.setEnabled(false);
         runResetAction.setEnabled(false);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -916,6 +957,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(true);
         fileSaveAllAction.setEnabled(true);
         fileDumpMemoryAction.setEnabled(false);
+        fileSaveCheckpointAction.setEnabled(false);
+        fileRestoreCheckpointAction.setEnabled(false);
         fileExitAction.setEnabled(true);
         editCutAction.setEnabled(true);
         editCopyAction.setEnabled(true);
@@ -927,6 +970,8 @@ public class VenusUI extends JFrame {
         runGoAction.setEnabled(false);
         runStepAction.setEnabled(false);
         runBackstepAction.setEnabled(false);
+        runReverseContinueAction.setEnabled(false);
+        runGoToInstructionAction.setEnabled(false);
         runResetAction.setEnabled(false);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -949,6 +994,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(true);
         fileSaveAllAction.setEnabled(true);
         fileDumpMemoryAction.setEnabled(true);
+        fileSaveCheckpointAction.setEnabled(true);
+        fileRestoreCheckpointAction.setEnabled(true);
         fileExitAction.setEnabled(true);
         editCutAction.setEnabled(true);
         editCopyAction.setEnabled(true);
@@ -961,6 +1008,8 @@ public class VenusUI extends JFrame {
         runStepAction.setEnabled(true);
         runBackstepAction.setEnabled(
                 Globals.getSettings().getBackSteppingEnabled() && !Globals.program.getBackStepper().empty());
+        runReverseContinueAction.setEnabled(runBackstepAction.isEnabled());
+        runGoToInstructionAction.setEnabled(true);
         runResetAction.setEnabled(true);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
@@ -982,6 +1031,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(false);
         fileSaveAllAction.setEnabled(false);
         fileDumpMemoryAction.setEnabled(false);
+        fileSaveCheckpointAction.setEnabled(false);
+        fileRestoreCheckpointAction.setEnabled(false);
         fileExitAction.setEnabled(false);
         editCutAction.setEnabled(false);
         editCopyAction.setEnabled(false);
@@ -993,6 +1044,8 @@ public class VenusUI extends JFrame {
         runGoAction.setEnabled(false);
         runStepAction.setEnabled(false);
         runBackstepAction.setEnabled(false);
+        runReverseContinueAction.setEnabled(false);
+        runGoToInstructionAction.setEnabled(false);
         runResetAction.setEnabled(false);
         runStopAction.setEnabled(true);
         runPauseAction.setEnabled(true);
@@ -1015,6 +1068,8 @@ public class VenusUI extends JFrame {
         fileSaveAsAction.setEnabled(true);
         fileSaveAllAction.setEnabled(true);
         fileDumpMemoryAction.setEnabled(true);
+        fileSaveCheckpointAction.setEnabled(true);
+        fileRestoreCheckpointAction.setEnabled(true);
         fileExitAction.setEnabled(true);
         editCutAction.setEnabled(true);
         editCopyAction.setEnabled(true);
@@ -1027,6 +1082,8 @@ public class VenusUI extends JFrame {
         runStepAction.setEnabled(false);
         runBackstepAction.setEnabled(
                 Globals.getSettings().getBackSteppingEnabled() && !Globals.program.getBackStepper().empty());
+        runReverseContinueAction.setEnabled(runBackstepAction.isEnabled());
+        runGoToInstructionAction.setEnabled(runBackstepAction.isEnabled());
         runResetAction.setEnabled(true);
         runStopAction.setEnabled(false);
         runPauseAction.setEnabled(false);
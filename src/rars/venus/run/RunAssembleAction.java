@@ -2,6 +2,7 @@ package rars.venus.run;
 
 import rars.*;
 import rars.riscv.hardware.*;
+import rars.simulator.Journal;
 import rars.util.FilenameFinder;
 import rars.util.SystemIO;
 import rars.venus.*;
@@ -140,6 +141,7 @@ public class RunAssembleAction extends GuiAction {
                 mainUI.getMainPane().setSelectedComponent(executePane);
 
                 // Aug. 24, 2005 Ken Vollmar
+                Journal.stop();
                 SystemIO.resetFiles();  // Ensure that I/O "file descriptors" are initialized for a new program run
 
             } catch (AssemblyException pe) {
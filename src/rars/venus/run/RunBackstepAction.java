@@ -107,4 +107,21 @@ public class RunBackstepAction extends GuiAction {
             mainUI.setReset(false);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows the state the program was taken back to after steps were undone, all at once rather
+     * than with the windows observing each change, as there can be millions of them.
+     */
+    static void showUndone(VenusUI mainUI) {
+        ExecutePane executePane = mainUI.getMainPane().getExecutePane();
+        mainUI.setStarted(true);
+        executePane.getTextSegmentWindow().setCodeHighlighting(true);
+        executePane.getRegistersWindow().updateRegisters();
+        executePane.getFloatingPointWindow().updateRegisters();
+        executePane.getControlAndStatusWindow().updateRegisters();
+        executePane.getDataSegmentWindow().updateValues();
+        executePane.getTextSegmentWindow().highlightStepAtPC();
+        FileStatus.set(FileStatus.RUNNABLE);
+        mainUI.setReset(false);
+    }
+}
@@ -4,6 +4,8 @@ import rars.Globals;
 import rars.Settings;
 import rars.SimulationException;
 import rars.riscv.hardware.RegisterFile;
+import rars.simulator.Breakpoints;
+import rars.simulator.Journal;
 import rars.simulator.ProgramArgumentList;
 import rars.simulator.Simulator;
 import rars.simulator.SimulatorNotice;
@@ -16,6 +18,8 @@ import rars.venus.VenusUI;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -73,6 +77,7 @@ public class RunGoAction extends GuiAction {
         if (FileStatus.isAssembled()) {
             if (!mainUI.getStarted()) {
                 processProgramArgumentsIfAny();  // DPS 17-July-2008
+                recordJournalIfEnabled(mainUI);
             }
             if (mainUI.getReset() || mainUI.getStarted()) {
 
@@ -93,7 +98,8 @@ public class RunGoAction extends GuiAction {
                                 SimulatorNotice notice = ((SimulatorNotice) simulator);
                                 if (notice.getAction() != SimulatorNotice.SIMULATOR_STOP) return;
                                 Simulator.Reason reason = notice.getReason();
-                                if (reason == Simulator.Reason.PAUSE || reason == Simulator.Reason.BREAKPOINT) {
+                                if (reason == Simulator.Reason.PAUSE || reason == Simulator.Reason.BREAKPOINT
+                                        || reason == Simulator.Reason.WATCHPOINT) {
                                     EventQueue.invokeLater(()->paused(notice.getDone(), reason, notice.getException()));
                                 } else {
                                     EventQueue.invokeLater(()->stopped(notice.getException(), reason));
@@ -103,7 +109,7 @@ public class RunGoAction extends GuiAction {
                         };
                 Simulator.getInstance().addObserver(stopListener);
 
-                int[] breakPoints = executePane.getTextSegmentWindow().getSortedBreakPointsArray();
+                Breakpoints breakPoints = executePane.getTextSegmentWindow().getBreakpoints();
                 Globals.program.startSimulation(maxSteps, breakPoints);
             } else {
                 // This should never occur because at termination the Go and Step buttons are disabled.
@@ -131,6 +137,9 @@ public class RunGoAction extends GuiAction {
         if (pauseReason == Simulator.Reason.BREAKPOINT) {
             mainUI.getMessagesPane().postMessage(
                     name + ": execution paused at breakpoint: " + FileStatus.getFile().getName() + "\n\n");
+        } else if (pauseReason == Simulator.Reason.WATCHPOINT) {
+            mainUI.getMessagesPane().postMessage(
+                    name + ": execution paused at " + Simulator.getInstance().getWatchpointHit() + "\n\n");
         } else {
             mainUI.getMessagesPane().postMessage(
                     name + ": execution paused by user: " + FileStatus.getFile().getName() + "\n\n");
@@ -214,6 +223,23 @@ public class RunGoAction extends GuiAction {
         maxSteps = defaultMaxSteps;
     }
 
+    /**
+     * Start recording the inputs of a run that starts from the beginning, if the RecordJournal setting is set.
+     * The journal is named after the source file, with ".journal" appended.
+     */
+    static void recordJournalIfEnabled(VenusUI mainUI) {
+        if (!Globals.getSettings().getBooleanSetting(Settings.Bool.RECORD_JOURNAL)) {
+            return;
+        }
+        File file = new File(FileStatus.getFile().getPath() + ".journal");
+        try {
+            Journal.startRecording(file);
+            mainUI.getMessagesPane().postMessage("Recording inputs to " + file.getPath() + "\n");
+        } catch (IOException e) {
+            mainUI.getMessagesPane().postMessage("Cannot record inputs to " + file.getPath() + ": " + e.getMessage() + "\n");
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     // Method to store any program arguments into MIPS memory and registers before
     // execution begins. Arguments go into the gap between $sp and kernel memory.
@@ -0,0 +1,138 @@
+package rars.venus.run;
+
+import rars.Globals;
+import rars.SimulationException;
+import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.RegisterFile;
+import rars.simulator.BackStepper;
+import rars.simulator.Simulator;
+import rars.simulator.SimulatorNotice;
+import rars.venus.ExecutePane;
+import rars.venus.FileStatus;
+import rars.venus.GuiAction;
+import rars.venus.VenusUI;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Action for the Run -> Go to Instruction menu item.  It asks for the number of instructions
+ * retired to go to, earlier or later than now, or for a number of steps to undo.  Going back
+ * undoes steps, and then runs forward from the checkpoint before the instruction if it is not
+ * in the log of single steps any more, see {@link BackStepper}.  Breakpoints are not taken into
+ * account when running forward, and the program does its input and output again.
+ */
+public class RunGoToInstructionAction extends GuiAction {
+    private final VenusUI mainUI;
+    private String name;
+
+    public RunGoToInstructionAction(String name, Icon icon, String descrip,
+                                    Integer mnemonic, KeyStroke accel, VenusUI gui) {
+        super(name, icon, descrip, mnemonic, accel);
+        mainUI = gui;
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        name = this.getValue(Action.NAME).toString();
+        if (!FileStatus.isAssembled()) {
+            return;
+        }
+        if (!mainUI.getStarted()) {
+            // Program arguments and the like are set up by Go and Step
+            JOptionPane.showMessageDialog(mainUI, "Start the program with Go or Step first");
+            return;
+        }
+        long retired = ControlAndStatusRegisterFile.getRetired();
+        boolean backstep = Globals.getSettings().getBackSteppingEnabled();
+        String input = JOptionPane.showInputDialog(mainUI, "Instructions retired: " + retired
+                        + (backstep ? ", history from " + Globals.program.getBackStepper().earliest() : "")
+                        + "\nInstruction to go to, or -N to undo N steps:",
+                name, JOptionPane.QUESTION_MESSAGE);
+        if (input == null) {
+            return;
+        }
+        long target;
+        try {
+            target = Long.parseLong(input.trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(mainUI, "\"" + input.trim() + "\" is not a number",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (target < 0 || target < retired) {
+            if (!backstep) {
+                JOptionPane.showMessageDialog(mainUI, "Back-stepping is not enabled", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (target < 0) {
+                Globals.program.getBackStepper().backStep((int) Math.min(-target, Integer.MAX_VALUE));
+                target = ControlAndStatusRegisterFile.getRetired();
+            } else {
+                Globals.program.getBackStepper().goTo(target);
+            }
+            RunBackstepAction.showUndone(mainUI);
+        } else if (FileStatus.get() == FileStatus.TERMINATED) {
+            JOptionPane.showMessageDialog(mainUI, "The program has finished running", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        runTo(target);
+    }
+
+    // Runs the program forward until the given number of instructions is retired
+    private void runTo(long target) {
+        long remaining = target - ControlAndStatusRegisterFile.getRetired();
+        if (remaining <= 0) {
+            mainUI.getMessagesPane().postMessage(
+                    name + ": execution paused at instruction " + ControlAndStatusRegisterFile.getRetired() + "\n\n");
+            return;
+        }
+        mainUI.setStarted(true);
+        mainUI.setMenuState(FileStatus.RUNNING);
+        final Observer stopListener =
+                new Observer() {
+                    public void update(Observable o, Object simulator) {
+                        SimulatorNotice notice = ((SimulatorNotice) simulator);
+                        if (notice.getAction() != SimulatorNotice.SIMULATOR_STOP) return;
+                        EventQueue.invokeLater(() -> ran(target, notice.getDone(), notice.getReason(), notice.getException()));
+                        o.deleteObserver(this);
+                    }
+                };
+        Simulator.getInstance().addObserver(stopListener);
+        Globals.program.startSimulation((int) Math.min(remaining, Integer.MAX_VALUE), null);
+    }
+
+    // Steps taken by traps do not retire an instruction, so this may take more than one run
+    private void ran(long target, boolean done, Simulator.Reason reason, SimulationException pe) {
+        if (!done && reason == Simulator.Reason.MAX_STEPS && ControlAndStatusRegisterFile.getRetired() < target) {
+            runTo(target);
+            return;
+        }
+        ExecutePane executePane = mainUI.getMainPane().getExecutePane();
+        executePane.getRegistersWindow().updateRegisters();
+        executePane.getFloatingPointWindow().updateRegisters();
+        executePane.getControlAndStatusWindow().updateRegisters();
+        executePane.getDataSegmentWindow().updateValues();
+        executePane.getTextSegmentWindow().setCodeHighlighting(true);
+        if (done) {
+            RunGoAction.resetMaxSteps();
+            executePane.getTextSegmentWindow().unhighlightAllSteps();
+            FileStatus.set(FileStatus.TERMINATED);
+            if (pe != null) {
+                mainUI.getMessagesPane().postMessage(pe.error().generateReport());
+                executePane.getTextSegmentWindow().highlightStepAtAddress(RegisterFile.getProgramCounter() - 4);
+            }
+            mainUI.getMessagesPane().postMessage(
+                    "\n" + name + ": execution ended before instruction " + target + "\n\n");
+        } else {
+            executePane.getTextSegmentWindow().highlightStepAtPC();
+            FileStatus.set(FileStatus.RUNNABLE);
+            mainUI.getMessagesPane().postMessage(
+                    name + ": execution paused at instruction " + ControlAndStatusRegisterFile.getRetired() + "\n\n");
+        }
+        mainUI.getMessagesPane().selectMessageTab();
+        mainUI.setReset(false);
+    }
+}
@@ -3,6 +3,7 @@ package rars.venus.run;
 import rars.AssemblyException;
 import rars.Globals;
 import rars.riscv.hardware.*;
+import rars.simulator.Journal;
 import rars.util.SystemIO;
 import rars.venus.ExecutePane;
 import rars.venus.FileStatus;
@@ -93,6 +94,7 @@ public class RunResetAction extends GuiAction {
         executePane.getDataSegmentWindow().highlightCellForAddress(Memory.dataBaseAddress);
         executePane.getDataSegmentWindow().clearHighlighting();
         executePane.getTextSegmentWindow().resetModifiedSourceCode();
+        executePane.getTextSegmentWindow().resetBreakpointHitCounts();
         executePane.getTextSegmentWindow().setCodeHighlighting(true);
         executePane.getTextSegmentWindow().highlightStepAtPC();
         mainUI.getRegistersPane().setSelectedComponent(executePane.getRegistersWindow());
@@ -101,6 +103,7 @@ public class RunResetAction extends GuiAction {
         mainUI.setStarted(false);
 
         // Aug. 24, 2005 Ken Vollmar
+        Journal.stop();
         SystemIO.resetFiles();  // Ensure that I/O "file descriptors" are initialized for a new program run
 
         mainUI.getMessagesPane().postRunMessage(
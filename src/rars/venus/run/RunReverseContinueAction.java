@@ -0,0 +1,49 @@
+package rars.venus.run;
+
+import rars.Globals;
+import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.RegisterFile;
+import rars.simulator.Breakpoints;
+import rars.venus.FileStatus;
+import rars.venus.GuiAction;
+import rars.venus.VenusUI;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+
+/**
+ * Action for the Run -> Reverse Continue menu item, which undoes steps back to where the program
+ * last reached a breakpoint, or to the start of the history if it did not.
+ */
+public class RunReverseContinueAction extends GuiAction {
+    private final VenusUI mainUI;
+
+    public RunReverseContinueAction(String name, Icon icon, String descrip,
+                                    Integer mnemonic, KeyStroke accel, VenusUI gui) {
+        super(name, icon, descrip, mnemonic, accel);
+        mainUI = gui;
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        String name = this.getValue(Action.NAME).toString();
+        if (!FileStatus.isAssembled() || !Globals.getSettings().getBackSteppingEnabled()) {
+            return;
+        }
+        Breakpoints breakPoints = mainUI.getMainPane().getExecutePane().getTextSegmentWindow().getBreakpoints();
+        boolean found = Globals.program.getBackStepper().backStepToBreakpoint(breakPoints);
+        RunBackstepAction.showUndone(mainUI);
+        long retired = ControlAndStatusRegisterFile.getRetired();
+        if (!found) {
+            mainUI.getMessagesPane().postMessage(
+                    name + ": reached the start of the history, at instruction " + retired + "\n\n");
+        } else if (breakPoints.contains(RegisterFile.getProgramCounter())) {
+            mainUI.getMessagesPane().postMessage(
+                    name + ": execution paused at breakpoint, at instruction " + retired + "\n\n");
+        } else {
+            mainUI.getMessagesPane().postMessage(
+                    name + ": execution paused at instruction " + retired
+                            + ", the checkpoint before the breakpoint was reached; Go to get there\n\n");
+        }
+        mainUI.getMessagesPane().selectMessageTab();
+    }
+}
@@ -70,6 +70,7 @@ public class RunStepAction extends GuiAction {
         if (FileStatus.isAssembled()) {
             if (!mainUI.getStarted()) {  // DPS 17-July-2008
                 processProgramArgumentsIfAny();
+                RunGoAction.recordJournalIfEnabled(mainUI);
             }
             mainUI.setStarted(true);
             mainUI.getMessagesPane().selectRunMessageTab();
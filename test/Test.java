@@ -1,12 +1,30 @@
 import rars.*;
+import rars.api.IsolatedProgram;
 import rars.api.Options;
 import rars.api.Program;
+import rars.simulator.BackStepper;
+import rars.simulator.Breakpoint;
 import rars.riscv.*;
+import rars.riscv.hardware.AccessNotice;
+import rars.riscv.hardware.AddressErrorException;
+import rars.riscv.hardware.ControlAndStatusRegisterFile;
+import rars.riscv.hardware.FloatingPointRegisterFile;
+import rars.riscv.hardware.InterruptController;
+import rars.riscv.hardware.Memory;
+import rars.riscv.hardware.MemoryAccessNotice;
+import rars.riscv.hardware.RegisterFile;
+import rars.riscv.hardware.Watchpoint;
+import rars.simulator.Journal;
 import rars.simulator.Simulator;
+import rars.simulator.Trace;
+import rars.simulator.TraceReader;
+import rars.tools.NoticeQueue;
+import rars.util.Binary;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
 
 public class Test {
     public static void main(String[] args){
@@ -52,6 +70,42 @@ public class Test {
         }
 
 
+        // Run the rv32 tests again through the predecoded, basic block and JIT execution engines, and
+        // compiled ahead of time; they must behave the same
+        Options predecoded = new Options(), blocks = new Options(), jit = new Options(), aot = new Options();
+        predecoded.startAtMain = blocks.startAtMain = jit.startAtMain = aot.startAtMain = true;
+        predecoded.maxSteps = blocks.maxSteps = jit.maxSteps = aot.maxSteps = 1000;
+        predecoded.predecode = true;
+        blocks.basicBlocks = true;
+        jit.jit = true;
+        for(Options engine : new Options[]{predecoded, blocks, jit, aot}){
+            Program pd = new Program(engine);
+            String tag = engine == aot ? "[aot] " : engine.jit ? "[jit] " : engine.basicBlocks ? "[basic blocks] " : "[predecoded] ";
+            for(File[] group : new File[][]{tests, riscv_tests}){
+                for(File test : group){
+                    if(test.isFile() && test.getName().endsWith(".s")){
+                        String errors = run(test.getPath(),pd,engine == aot);
+                        if(errors.equals("")) {
+                            System.out.print('.');
+                        }else{
+                            System.out.print('X');
+                            total.append(tag).append(errors).append('\n');
+                        }
+                    }
+                }
+            }
+        }
+
+        total.append(checkJit());
+        total.append(checkNoticeQueue());
+        total.append(checkBreakpoints());
+        total.append(checkAtomics());
+        total.append(checkFork());
+        total.append(checkCheckpoint());
+        total.append(checkJournal());
+        total.append(checkBackStepper());
+        total.append(checkTrace());
+
         if(riscv_tests_64 == null){
             System.out.println("./test/riscv-tests-64 doesn't exist");
             return;
@@ -70,11 +124,16 @@ public class Test {
                 }
             }
         }
+        total.append(checkWatchpoints());
         System.out.println(total);
         checkBinary();
         checkPsuedo();
+        checkIsolated(riscv_tests);
     }
     public static String run(String path, Program p){
+        return run(path, p, false);
+    }
+    public static String run(String path, Program p, boolean compiled){
         int[] errorlines = null;
         String stdin = "", stdout = "", stderr ="";
         // TODO: better config system
@@ -108,6 +167,13 @@ public class Test {
             if(errorlines != null){
                 return "Expected asssembly error, but successfully assembled " + path;
             }
+            if(compiled){
+                // Round trip through a jar file as the "aot" command line option does
+                File jar = File.createTempFile("rars", ".jar");
+                p.saveCompiled(jar.getPath());
+                p.loadCompiled(jar.getPath());
+                jar.delete();
+            }
             p.setup(null,stdin);
             Simulator.Reason r = p.simulate();
             if(r != Simulator.Reason.NORMAL_TERMINATION){
@@ -142,6 +208,865 @@ public class Test {
             return "";
         } catch (SimulationException se){
             return "Crashed while executing " + path;
+        } catch (IOException io){
+            return "Could not save or load compiled " + path;
+        }
+    }
+
+    // Compiles blocks on their second run, so compiled code has to give way to self-modifying
+    // stores and trap precisely on a load that faults in the middle of a hot block
+    public static String checkJit(){
+        Options opt = new Options();
+        opt.startAtMain = true;
+        opt.maxSteps = 100000;
+        opt.selfModifyingCode = true;
+        opt.jit = true;
+        opt.jitThreshold = 2;
+        Program p = new Program(opt);
+        StringBuilder errors = new StringBuilder();
+        String selfmod = run("./test/selfmod.s", p);
+        if(!selfmod.equals("")){
+            errors.append("[jit threshold 2] ").append(selfmod).append('\n');
+        }
+        String fault = ".text\n" +
+                "main:\n" +
+                "    la t0, handler\n" +
+                "    csrw t0, utvec\n" +
+                "    csrsi ustatus, 1\n" +
+                "    la s1, word\n" +
+                "loop:\n" +
+                "    addi s0, s0, 1\n" +      // iterations started
+                "    sltiu t2, s0, 10\n" +
+                "    addi t2, t2, -1\n" +     // -1 from the tenth iteration on
+                "    add t3, s1, t2\n" +
+                "faulting:\n" +
+                "    lw t1, 0(t3)\n" +        // misaligned on the tenth iteration
+                "    addi s4, s4, 1\n" +      // loads that completed
+                "    j loop\n" +
+                "handler:\n" +
+                "    csrr t0, ucause\n" +
+                "    li t1, 4\n" +
+                "    bne t0, t1, failure\n" +
+                "    csrr t0, uepc\n" +
+                "    la t1, faulting\n" +
+                "    bne t0, t1, failure\n" +
+                "    li t1, 10\n" +
+                "    bne s0, t1, failure\n" +
+                "    li t1, 9\n" +
+                "    bne s4, t1, failure\n" +
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "failure:\n" +
+                "    li a0, 0\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "word: .word 1\n";
+        try {
+            p.assembleString(fault);
+            p.setup(null,"");
+            if(p.simulate() != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != 42){
+                errors.append("[jit threshold 2] Fault in a compiled block was not precise\n");
+            }
+        } catch (AssemblyException | SimulationException e){
+            errors.append("[jit threshold 2] Could not run the faulting block\n");
+        }
+        return errors.toString();
+    }
+
+    // Stops at a breakpoint in the middle of a loop under conditions and ignore counts, with
+    // each engine.  The stop must be before the store at the breakpoint, even with whole blocks.
+    public static String checkBreakpoints(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la s0, word\n" +
+                "loop:\n" +
+                "    addi t0, t0, 1\n" +
+                "here:\n" +
+                "    sw t0, 0(s0)\n" +
+                "    li t1, 20\n" +
+                "    blt t0, t1, loop\n" +
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "word: .word -5\n";
+        Options plain = new Options(), blocks = new Options(), jit = new Options();
+        blocks.basicBlocks = true;
+        jit.jit = true;
+        jit.jitThreshold = 2;
+        StringBuilder errors = new StringBuilder();
+        for(Options opt : new Options[]{plain, blocks, jit}){
+            opt.startAtMain = true;
+            String tag = opt == jit ? "[jit] " : opt == blocks ? "[basic blocks] " : "";
+            Program p = new Program(opt);
+            try {
+                p.assembleString(source);
+                int here = 0x400000 + 12; // after la, which is two instructions, and addi
+                // * binds tighter than +, + tighter than <<, and mem[] reads the word before the store
+                String[][] stops = {
+                        {"t0 == 2 + 3 * 2", "0", "8"},
+                        {"1 + 2 << 1 == 6 && t0 > 10", "0", "11"},
+                        {"mem[s0] == 12", "0", "13"},
+                        {"(t0 | 1) == 7 || -t0 == ~4", "0", "5"},
+                        {"mem[0] == 1", "0", "1"},        // invalid address, holds
+                        {"t0 / (t0 - t0) == 3", "0", "1"}, // division by zero, holds
+                        {"", "3", "4"},
+                        {"t0 % 2 == 0", "2", "6"},
+                };
+                for(String[] stop : stops){
+                    p.getBreakpoints().clear();
+                    p.getBreakpoints().add(new Breakpoint(here, stop[0], Integer.parseInt(stop[1])));
+                    p.setup(null, "");
+                    String error = stopsAt(p, Integer.parseInt(stop[2]));
+                    if(error != null){
+                        errors.append(tag).append("Breakpoint if ").append(stop[0]).append(" ignoring ").append(stop[1])
+                                .append(": ").append(error).append('\n');
+                    }
+                }
+                // The last breakpoint stops at every even t0 from its third hit on, keeps its hit count when
+                // the program is set up again, and ignores two hits again once the counts are reset
+                String error = stopsAt(p, 8);
+                p.setup(null, "");
+                if(error == null) error = stopsAt(p, 2);
+                p.setup(null, "");
+                p.getBreakpoints().resetHitCounts();
+                if(error == null) error = stopsAt(p, 6);
+                if(error != null){
+                    errors.append(tag).append("Breakpoint hit counts: ").append(error).append('\n');
+                }
+            } catch (AssemblyException | SimulationException | AddressErrorException e){
+                errors.append(tag).append("Could not run the breakpoint test\n");
+            }
+        }
+        try {
+            new Breakpoint(0x400000, "t0 +", 0);
+            errors.append("Invalid breakpoint condition accepted\n");
+        } catch (IllegalArgumentException e){
+            // expected
+        }
+        return errors.toString();
+    }
+
+    // Simulates up to the next breakpoint, which must be reached with t0 at the given value and
+    // before t0 is stored
+    private static String stopsAt(Program p, int t0) throws SimulationException, AddressErrorException {
+        Simulator.Reason r = p.simulate();
+        if(r != Simulator.Reason.BREAKPOINT){
+            return "ended with " + r + " instead of stopping at t0 = " + t0;
+        }
+        int stored = p.getMemory().getWordNoNotify(p.getRegisterValue("s0"));
+        if(p.getRegisterValue("t0") != t0 || stored != (t0 == 1 ? -5 : t0 - 1)){
+            return "stopped at t0 = " + p.getRegisterValue("t0") + " with " + stored + " stored, instead of t0 = " + t0;
+        }
+        return null;
+    }
+
+    // Four harts taking turns every few instructions count with a lock taken by amoswap and with
+    // lr/sc, under each engine; neither count may lose an increment.  The aq and rl bits must not
+    // change what an instruction decodes to, and a misaligned lr must raise a load fault.
+    public static String checkAtomics(){
+        String counters = ".text\n" +
+                "main:\n" +
+                "    la s0, lock\n" +
+                "    addi s2, s0, 8\n" +
+                "    li s1, 200\n" +
+                "loop:\n" +
+                "    li t0, 1\n" +
+                "acquire:\n" +
+                "    amoswap.w t1, t0, (s0)\n" +
+                "    bnez t1, acquire\n" +
+                "    lw t2, 4(s0)\n" +          // not atomic, only the lock keeps it right
+                "    addi t2, t2, 1\n" +
+                "    sw t2, 4(s0)\n" +
+                "    amoswap.w zero, zero, (s0)\n" +
+                "retry:\n" +
+                "    lr.w t3, (s2)\n" +
+                "    addi t3, t3, 1\n" +
+                "    sc.w t4, t3, (s2)\n" +
+                "    bnez t4, retry\n" +
+                "    addi s1, s1, -1\n" +
+                "    bnez s1, loop\n" +
+                "    addi s3, s0, 12\n" +
+                "    li t0, 1\n" +
+                "    amoadd.w zero, t0, (s3)\n" +
+                "    csrr t0, mhartid\n" +
+                "    bnez t0, park\n" +
+                "    li t1, 4\n" +
+                "wait:\n" +
+                "    lw t0, 12(s0)\n" +
+                "    bne t0, t1, wait\n" +
+                "    li t1, 800\n" +
+                "    lw t0, 4(s0)\n" +
+                "    bne t0, t1, failure\n" +
+                "    lw t0, 8(s0)\n" +
+                "    bne t0, t1, failure\n" +
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "failure:\n" +
+                "    li a0, 1\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "park:\n" +
+                "    j park\n" +
+                ".data\n" +
+                "lock: .word 0, 0, 0, 0\n";     // lock, locked count, lr/sc count, harts done
+        String misaligned = ".text\n" +
+                "main:\n" +
+                "    la t0, handler\n" +
+                "    csrw t0, utvec\n" +
+                "    csrsi ustatus, 1\n" +
+                "    la t0, word\n" +
+                "    addi t0, t0, 2\n" +
+                "    lr.w t1, (t0)\n" +
+                "    li a0, 1\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "handler:\n" +
+                "    csrr a0, ucause\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "word: .word 0, 0\n";
+        Options plain = new Options(), predecoded = new Options(), blocks = new Options(), jit = new Options();
+        predecoded.predecode = true;
+        blocks.basicBlocks = true;
+        jit.jit = true;
+        jit.jitThreshold = 2;
+        StringBuilder errors = new StringBuilder();
+        for(Options opt : new Options[]{plain, predecoded, blocks, jit}){
+            String tag = opt == jit ? "[jit] " : opt == blocks ? "[basic blocks] " : opt == predecoded ? "[predecoded] " : "";
+            opt.startAtMain = true;
+            opt.maxSteps = 1000000;
+            opt.harts = 4;
+            opt.hartQuantum = 3;
+            Program p = new Program(opt);
+            try {
+                p.assembleString(counters);
+                p.setup(null, "");
+                Simulator.Reason r = p.simulate();
+                if(r != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != 42){
+                    errors.append(tag).append("Four harts counting with amoswap and lr/sc ended with ").append(r)
+                            .append(", exit code ").append(p.getExitCode()).append('\n');
+                }
+            } catch (AssemblyException | SimulationException e){
+                errors.append(tag).append("Could not run the four harts\n");
+            }
+        }
+        try {
+            Program p = new Program(new Options());
+            p.assembleString(misaligned);
+            p.setup(null, "");
+            if(p.simulate() != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != SimulationException.LOAD_ADDRESS_MISALIGNED){
+                errors.append("Misaligned lr.w raised cause ").append(p.getExitCode()).append('\n');
+            }
+        } catch (AssemblyException | SimulationException e){
+            errors.append("Could not run the misaligned lr.w\n");
+        }
+        // amoswap.w, lr.w and sc.w with aq and rl set
+        int[] encodings = {0x0E62A32F, 0x1602A32F, 0x1E62A32F};
+        String[] names = {"amoswap.w", "lr.w", "sc.w"};
+        for(int i = 0; i < encodings.length; i++){
+            BasicInstruction found = Globals.instructionSet.findByBinaryCode(encodings[i]);
+            if(found == null || !found.getName().equals(names[i])){
+                errors.append(names[i]).append(" with aq and rl set decoded as ").append(found == null ? null : found.getName()).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+    // Forks a program with a timer interrupt pending just before it reads its input.  The parent
+    // and the fork each take the interrupt, read different input and store it, without seeing the
+    // other's store.
+    public static String checkFork(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la t0, handler\n" +
+                "    csrw t0, utvec\n" +
+                "    li t0, 0x10\n" +
+                "    csrw t0, uie\n" +
+                "    csrsi ustatus, 1\n" +
+                "    la s0, word\n" +
+                "    li a7, 5\n" +
+                "    ecall\n" +            // read an int
+                "    sw a0, 0(s0)\n" +
+                "done:\n" +
+                "    mv a0, s2\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "handler:\n" +
+                "    addi s2, s2, 1\n" +   // interrupts taken
+                "    uret\n" +
+                ".data\n" +
+                "word: .word 0\n";
+        StringBuilder errors = new StringBuilder();
+        Options opt = new Options();
+        opt.startAtMain = true;
+        Program parent = new Program(opt);
+        try {
+            parent.assembleString(source);
+            parent.setup(null, "1\n");
+            int read = 0x400000 + 4 * 9, done = read + 8; // after la, csrw, li, csrw, csrsi, la and li
+            int word = Memory.dataBaseAddress;
+            parent.getBreakpoints().add(new Breakpoint(read, "", 0));
+            parent.getBreakpoints().add(new Breakpoint(done, "", 0));
+            if(parent.simulate() != Simulator.Reason.BREAKPOINT){
+                return "Did not stop where the program forks\n";
+            }
+            parent.getBreakpoints().remove(read); // the handler returns to it
+            InterruptController.registerTimerInterrupt(7);
+            Program child = parent.fork("2\n");
+            Simulator.Reason r = parent.simulate();
+            if(r != Simulator.Reason.BREAKPOINT || parent.getMemory().getWordNoNotify(word) != 1
+                    || child.getMemory().getWordNoNotify(word) != 0){
+                errors.append("Parent stopped with ").append(r).append(", storing ").append(parent.getMemory().getWordNoNotify(word))
+                        .append(" and leaving ").append(child.getMemory().getWordNoNotify(word)).append(" in the fork\n");
+            }
+            r = child.simulate();
+            if(r != Simulator.Reason.BREAKPOINT || child.getMemory().getWordNoNotify(word) != 2
+                    || parent.getMemory().getWordNoNotify(word) != 1){
+                errors.append("Fork stopped with ").append(r).append(", storing ").append(child.getMemory().getWordNoNotify(word))
+                        .append(" and leaving ").append(parent.getMemory().getWordNoNotify(word)).append(" in the parent\n");
+            }
+            for(Program p : new Program[]{parent, child}){
+                String name = p == parent ? "Parent" : "Fork";
+                r = p.simulate();
+                if(r != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != 1){
+                    errors.append(name).append(" ended with ").append(r).append(" after taking ").append(p.getExitCode())
+                            .append(" interrupts instead of 1\n");
+                }
+            }
+        } catch (AssemblyException | SimulationException | AddressErrorException e){
+            errors.append("Could not run the fork test\n");
+        }
+        return errors.toString();
+    }
+
+    // Saves a checkpoint halfway through a loop and restores it into a new Program, with memory on
+    // the Java heap and off it.  The restored run must end with the same output, registers and
+    // memory as the one that went on, and a truncated checkpoint must not change anything.
+    public static String checkCheckpoint(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la s0, sums\n" +
+                "    lui s3, 0x10040\n" +    // a second page, in the heap
+                "loop:\n" +
+                "    addi s1, s1, 1\n" +
+                "    add s2, s2, s1\n" +
+                "    sw s2, 0(s0)\n" +
+                "    sw s1, 0(s3)\n" +
+                "    addi s0, s0, 4\n" +
+                "    addi s3, s3, 4\n" +
+                "    mv a0, s2\n" +
+                "    li a7, 1\n" +
+                "    ecall\n" +
+                "    li a0, ' '\n" +
+                "    li a7, 11\n" +
+                "    ecall\n" +
+                "    li t0, 20\n" +
+                "    blt s1, t0, loop\n" +
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "sums: .space 80\n";
+        StringBuilder errors = new StringBuilder();
+        boolean offHeapMemory = Globals.offHeapMemory;
+        File file = null;
+        try {
+            file = File.createTempFile("rars", ".checkpoint");
+            for(boolean offHeap : new boolean[]{false, true}){
+                Globals.offHeapMemory = offHeap;
+                String tag = offHeap ? "[off heap] " : "";
+                Options opt = new Options();
+                opt.startAtMain = true;
+                Program saved = new Program(opt), restored = new Program(opt);
+                saved.assembleString(source);
+                saved.setup(null, "");
+                saved.getBreakpoints().add(new Breakpoint(0x400000 + 12, "s1 == 10", 0)); // after la and lui
+                if(saved.simulate() != Simulator.Reason.BREAKPOINT){
+                    return tag + "Did not stop halfway through the loop\n";
+                }
+                saved.saveCheckpoint(file.getPath());
+                int printed = saved.getSTDOUT().length();
+                saved.getBreakpoints().clear();
+                saved.simulate();
+
+                restored.assembleString(source);
+                restored.setup(null, "");
+                File truncated = File.createTempFile("rars", ".checkpoint");
+                try {
+                    byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+                    java.nio.file.Files.write(truncated.toPath(), java.util.Arrays.copyOf(bytes, bytes.length - 4096));
+                    restored.restoreCheckpoint(truncated.getPath());
+                    errors.append(tag).append("Restored a truncated checkpoint\n");
+                } catch (IOException e){
+                    if(restored.getRegisterValue("s1") != 0 || restored.getMemory().getWordNoNotify(Memory.dataBaseAddress) != 0){
+                        errors.append(tag).append("A truncated checkpoint changed the registers or memory\n");
+                    }
+                } finally {
+                    truncated.delete();
+                }
+                restored.restoreCheckpoint(file.getPath());
+                Simulator.Reason r = restored.simulate();
+                if(r != Simulator.Reason.NORMAL_TERMINATION || restored.getExitCode() != 42
+                        || !restored.getSTDOUT().equals(saved.getSTDOUT().substring(printed))){
+                    errors.append(tag).append("Restored run ended with ").append(r).append(" printing \"")
+                            .append(restored.getSTDOUT()).append("\"\n");
+                }
+                for(String register : new String[]{"s0", "s1", "s2", "s3"}){
+                    if(restored.getRegisterValue(register) != saved.getRegisterValue(register)){
+                        errors.append(tag).append("Restored run ended with ").append(register).append(" = ")
+                                .append(restored.getRegisterValue(register)).append('\n');
+                    }
+                }
+                for(int i = 0; i < 20; i++){
+                    for(int address : new int[]{Memory.dataBaseAddress + 4 * i, 0x10040000 + 4 * i}){
+                        if(restored.getMemory().getWordNoNotify(address) != saved.getMemory().getWordNoNotify(address)){
+                            errors.append(tag).append("Restored run ended with a different word at ").append(address).append('\n');
+                        }
+                    }
+                }
+            }
+        } catch (AssemblyException | SimulationException | AddressErrorException | IOException e){
+            errors.append("Could not run the checkpoint test: ").append(e).append('\n');
+        } finally {
+            Globals.offHeapMemory = offHeapMemory;
+            if(file != null) file.delete();
+        }
+        return errors.toString();
+    }
+
+    // Records a run that reads stdin, the time and random numbers, and plays it back with no input
+    // under the plain and basic block engines.  Both must print the same, including the time CSR
+    // read around the input and the number of times a loop polled it.
+    public static String checkJournal(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    rdtime s6\n" +
+                "    li a7, 5\n" +      // read an int
+                "    ecall\n" +
+                "    mv s0, a0\n" +
+                "    rdtime s7\n" +
+                "    li s9, 0\n" +
+                "poll:\n" +              // waits 3 ms, as delay loops do
+                "    addi s9, s9, 1\n" +
+                "    rdtime t0\n" +
+                "    sub t0, t0, s7\n" +
+                "    slti t0, t0, 3\n" +
+                "    bnez t0, poll\n" +
+                "    li a7, 30\n" +     // time
+                "    ecall\n" +
+                "    mv s1, a0\n" +
+                "    li a0, 0\n" +
+                "    li a1, 1000000\n" +
+                "    li a7, 42\n" +     // random int in a range
+                "    ecall\n" +
+                "    mv s2, a0\n" +
+                "    li a7, 41\n" +     // random int
+                "    ecall\n" +
+                "    mv s3, a0\n" +
+                "    la s4, values\n" +
+                "    sw s0, 0(s4)\n" +
+                "    sw s1, 4(s4)\n" +
+                "    sw s2, 8(s4)\n" +
+                "    sw s3, 12(s4)\n" +
+                "    sw s6, 16(s4)\n" +
+                "    sw s7, 20(s4)\n" +
+                "    sw s9, 24(s4)\n" +
+                "    li s5, 7\n" +
+                "print:\n" +
+                "    lw a0, 0(s4)\n" +
+                "    li a7, 1\n" +
+                "    ecall\n" +
+                "    li a0, ' '\n" +
+                "    li a7, 11\n" +
+                "    ecall\n" +
+                "    addi s4, s4, 4\n" +
+                "    addi s5, s5, -1\n" +
+                "    bnez s5, print\n" +
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "values: .space 28\n";
+        StringBuilder errors = new StringBuilder();
+        Options plain = new Options(), blocks = new Options();
+        blocks.basicBlocks = true;
+        File file = null;
+        try {
+            file = File.createTempFile("rars", ".journal");
+            for(Options opt : new Options[]{plain, blocks}){
+                String tag = opt == blocks ? "[basic blocks] " : "";
+                opt.startAtMain = true;
+                Program p = new Program(opt);
+                p.assembleString(source);
+                p.setup(null, "123\n");
+                Journal.startRecording(file);
+                p.simulate();
+                Journal.stop();
+                String recorded = p.getSTDOUT();
+                p.setup(null, "");
+                Journal.startReplay(file);
+                Simulator.Reason r = p.simulate();
+                Journal.stop();
+                if(r != Simulator.Reason.NORMAL_TERMINATION || !p.getSTDOUT().equals(recorded) || !recorded.startsWith("123 ")){
+                    errors.append(tag).append("Played back \"").append(p.getSTDOUT()).append("\" for \"").append(recorded).append("\"\n");
+                }
+            }
+        } catch (AssemblyException | SimulationException | IOException e){
+            errors.append("Could not run the journal test: ").append(e).append('\n');
+        } finally {
+            if(file != null) file.delete();
+        }
+        return errors.toString();
+    }
+
+    // Runs a loop of about 3000 instructions with room for 64 back-steps, so the history is thinned
+    // and merged many times over, then goes back to points throughout the run, latest first, and
+    // runs forward from where goTo got to.  The registers and memory must then be as in a run that
+    // went straight there.
+    public static String checkBackStepper(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la s0, data\n" +
+                "loop:\n" +
+                "    addi s1, s1, 1\n" +
+                "    andi t0, s1, 15\n" +
+                "    slli t0, t0, 2\n" +
+                "    add t1, s0, t0\n" +
+                "    lw t2, 0(t1)\n" +
+                "    add t2, t2, s1\n" +
+                "    sw t2, 0(t1)\n" +
+                "    sb s1, 64(t1)\n" +
+                "    li t3, 400\n" +
+                "    blt s1, t3, loop\n" +
+                ".data\n" +
+                "data: .space 128\n";
+        int end = 3000;
+        int[] points = new int[end / 37 + 1];
+        for(int i = 0; i < points.length; i++){
+            points[i] = i * 37;
+        }
+        StringBuilder errors = new StringBuilder();
+        int maximumBacksteps = Globals.maximumBacksteps;
+        RISCVprogram program = Globals.program;
+        Globals.maximumBacksteps = 64;
+        try {
+            // The state at each point, going straight there
+            long[][] expected = new long[points.length][];
+            backStepRun(source);
+            for(int i = 0; i < points.length; i++){
+                if(points[i] > 0){
+                    Globals.program.simulate(points[i] - (i == 0 ? 0 : points[i - 1]));
+                }
+                expected[i] = backStepState();
+            }
+            backStepRun(source);
+            Globals.program.simulate(end);
+            BackStepper backStepper = Globals.program.getBackStepper();
+            if(backStepper.earliest() != 0){
+                errors.append("Back-steps only go back to ").append(backStepper.earliest()).append('\n');
+            }
+            for(int i = points.length - 1; i >= 0; i--){
+                long at = backStepper.goTo(points[i]);
+                if(at > points[i]){
+                    errors.append("Went back to ").append(at).append(" instead of ").append(points[i]).append('\n');
+                    continue;
+                }
+                if(at < points[i]){
+                    Globals.program.simulate((int) (points[i] - at));
+                }
+                if(!java.util.Arrays.equals(backStepState(), expected[i])){
+                    errors.append("Going back to ").append(points[i]).append(" through ").append(at)
+                            .append(" and on differs from going straight there\n");
+                }
+            }
+            // Older history is coarser: going back one step at a time from the end, the steps before
+            // the log are a few merged checkpoints
+            backStepRun(source);
+            Globals.program.simulate(end);
+            backStepper = Globals.program.getBackStepper();
+            int steps = 0;
+            while(!backStepper.empty()){
+                backStepper.backStep();
+                steps++;
+            }
+            if(steps > 64 + 24){ // the log, and checkpoints of strictly decreasing length
+                errors.append("Took ").append(steps).append(" steps back to the start\n");
+            }
+            if(ControlAndStatusRegisterFile.getRetired() != 0 || !java.util.Arrays.equals(backStepState(), expected[0])){
+                errors.append("Back-stepping to the start did not restore the initial state\n");
+            }
+        } catch (AssemblyException | SimulationException e){
+            errors.append("Could not run the back-step test\n");
+        } finally {
+            Globals.maximumBacksteps = maximumBacksteps;
+            Globals.program = program;
+        }
+        return errors.toString();
+    }
+
+    // Assembles into the global memory and resets the registers, as the GUI does
+    private static void backStepRun(String source) throws AssemblyException {
+        RISCVprogram program = new RISCVprogram();
+        program.fromString(source);
+        program.tokenize();
+        ArrayList<RISCVprogram> programs = new ArrayList<>();
+        programs.add(program);
+        Globals.program = program;
+        program.assemble(programs, true);
+        RegisterFile.resetRegisters();
+        FloatingPointRegisterFile.resetRegisters();
+        ControlAndStatusRegisterFile.resetRegisters();
+        InterruptController.reset();
+        RegisterFile.initializeProgramCounter(Memory.textBaseAddress);
+    }
+
+    // The integer registers, the program counter, the retired count and the data words
+    private static long[] backStepState(){
+        long[] state = new long[32 + 2 + 32];
+        for(int i = 1; i < 32; i++){
+            state[i] = RegisterFile.getValueLong(i);
+        }
+        state[32] = RegisterFile.getProgramCounter();
+        state[33] = ControlAndStatusRegisterFile.getRetired();
+        for(int i = 0; i < 32; i++){
+            try {
+                state[34 + i] = Globals.memory.getWordNoNotify(Memory.dataBaseAddress + 4 * i);
+            } catch (AddressErrorException e){
+                state[34 + i] = -1;
+            }
+        }
+        return state;
+    }
+
+    // Traces loads, stores and atomic operations, and reads them back.  Atomic operations other than
+    // load reserved store what is in memory after them, and a store conditional that fails does not
+    // access memory.
+    public static String checkTrace(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la s0, values\n" +
+                "    addi s1, s0, 4\n" +
+                "    lw t0, 0(s0)\n" +
+                "    sw t0, 8(s0)\n" +
+                "    sb t0, 12(s0)\n" +
+                "    li t1, 3\n" +
+                "    amoadd.w t2, t1, (s0)\n" +
+                "    li t1, 9\n" +
+                "    amoswap.w t2, t1, (s1)\n" +
+                "    lr.w t3, (s0)\n" +
+                "    li t1, 11\n" +
+                "    sc.w t4, t1, (s0)\n" +
+                "    sc.w t5, t1, (s1)\n" +   // fails, there is no reservation left
+                "    li a7, 10\n" +
+                "    ecall\n" +
+                ".data\n" +
+                "values: .word 5, 7, 0, 0\n";
+        String[] expected = {
+                "load 0x10010000 4 0x00000005",
+                "store 0x10010008 4 0x00000005",
+                "store 0x1001000c 1 0x00000005",
+                "store 0x10010000 4 0x00000008",
+                "store 0x10010004 4 0x00000009",
+                "load 0x10010000 4 0x00000008",
+                "store 0x10010000 4 0x0000000b"};
+        StringBuilder errors = new StringBuilder();
+        File file = null;
+        try {
+            file = File.createTempFile("rars", ".trace");
+            Options opt = new Options();
+            opt.startAtMain = true;
+            Program p = new Program(opt);
+            p.assembleString(source);
+            p.setup(null, "");
+            Trace.start(file);
+            Simulator.Reason r = p.simulate();
+            Trace.stop();
+            if(r != Simulator.Reason.NORMAL_TERMINATION){
+                errors.append("Traced program ended with ").append(r).append('\n');
+            }
+            if(file.length() > 4096){
+                errors.append("Trace of ").append(file.length()).append(" bytes was not cut to its records\n");
+            }
+            ArrayList<String> accesses = new ArrayList<>();
+            long failedSc = -1;
+            try (TraceReader trace = new TraceReader(file)) {
+                while(trace.next()){
+                    if(trace.hasMemoryAccess()){
+                        accesses.add((trace.isStore() ? "store " : "load ") + Binary.intToHexString(trace.getMemoryAddress())
+                                + " " + trace.getMemorySize() + " " + Binary.intToHexString((int) trace.getMemoryValue()));
+                    }
+                    if(trace.getRd() == 30){
+                        failedSc = trace.getRdValue();
+                    }
+                }
+            }
+            if(!accesses.equals(java.util.Arrays.asList(expected))){
+                errors.append("Traced memory accesses ").append(accesses).append('\n');
+            }
+            if(failedSc != 1){
+                errors.append("Traced ").append(failedSc).append(" for a store conditional that failed\n");
+            }
+        } catch (AssemblyException | SimulationException | IOException e){
+            errors.append("Could not run the trace test: ").append(e).append('\n');
+        } finally {
+            Trace.stop();
+            if(file != null) file.delete();
+        }
+        return errors.toString();
+    }
+
+    // Stops at watchpoints on the upper word of a doubleword, which a doubleword access must
+    // trigger once as a whole, and not in a trap handler after an access that trapped.  Runs in RV64.
+    public static String checkWatchpoints(){
+        String source = ".text\n" +
+                "main:\n" +
+                "    la s0, data\n" +
+                "    ld t1, 8(s0)\n" +
+                "    la t0, handler\n" +
+                "    csrw t0, utvec\n" +
+                "    csrsi ustatus, 1\n" +
+                "    sw t1, 0(s0)\n" +          // the lower word only
+                "    sd t1, 0(s0)\n" +
+                "    ld t2, 0(s0)\n" +
+                "    li s1, 0x10000000\n" +       // the first byte of the data segment
+                "    sd t1, -4(s1)\n" +          // writes the data segment, then faults on the text segment
+                "    li a0, 42\n" +
+                "    li a7, 93\n" +
+                "    ecall\n" +
+                "handler:\n" +
+                "    csrr t0, uepc\n" +
+                "    addi t0, t0, 4\n" +
+                "    csrw t0, uepc\n" +
+                "    uret\n" +
+                ".data\n" +
+                "data: .dword 0x1111111122222222, 0x3333333344444444\n";
+        StringBuilder errors = new StringBuilder();
+        Options opt = new Options();
+        opt.startAtMain = true;
+        Program p = new Program(opt);
+        try {
+            p.assembleString(source);
+            p.setup(null, "");
+            int data = Memory.dataBaseAddress, sd = 0x400000 + 4 * 8; // after la, ld, la, csrw, csrsi and sw
+            p.getMemory().addWatchpoint(new Watchpoint(data + 4, 4, Watchpoint.Kind.WRITE));
+            p.getMemory().addWatchpoint(new Watchpoint(data + 4, 4, Watchpoint.Kind.READ));
+            p.getMemory().addWatchpoint(new Watchpoint(Memory.dataSegmentBaseAddress, 4, Watchpoint.Kind.WRITE));
+            Object[][] hits = {
+                    {sd, AccessNotice.WRITE, 0x1111111144444444L, 0x3333333344444444L},
+                    {sd + 4, AccessNotice.READ, 0x3333333344444444L, 0x3333333344444444L},
+            };
+            for(Object[] expected : hits){
+                Simulator.Reason r = p.simulate();
+                Watchpoint.Hit hit = p.getWatchpointHit();
+                if(r != Simulator.Reason.WATCHPOINT || hit == null){
+                    errors.append("Ended with ").append(r).append(" instead of stopping at a watchpoint\n");
+                    return errors.toString();
+                }
+                if(hit.getPC() != (int) expected[0] || hit.getAccessType() != (int) expected[1] || hit.getAddress() != data
+                        || hit.getLength() != 8 || hit.getOldValue() != (long) expected[2] || hit.getNewValue() != (long) expected[3]){
+                    errors.append("Wrong watchpoint hit: ").append(hit).append('\n');
+                }
+            }
+            Simulator.Reason r = p.simulate();
+            if(r != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != 42){
+                errors.append("Stopped with ").append(r).append(" after an access that trapped\n");
+            }
+        } catch (AssemblyException | SimulationException e){
+            errors.append("Could not run the watchpoint test\n");
+        }
+        return errors.toString();
+    }
+
+    // Holds the tool's thread in its first notice while more are queued, so they make one batch
+    public static String checkNoticeQueue(){
+        StringBuilder errors = new StringBuilder();
+        ArrayList<String> delivered = new ArrayList<>();
+        CountDownLatch inFirst = new CountDownLatch(1), release = new CountDownLatch(1), batches = new CountDownLatch(2);
+        NoticeQueue queue = new NoticeQueue("test", (resource, notice) -> {
+            MemoryAccessNotice n = (MemoryAccessNotice) notice;
+            synchronized (delivered){
+                delivered.add((n.getAccessType() == AccessNotice.WRITE ? "w" : "r") + n.getAddress() + "=" + n.getValue());
+            }
+            if(inFirst.getCount() > 0){
+                inFirst.countDown();
+                try { release.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        }, batches::countDown, true, false);
+        try {
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.WRITE, 0, 1));
+            inFirst.await();
+            // Dropped on discard
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.WRITE, 8, 1));
+            queue.discard();
+            // Coalesced: only the last write to each address is delivered, and all the reads
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.WRITE, 0, 2));
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.READ, 0, 2));
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.WRITE, 4, 3));
+            queue.offer(null, new MemoryAccessNotice(AccessNotice.WRITE, 0, 4));
+            // Fills the ring, the last ten are dropped as the queue does not block
+            for(int i = 5; i < NoticeQueue.CAPACITY + 10; i++){
+                queue.offer(null, new MemoryAccessNotice(AccessNotice.READ, 12, i));
+            }
+            release.countDown();
+            batches.await();
+        } catch (InterruptedException e) {
+            return "Interrupted while testing the notice queue\n";
+        }
+        queue.stop();
+        if(queue.getDropped() != 10){
+            errors.append("Notice queue dropped ").append(queue.getDropped()).append(" notices, not 10\n");
+        }
+        synchronized (delivered){
+            if(delivered.size() != NoticeQueue.CAPACITY - 1
+                    || !delivered.subList(0, 5).toString().equals("[w0=1, r0=2, w4=3, w0=4, r12=5]")
+                    || !delivered.get(delivered.size() - 1).equals("r12=" + (NoticeQueue.CAPACITY - 1))){
+                errors.append("Notice queue delivered ").append(delivered.size()).append(" notices starting with ")
+                        .append(delivered.subList(0, Math.min(5, delivered.size()))).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+    // Runs the rv32 conformance tests on several threads at once, each with an IsolatedProgram
+    public static void checkIsolated(File[] tests){
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++){
+            int first = t;
+            threads[t] = new Thread(() -> {
+                Options opt = new Options();
+                opt.startAtMain = true;
+                opt.maxSteps = 1000;
+                try (IsolatedProgram p = new IsolatedProgram(opt)) {
+                    for(int i = first; i < tests.length; i += threads.length){
+                        String path = tests[i].getPath();
+                        if(!path.endsWith(".s")) continue;
+                        try {
+                            p.assemble(path);
+                            p.setup(null,"");
+                            if(p.simulate() != Simulator.Reason.NORMAL_TERMINATION || p.getExitCode() != 42){
+                                System.out.println("Error isolated on: " + path);
+                            }
+                        } catch (AssemblyException | SimulationException e) {
+                            System.out.println("Error isolated on: " + path);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not close an isolated program");
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads){
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                return;
+            }
         }
     }
 
@@ -0,0 +1,24 @@
+# Benchmark for the simulation loop: 5000000 iterations of a loop of integer operations, loads and
+# stores, about 45 million instructions in all.  Run it with benchmark.sh.
+.data
+buf: .space 4096
+.text
+main:
+	li t0, 0
+	li t1, 5000000
+	la t2, buf
+loop:
+	addi t0, t0, 1
+	andi t3, t0, 1023
+	slli t3, t3, 2
+	add t3, t2, t3
+	lw t4, 0(t3)
+	add t4, t4, t0
+	sw t4, 0(t3)
+	sb t0, 1(t3)
+	blt t0, t1, loop
+	mv a0, t4
+	li a7, 1
+	ecall
+	li a7, 10
+	ecall
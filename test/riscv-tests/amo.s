@@ -0,0 +1,119 @@
+.data
+ amo_operand: .word 0
+
+.text
+ main:
+
+
+  #-------------------------------------------------------------
+  # Atomic memory operation tests
+  #-------------------------------------------------------------
+
+  test_2:
+ li a0, 0x80000000
+ li a1, 0xfffff800
+ la a3, amo_operand
+ sw a0, 0(a3)
+ amoadd.w a4, a1, (a3)
+ li x29, 0x80000000
+ li gp, 2
+ bne a4, x29, fail
+
+  test_3:
+ lw a5, 0(a3)
+ li x29, 0x7ffff800
+ li gp, 3
+ bne a5, x29, fail
+
+  test_4:
+ li a1, 0x0000ffff
+ amoswap.w a4, a1, (a3)
+ li x29, 0x7ffff800
+ li gp, 4
+ bne a4, x29, fail
+ lw a5, 0(a3)
+ bne a5, a1, fail
+
+  test_5:
+ li a1, 0x00ff00ff
+ amoand.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0x000000ff
+ li gp, 5
+ bne a5, x29, fail
+
+  test_6:
+ li a1, 0xf0000000
+ amoor.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0xf00000ff
+ li gp, 6
+ bne a5, x29, fail
+
+  test_7:
+ li a1, 0xff0000ff
+ amoxor.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li x29, 0x0f000000
+ li gp, 7
+ bne a5, x29, fail
+
+  test_8:
+ li a1, 0xffffffff
+ amomin.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li gp, 8
+ bne a5, a1, fail
+
+  test_9:
+ li a1, 1
+ amomax.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li gp, 9
+ bne a5, a1, fail
+
+  test_10:
+ li a1, 0xffffffff
+ amomaxu.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li gp, 10
+ bne a5, a1, fail
+
+  test_11:
+ li a1, 5
+ amominu.w a4, a1, (a3)
+ lw a5, 0(a3)
+ li gp, 11
+ bne a5, a1, fail
+
+
+  #-------------------------------------------------------------
+  # Load reserved and store conditional tests
+  #-------------------------------------------------------------
+
+  test_12:
+ lr.w a4, (a3)
+ li a1, 7
+ sc.w a5, a1, (a3)
+ li gp, 12
+ bnez a5, fail
+ lw a5, 0(a3)
+ bne a5, a1, fail
+
+  test_13:
+ li a1, 9
+ sc.w a5, a1, (a3)
+ li gp, 13
+ beqz a5, fail
+ lw a5, 0(a3)
+ li x29, 7
+ bne a5, x29, fail
+
+  bne x0, gp, pass
+ fail: li a0, 0
+ li a7, 93
+ ecall
+
+ pass: li a0, 42
+ li a7, 93
+ ecall